@@ -23,45 +23,97 @@
 package com.asif.skritter.export;
 
 import com.cedarsoftware.util.io.JsonWriter;
-import org.apache.hc.client5.http.config.RequestConfig;
-import org.apache.hc.client5.http.cookie.StandardCookieSpec;
+import org.apache.hc.client5.http.classic.methods.HttpUriRequestBase;
 import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
-import org.apache.hc.client5.http.impl.classic.HttpClients;
 import org.apache.hc.core5.http.ClassicHttpRequest;
 import org.apache.hc.core5.http.ClassicHttpResponse;
-import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.Header;
 import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.HttpResponse;
 import org.apache.hc.core5.http.HttpStatus;
+import org.apache.hc.core5.http.Method;
 import org.apache.hc.core5.http.ParseException;
+import org.apache.hc.core5.http.io.HttpClientResponseHandler;
 import org.apache.hc.core5.http.io.entity.EntityUtils;
 import org.apache.hc.core5.http.io.support.ClassicRequestBuilder;
 import org.apache.hc.core5.http.message.StatusLine;
+import org.apache.hc.core5.io.CloseMode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 
 /**
  * Manage interactions with the Skritter API
  */
-public class ApiClient {
+public class ApiClient implements Closeable {
     private static final Logger LOGGER = LoggerFactory.getLogger(ApiClient.class);
-    private static final String BEARER_TOKEN_PROPERTY = "Bearer-Token";
-
-    private static final long BATCH_TIMEOUT_SECONDS_DEFAULT = 180;
-    private static long BATCH_TIMEOUT_SECONDS = BATCH_TIMEOUT_SECONDS_DEFAULT;
-    private static final long BATCH_STATUS_SLEEP_MILLISECONDS = 250;
+    static final String BEARER_TOKEN_PROPERTY = "Bearer-Token";
+    static final String VOCAB_FETCH_PARALLELISM_PROPERTY = "Vocab-Fetch-Parallelism";
+    static final String VOCAB_REQUESTS_PER_BATCH_PROPERTY = "Vocab-Requests-Per-Batch";
+    static final String ACCEPT_COMPRESSED_RESPONSES_PROPERTY = "Accept-Compressed-Responses";
+    static final String COMPRESS_REQUESTS_PROPERTY = "Compress-Requests";
+    static final String INCREMENTAL_BATCH_RESULTS_PROPERTY = "Incremental-Batch-Results";
+    static final String INCLUDE_VOCABS_WITH_ITEMS_PROPERTY = "Include-Vocabs-With-Items";
+    static final String ITEMS_PAGE_SIZE_PROPERTY = "Items-Page-Size";
+
+    static final String ENDPOINT_BASE_PROPERTY = "Endpoint-Base";
+    static final String BATCH_TIMEOUT_SECONDS_PROPERTY = "Batch-Timeout-Seconds";
+
+    static final long BATCH_TIMEOUT_SECONDS_DEFAULT = 180;
+    private static final int VOCAB_REQUESTS_PER_BATCH_DEFAULT = 1;
     private final String bearerToken;
-    private static CloseableHttpClient httpClient;
+    private final String endpointBase;
+    private final long batchTimeoutMillis;
+    private final CloseableHttpClient httpClient;
+    private final boolean ownsHttpClient;
+    private final HttpClientFactory.PoolSettings poolSettings;
+    private final Http2Transport http2Transport;
+    private final PollScheduler pollScheduler;
+    private final BatchPoller batchPoller;
+    private final RateLimiter rateLimiter;
+    private final RetryPolicy retryPolicy;
+    private final Hedger hedger;
+    private final ConcurrencyLimiter concurrencyLimiter;
+    private final ChunkSizer chunkSizer;
+    private final HttpCache httpCache;
+    // Concurrent identical requests share one call, with this client's or other clients'
+    private final Flights flights;
+    private final int vocabRequestsPerBatch;
+    private final int vocabChunkMaxSplits;
+    private ExecutorService vocabFetchExecutor;
+    private final boolean ownsVocabFetchExecutor;
+    private final boolean acceptCompressedResponses;
+    private final boolean compressRequests;
+    private final boolean incrementalBatchResults;
+    private final boolean includeVocabsWithItems;
+    private final int itemsPageSize;
+    private final ExportFilter exportFilter;
+    private final TrafficStats trafficStats = new TrafficStats();
+    private final WireCapture wireCapture;
 
     static final String ERROR_TIMED_OUT_WAITING = "Timed out waiting for ";
     static final String ERROR_MISSING_BEARER_TOKEN_PROPERTY =
@@ -72,323 +124,1367 @@ public class ApiClient {
      * @param properties Proprerties file containing the user's API access token.
      */
     ApiClient(final Properties properties) {
-        bearerToken = properties.getProperty(BEARER_TOKEN_PROPERTY);
-        auditAPIProperties();
+        this(builder().properties(properties));
     }
 
-    /**
-     * Constructor for unit test usage with mock.
-     */
-    ApiClient() {
-        bearerToken = "fake-token";
+    private ApiClient(final Builder builder) {
+        Properties properties = builder.properties;
+        bearerToken = (builder.bearerToken != null) ? builder.bearerToken
+                : properties.getProperty(BEARER_TOKEN_PROPERTY);
         auditAPIProperties();
+        endpointBase = (builder.endpointBase != null) ? builder.endpointBase : getEndpointBase(properties);
+        batchTimeoutMillis = TimeUnit.SECONDS.toMillis((builder.batchTimeoutSeconds != null)
+                ? builder.batchTimeoutSeconds
+                : ClientProperties.getLong(properties, BATCH_TIMEOUT_SECONDS_PROPERTY, BATCH_TIMEOUT_SECONDS_DEFAULT));
+        poolSettings = HttpClientFactory.PoolSettings.from(properties);
+        // A client handed to the builder may be shared with other ApiClients, so is left open
+        ownsHttpClient = (builder.httpClient == null);
+        httpClient = ownsHttpClient ? HttpClientFactory.build(poolSettings) : builder.httpClient;
+        http2Transport = Http2Transport.from(properties, httpClient);
+        concurrencyLimiter = (builder.concurrencyLimiter != null) ? builder.concurrencyLimiter
+                : ConcurrencyLimiter.from(properties);
+        chunkSizer = (builder.chunkSizer != null) ? builder.chunkSizer : ChunkSizer.from(properties);
+        httpCache = (builder.httpCache != null) ? builder.httpCache : HttpCache.from(properties);
+        wireCapture = (builder.wireCapture != null) ? builder.wireCapture : WireCapture.from(properties);
+        vocabRequestsPerBatch = (builder.vocabRequestsPerBatch != null) ? builder.vocabRequestsPerBatch
+                : ClientProperties.getInt(properties, VOCAB_REQUESTS_PER_BATCH_PROPERTY,
+                        VOCAB_REQUESTS_PER_BATCH_DEFAULT);
+        vocabChunkMaxSplits = (builder.vocabChunkMaxSplits != null) ? builder.vocabChunkMaxSplits
+                : ClientProperties.getInt(properties, ChunkSalvage.VOCAB_CHUNK_MAX_SPLITS_PROPERTY,
+                        ChunkSalvage.VOCAB_CHUNK_MAX_SPLITS_DEFAULT);
+        vocabFetchExecutor = builder.vocabFetchExecutor;
+        ownsVocabFetchExecutor = (builder.vocabFetchExecutor == null);
+        pollScheduler = (builder.pollScheduler != null) ? builder.pollScheduler : PollScheduler.from(properties);
+        batchPoller = new BatchPoller(this::getBatchStatus, pollScheduler, () -> batchTimeoutMillis,
+                task -> getVocabFetchExecutor().execute(task));
+        rateLimiter = (builder.rateLimiter != null) ? builder.rateLimiter : RateLimiter.from(properties);
+        retryPolicy = (builder.retryPolicy != null) ? builder.retryPolicy : RetryPolicy.from(properties);
+        hedger = (builder.hedger != null) ? builder.hedger : Hedger.from(properties);
+        acceptCompressedResponses = (builder.acceptCompressedResponses != null) ? builder.acceptCompressedResponses
+                : ClientProperties.getBoolean(properties, ACCEPT_COMPRESSED_RESPONSES_PROPERTY, true);
+        compressRequests = (builder.compressRequests != null) ? builder.compressRequests
+                : ClientProperties.getBoolean(properties, COMPRESS_REQUESTS_PROPERTY, false);
+        incrementalBatchResults = (builder.incrementalBatchResults != null) ? builder.incrementalBatchResults
+                : ClientProperties.getBoolean(properties, INCREMENTAL_BATCH_RESULTS_PROPERTY, false);
+        includeVocabsWithItems = (builder.includeVocabsWithItems != null) ? builder.includeVocabsWithItems
+                : ClientProperties.getBoolean(properties, INCLUDE_VOCABS_WITH_ITEMS_PROPERTY, false);
+        itemsPageSize = (builder.itemsPageSize != null) ? builder.itemsPageSize
+                : ClientProperties.getInt(properties, ITEMS_PAGE_SIZE_PROPERTY, 0);
+        exportFilter = (builder.exportFilter != null) ? builder.exportFilter : ExportFilter.from(properties);
+        flights = (builder.flights != null) ? builder.flights : Flights.PROCESS;
+    }
+
+    static Builder builder() {
+        return new Builder();
     }
 
     /**
-     * Accessor to unit tests to insert mock http client.
-     * @param httpClient
+     * Configuration for an {@link ApiClient}, which is fixed once it is built.  Anything
+     * not set here is read from the properties, or takes its default, so each client
+     * carries its own state and many can run side by side.  Clients built with the same
+     * {@link #httpClient(CloseableHttpClient)} share its connection pool; that client is
+     * not closed by them.
      */
-    static void setHttpClient(CloseableHttpClient httpClient) {
-        ApiClient.httpClient = httpClient;
+    static class Builder {
+        private Properties properties = new Properties();
+        private String bearerToken;
+        private String endpointBase;
+        private Long batchTimeoutSeconds;
+        private CloseableHttpClient httpClient;
+        private PollScheduler pollScheduler;
+        private RateLimiter rateLimiter;
+        private RetryPolicy retryPolicy;
+        private Hedger hedger;
+        private ConcurrencyLimiter concurrencyLimiter;
+        private ChunkSizer chunkSizer;
+        private HttpCache httpCache;
+        private WireCapture wireCapture;
+        private Integer vocabRequestsPerBatch;
+        private Integer vocabChunkMaxSplits;
+        private ExecutorService vocabFetchExecutor;
+        private Boolean acceptCompressedResponses;
+        private Boolean compressRequests;
+        private Boolean incrementalBatchResults;
+        private Boolean includeVocabsWithItems;
+        private Integer itemsPageSize;
+        private ExportFilter exportFilter;
+        private Flights flights;
+
+        private Builder() {
+        }
+
+        Builder properties(Properties properties) {
+            this.properties = properties;
+            return this;
+        }
+
+        Builder bearerToken(String bearerToken) {
+            this.bearerToken = bearerToken;
+            return this;
+        }
+
+        /**
+         * @param endpointBase e.g. {@link Constants#ENDPOINT_BASE}, which the batch and map endpoints are under.
+         */
+        Builder endpointBase(String endpointBase) {
+            this.endpointBase = endpointBase;
+            return this;
+        }
+
+        Builder batchTimeoutSeconds(long batchTimeoutSeconds) {
+            this.batchTimeoutSeconds = batchTimeoutSeconds;
+            return this;
+        }
+
+        /**
+         * Send requests on the given client, e.g. one shared by several ApiClients,
+         * rather than a pool of this client's own.  The client is not closed by {@link #close()}.
+         */
+        Builder httpClient(CloseableHttpClient httpClient) {
+            this.httpClient = httpClient;
+            return this;
+        }
+
+        Builder pollScheduler(PollScheduler pollScheduler) {
+            this.pollScheduler = pollScheduler;
+            return this;
+        }
+
+        Builder rateLimiter(RateLimiter rateLimiter) {
+            this.rateLimiter = rateLimiter;
+            return this;
+        }
+
+        Builder retryPolicy(RetryPolicy retryPolicy) {
+            this.retryPolicy = retryPolicy;
+            return this;
+        }
+
+        Builder hedger(Hedger hedger) {
+            this.hedger = hedger;
+            return this;
+        }
+
+        Builder concurrencyLimiter(ConcurrencyLimiter concurrencyLimiter) {
+            this.concurrencyLimiter = concurrencyLimiter;
+            return this;
+        }
+
+        Builder vocabFetchParallelism(int parallelism) {
+            return concurrencyLimiter(ConcurrencyLimiter.fixed(parallelism));
+        }
+
+        Builder chunkSizer(ChunkSizer chunkSizer) {
+            this.chunkSizer = chunkSizer;
+            return this;
+        }
+
+        Builder vocabRequestsPerBatch(int vocabRequestsPerBatch) {
+            this.vocabRequestsPerBatch = vocabRequestsPerBatch;
+            return this;
+        }
+
+        Builder vocabChunkMaxSplits(int vocabChunkMaxSplits) {
+            this.vocabChunkMaxSplits = vocabChunkMaxSplits;
+            return this;
+        }
+
+        /**
+         * Run concurrent vocab fetches on the caller's executor rather than one owned
+         * by the client.  The executor is not shut down by {@link #close()}.  Batch polls
+         * run on it too, alongside the fetches waiting on them, so it must not be bounded.
+         */
+        Builder vocabFetchExecutor(ExecutorService vocabFetchExecutor) {
+            this.vocabFetchExecutor = vocabFetchExecutor;
+            return this;
+        }
+
+        Builder acceptCompressedResponses(boolean acceptCompressedResponses) {
+            this.acceptCompressedResponses = acceptCompressedResponses;
+            return this;
+        }
+
+        Builder compressRequests(boolean compressRequests) {
+            this.compressRequests = compressRequests;
+            return this;
+        }
+
+        Builder incrementalBatchResults(boolean incrementalBatchResults) {
+            this.incrementalBatchResults = incrementalBatchResults;
+            return this;
+        }
+
+        Builder includeVocabsWithItems(boolean includeVocabsWithItems) {
+            this.includeVocabsWithItems = includeVocabsWithItems;
+            return this;
+        }
+
+        Builder itemsPageSize(int itemsPageSize) {
+            this.itemsPageSize = itemsPageSize;
+            return this;
+        }
+
+        Builder exportFilter(ExportFilter exportFilter) {
+            this.exportFilter = exportFilter;
+            return this;
+        }
+
+        /**
+         * Share in-flight requests with the clients given the same Flights, rather than
+         * with every client in the process.
+         */
+        Builder flights(Flights flights) {
+            this.flights = flights;
+            return this;
+        }
+
+        Builder httpCache(HttpCache httpCache) {
+            this.httpCache = httpCache;
+            return this;
+        }
+
+        Builder wireCapture(WireCapture wireCapture) {
+            this.wireCapture = wireCapture;
+            return this;
+        }
+
+        ApiClient build() {
+            return new ApiClient(this);
+        }
     }
 
     void removeBannedVocabIds(Map<String, Vocab> bannedVocabIds, Set<String> vocabIds) {
+        removeBannedVocabIds(bannedVocabIds.keySet(), vocabIds);
+    }
 
-        for (String id : bannedVocabIds.keySet()) {
-            LOGGER.debug("Removing banned vocab {}", id);
-            vocabIds.remove(id);
-        }
+    /**
+     * Remove the banned ids from the vocab ids.  With both hashed, this walks
+     * whichever set is smaller and looks each id up in the other.
+     */
+    void removeBannedVocabIds(Set<String> bannedVocabIds, Set<String> vocabIds) {
+        int size = vocabIds.size();
+        vocabIds.removeAll(bannedVocabIds);
+        LOGGER.debug("Removed {} banned vocab ids", size - vocabIds.size());
     }
 
-    BatchResponse postBatchRequest(String path, Params params) throws IOException, URISyntaxException {
+    BatchResponse postBatchRequest(String path, Params params, Deadline deadline)
+            throws IOException, URISyntaxException {
 
         LOGGER.info("Posting batch request to {}", path);
 
-        try (final CloseableHttpClient httpclient = build()) {
+        return postBatchRequest(List.of(newRequest(path, params)), deadline);
+    }
+
+    /**
+     * Post several requests as a single batch.  The returned batch lists the
+     * top-level requests, whose responses come back from its sub-requests.
+     */
+    BatchResponse postBatchRequest(List<Request> requests, Deadline deadline) throws IOException, URISyntaxException {
 
-            Request request = new Request();
-            request.path = path;
-            request.method = Constants.SKRITTER_GET_METHOD;
-            request.params = params;
-            request.spawner = Boolean.TRUE;
+        LOGGER.debug("Posting batch of {} requests", requests.size());
 
-            // put batch request
+        // put batch request
 
-            Request[] requests = { request };
-            String json = JsonWriter.objectToJson(requests, Map.of(JsonWriter.TYPE, false));
+        String json = toBatchRequestJson(requests);
 
-            final ClassicHttpRequest httpPut = ClassicRequestBuilder.post(Constants.BATCH_ENDPOINT)
-                    .addHeader(HttpHeaders.AUTHORIZATION,  getAuthorizationHeaderValue())
-                    .setEntity(json, ContentType.APPLICATION_JSON)
-                    .build();
+        TrafficStats.Exchange exchange = trafficStats.begin("POST " + getBatchEndpoint());
 
-            LOGGER.debug("{} to {}", httpPut.getMethod(), httpPut.getUri());
+        final ClassicHttpRequest httpPut = ClassicRequestBuilder.post(getBatchEndpoint())
+                .addHeader(HttpHeaders.AUTHORIZATION,  getAuthorizationHeaderValue())
+                .setEntity(Compression.requestEntity(json, compressRequests, exchange))
+                .build();
 
-            final Result result = httpclient.execute(httpPut, response -> {
-                LOGGER.debug("REQUEST -> {}", httpPut);
-                LOGGER.debug("RESPONSE -> {}", new StatusLine(response));
-                // Process response message and convert it into a value object
-                return new Result(response);
-            });
+        final Result result = execute(httpPut, exchange, deadline);
 
-            if (result.status != HttpStatus.SC_OK) {
-                throw new SkritterException("POST batch request failed. " + result);
-            }
+        if (result.status != HttpStatus.SC_OK) {
+            throw new HttpFailureException("POST batch request failed. " + result, result.status);
+        }
 
+        if (LOGGER.isDebugEnabled()) {
             LOGGER.debug("RESPONSE DATA -> {}", JsonWriter.formatJson(result.content));
-
-            return Parser.parseBatchResponse(result.content);
         }
+
+        return Parser.parseBatchResponse(result.content);
+    }
+
+    /**
+     * Body of a batch POST: a spawning GET of the path with the given params.
+     */
+    static String toBatchRequestJson(String path, Params params) {
+        return toBatchRequestJson(List.of(newRequest(path, params)));
+    }
+
+    static String toBatchRequestJson(List<Request> requests) {
+        return JsonWriter.objectToJson(requests.toArray(new Request[0]), Map.of(JsonWriter.TYPE, false));
+    }
+
+    static Request newRequest(String path, Params params) {
+        Request request = new Request();
+        request.path = path;
+        request.method = Constants.SKRITTER_GET_METHOD;
+        request.params = params;
+        request.spawner = Boolean.TRUE;
+        return request;
     }
 
     List<Vocab> getVocabs(Set<String> vocabIds) throws IOException, URISyntaxException {
+        return getVocabs(vocabIds, Deadline.none()).vocabs();
+    }
+
+    /**
+     * Vocabs fetched by {@link #getVocabs(Set, Deadline)}, and the ids that could not
+     * be fetched even on their own, each with why.
+     */
+    record FetchedVocabs(List<Vocab> vocabs, Map<String, String> unrecoverableIds) {
+    }
+
+    /**
+     * Fetch the vocabs in chunks.  A chunk that fails is retried in halves, so the
+     * chunks that succeed are kept, and only ids that fail alone are left out.
+     * @throws IOException Or another failure, if no chunk could be fetched at all.
+     */
+    FetchedVocabs getVocabs(Set<String> vocabIds, Deadline deadline) throws IOException, URISyntaxException {
 
         LOGGER.info("Getting Vocabs for {} ids", vocabIds.size());
 
-        List<Vocab> vocabs = new ArrayList<>();
         List<String> vocabIdList = new ArrayList<>(vocabIds);
+        return getVocabs(new VocabIdSource() {
+            private int start;
+
+            @Override
+            public List<String> next(int max) {
+                int end = Math.min(start + max, vocabIdList.size());
+                LOGGER.debug("Get vocab entries {} through {}", start, end);
+                List<String> chunk = vocabIdList.subList(start, end);
+                start = end;
+                return chunk;
+            }
+        }, deadline);
+    }
+
+    /**
+     * Where {@link #getVocabs(VocabIdSource, Deadline)} takes its ids from, a chunk at a time.
+     */
+    interface VocabIdSource {
+        /**
+         * @return Up to max ids, fewer only once the ids run out, and none after that.
+         * May wait for ids still being fetched.
+         */
+        List<String> next(int max);
+    }
+
+    /**
+     * Fetch the vocabs in chunks as their ids become available, e.g. while later item
+     * ids are still being fetched.
+     */
+    FetchedVocabs getVocabs(VocabIdSource vocabIds, Deadline deadline) throws IOException, URISyntaxException {
+
+        // Shared by all chunks, so a vocab is only kept once however it is fetched
+        Map<String, Vocab> vocabsMap = new ConcurrentHashMap<>();
+        ChunkSalvage salvage = new ChunkSalvage(vocabChunkMaxSplits);
+
+        // Each chunk is cut when it is about to be sent, at the size the chunk
+        // sizer has arrived at from the chunks finished so far
+        runBatchTasks(new Iterator<>() {
+            private List<String> chunk;
 
-        // Split into 100 vocab entries per batch request
+            @Override
+            public boolean hasNext() {
+                if (chunk == null) {
+                    chunk = vocabIds.next(chunkSizer.getChunkSize());
+                }
+                return !chunk.isEmpty();
+            }
+
+            @Override
+            public BatchTask next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                List<String> ids = chunk;
+                chunk = null;
+                return batchDeadline -> salvage.fetch(ids,
+                        chunkIds -> doGetVocabs(chunkIds, vocabsMap, batchDeadline), batchDeadline);
+            }
+        }, deadline);
+
+        salvage.checkSalvaged();
+        if (!salvage.getUnrecoverableIds().isEmpty()) {
+            LOGGER.warn("Vocab chunks: {}", salvage);
+        }
+        return new FetchedVocabs(new ArrayList<>(vocabsMap.values()), salvage.getUnrecoverableIds());
+    }
+
+    /**
+     * Vocabs, and the banned vocabs, fetched together by {@link #getVocabsAndBannedVocabs(Set)}.
+     */
+    record PackedVocabs(List<Vocab> vocabs, Map<String, Vocab> bannedVocabs) {
+    }
+
+    /**
+     * Fetch vocabs with vocabRequestsPerBatch 100-id requests packed into each batch
+     * POST, and the banned vocabs request packed into the first of them.  Each batch
+     * is polled and downloaded once, and its results split by request id.
+     */
+    PackedVocabs getVocabsAndBannedVocabs(Set<String> vocabIds) throws IOException, URISyntaxException {
+        return getVocabsAndBannedVocabs(vocabIds, Deadline.none());
+    }
+
+    PackedVocabs getVocabsAndBannedVocabs(Set<String> vocabIds, Deadline deadline)
+            throws IOException, URISyntaxException {
+
+        List<List<String>> chunks = splitVocabIds(vocabIds, chunkSizer.getChunkSize());
+        int groupSize = Math.max(1, vocabRequestsPerBatch);
+
+        LOGGER.info("Getting Vocabs for {} ids and banned vocabs, {} requests per batch",
+                vocabIds.size(), groupSize);
+
+        Map<String, Vocab> vocabsMap = new ConcurrentHashMap<>();
+        Map<String, Vocab> bannedVocabsMap = new ConcurrentHashMap<>();
+
+        List<BatchTask> tasks = new ArrayList<>();
+        int start = 0;
+        do {
+            List<List<String>> group = chunks.subList(start, Math.min(start + groupSize, chunks.size()));
+            boolean includeBanned = (start == 0);
+            tasks.add(batchDeadline ->
+                    doGetPackedVocabs(group, includeBanned, vocabsMap, bannedVocabsMap, batchDeadline));
+            start += groupSize;
+        } while (start < chunks.size());
+
+        runBatchTasks(tasks.iterator(), deadline);
+
+        return new PackedVocabs(new ArrayList<>(vocabsMap.values()), bannedVocabsMap);
+    }
+
+    boolean isVocabBatchPackingEnabled() {
+        return vocabRequestsPerBatch > 1;
+    }
+
+    /**
+     * @return True if vocabs come embedded in the items batch, rather than from
+     * a separate vocab fetch.
+     */
+    boolean isIncludeVocabsWithItems() {
+        return includeVocabsWithItems;
+    }
+
+    /**
+     * @return The item ids per page when they are fetched a page at a time, with the
+     * vocab fetch starting on the first pages, or 0 to fetch them all in one batch.
+     */
+    int getItemsPageSize() {
+        return itemsPageSize;
+    }
+
+    ExportFilter getExportFilter() {
+        return exportFilter;
+    }
+
+    /**
+     * Split into chunkSize vocab entries per batch request
+     */
+    private static List<List<String>> splitVocabIds(Set<String> vocabIds, int chunkSize) {
+
+        List<String> vocabIdList = new ArrayList<>(vocabIds);
+        List<List<String>> chunks = new ArrayList<>();
 
-        final int batchLimit = 100;
         int start = 0;
         int end;
 
         while (start < vocabIds.size()) {
-            end = Math.min(start + batchLimit, vocabIds.size());
-            List<String> batchVocabList = vocabIdList.subList(start, end);
+            end = Math.min(start + chunkSize, vocabIds.size());
             LOGGER.debug("Get vocab entries {} through {}", start, end);
-            vocabs.addAll(doGetVocabs(batchVocabList));
+            chunks.add(vocabIdList.subList(start, end));
             start = end;
         }
 
-        return vocabs;
+        return chunks;
     }
 
-    private List<Vocab> doGetVocabs(List<String> vocabIds) throws IOException, URISyntaxException {
-
-        VocabsParams vocabsParams = new VocabsParams();
-        vocabsParams.fields = String.join(",",
-                Constants.SKRITTER_ID_FIELD,
-                Constants.SKRITTER_STYLE_FIELD,
-                Constants.SKRITTER_READING_FIELD,
-                Constants.SKRITTER_WRITING_FIELD,
-                Constants.SKRITTER_DEFINITIONS_FIELD,
-                Constants.SKRITTER_CUSTOM_DEFINITION_FIELD);
-
-        vocabsParams.ids = String.join("|", vocabIds);
+    /**
+     * A unit of work that posts, waits for and processes a batch.
+     */
+    interface BatchTask {
+        void run(Deadline deadline) throws IOException, URISyntaxException;
+    }
 
-        BatchResponse batchResponse =
-                postBatchRequest(Constants.SKRITTER_VOCABS_PATH, vocabsParams);
+    /**
+     * Run one batch within the concurrency limit, so its latency is learnt from.
+     */
+    void runBatch(BatchTask task, Deadline deadline) throws IOException, URISyntaxException {
+        deadline.check("starting a batch");
+        ConcurrencyLimiter.Permit permit;
+        try {
+            permit = concurrencyLimiter.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SkritterException("Interrupted while waiting to start a batch");
+        }
+        runPermitted(task, permit, deadline);
+    }
 
-        waitForBatchCompletion(batchResponse);
+    private static void runPermitted(BatchTask task, ConcurrencyLimiter.Permit permit, Deadline deadline)
+            throws IOException, URISyntaxException {
+        boolean completed = false;
+        try {
+            task.run(deadline);
+            completed = true;
+        } finally {
+            if (completed) {
+                permit.complete();
+            } else {
+                permit.release();
+            }
+        }
+    }
 
-        // get responses
+    /**
+     * Run the tasks one after another, or with as many in flight at once as the
+     * concurrency limiter allows.  Each task is taken from the iterator once it
+     * can start.  The first failure stops further tasks being started, cancels
+     * those in flight, aborting their HTTP exchanges, and is rethrown.
+     */
+    private void runBatchTasks(Iterator<BatchTask> tasks, Deadline deadline) throws IOException, URISyntaxException {
 
-        Set<String> requestIds = new HashSet<>();
-        HashMap<String, Vocab> vocabsMap = new HashMap<>();
+        if (concurrencyLimiter.getMaxLimit() <= 1) {
+            while (tasks.hasNext()) {
+                runBatch(tasks.next(), deadline);
+            }
+            return;
+        }
 
-        for (BatchRequest batchRequest : getBatchData(batchResponse.id)) {
+        LOGGER.info("Fetching vocab batches, up to {} at a time", concurrencyLimiter.getMaxLimit());
 
-            if (batchRequest.response != null) {
-                LOGGER.info("Processing response to batchRequest {}, params {}",
-                        batchRequest.id, batchRequest.paramsToString());
+        ExecutorService executor = getVocabFetchExecutor();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Future<?>> futures = new ArrayList<>();
+        // Cancelled on failure, so the other tasks stop without waiting for their responses
+        Deadline tasksDeadline = deadline.child();
+        boolean completed = false;
 
-                // Check if we have already seen this one
-                if (! requestIds.add(batchRequest.id)) {
-                    LOGGER.warn("Skipping processing of batch request {}," +
-                            "already seen", batchRequest.id);
-                    continue;
+        try {
+            while (tasks.hasNext()) {
+                deadline.check("starting a batch");
+                ConcurrencyLimiter.Permit permit = concurrencyLimiter.acquire();
+                if (failure.get() != null) {
+                    permit.release();
+                    break;
                 }
-                
-                Map<String, Object> vocabsResponseMap = batchRequest.response;
-
-                Object[] vocabsArray = (Object[])vocabsResponseMap.get(
-                        Constants.SKRITTER_VOCABS_ARRAY_NAME);
-                LOGGER.debug("Got {} vocab responses", vocabsArray.length);
-                for (Object vocabObj : vocabsArray) {
-                    @SuppressWarnings("unchecked")
-                    Vocab vocab = Vocab.Builder.build((Map<String, Object>) vocabObj);
-
-                    if (vocabsMap.containsKey(vocab.id)) {
-                        LOGGER.warn("Skipping duplicate vocab: {}", vocab);
-                    } else {
-                        LOGGER.debug("adding vocab {}", vocab);
-                        vocabsMap.put(vocab.id, vocab);
+                BatchTask task = tasks.next();
+                futures.add(executor.submit(() -> {
+                    try {
+                        runPermitted(task, permit, tasksDeadline);
+                    } catch (Exception e) {
+                        failure.compareAndSet(null, e);
+                        throw e;
                     }
-                }
+                    return null;
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            completed = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SkritterException("Interrupted while fetching vocabs");
+        } catch (ExecutionException e) {
+            throw unwrap(e, "Failed fetching vocabs");
+        } finally {
+            if (!completed) {
+                tasksDeadline.cancel();
             }
+            futures.forEach(future -> future.cancel(true));
         }
+    }
 
-        return vocabsMap.values().stream().toList();
+    /**
+     * Wait for work started in the background, e.g. by {@link #fetchBannedVocabIds(Deadline)}.
+     */
+    <T> T await(Future<T> future, String what) throws IOException, URISyntaxException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SkritterException("Interrupted while waiting for " + what);
+        } catch (ExecutionException e) {
+            throw unwrap(e, "Failed " + what);
+        }
     }
 
-    Map<String, Vocab> getBannedVocabs() throws IOException, URISyntaxException {
+    /**
+     * @return The failure of a background task, for rethrowing as it would have been thrown in the caller.
+     */
+    private static RuntimeException unwrap(ExecutionException e, String message)
+            throws IOException, URISyntaxException {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException ioException) {
+            throw ioException;
+        } else if (cause instanceof URISyntaxException uriSyntaxException) {
+            throw uriSyntaxException;
+        } else if (cause instanceof RuntimeException runtimeException) {
+            return runtimeException;
+        }
+        return new SkritterException(message, e);
+    }
 
-        LOGGER.info("Getting banned vocabs");
+    private synchronized ExecutorService getVocabFetchExecutor() {
+        if (vocabFetchExecutor == null) {
+            vocabFetchExecutor = ThreadPools.newTaskExecutor("vocab-fetch");
+        }
+        return vocabFetchExecutor;
+    }
+
+    ConcurrencyLimiter getConcurrencyLimiter() {
+        return concurrencyLimiter;
+    }
+
+    ChunkSizer getChunkSizer() {
+        return chunkSizer;
+    }
+
+    SingleFlight<FlightKey, SimpleTradMap> getSimpleTradMapFlights() {
+        return flights.simpleTradMaps;
+    }
+
+    SingleFlight<FlightKey, Vocab> getVocabsFlights() {
+        return flights.vocabs;
+    }
+
+    private FlightKey newFlightKey(String request, String id) {
+        return new FlightKey(endpointBase, bearerToken, request, id);
+    }
+
+    private void doGetVocabs(List<String> vocabIds, Map<String, Vocab> vocabsMap, Deadline deadline)
+            throws IOException, URISyntaxException {
+
+        // Ids already being fetched for another caller, in any chunk, are shared, not refetched
+        String request = exportFilter.getVocabProjection(FieldProjection.EXPORTED_VOCAB).toParameter()
+                + " " + exportFilter;
+        List<FlightKey> keys = vocabIds.stream().map(id -> newFlightKey(request, id)).toList();
+        Map<FlightKey, Vocab> chunkVocabs = flights.vocabs.executeAll(keys, fetchKeys -> {
+            List<String> fetchIds = fetchKeys.stream().map(FlightKey::id).toList();
+            Map<FlightKey, Vocab> fetched = new HashMap<>();
+            fetchVocabs(fetchIds, newVocabsParams(fetchIds), deadline)
+                    .forEach((id, vocab) -> fetched.put(newFlightKey(request, id), vocab));
+            return fetched;
+        }, deadline);
+
+        for (Vocab vocab : chunkVocabs.values()) {
+            if (vocabsMap.putIfAbsent(vocab.id, vocab) != null) {
+                LOGGER.warn("Skipping duplicate vocab: {}", vocab);
+            }
+        }
+    }
+
+    private Map<String, Vocab> fetchVocabs(List<String> vocabIds, VocabsParams vocabsParams, Deadline deadline)
+            throws IOException, URISyntaxException {
+
+        Map<String, Vocab> vocabsMap = new ConcurrentHashMap<>();
+        long startNanos = System.nanoTime();
+        boolean completed = false;
+
+        try {
+            BatchResponse batchResponse =
+                    postBatchRequest(Constants.SKRITTER_VOCABS_PATH, vocabsParams, deadline);
+
+            // get responses, building each vocab as it is parsed
+
+            List<BatchRequest> batchRequests =
+                    getBatchResults(batchResponse, new VocabsHandler(batchRequest -> vocabsMap,
+                            exportFilter.getVocabProjection(FieldProjection.EXPORTED_VOCAB), exportFilter), deadline);
+
+            chunkSizer.completed(vocabIds.size(), batchRequests,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+            completed = true;
+        } finally {
+            if (!completed) {
+                chunkSizer.failed(vocabIds.size());
+            }
+        }
+        return vocabsMap;
+    }
+
+    private void doGetPackedVocabs(List<List<String>> chunks, boolean includeBanned,
+                                   Map<String, Vocab> vocabsMap, Map<String, Vocab> bannedVocabsMap,
+                                   Deadline deadline) throws IOException, URISyntaxException {
+
+        List<Request> requests = new ArrayList<>();
+        for (List<String> chunk : chunks) {
+            requests.add(newRequest(Constants.SKRITTER_VOCABS_PATH, newVocabsParams(chunk)));
+        }
+        if (includeBanned) {
+            requests.add(newRequest(Constants.SKRITTER_VOCABS_PATH, newBannedVocabsParams()));
+        }
+
+        BatchResponse batchResponse = postBatchRequest(requests, deadline);
+
+        // Sub-requests carry their top-level request's params, so the banned
+        // results are told apart from the vocab results by their sort param
+        getBatchResults(batchResponse, new VocabsHandler(batchRequest ->
+                isBannedVocabsRequest(batchRequest) ? bannedVocabsMap : vocabsMap,
+                exportFilter.getVocabProjection(FieldProjection.EXPORTED_VOCAB).union(FieldProjection.BANNED_VOCAB),
+                exportFilter), deadline);
+    }
+
+    private static boolean isBannedVocabsRequest(BatchRequest batchRequest) {
+        return batchRequest.params != null && Constants.SKRITTER_VOCAB_SORT_BANNED_PARAMETER.equals(
+                batchRequest.params.get(Constants.SKRITTER_SORT_PARAMETER));
+    }
+
+    /**
+     * Builds a vocab from each streamed vocab record, into the map chosen for its request.
+     * Records the export filter rejects are dropped before a vocab is built; banned vocabs
+     * are never filtered, as they are all to be left out.
+     */
+    private static class VocabsHandler implements Parser.BatchElementHandler {
+
+        private final Set<String> requestIds = new HashSet<>();
+        private final Function<BatchRequest, Map<String, Vocab>> vocabsMapChooser;
+        private final FieldProjection projection;
+        private final ExportFilter exportFilter;
+
+        VocabsHandler(Function<BatchRequest, Map<String, Vocab>> vocabsMapChooser, FieldProjection projection,
+                      ExportFilter exportFilter) {
+            this.vocabsMapChooser = vocabsMapChooser;
+            this.projection = projection;
+            // Without a vocab condition there is nothing to check for each vocab
+            this.exportFilter = (exportFilter != null && exportFilter.filtersVocabs()) ? exportFilter : null;
+        }
+
+        @Override
+        public boolean accept(BatchRequest batchRequest) {
+            LOGGER.info("Processing response to batchRequest {}, params {}",
+                    batchRequest.id, batchRequest.paramsToString());
+
+            // Check if we have already seen this one
+            if (! requestIds.add(batchRequest.id)) {
+                LOGGER.warn("Skipping processing of batch request {}," +
+                        "already seen", batchRequest.id);
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public FieldProjection projection(BatchRequest batchRequest, String arrayName) {
+            return projection;
+        }
+
+        @Override
+        public void element(BatchRequest batchRequest, String arrayName, Map<String, Object> element) {
+            if (!Constants.SKRITTER_VOCABS_ARRAY_NAME.equals(arrayName)) {
+                return;
+            }
+            if (exportFilter != null && !isBannedVocabsRequest(batchRequest) && !exportFilter.acceptsVocab(element)) {
+                LOGGER.debug("Filtered out vocab {}", element.get(Constants.SKRITTER_ID_FIELD));
+                return;
+            }
+
+            Vocab vocab = Vocab.Builder.build(element);
+
+            if (vocabsMapChooser.apply(batchRequest).putIfAbsent(vocab.id, vocab) != null) {
+                LOGGER.warn("Skipping duplicate vocab: {}", vocab);
+            } else {
+                LOGGER.debug("adding vocab {}", vocab);
+            }
+        }
+    }
+
+    private VocabsParams newVocabsParams(List<String> vocabIds) {
+        VocabsParams vocabsParams = new VocabsParams();
+        vocabsParams.fields = exportFilter.getVocabProjection(FieldProjection.EXPORTED_VOCAB).toParameter();
+
+        vocabsParams.ids = String.join("|", vocabIds);
+        return vocabsParams;
+    }
+
+    private static BannedVocabsParams newBannedVocabsParams() {
+        return newBannedVocabsParams(FieldProjection.BANNED_VOCAB);
+    }
+
+    private static BannedVocabsParams newBannedVocabsParams(FieldProjection projection) {
         BannedVocabsParams bannedVocabsParams = new BannedVocabsParams();
         bannedVocabsParams.sort = Constants.SKRITTER_VOCAB_SORT_BANNED_PARAMETER;
+        bannedVocabsParams.fields = projection.toParameter();
+        return bannedVocabsParams;
+    }
 
-        BatchResponse batchResponse = postBatchRequest(
-                Constants.SKRITTER_VOCABS_PATH, bannedVocabsParams);
+    Map<String, Vocab> getBannedVocabs() throws IOException, URISyntaxException {
+        return getBannedVocabs(Deadline.none());
+    }
 
-        waitForBatchCompletion(batchResponse);
+    Map<String, Vocab> getBannedVocabs(Deadline deadline) throws IOException, URISyntaxException {
+
+        LOGGER.info("Getting banned vocabs");
 
         // get responses
         Map<String, Vocab> vocabs = new HashMap<>();
 
-        for (BatchRequest batchRequest : getBatchData(batchResponse.id)) {
-            if (batchRequest.response != null) {
-                Map<String, Object> vocabsResponseMap = batchRequest.response;
-
-                Object[] vocabsArray = (Object[]) vocabsResponseMap.get(
-                        Constants.SKRITTER_VOCABS_ARRAY_NAME);
-                for (Object vocabObj : vocabsArray) {
-                    @SuppressWarnings("unchecked")
-                    Vocab vocab = Vocab.Builder.build((Map<String, Object>) vocabObj);
-                    assert ! vocabs.containsKey(vocab.id) : "Duplicate banned vocab id: " + vocab.id;
-                    vocabs.put(vocab.id, vocab);
-                }
-            }
-        }
+        runBatch(batchDeadline -> {
+            BatchResponse batchResponse = postBatchRequest(
+                    Constants.SKRITTER_VOCABS_PATH, newBannedVocabsParams(), batchDeadline);
+
+            getBatchResults(batchResponse, new VocabsHandler(batchRequest -> vocabs,
+                    FieldProjection.BANNED_VOCAB, null), batchDeadline);
+        }, deadline);
+
         return vocabs;
     }
 
-    SimpleTradMap getSimpleTraditionalMap() throws IOException, URISyntaxException {
-        LOGGER.info("Getting SimpTrad map");
-        String json = getNonPaginatedData(Constants.SIMPLE_TRAD_MAP_ENDPOINT);
-        return Parser.parseSimpleTradMap(json);
+    /**
+     * Start fetching the banned vocab ids in the background, e.g. while the items are
+     * fetched.  Cancelling the deadline stops the fetch.
+     * @see #await(Future, String)
+     */
+    Future<Set<String>> fetchBannedVocabIds(Deadline deadline) {
+        return runInBackground(() -> getBannedVocabIds(deadline));
+    }
+
+    /**
+     * Run blocking API work on the client's task executor, e.g. fetching one stage of the
+     * export while another consumes it.
+     * @see #await(Future, String)
+     */
+    <T> Future<T> runInBackground(Callable<T> task) {
+        return getVocabFetchExecutor().submit(task);
     }
 
-    void waitForBatchCompletion(BatchResponse batchResponse) throws IOException, URISyntaxException {
+    /**
+     * Fetch just the ids of the banned vocabs.  Only the id field is requested and
+     * parsed, and no Vocab is built, as the ids are only taken away from the vocab ids.
+     */
+    Set<String> getBannedVocabIds(Deadline deadline) throws IOException, URISyntaxException {
 
-        StringBuilder spawnedRequestIds = new StringBuilder();
+        LOGGER.info("Getting banned vocab ids");
 
-        for (BatchRequest request : batchResponse.requests) {
-            spawnedRequestIds.append((spawnedRequestIds.isEmpty()) ? "" : ",");
-            spawnedRequestIds.append(request.id);
-        }
+        Set<String> ids = new HashSet<>();
+
+        runBatch(batchDeadline -> {
+            BatchResponse batchResponse = postBatchRequest(Constants.SKRITTER_VOCABS_PATH,
+                    newBannedVocabsParams(FieldProjection.VOCAB_ID), batchDeadline);
 
-        LOGGER.info("Polling for batch completion");
+            getBatchResults(batchResponse, new Parser.BatchElementHandler() {
+                @Override
+                public FieldProjection projection(BatchRequest batchRequest, String arrayName) {
+                    return FieldProjection.VOCAB_ID;
+                }
 
-        BatchResponse statusResponse = getBatchStatus(batchResponse.id, spawnedRequestIds.toString());
+                @Override
+                public void element(BatchRequest batchRequest, String arrayName, Map<String, Object> element) {
+                    if (Constants.SKRITTER_VOCABS_ARRAY_NAME.equals(arrayName)) {
+                        ids.add((String) element.get(Constants.SKRITTER_ID_FIELD));
+                    }
+                }
+            }, batchDeadline);
+        }, deadline);
 
-        // get status until done
+        LOGGER.info("Got {} banned vocab ids", ids.size());
+        return ids;
+    }
 
-        long loopIterationTimedOutLimit =
-                TimeUnit.SECONDS.toMillis(BATCH_TIMEOUT_SECONDS) / BATCH_STATUS_SLEEP_MILLISECONDS;
-        long loopIteration = 0;
+    SimpleTradMap getSimpleTraditionalMap() throws IOException, URISyntaxException {
+        return getSimpleTraditionalMap(Deadline.none());
+    }
 
-        while (statusResponse.runningRequests > 0) {
+    SimpleTradMap getSimpleTraditionalMap(Deadline deadline) throws IOException, URISyntaxException {
+        LOGGER.info("Getting SimpTrad map");
+        String endpoint = getEndpoint(endpointBase, Constants.SIMPLE_TRAD_MAP_ENDPOINT_PATH);
+        return flights.simpleTradMaps.execute(newFlightKey(endpoint, null), () -> {
+            String json = getNonPaginatedData(endpoint, deadline);
+            return Parser.parseSimpleTradMap(json);
+        }, deadline);
+    }
 
-            if (loopIteration++ > loopIterationTimedOutLimit) {
-                throw new SkritterException(ERROR_TIMED_OUT_WAITING + statusResponse);
+    /**
+     * Wait for a posted batch and hand each element of its responses to the handler.
+     * With incremental results, each request's response is fetched and handled as
+     * soon as that request is done, rather than downloading the whole batch once
+     * every request is done.  The batch data is still downloaded if the statuses
+     * never listed the batch's requests.
+     * @return The batch's requests, without their responses.
+     */
+    List<BatchRequest> getBatchResults(BatchResponse batchResponse, Parser.BatchElementHandler handler,
+                                       Deadline deadline) throws IOException, URISyntaxException {
+
+        if (incrementalBatchResults) {
+            BatchResponse status = waitForBatchCompletion(batchResponse, handler, deadline);
+            if (!status.requests.isEmpty()) {
+                pollScheduler.learn(status.requests);
+                return new ArrayList<>(status.requests);
             }
-
-            nap(BATCH_STATUS_SLEEP_MILLISECONDS);
-            statusResponse = getBatchStatus(batchResponse.id, spawnedRequestIds.toString());
+            LOGGER.debug("Batch {} status listed no requests, getting batch data", batchResponse.id);
+        } else {
+            waitForBatchCompletion(batchResponse, null, deadline);
         }
 
-        LOGGER.info("Batch is complete");
+        return getBatchData(batchResponse.id, handler, deadline);
     }
 
-    void setBatchTimeoutSeconds(long seconds) {
-        BATCH_TIMEOUT_SECONDS = seconds;
+    /**
+     * Wait while the shared poller polls the batch status, as timed by the poll
+     * scheduler, until all of its requests are done.
+     * @return The final batch status.
+     */
+    BatchResponse waitForBatchCompletion(BatchResponse batchResponse) throws IOException, URISyntaxException {
+        return waitForBatchCompletion(batchResponse, null, Deadline.none());
     }
 
-    void restoreBatchTimeoutSeconds() {
-        BATCH_TIMEOUT_SECONDS = BATCH_TIMEOUT_SECONDS_DEFAULT;
+    /**
+     * @param handler Receives each request's response as it is done, or null.
+     * @param deadline Gives up waiting, and stops the batch being polled, once it passes.
+     */
+    private BatchResponse waitForBatchCompletion(BatchResponse batchResponse, Parser.BatchElementHandler handler,
+                                                 Deadline deadline) throws IOException, URISyntaxException {
+
+        String what = "waiting for batch " + batchResponse.id;
+        deadline.check(what);
+        CompletableFuture<BatchResponse> completion = batchPoller.register(batchResponse, handler, deadline);
+        Deadline.Registration registration = deadline.register(() -> completion.cancel(false));
+        try {
+            return completion.get();
+        } catch (CancellationException e) {
+            throw deadline.failure(what, e);
+        } catch (InterruptedException e) {
+            completion.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new SkritterException("Interrupted waiting for batch " + batchResponse.id);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException ioException) {
+                throw ioException;
+            } else if (cause instanceof URISyntaxException uriSyntaxException) {
+                throw uriSyntaxException;
+            } else if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new SkritterException("Failed waiting for batch " + batchResponse.id, e);
+        } finally {
+            registration.close();
+        }
     }
 
+    BatchPoller getBatchPoller() {
+        return batchPoller;
+    }
 
+    PollScheduler getPollScheduler() {
+        return pollScheduler;
+    }
 
-    BatchResponse getBatchStatus(String batchRequestId, String requestIds) throws IOException, URISyntaxException {
+    long getBatchTimeoutMillis() {
+        return batchTimeoutMillis;
+    }
 
-        String statusEndpoint = Constants.BATCH_ENDPOINT + "/" + batchRequestId + "/status";
+    String getEndpointBase() {
+        return endpointBase;
+    }
 
-        try (final CloseableHttpClient httpclient = build()) {
+    BatchResponse getBatchStatus(String batchRequestId, String requestIds, Deadline deadline)
+            throws IOException, URISyntaxException {
 
-            final ClassicHttpRequest httpGet = ClassicRequestBuilder.get(statusEndpoint)
-                    .addHeader(HttpHeaders.AUTHORIZATION,  getAuthorizationHeaderValue())
-                    .addParameter(Constants.SKRITTER_REQUEST_IDS_PARAMETER, requestIds)
-                    .build();
+        String statusEndpoint = getBatchEndpoint() + "/" + batchRequestId + "/status";
 
-            LOGGER.debug("{} to {}", httpGet.getMethod(), httpGet.getUri());
+        final ClassicHttpRequest httpGet = ClassicRequestBuilder.get(statusEndpoint)
+                .addHeader(HttpHeaders.AUTHORIZATION,  getAuthorizationHeaderValue())
+                .addParameter(Constants.SKRITTER_REQUEST_IDS_PARAMETER, requestIds)
+                .build();
 
-            final Result result = httpclient.execute(httpGet, response -> {
-                LOGGER.debug("REQUEST -> {}", httpGet);
-                LOGGER.debug("RESPONSE -> {}", new StatusLine(response));
-                // Process response message and convert it into a value object
-                return new Result(response);
-            });
+        final Result result = execute(httpGet, deadline);
 
-            if (result.status != HttpStatus.SC_OK) {
-                throw new SkritterException("GET batch status failed. " + result);
-            }
+        if (result.status != HttpStatus.SC_OK) {
+            throw new HttpFailureException("GET batch status failed. " + result, result.status);
+        }
 
+        if (LOGGER.isDebugEnabled()) {
             LOGGER.debug("RESPONSE DATA -> {}", JsonWriter.formatJson(result.content));
-            return Parser.parseBatchResponse(result.content);
         }
+        return Parser.parseBatchResponse(result.content);
+    }
+
+    /**
+     * Get the batch status, streaming the responses of the given requests to the handler.
+     * @param handler Receives the responses, or null to only get the status.
+     * @param deadline Aborts the request once it passes.
+     */
+    BatchResponse getBatchStatus(String batchRequestId, String requestIds, Parser.BatchElementHandler handler,
+                                 Deadline deadline) throws IOException, URISyntaxException {
+
+        if (handler == null) {
+            return getBatchStatus(batchRequestId, requestIds, deadline);
+        }
+
+        String statusEndpoint = getBatchEndpoint() + "/" + batchRequestId + "/status";
+
+        final ClassicHttpRequest httpGet = ClassicRequestBuilder.get(statusEndpoint)
+                .addHeader(HttpHeaders.AUTHORIZATION,  getAuthorizationHeaderValue())
+                .addParameter(Constants.SKRITTER_REQUEST_IDS_PARAMETER, requestIds)
+                .build();
+
+        TrafficStats.Exchange exchange = trafficStats.begin("GET " + statusEndpoint);
+
+        return execute(httpGet, exchange, response -> {
+            if (response.getCode() != HttpStatus.SC_OK) {
+                throw new HttpFailureException("GET batch status failed. " + new Result(response), response.getCode());
+            }
+            try (InputStream content = response.getEntity().getContent()) {
+                return Parser.parseBatchResponse(content, handler);
+            }
+        }, deadline);
     }
 
     List<BatchRequest> getBatchData(String batchRequestId) throws IOException, URISyntaxException {
+        return getBatchData(batchRequestId, Deadline.none());
+    }
 
-        String endpoint = Constants.BATCH_ENDPOINT + "/" + batchRequestId;
+    /**
+     * @param deadline Aborts the download once it passes.
+     */
+    List<BatchRequest> getBatchData(String batchRequestId, Deadline deadline) throws IOException, URISyntaxException {
 
-        try (final CloseableHttpClient httpclient = build()) {
-            final ClassicHttpRequest httpGet = ClassicRequestBuilder.get(endpoint)
-                    .addHeader(HttpHeaders.AUTHORIZATION, getAuthorizationHeaderValue())
-                    .build();
+        String endpoint = getBatchEndpoint() + "/" + batchRequestId;
 
-            LOGGER.debug("{} to {}", httpGet.getMethod(), httpGet.getUri());
+        final ClassicHttpRequest httpGet = ClassicRequestBuilder.get(endpoint)
+                .addHeader(HttpHeaders.AUTHORIZATION, getAuthorizationHeaderValue())
+                .build();
 
-            LOGGER.info("Getting batch data");
+        LOGGER.info("Getting batch data");
 
-            final Result result = httpclient.execute(httpGet, response -> {
-                LOGGER.debug("REQUEST -> {}", httpGet);
-                LOGGER.debug("RESPONSE -> {}", new StatusLine(response));
+        final Result result = execute(httpGet, deadline);
 
-                // Process response message and convert it into a value object
-                return new Result(response);
-            });
+        if (result.status != HttpStatus.SC_OK) {
+            throw new HttpFailureException("GET batch data failed. " + result, result.status);
+        }
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("RESPONSE DATA -> {}", JsonWriter.formatJson(result.content));
+        }
+
+        BatchResponse batchResponse = Parser.parseBatchResponse(result.content);
+        pollScheduler.learn(batchResponse.requests);
+        return new ArrayList<>(batchResponse.requests);
+    }
+
+    /**
+     * Get batch data, streaming each response element to the handler as it arrives
+     * rather than buffering the whole body.
+     * @return The batch's requests, without their responses.
+     */
+    List<BatchRequest> getBatchData(String batchRequestId, Parser.BatchElementHandler handler, Deadline deadline)
+            throws IOException, URISyntaxException {
+
+        String endpoint = getBatchEndpoint() + "/" + batchRequestId;
+
+        final ClassicHttpRequest httpGet = ClassicRequestBuilder.get(endpoint)
+                .addHeader(HttpHeaders.AUTHORIZATION, getAuthorizationHeaderValue())
+                .build();
+
+        LOGGER.info("Streaming batch data");
+        LOGGER.debug("{} to {}", httpGet.getMethod(), httpGet.getUri());
 
-            if (result.status != HttpStatus.SC_OK) {
-                throw new SkritterException("GET batch data failed. " + result);
+        TrafficStats.Exchange exchange = trafficStats.begin("GET " + endpoint);
+
+        BatchResponse batchResponse = execute(httpGet, exchange, response -> {
+            if (response.getCode() != HttpStatus.SC_OK) {
+                throw new HttpFailureException("GET batch data failed. " + new Result(response), response.getCode());
+            }
+            try (InputStream content = response.getEntity().getContent()) {
+                return Parser.parseBatchResponse(content, handler);
             }
+        }, deadline);
 
-            LOGGER.debug("RESPONSE DATA -> {}", JsonWriter.formatJson(result.content));
+        pollScheduler.learn(batchResponse.requests);
+        return new ArrayList<>(batchResponse.requests);
+    }
 
-            BatchResponse batchResponse = Parser.parseBatchResponse(result.content);
-            return new ArrayList<>(batchResponse.requests);
-        }
+    private String getBatchEndpoint() {
+        return getEndpoint(endpointBase, Constants.BATCH_ENDPOINT_PATH);
+    }
+
+    /**
+     * @return The configured endpoint base, or Skritter's API.
+     */
+    static String getEndpointBase(Properties properties) {
+        return properties.getProperty(ENDPOINT_BASE_PROPERTY, Constants.ENDPOINT_BASE).trim();
+    }
+
+    /**
+     * @param endpointPath One of the Constants endpoint paths, e.g. {@link Constants#BATCH_ENDPOINT_PATH}.
+     * @return The endpoint, under the base.
+     */
+    static String getEndpoint(String endpointBase, String endpointPath) {
+        return endpointBase + endpointPath;
     }
 
     String getAuthorizationHeaderValue() {
         return "Bearer " + bearerToken;
     }
 
-    String getNonPaginatedData(String endpoint) throws IOException, URISyntaxException {
-        try (final CloseableHttpClient httpclient = build()) {
+    /**
+     * Get an endpoint's data, revalidating any cached copy rather than downloading
+     * it again if it is unchanged.
+     */
+    String getNonPaginatedData(String endpoint, Deadline deadline) throws IOException, URISyntaxException {
+
+        ClassicHttpRequest httpGet = newNonPaginatedRequest(endpoint);
+        HttpCache.Entry cached = httpCache.validate(httpGet);
+
+        LOGGER.info("Executing request {} {}", httpGet.getMethod(), httpGet.getUri());
+
+        Result result = execute(httpGet, deadline);
+
+        if (result.status == HttpStatus.SC_NOT_MODIFIED && cached != null) {
+            String content = httpCache.hit(cached);
+            if (content != null) {
+                return content;
+            }
+            // The cached copy is gone, so ask again unconditionally
+            httpGet = newNonPaginatedRequest(endpoint);
+            result = execute(httpGet, deadline);
+        }
+
+        if (result.status != HttpStatus.SC_OK) {
+            throw new HttpFailureException("GET " + endpoint + "failed. " + result, result.status);
+        }
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("RESPONSE DATA -> {}", JsonWriter.formatJson(result.content));
+        }
+
+        httpCache.store(httpGet, result.etag, result.lastModified, result.content);
+        return result.content;
+    }
+
+    private ClassicHttpRequest newNonPaginatedRequest(String endpoint) {
+        return ClassicRequestBuilder.get(endpoint)
+                .addHeader(HttpHeaders.AUTHORIZATION,  getAuthorizationHeaderValue())
+                .build();
+    }
+
+    HttpCache getHttpCache() {
+        return httpCache;
+    }
+
+    /**
+     * Execute a request on the shared client.  The response entity is fully consumed
+     * by {@link Result}, which releases the connection back to the pool for reuse.
+     */
+    private Result execute(ClassicHttpRequest request, Deadline deadline) throws IOException, URISyntaxException {
+        return execute(request, trafficStats.begin(request.getMethod() + " " + request.getUri()), deadline);
+    }
+
+    private Result execute(ClassicHttpRequest request, TrafficStats.Exchange exchange, Deadline deadline)
+            throws IOException, URISyntaxException {
+        // Process response message and convert it into a value object
+        return execute(request, exchange, Result::new, deadline);
+    }
+
+    /**
+     * Execute a request, within the rate limit, retrying throttled and transient
+     * failures as the retry policy allows.  The handler sees the final response,
+     * decoded, whatever its status.  The deadline cuts short waits and retries, and
+     * aborts the exchange in flight when it passes or is cancelled.
+     */
+    private <T> T execute(ClassicHttpRequest request, TrafficStats.Exchange exchange,
+                          HttpClientResponseHandler<T> handler, Deadline deadline)
+            throws IOException, URISyntaxException {
 
-            final ClassicHttpRequest httpGet = ClassicRequestBuilder.get(endpoint)
-                    .addHeader(HttpHeaders.AUTHORIZATION,  getAuthorizationHeaderValue())
-                    .build();
+        LOGGER.debug("{} to {}", request.getMethod(), request.getUri());
 
-            LOGGER.info("Executing request {} {}", httpGet.getMethod(), httpGet.getUri());
+        String what = request.getMethod() + " " + request.getUri();
+        acceptCompressed(request);
 
-            final Result result = httpclient.execute(httpGet, response -> {
-                LOGGER.debug("REQUEST -> {}", httpGet);
+        TrafficStats.Exchange attemptExchange = exchange;
+        for (int retry = 0; ; retry++) {
+            deadline.sleep(rateLimiter.reserve(), what);
+
+            final int attempt = retry;
+            final TrafficStats.Exchange counted = attemptExchange;
+            Hedger.Call<Attempt<T>> call = (attemptRequest, claim) -> send(attemptRequest, deadline, response -> {
+                claim.claim();
+                LOGGER.debug("REQUEST -> {}", attemptRequest);
                 LOGGER.debug("RESPONSE -> {}", new StatusLine(response));
-                return new Result(response);
+                if (RetryPolicy.isThrottle(response.getCode())) {
+                    concurrencyLimiter.throttled();
+                }
+                if (response.getCode() != HttpStatus.SC_OK) {
+                    long delay = retryPolicy.retryDelayMillis(request.getMethod(), response, attempt);
+                    if (delay != RetryPolicy.NO_RETRY) {
+                        wireCapture.record(attemptRequest, response).finish();
+                        return new Attempt<>(null, delay);
+                    }
+                }
+                Compression.decode(response, counted);
+                WireCapture.Recording recording = wireCapture.record(attemptRequest, response);
+                try {
+                    return new Attempt<>(handler.handleResponse(response), RetryPolicy.NO_RETRY);
+                } finally {
+                    recording.finish();
+                }
             });
 
-            if (result.status != HttpStatus.SC_OK) {
-                throw new SkritterException("GET " + endpoint + "failed. " + result);
+            Attempt<T> result;
+            // The attempt is counted however it ends, whether or not it is retried
+            try {
+                if (hedger.isEnabled() && Method.GET.isSame(request.getMethod())) {
+                    result = hedger.execute(request, call);
+                } else {
+                    result = call.call(request, () -> { });
+                }
+            } catch (IOException e) {
+                // An exchange aborted by the deadline is not retried
+                SkritterException stopped = deadline.failure(what, e);
+                if (stopped != null) {
+                    throw stopped;
+                }
+                long delay = retryPolicy.retryDelayMillis(request.getMethod(), e, attempt);
+                if (delay == RetryPolicy.NO_RETRY) {
+                    throw e;
+                }
+                result = new Attempt<>(null, delay);
+            } finally {
+                counted.complete();
+            }
+
+            if (result.retryDelayMillis() == RetryPolicy.NO_RETRY) {
+                return result.value();
             }
+            attemptExchange = counted.retry();
+            deadline.sleep(result.retryDelayMillis(), what);
+        }
+    }
 
-            LOGGER.debug("RESPONSE DATA -> {}", JsonWriter.formatJson(result.content));
+    private record Attempt<T>(T value, long retryDelayMillis) {
+    }
 
-            return result.content;
+    /**
+     * Send a request over HTTP/2 if configured, otherwise on the classic client,
+     * aborting the exchange if the deadline passes or is cancelled first.
+     */
+    private <T> T send(ClassicHttpRequest request, Deadline deadline, HttpClientResponseHandler<T> handler)
+            throws IOException {
+        HttpUriRequestBase cancellable = toCancellable(request);
+        Deadline.Registration registration = deadline.register(cancellable);
+        try {
+            if (http2Transport != null) {
+                return http2Transport.execute(cancellable, handler);
+            }
+            return httpClient.execute(cancellable, handler);
+        } finally {
+            registration.close();
+        }
+    }
+
+    /**
+     * The request, or a copy of it, that can be cancelled mid-exchange.  Hedged
+     * attempts are already cancellable, and are used as they are so that the
+     * hedger can still cancel them.
+     */
+    private static HttpUriRequestBase toCancellable(ClassicHttpRequest request) throws IOException {
+        if (request instanceof HttpUriRequestBase cancellable) {
+            return cancellable;
+        }
+        HttpUriRequestBase cancellable;
+        try {
+            cancellable = new HttpUriRequestBase(request.getMethod(), request.getUri());
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        }
+        cancellable.setHeaders(request.getHeaders());
+        cancellable.setEntity(request.getEntity());
+        return cancellable;
+    }
+
+    /**
+     * Advertise gzip/deflate; the pooled client leaves decoding to {@link Compression}
+     * so that the compressed bytes can be counted.
+     */
+    private void acceptCompressed(ClassicHttpRequest request) {
+        if (acceptCompressedResponses) {
+            request.setHeader(HttpHeaders.ACCEPT_ENCODING, Compression.ACCEPT_ENCODING);
+        }
+    }
+
+    TrafficStats getTrafficStats() {
+        return trafficStats;
+    }
+
+    WireCapture getWireCapture() {
+        return wireCapture;
+    }
+
+    RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    Hedger getHedger() {
+        return hedger;
+    }
+
+    Http2Transport getHttp2Transport() {
+        return http2Transport;
+    }
+
+    /**
+     * Open connections to Skritter ahead of the first real request, so the TCP and
+     * TLS handshakes are off the critical path.  Failures are only logged; the
+     * real requests will report any persistent problem.
+     */
+    void warmUpConnections() {
+
+        // Over HTTP/2 every request shares one connection, so one is enough
+        int connections = poolSettings.warmUpConnections();
+        if (http2Transport != null) {
+            connections = (connections > 0) ? 1 : 0;
+        }
+
+        if (connections <= 0) {
+            return;
+        }
+
+        LOGGER.info("Warming up {} connection(s)", connections);
+
+        // Concurrent, so that each warm-up request needs its own connection
+        ExecutorService executor = Executors.newFixedThreadPool(connections);
+        try {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int i = 0; i < connections; i++) {
+                futures.add(executor.submit(() -> send(
+                        ClassicRequestBuilder.head(endpointBase).build(), Deadline.none(),
+                        HttpResponse::getCode)));
+            }
+            for (Future<Integer> future : futures) {
+                LOGGER.debug("Warm-up response status {}", future.get());
+            }
+        } catch (ExecutionException e) {
+            LOGGER.warn("Connection warm-up failed: {}", e.getCause().toString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (ownsVocabFetchExecutor && vocabFetchExecutor != null) {
+                vocabFetchExecutor.shutdownNow();
+            }
+        }
+        batchPoller.close();
+        hedger.close();
+        if (http2Transport != null) {
+            http2Transport.close();
+        }
+        if (ownsHttpClient) {
+            httpClient.close(CloseMode.GRACEFUL);
         }
     }
 
@@ -396,9 +1492,13 @@ public class ApiClient {
 
         final int status;
         final String  content;
+        final String etag;
+        final String lastModified;
 
         Result(ClassicHttpResponse response) throws IOException, ParseException {
             status = response.getCode();
+            etag = headerValue(response, HttpHeaders.ETAG);
+            lastModified = headerValue(response, HttpHeaders.LAST_MODIFIED);
             if (status == HttpStatus.SC_OK) {
                 content = EntityUtils.toString(response.getEntity());
             } else {
@@ -406,35 +1506,23 @@ public class ApiClient {
             }
         }
 
+        private static String headerValue(ClassicHttpResponse response, String name) {
+            Header header = response.getFirstHeader(name);
+            return (header == null) ? null : header.getValue();
+        }
+
         @Override
         public String toString() {
             return "Status: " + status + ", " + content;
         }
     }
 
-    CloseableHttpClient build() {
-
-        return ((httpClient != null) ? httpClient :
-                // HttpClients.createDefault()
-                // https://stackoverflow.com/a/40697322
-                HttpClients.custom()
-                        .setDefaultRequestConfig(RequestConfig.custom()
-                                .setCookieSpec(StandardCookieSpec.IGNORE).build())
-                        .build());
-    }
-
     private void auditAPIProperties() {
         if (bearerToken == null) {
             throw new SkritterException(ERROR_MISSING_BEARER_TOKEN_PROPERTY);
         }
     }
 
-    private void nap(long milliseconds) {
-        try {
-            Thread.sleep(milliseconds);
-        } catch (InterruptedException ignored) {}
-    }
-
     interface Params {
 
     }
@@ -444,6 +1532,8 @@ public class ApiClient {
         String include_vocabs = "false";
         Long limit = null;
         String fields;
+        String parts;
+        String cursor;
     }
 
     static class VocabsParams implements Params {
@@ -453,6 +1543,32 @@ public class ApiClient {
 
     static class BannedVocabsParams implements Params {
         String sort;
+        String fields;
+    }
+
+    /**
+     * In-flight requests that concurrent callers share.  By default every client in the
+     * process shares one, so that export jobs running side by side collapse their
+     * identical requests; the keys tell apart requests to different endpoints, for
+     * different accounts, and for different fields and filters.
+     */
+    static class Flights {
+        static final Flights PROCESS = new Flights();
+
+        final SingleFlight<FlightKey, SimpleTradMap> simpleTradMaps = new SingleFlight<>();
+        final SingleFlight<FlightKey, Vocab> vocabs = new SingleFlight<>();
+    }
+
+    /**
+     * @param request The endpoint, or the vocab fields and export filter.
+     * @param id The vocab id, or null.
+     */
+    record FlightKey(String endpointBase, String bearerToken, String request, String id) {
+        // Logged with the collapsed counts, so leaves out the token
+        @Override
+        public String toString() {
+            return (id == null) ? request : id;
+        }
     }
 
     static class Request {
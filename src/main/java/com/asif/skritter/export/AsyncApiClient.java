@@ -0,0 +1,330 @@
+// MIT License
+//
+// Copyright (c) 2023 David Stone <ds.skritter.export@asif.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.asif.skritter.export;
+
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.async.methods.SimpleRequestBuilder;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.HttpStatus;
+import org.apache.hc.core5.io.CloseMode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Non-blocking counterpart of {@link ApiClient}.
+ * <p>
+ * Requests run on the http client's I/O reactor and batch polls are scheduled on a
+ * timer, so no thread is held while a batch is in flight.  A handful of threads can
+ * drive hundreds of concurrent batches.  Responses are parsed off the I/O threads,
+ * on the parse executor.
+ * <p>
+ * Unlike {@link ApiClient}, it applies no {@link RetryPolicy}, {@link RateLimiter} or
+ * {@link ConcurrencyLimiter}: every request is sent straight away, and the first failed
+ * request fails its batch.  Callers are expected to bound how many batches they start.
+ */
+public class AsyncApiClient implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AsyncApiClient.class);
+
+    private final String bearerToken;
+    private final String endpointBase;
+    private final CloseableHttpAsyncClient httpClient;
+    private final PollScheduler pollScheduler;
+    private final ScheduledExecutorService timer;
+    private final Executor parseExecutor;
+    private final long batchTimeoutMillis;
+    private final TrafficStats trafficStats = new TrafficStats();
+
+    /**
+     * Constructor for standard usage interacting with Skritter.
+     * @param properties Properties file containing the user's API access token, and
+     *                   optionally another endpoint base and batch timeout.
+     */
+    AsyncApiClient(final Properties properties) {
+        this(properties.getProperty(ApiClient.BEARER_TOKEN_PROPERTY),
+                ApiClient.getEndpointBase(properties),
+                HttpClientFactory.buildAsync(HttpClientFactory.PoolSettings.from(properties)),
+                PollScheduler.from(properties),
+                ClientProperties.getLong(properties, ApiClient.BATCH_TIMEOUT_SECONDS_PROPERTY,
+                        ApiClient.BATCH_TIMEOUT_SECONDS_DEFAULT));
+    }
+
+    /**
+     * Constructor for a specific endpoint and http client, e.g. a local test server.
+     */
+    AsyncApiClient(String bearerToken, String endpointBase,
+                   CloseableHttpAsyncClient httpClient, PollScheduler pollScheduler) {
+        this(bearerToken, endpointBase, httpClient, pollScheduler, ApiClient.BATCH_TIMEOUT_SECONDS_DEFAULT);
+    }
+
+    AsyncApiClient(String bearerToken, String endpointBase, CloseableHttpAsyncClient httpClient,
+                   PollScheduler pollScheduler, long batchTimeoutSeconds) {
+        if (bearerToken == null) {
+            throw new SkritterException(ApiClient.ERROR_MISSING_BEARER_TOKEN_PROPERTY);
+        }
+        this.bearerToken = bearerToken;
+        this.endpointBase = endpointBase;
+        this.httpClient = httpClient;
+        this.pollScheduler = pollScheduler;
+        this.parseExecutor = ForkJoinPool.commonPool();
+        this.batchTimeoutMillis = TimeUnit.SECONDS.toMillis(batchTimeoutSeconds);
+
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "batch-poll-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.setRemoveOnCancelPolicy(true);
+        this.timer = scheduler;
+
+        httpClient.start();
+    }
+
+    CompletableFuture<BatchResponse> postBatchRequest(String path, ApiClient.Params params) {
+
+        LOGGER.info("Posting batch request to {}", path);
+
+        SimpleHttpRequest httpPost = SimpleRequestBuilder.post(getBatchEndpoint())
+                .addHeader(HttpHeaders.AUTHORIZATION, getAuthorizationHeaderValue())
+                .setBody(ApiClient.toBatchRequestJson(path, params), ContentType.APPLICATION_JSON)
+                .build();
+
+        return execute(httpPost, "POST batch request failed. ")
+                .thenApplyAsync(Parser::parseBatchResponse, parseExecutor);
+    }
+
+    CompletableFuture<BatchResponse> getBatchStatus(String batchRequestId, String requestIds) {
+
+        SimpleHttpRequest httpGet = SimpleRequestBuilder.get(
+                        getBatchEndpoint() + "/" + batchRequestId + "/status")
+                .addHeader(HttpHeaders.AUTHORIZATION, getAuthorizationHeaderValue())
+                .addParameter(Constants.SKRITTER_REQUEST_IDS_PARAMETER, requestIds)
+                .build();
+
+        return execute(httpGet, "GET batch status failed. ")
+                .thenApplyAsync(Parser::parseBatchResponse, parseExecutor);
+    }
+
+    CompletableFuture<List<BatchRequest>> getBatchData(String batchRequestId) {
+
+        SimpleHttpRequest httpGet = SimpleRequestBuilder.get(getBatchEndpoint() + "/" + batchRequestId)
+                .addHeader(HttpHeaders.AUTHORIZATION, getAuthorizationHeaderValue())
+                .build();
+
+        return execute(httpGet, "GET batch data failed. ")
+                .thenApplyAsync(content -> {
+                    BatchResponse batchResponse = Parser.parseBatchResponse(content);
+                    pollScheduler.learn(batchResponse.requests);
+                    return new ArrayList<>(batchResponse.requests);
+                }, parseExecutor);
+    }
+
+    CompletableFuture<SimpleTradMap> getSimpleTraditionalMap() {
+
+        LOGGER.info("Getting SimpTrad map");
+
+        String endpoint = ApiClient.getEndpoint(endpointBase, Constants.SIMPLE_TRAD_MAP_ENDPOINT_PATH);
+        SimpleHttpRequest httpGet = SimpleRequestBuilder.get(endpoint)
+                .addHeader(HttpHeaders.AUTHORIZATION, getAuthorizationHeaderValue())
+                .build();
+
+        return execute(httpGet, "GET simptradmap failed. ")
+                .thenApplyAsync(Parser::parseSimpleTradMap, parseExecutor);
+    }
+
+    /**
+     * Post a batch, wait for it to complete and get its data.
+     */
+    CompletableFuture<List<BatchRequest>> fetchBatch(String path, ApiClient.Params params) {
+        return postBatchRequest(path, params)
+                .thenCompose(this::waitForBatchCompletion)
+                .thenCompose(status -> getBatchData(status.id));
+    }
+
+    /**
+     * Poll the batch status on the timer, as timed by the poll scheduler.
+     * @return The final status, once no requests are running.  Cancelling it stops the polling.
+     */
+    CompletableFuture<BatchResponse> waitForBatchCompletion(BatchResponse batchResponse) {
+
+        List<String> spawnedRequestIds = new ArrayList<>();
+        for (BatchRequest request : batchResponse.requests) {
+            spawnedRequestIds.add(request.id);
+        }
+
+        CompletableFuture<BatchResponse> completion = new CompletableFuture<>();
+        schedulePoll(batchResponse.id, String.join(",", spawnedRequestIds),
+                pollScheduler.start(), completion);
+        return completion;
+    }
+
+    private void schedulePoll(String batchRequestId, String requestIds,
+                              PollScheduler.Session session, CompletableFuture<BatchResponse> completion) {
+
+        timer.schedule(() -> {
+            if (completion.isDone()) {
+                return;
+            }
+            getBatchStatus(batchRequestId, requestIds).whenComplete((status, error) -> {
+                if (error != null) {
+                    completion.completeExceptionally(unwrap(error));
+                } else if (status.runningRequests == 0) {
+                    session.complete();
+                    LOGGER.info("Batch {} is complete after {} polls in {} ms",
+                            batchRequestId, session.getPolls(), session.getElapsedMillis());
+                    completion.complete(status);
+                } else if (session.getElapsedMillis() > batchTimeoutMillis) {
+                    completion.completeExceptionally(
+                            new SkritterException(ApiClient.ERROR_TIMED_OUT_WAITING + status));
+                } else {
+                    schedulePoll(batchRequestId, requestIds, session, completion);
+                }
+            });
+        }, session.nextDelayMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    PollScheduler getPollScheduler() {
+        return pollScheduler;
+    }
+
+    /**
+     * Execute a request.  Cancelling the returned future cancels the exchange.
+     * @return The response body of a 200 response; otherwise completes with a SkritterException.
+     */
+    private CompletableFuture<String> execute(SimpleHttpRequest request, String failureMessage) {
+
+        LOGGER.debug("{} to {}", request.getMethod(), request.getRequestUri());
+
+        // The async client has no transparent decompression; the body is decoded in getBodyText
+        request.setHeader(HttpHeaders.ACCEPT_ENCODING, Compression.ACCEPT_ENCODING);
+        TrafficStats.Exchange counts = trafficStats.begin(request.getMethod() + " " + request.getRequestUri());
+
+        CompletableFuture<String> result = new CompletableFuture<>();
+
+        Future<SimpleHttpResponse> exchange = httpClient.execute(request, new FutureCallback<>() {
+            @Override
+            public void completed(SimpleHttpResponse response) {
+                LOGGER.debug("RESPONSE -> {} {}", response.getCode(), response.getReasonPhrase());
+                if (response.getCode() == HttpStatus.SC_OK) {
+                    try {
+                        result.complete(getBodyText(response, counts));
+                    } catch (IOException e) {
+                        result.completeExceptionally(new SkritterException(failureMessage, e));
+                    }
+                } else {
+                    result.completeExceptionally(new SkritterException(failureMessage
+                            + "Status: " + response.getCode() + ", " + response.getReasonPhrase()));
+                }
+            }
+
+            @Override
+            public void failed(Exception ex) {
+                result.completeExceptionally(new SkritterException(failureMessage, ex));
+            }
+
+            @Override
+            public void cancelled() {
+                result.cancel(false);
+            }
+        });
+
+        result.whenComplete((content, error) -> {
+            if (error instanceof CancellationException) {
+                exchange.cancel(true);
+            }
+        });
+
+        return result;
+    }
+
+    /**
+     * Decode the body's content encoding.  Skritter does not always declare a charset;
+     * its JSON is UTF-8.
+     */
+    private static String getBodyText(SimpleHttpResponse response, TrafficStats.Exchange counts)
+            throws IOException {
+        byte[] body = response.getBodyBytes();
+        if (body == null) {
+            counts.complete();
+            return "";
+        }
+        Header contentEncoding = response.getFirstHeader(HttpHeaders.CONTENT_ENCODING);
+        body = Compression.decode(body, (contentEncoding != null) ? contentEncoding.getValue() : null, counts);
+        counts.complete();
+        ContentType contentType = response.getContentType();
+        Charset charset = (contentType != null) ? contentType.getCharset() : null;
+        return new String(body, (charset != null) ? charset : StandardCharsets.UTF_8);
+    }
+
+    TrafficStats getTrafficStats() {
+        return trafficStats;
+    }
+
+    String getEndpointBase() {
+        return endpointBase;
+    }
+
+    long getBatchTimeoutMillis() {
+        return batchTimeoutMillis;
+    }
+
+    private String getBatchEndpoint() {
+        return ApiClient.getEndpoint(endpointBase, Constants.BATCH_ENDPOINT_PATH);
+    }
+
+    private String getAuthorizationHeaderValue() {
+        return "Bearer " + bearerToken;
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return (error instanceof CompletionException && error.getCause() != null) ? error.getCause() : error;
+    }
+
+    @Override
+    public void close() {
+        timer.shutdownNow();
+        httpClient.close(CloseMode.GRACEFUL);
+    }
+}
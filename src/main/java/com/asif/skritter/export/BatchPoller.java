@@ -0,0 +1,392 @@
+// MIT License
+//
+// Copyright (c) 2023 David Stone <ds.skritter.export@asif.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.asif.skritter.export;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Polls the status of every outstanding batch from one scheduling loop.
+ * <p>
+ * Callers register a posted batch and get a future that completes with its final
+ * status once none of its requests are running.  Each batch has one entry in a
+ * queue ordered by next poll time, timed by the PollScheduler; registering a batch
+ * already being polled returns the existing future.  One thread schedules all
+ * batches, however many are pending, and hands each poll that falls due to an
+ * executor, so a slow or retried status request holds up only its own batch.  A
+ * batch is out of the queue while its poll runs, so it is never polled twice at once.
+ * <p>
+ * A batch registered with a handler is consumed incrementally: each status lists
+ * the batch's requests, and those done since the last poll have their responses
+ * fetched, via request_ids, and handed to the handler straight away.  Status polls
+ * only detect which requests are done; the responses are downloaded and parsed by
+ * separate fetches on the executor, so one large chunk holds up no other batch's
+ * polls.  Finished requests are fetched immediately rather than after the backoff
+ * delay, and the batch completes once none are running and every finished response
+ * has been handed over.
+ */
+public class BatchPoller implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BatchPoller.class);
+
+    static final String ERROR_POLLER_CLOSED = "Batch poller closed";
+    static final String ERROR_ALREADY_POLLING = "Already polling batch ";
+
+    // Finished requests whose responses are fetched together
+    static final int MAX_REQUEST_IDS_PER_POLL = 20;
+
+    /**
+     * Where batch statuses come from.
+     */
+    interface StatusSource {
+        /**
+         * @param handler Receives the responses of the requested ids, or null for the status only.
+         * @param deadline The batch's deadline, which aborts the request once it passes.
+         */
+        BatchResponse getBatchStatus(String batchRequestId, String requestIds, Parser.BatchElementHandler handler,
+                                     Deadline deadline) throws IOException, URISyntaxException;
+    }
+
+    private final StatusSource statusSource;
+    private final PollScheduler pollScheduler;
+    private final LongSupplier timeoutMillis;
+    private final Executor pollExecutor;
+    // Only set when the poller made its own executor, which it shuts down on close
+    private final ExecutorService ownPollExecutor;
+
+    private final Map<String, Pending> pending = new HashMap<>();
+    private final PriorityQueue<Pending> queue = new PriorityQueue<>(Comparator.comparingLong(p -> p.nextPollNanos));
+    private Thread thread;
+    private boolean closed;
+
+    BatchPoller(StatusSource statusSource, PollScheduler pollScheduler, LongSupplier timeoutMillis) {
+        this(statusSource, pollScheduler, timeoutMillis, null);
+    }
+
+    /**
+     * @param pollExecutor Runs the status polls, or null for an executor of the poller's own.
+     */
+    BatchPoller(StatusSource statusSource, PollScheduler pollScheduler, LongSupplier timeoutMillis,
+                Executor pollExecutor) {
+        this.statusSource = statusSource;
+        this.pollScheduler = pollScheduler;
+        this.timeoutMillis = timeoutMillis;
+        ownPollExecutor = (pollExecutor == null) ? ThreadPools.newTaskExecutor("batch-poll") : null;
+        this.pollExecutor = (pollExecutor == null) ? ownPollExecutor : pollExecutor;
+    }
+
+    /**
+     * Poll a posted batch until all of its requests are done.
+     * @return Completes with the final status; fails on timeout or a failed poll.
+     */
+    CompletableFuture<BatchResponse> register(BatchResponse batchResponse) {
+        return register(batchResponse, null, Deadline.none());
+    }
+
+    CompletableFuture<BatchResponse> register(BatchResponse batchResponse, Parser.BatchElementHandler handler) {
+        return register(batchResponse, handler, Deadline.none());
+    }
+
+    /**
+     * Poll a posted batch, handing each request's response to the handler as soon as
+     * the request is done.  The handler is called on the poll executor, by one thread
+     * at a time.
+     * @return Completes with the final status, listing every request seen, once all
+     * responses have been handled.  No requests are listed if the statuses never
+     * listed any, in which case nothing was handled.  Fails if the batch is already
+     * being polled with or for a handler, as only one handler could be given its responses.
+     * @param deadline Aborts the batch's status and data requests once it passes.
+     */
+    synchronized CompletableFuture<BatchResponse> register(BatchResponse batchResponse,
+                                                           Parser.BatchElementHandler handler, Deadline deadline) {
+
+        CompletableFuture<BatchResponse> future = new CompletableFuture<>();
+        if (closed) {
+            future.completeExceptionally(new SkritterException(ERROR_POLLER_CLOSED));
+            return future;
+        }
+
+        Pending existing = pending.get(batchResponse.id);
+        if (existing != null) {
+            if (handler == null && existing.handler == null) {
+                return existing.future;
+            }
+            future.completeExceptionally(new SkritterException(ERROR_ALREADY_POLLING + batchResponse.id));
+            return future;
+        }
+
+        StringBuilder spawnedRequestIds = new StringBuilder();
+        for (BatchRequest request : batchResponse.requests) {
+            spawnedRequestIds.append((spawnedRequestIds.isEmpty()) ? "" : ",");
+            spawnedRequestIds.append(request.id);
+        }
+
+        LOGGER.info("Polling for completion of batch {}", batchResponse.id);
+
+        Pending batch = new Pending(batchResponse.id, spawnedRequestIds.toString(), handler, deadline, future);
+        batch.schedule();
+        pending.put(batch.id, batch);
+        queue.add(batch);
+
+        if (thread == null) {
+            thread = new Thread(this::run, "batch-poller");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        notifyAll();
+        return future;
+    }
+
+    synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    @Override
+    public void close() {
+        failAll();
+        if (ownPollExecutor != null) {
+            ownPollExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Stop polling, failing every pending batch.
+     */
+    private synchronized void failAll() {
+        closed = true;
+        notifyAll();
+        for (Pending batch : pending.values()) {
+            batch.future.completeExceptionally(new SkritterException(ERROR_POLLER_CLOSED));
+        }
+        pending.clear();
+        queue.clear();
+    }
+
+    private void run() {
+        Pending batch;
+        while ((batch = nextDue()) != null) {
+            Pending due = batch;
+            try {
+                pollExecutor.execute(() -> poll(due));
+            } catch (RejectedExecutionException e) {
+                finish(due);
+                due.future.completeExceptionally(new SkritterException(ERROR_POLLER_CLOSED));
+            }
+        }
+    }
+
+    /**
+     * Wait for the next batch due a poll.
+     * @return The batch, or null once closed.
+     */
+    private synchronized Pending nextDue() {
+        while (!closed) {
+            Pending next = queue.peek();
+            if (next == null) {
+                waitNanos(0);
+            } else if (next.future.isDone()) {
+                // Cancelled by its caller
+                queue.remove();
+                pending.remove(next.id);
+            } else {
+                long waitNanos = next.nextPollNanos - System.nanoTime();
+                if (waitNanos <= 0) {
+                    return queue.remove();
+                }
+                waitNanos(waitNanos);
+            }
+        }
+        return null;
+    }
+
+    private void poll(Pending batch) {
+
+        // Either fetch the responses of finished requests, or only check which are finished
+        List<String> fetching = batch.nextFetch();
+        String requestIds = fetching.isEmpty() ? batch.requestIds : String.join(",", fetching);
+        Parser.BatchElementHandler handler = fetching.isEmpty() ? null : batch.handler;
+
+        BatchResponse status;
+        try {
+            status = statusSource.getBatchStatus(batch.id, requestIds, handler, batch.deadline);
+        } catch (Exception e) {
+            finish(batch);
+            batch.future.completeExceptionally(e);
+            return;
+        }
+
+        if (batch.handler != null) {
+            batch.update(status, fetching);
+        }
+
+        if (status.runningRequests <= 0 && batch.ready.isEmpty()) {
+            finish(batch);
+            batch.session.complete();
+            LOGGER.info("Batch {} is complete after {} polls in {} ms",
+                    batch.id, batch.session.getPolls(), batch.session.getElapsedMillis());
+            if (batch.handler != null) {
+                status.requests.clear();
+                status.requests.addAll(batch.seen.values());
+            }
+            batch.future.complete(status);
+        } else if (batch.session.getElapsedMillis() > timeoutMillis.getAsLong()) {
+            finish(batch);
+            batch.future.completeExceptionally(new SkritterException(ApiClient.ERROR_TIMED_OUT_WAITING + status));
+        } else {
+            synchronized (this) {
+                if (!closed && !batch.future.isDone()) {
+                    if (batch.ready.isEmpty()) {
+                        batch.schedule();
+                    } else {
+                        batch.nextPollNanos = System.nanoTime();
+                    }
+                    queue.add(batch);
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    private synchronized void finish(Pending batch) {
+        pending.remove(batch.id);
+    }
+
+    private void waitNanos(long nanos) {
+        try {
+            if (nanos <= 0) {
+                wait();
+            } else {
+                TimeUnit.NANOSECONDS.timedWait(this, nanos);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            // Nothing would poll the pending batches again, so they fail rather than wait forever
+            failAll();
+        }
+    }
+
+    private class Pending {
+        final String id;
+        final String requestIds;
+        final Parser.BatchElementHandler handler;
+        final Deadline deadline;
+        final CompletableFuture<BatchResponse> future;
+        final PollScheduler.Session session = pollScheduler.start();
+        long nextPollNanos;
+
+        // Incremental consumption, only touched by the batch's one poll in flight
+        final Map<String, BatchRequest> seen = new LinkedHashMap<>();
+        final Set<String> ready = new LinkedHashSet<>();
+        final Set<String> handled = new HashSet<>();
+
+        Pending(String id, String requestIds, Parser.BatchElementHandler handler, Deadline deadline,
+                CompletableFuture<BatchResponse> future) {
+            this.id = id;
+            this.requestIds = requestIds;
+            this.handler = (handler == null) ? null : new OnceHandler(handler);
+            this.deadline = deadline;
+            this.future = future;
+        }
+
+        void schedule() {
+            nextPollNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(session.nextDelayMillis());
+        }
+
+        /**
+         * @return Finished requests whose responses should be fetched next.
+         */
+        List<String> nextFetch() {
+            return ready.stream().limit(MAX_REQUEST_IDS_PER_POLL).toList();
+        }
+
+        /**
+         * Note the fetched requests as handled, and any newly finished ones as ready.
+         * A fetched request is not asked for again, even if it had no response.
+         */
+        void update(BatchResponse status, List<String> fetched) {
+            fetched.forEach(ready::remove);
+            handled.addAll(fetched);
+            for (BatchRequest request : status.requests) {
+                seen.put(request.id, request);
+                if (request.done != null && request.done > 0 && !handled.contains(request.id)) {
+                    ready.add(request.id);
+                }
+            }
+            if (!fetched.isEmpty()) {
+                LOGGER.debug("Batch {}: handled {} finished requests, {} waiting",
+                        id, fetched.size(), ready.size());
+            }
+        }
+
+        /**
+         * Hands each request's response to the handler at most once.
+         */
+        private class OnceHandler implements Parser.BatchElementHandler {
+            private final Parser.BatchElementHandler delegate;
+
+            OnceHandler(Parser.BatchElementHandler delegate) {
+                this.delegate = delegate;
+            }
+
+            @Override
+            public boolean accept(BatchRequest batchRequest) {
+                ready.remove(batchRequest.id);
+                return handled.add(batchRequest.id) && delegate.accept(batchRequest);
+            }
+
+            @Override
+            public FieldProjection projection(BatchRequest batchRequest, String arrayName) {
+                return delegate.projection(batchRequest, arrayName);
+            }
+
+            @Override
+            public void element(BatchRequest batchRequest, String arrayName, Map<String, Object> element) {
+                delegate.element(batchRequest, arrayName, element);
+            }
+
+            @Override
+            public void value(BatchRequest batchRequest, String name, Object value) {
+                delegate.value(batchRequest, name, value);
+            }
+        }
+    }
+}
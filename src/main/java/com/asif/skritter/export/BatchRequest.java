@@ -33,6 +33,7 @@ public class BatchRequest {
     String path;
     String method;
     Map<String, Object> response;
+    Long responseSize;
 
     private BatchRequest() {
     }
@@ -50,6 +51,7 @@ public class BatchRequest {
             batchRequest.method = (String) batchRequestMap.get(Constants.SKRITTER_METHOD_FIELD);
             batchRequest.created = (Long) batchRequestMap.get(Constants.SKRITTER_CREATED_FIELD);
             batchRequest.spawnedBy = (Long) batchRequestMap.get(Constants.SKRITTER_SPAWNED_BY_FIELD);
+            batchRequest.responseSize = (Long) batchRequestMap.get(Constants.SKRITTER_RESPONSE_SIZE_FIELD);
 
             Object doneObject = batchRequestMap.get(Constants.SKRITTER_DONE_FIELD);
             if (doneObject instanceof Boolean) {
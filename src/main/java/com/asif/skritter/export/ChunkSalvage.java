@@ -0,0 +1,168 @@
+// MIT License
+//
+// Copyright (c) 2023 David Stone <ds.skritter.export@asif.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.asif.skritter.export;
+
+import org.apache.hc.core5.http.HttpStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Keeps a fetch of vocab chunks going when some of the chunks fail.  A failed chunk
+ * is fetched whole once more, in case the failure was transient, then split in half
+ * and each half fetched on its own, down to single ids, so a bad id loses only itself
+ * and every chunk that succeeds is kept.  Splits are capped, so a failure that has
+ * nothing to do with the ids, e.g. an outage, does not turn into a flood of ever
+ * smaller requests.  One instance covers one fetch.
+ */
+public class ChunkSalvage {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChunkSalvage.class);
+
+    static final String VOCAB_CHUNK_MAX_SPLITS_PROPERTY = "Vocab-Chunk-Max-Splits";
+    static final int VOCAB_CHUNK_MAX_SPLITS_DEFAULT = 32;
+
+    private final int maxSplits;
+    private final AtomicInteger splits = new AtomicInteger();
+    private final AtomicInteger fetchedChunks = new AtomicInteger();
+    // Unrecoverable id -> why
+    private final Map<String, String> unrecoverableIds = new ConcurrentHashMap<>();
+    private final AtomicReference<Exception> firstFailure = new AtomicReference<>();
+
+    /**
+     * @param maxSplits Failed chunks that may be split, across the whole fetch; 0 disables salvage.
+     */
+    ChunkSalvage(int maxSplits) {
+        this.maxSplits = maxSplits;
+    }
+
+    /**
+     * Fetches one chunk of ids.
+     */
+    interface Fetch {
+        void fetch(List<String> ids) throws IOException, URISyntaxException;
+    }
+
+    /**
+     * Fetch the ids, and on failure each half of them, and so on.  Ids that fail alone,
+     * or once the splits are used up, are recorded as unrecoverable rather than thrown.
+     * @throws SkritterException If the deadline ends the fetch.
+     * @throws IOException Or other failure that would not be helped by splitting, e.g. a batch timeout.
+     */
+    void fetch(List<String> ids, Fetch fetch, Deadline deadline) throws IOException, URISyntaxException {
+        fetch(ids, fetch, deadline, true);
+    }
+
+    /**
+     * @param retry Whether to fetch the ids whole once more before splitting them.
+     */
+    private void fetch(List<String> ids, Fetch fetch, Deadline deadline, boolean retry)
+            throws IOException, URISyntaxException {
+        try {
+            fetch.fetch(ids);
+            fetchedChunks.incrementAndGet();
+        } catch (IOException | URISyntaxException | RuntimeException e) {
+            SkritterException stopped = deadline.failure("getting vocabs", e);
+            if (stopped != null) {
+                throw stopped;
+            }
+            if (!isSalvageable(e)) {
+                throw e;
+            }
+            firstFailure.compareAndSet(null, e);
+
+            if (retry) {
+                LOGGER.warn("Chunk of {} vocab ids failed, fetching it again: {}", ids.size(), e.toString());
+                fetch(ids, fetch, deadline, false);
+                return;
+            }
+            if (ids.size() == 1 || splits.incrementAndGet() > maxSplits) {
+                LOGGER.warn("Giving up on {} vocab id(s) {}: {}", ids.size(), ids, e.toString());
+                ids.forEach(id -> unrecoverableIds.put(id, e.toString()));
+                return;
+            }
+
+            int half = ids.size() / 2;
+            LOGGER.warn("Chunk of {} vocab ids failed, fetching each half: {}", ids.size(), e.toString());
+            // Halves fail on the ids, as the whole chunk failed twice, so are not retried
+            fetch(ids.subList(0, half), fetch, deadline, false);
+            fetch(ids.subList(half, ids.size()), fetch, deadline, false);
+        }
+    }
+
+    /**
+     * Whether the failure could be down to the ids in the chunk: an error response, or
+     * one that could not be parsed.  Throttling, refused authorization and anything
+     * else, e.g. timeouts and broken connections, are not, and splitting would only
+     * add to the load.
+     */
+    private static boolean isSalvageable(Exception e) {
+        if (e instanceof HttpFailureException httpFailure) {
+            int status = httpFailure.getStatus();
+            return !RetryPolicy.isThrottle(status)
+                    && status != HttpStatus.SC_UNAUTHORIZED && status != HttpStatus.SC_FORBIDDEN;
+        }
+        return e instanceof ParseFailureException;
+    }
+
+    /**
+     * Rethrow the first failure if no chunk at all was fetched, as then the ids are
+     * unlikely to be the problem.
+     */
+    void checkSalvaged() throws IOException, URISyntaxException {
+        Exception failure = firstFailure.get();
+        if (failure == null || fetchedChunks.get() > 0) {
+            return;
+        }
+        if (failure instanceof IOException ioException) {
+            throw ioException;
+        } else if (failure instanceof URISyntaxException uriSyntaxException) {
+            throw uriSyntaxException;
+        }
+        throw (RuntimeException) failure;
+    }
+
+    /**
+     * @return Each id that could not be fetched, in order, with why.
+     */
+    Map<String, String> getUnrecoverableIds() {
+        return new TreeMap<>(unrecoverableIds);
+    }
+
+    int getSplitCount() {
+        return Math.min(splits.get(), maxSplits);
+    }
+
+    @Override
+    public String toString() {
+        return fetchedChunks.get() + " chunks fetched, " + getSplitCount() + " split, "
+                + unrecoverableIds.size() + " unrecoverable ids";
+    }
+}
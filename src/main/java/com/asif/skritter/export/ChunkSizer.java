@@ -0,0 +1,229 @@
+// MIT License
+//
+// Copyright (c) 2023 David Stone <ds.skritter.export@asif.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.asif.skritter.export;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.Properties;
+
+/**
+ * Chooses how many vocab ids to ask for in each batch.
+ * <p>
+ * Each finished chunk reports its size, how long the server took over it and how
+ * many response bytes it produced.  Smoothed per-id costs give the largest chunk
+ * expected to meet both the target latency and the target response size; the
+ * next chunk moves towards it, at most doubling or halving, within the configured
+ * bounds.  A failed chunk halves the size.  Equal bounds fix the size.
+ */
+public class ChunkSizer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChunkSizer.class);
+
+    static final String MIN_IDS_PROPERTY = "Vocab-Chunk-Min-Ids";
+    static final String MAX_IDS_PROPERTY = "Vocab-Chunk-Max-Ids";
+    static final String INITIAL_IDS_PROPERTY = "Vocab-Chunk-Initial-Ids";
+    static final String TARGET_MILLISECONDS_PROPERTY = "Vocab-Chunk-Target-Milliseconds";
+    static final String TARGET_BYTES_PROPERTY = "Vocab-Chunk-Target-Bytes";
+
+    static final int MIN_IDS_DEFAULT = 25;
+    static final int MAX_IDS_DEFAULT = 200;
+    static final int INITIAL_IDS_DEFAULT = 100;
+    static final long TARGET_MILLISECONDS_DEFAULT = 5000;
+    static final long TARGET_BYTES_DEFAULT = 2_000_000;
+
+    // Weight of the newest chunk in the smoothed per-id costs
+    private static final double SMOOTHING = 0.3;
+
+    private final int minIds;
+    private final int maxIds;
+    private final long targetMillis;
+    private final long targetBytes;
+
+    private int chunkSize;
+    private double millisPerId = -1;
+    private double bytesPerId = -1;
+    private int smallestChosen;
+    private int largestChosen;
+    private long chunks;
+    private long failures;
+    private long adjustments;
+
+    ChunkSizer(int minIds, int maxIds, int initialIds, long targetMillis, long targetBytes) {
+        this.minIds = Math.max(1, minIds);
+        this.maxIds = Math.max(this.minIds, maxIds);
+        this.targetMillis = targetMillis;
+        this.targetBytes = targetBytes;
+        this.chunkSize = clamp(initialIds);
+        this.smallestChosen = chunkSize;
+        this.largestChosen = chunkSize;
+    }
+
+    static ChunkSizer defaults() {
+        return new ChunkSizer(MIN_IDS_DEFAULT, MAX_IDS_DEFAULT, INITIAL_IDS_DEFAULT,
+                TARGET_MILLISECONDS_DEFAULT, TARGET_BYTES_DEFAULT);
+    }
+
+    static ChunkSizer fixed(int ids) {
+        return new ChunkSizer(ids, ids, ids, TARGET_MILLISECONDS_DEFAULT, TARGET_BYTES_DEFAULT);
+    }
+
+    static ChunkSizer from(Properties properties) {
+        return new ChunkSizer(
+                ClientProperties.getInt(properties, MIN_IDS_PROPERTY, MIN_IDS_DEFAULT),
+                ClientProperties.getInt(properties, MAX_IDS_PROPERTY, MAX_IDS_DEFAULT),
+                ClientProperties.getInt(properties, INITIAL_IDS_PROPERTY, INITIAL_IDS_DEFAULT),
+                ClientProperties.getLong(properties, TARGET_MILLISECONDS_PROPERTY, TARGET_MILLISECONDS_DEFAULT),
+                ClientProperties.getLong(properties, TARGET_BYTES_PROPERTY, TARGET_BYTES_DEFAULT));
+    }
+
+    /**
+     * @return How many ids to put in the next chunk.
+     */
+    synchronized int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Learn from a chunk whose results have all been handled.
+     * @param requests The chunk's batch requests, whose created and done times and
+     *                 response sizes are the server's account of the work.
+     * @param elapsedMillis Time from posting the chunk to handling its results, used
+     *                      when the server's times are too coarse to tell.
+     */
+    void completed(int size, Collection<BatchRequest> requests, long elapsedMillis) {
+        long serverMillis = getServerMillis(requests);
+        completed(size, (serverMillis > 0) ? serverMillis : elapsedMillis, getResponseBytes(requests));
+    }
+
+    synchronized void completed(int size, long latencyMillis, long responseBytes) {
+        if (size <= 0) {
+            return;
+        }
+        chunks++;
+        millisPerId = smooth(millisPerId, (double) latencyMillis / size);
+        bytesPerId = smooth(bytesPerId, (double) responseBytes / size);
+
+        double wanted = maxIds;
+        if (millisPerId > 0) {
+            wanted = Math.min(wanted, targetMillis / millisPerId);
+        }
+        if (bytesPerId > 0) {
+            wanted = Math.min(wanted, targetBytes / bytesPerId);
+        }
+        // Move at most a factor of two from the current size
+        wanted = Math.max(chunkSize / 2.0, Math.min(chunkSize * 2.0, wanted));
+        int previous = resize((int) wanted);
+        if (previous != chunkSize) {
+            LOGGER.info("Vocab chunk size {} -> {} after {} ms, {} response bytes for {} ids",
+                    previous, chunkSize, latencyMillis, responseBytes, size);
+        }
+    }
+
+    /**
+     * A chunk of the given size failed; halve the size.
+     */
+    synchronized void failed(int size) {
+        failures++;
+        int previous = resize(Math.min(chunkSize, size) / 2);
+        LOGGER.info("Vocab chunk size {} -> {} after a chunk of {} ids failed", previous, chunkSize, size);
+    }
+
+    /**
+     * @return The size before resizing.
+     */
+    private int resize(int wanted) {
+        int previous = chunkSize;
+        chunkSize = clamp(wanted);
+        if (chunkSize != previous) {
+            adjustments++;
+        }
+        smallestChosen = Math.min(smallestChosen, chunkSize);
+        largestChosen = Math.max(largestChosen, chunkSize);
+        return previous;
+    }
+
+    private int clamp(int size) {
+        return Math.max(minIds, Math.min(maxIds, size));
+    }
+
+    private static double smooth(double smoothed, double observed) {
+        return (smoothed < 0) ? observed : smoothed + SMOOTHING * (observed - smoothed);
+    }
+
+    /**
+     * @return Server time from the first request created to the last done, or 0 if
+     * unknown.  Skritter reports whole seconds.
+     */
+    static long getServerMillis(Collection<BatchRequest> requests) {
+        long created = Long.MAX_VALUE;
+        long done = 0;
+        for (BatchRequest request : requests) {
+            if (request.created != null && request.done != null && request.done > 0) {
+                created = Math.min(created, request.created);
+                done = Math.max(done, request.done);
+            }
+        }
+        return (done > created) ? (done - created) * 1000 : 0;
+    }
+
+    static long getResponseBytes(Collection<BatchRequest> requests) {
+        long bytes = 0;
+        for (BatchRequest request : requests) {
+            if (request.responseSize != null) {
+                bytes += request.responseSize;
+            }
+        }
+        return bytes;
+    }
+
+    synchronized int getSmallestChosen() {
+        return smallestChosen;
+    }
+
+    synchronized int getLargestChosen() {
+        return largestChosen;
+    }
+
+    synchronized long getChunkCount() {
+        return chunks;
+    }
+
+    synchronized long getFailureCount() {
+        return failures;
+    }
+
+    /**
+     * @return How many times the chunk size has changed.
+     */
+    synchronized long getAdjustmentCount() {
+        return adjustments;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "size " + chunkSize + " ids (" + smallestChosen + " to " + largestChosen + " chosen, "
+                + adjustments + " adjustments) after " + chunks + " chunks, " + failures + " failed";
+    }
+}
@@ -0,0 +1,84 @@
+// MIT License
+//
+// Copyright (c) 2023 David Stone <ds.skritter.export@asif.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.asif.skritter.export;
+
+import java.text.MessageFormat;
+import java.util.Properties;
+
+/**
+ * Typed access to the optional tuning properties in skritter.properties.
+ */
+public class ClientProperties {
+
+    static final String ERROR_INVALID_PROPERTY_VALUE = "Invalid value \"{1}\" for property {0}";
+
+    private ClientProperties() {
+    }
+
+    static int getInt(Properties properties, String name, int defaultValue) {
+        long value = getLong(properties, name, defaultValue);
+        try {
+            return Math.toIntExact(value);
+        } catch (ArithmeticException e) {
+            throw new SkritterException(MessageFormat.format(ERROR_INVALID_PROPERTY_VALUE, name,
+                    properties.getProperty(name)));
+        }
+    }
+
+    static long getLong(Properties properties, String name, long defaultValue) {
+        String value = properties.getProperty(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new SkritterException(MessageFormat.format(ERROR_INVALID_PROPERTY_VALUE, name, value));
+        }
+    }
+
+    static double getDouble(Properties properties, String name, double defaultValue) {
+        String value = properties.getProperty(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            throw new SkritterException(MessageFormat.format(ERROR_INVALID_PROPERTY_VALUE, name, value));
+        }
+    }
+
+    static boolean getBoolean(Properties properties, String name, boolean defaultValue) {
+        String value = properties.getProperty(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        return switch (value.trim().toLowerCase()) {
+            case "true", "yes", "on" -> true;
+            case "false", "no", "off" -> false;
+            default -> throw new SkritterException(
+                    MessageFormat.format(ERROR_INVALID_PROPERTY_VALUE, name, value));
+        };
+    }
+}
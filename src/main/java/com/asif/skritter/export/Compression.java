@@ -0,0 +1,197 @@
+// MIT License
+//
+// Copyright (c) 2023 David Stone <ds.skritter.export@asif.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.asif.skritter.export;
+
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.io.entity.ByteArrayEntity;
+import org.apache.hc.core5.http.io.entity.HttpEntityWrapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Gzip/deflate support for Skritter API traffic.
+ * <p>
+ * The http clients' own transparent decompression is turned off so that the bytes
+ * on the wire can be counted; responses are decoded here instead, as a stream, so
+ * decoding works with the streaming batch data parser.
+ */
+public class Compression {
+
+    static final String ACCEPT_ENCODING = "gzip, deflate";
+    static final String GZIP = "gzip";
+    static final String DEFLATE = "deflate";
+
+    private Compression() {
+    }
+
+    /**
+     * A JSON request body, gzipped if requested.
+     */
+    static HttpEntity requestEntity(String json, boolean gzip, TrafficStats.Exchange exchange)
+            throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        if (!gzip) {
+            exchange.requestBody(bytes.length, bytes.length);
+            return new ByteArrayEntity(bytes, ContentType.APPLICATION_JSON);
+        }
+        byte[] compressed = gzip(bytes);
+        exchange.requestBody(compressed.length, bytes.length);
+        return new ByteArrayEntity(compressed, ContentType.APPLICATION_JSON, GZIP);
+    }
+
+    /**
+     * Replace the response's entity with one that decodes its content encoding as it
+     * is read, counting both the wire and decoded bytes.
+     */
+    static void decode(ClassicHttpResponse response, TrafficStats.Exchange exchange) {
+        HttpEntity entity = response.getEntity();
+        if (entity != null) {
+            Header contentEncoding = response.getFirstHeader(HttpHeaders.CONTENT_ENCODING);
+            String encoding = (contentEncoding != null) ? contentEncoding.getValue() : entity.getContentEncoding();
+            response.setEntity(new DecodingEntity(entity, encoding, exchange));
+        }
+    }
+
+    /**
+     * Decode a fully buffered response body.
+     */
+    static byte[] decode(byte[] body, String encoding, TrafficStats.Exchange exchange) throws IOException {
+        exchange.responseBytes.addAndGet(body.length);
+        byte[] decoded;
+        try (InputStream inputStream = decoder(new ByteArrayInputStream(body), encoding)) {
+            decoded = inputStream.readAllBytes();
+        }
+        exchange.responseBytesDecoded.addAndGet(decoded.length);
+        return decoded;
+    }
+
+    static InputStream decoder(InputStream inputStream, String encoding) throws IOException {
+        if (encoding == null) {
+            return inputStream;
+        }
+        return switch (encoding.trim().toLowerCase()) {
+            case GZIP, "x-gzip" -> new GZIPInputStream(inputStream);
+            case DEFLATE -> new InflaterInputStream(inputStream);
+            default -> inputStream;
+        };
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(bytes.length / 4 + 32);
+        try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(outputStream)) {
+            gzipOutputStream.write(bytes);
+        }
+        return outputStream.toByteArray();
+    }
+
+    private static class DecodingEntity extends HttpEntityWrapper {
+
+        private final String encoding;
+        private final TrafficStats.Exchange exchange;
+        private InputStream content;
+
+        DecodingEntity(HttpEntity entity, String encoding, TrafficStats.Exchange exchange) {
+            super(entity);
+            this.encoding = encoding;
+            this.exchange = exchange;
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            if (content == null) {
+                InputStream wire = new CountingInputStream(super.getContent(), exchange.responseBytes);
+                content = new CountingInputStream(decoder(wire, encoding), exchange.responseBytesDecoded);
+            }
+            return content;
+        }
+
+        @Override
+        public long getContentLength() {
+            return (encoding == null) ? super.getContentLength() : -1;
+        }
+
+        @Override
+        public String getContentEncoding() {
+            return null;
+        }
+
+        @Override
+        public boolean isStreaming() {
+            return true;
+        }
+
+        @Override
+        public void writeTo(OutputStream outputStream) throws IOException {
+            getContent().transferTo(outputStream);
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+
+        private final AtomicLong count;
+
+        CountingInputStream(InputStream inputStream, AtomicLong count) {
+            super(inputStream);
+            this.count = count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count.incrementAndGet();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            if (n > 0) {
+                count.addAndGet(n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count.addAndGet(skipped);
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+// MIT License
+//
+// Copyright (c) 2023 David Stone <ds.skritter.export@asif.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.asif.skritter.export;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Properties;
+import java.util.function.LongSupplier;
+
+/**
+ * Limits how many batches are in flight at once, adapting the limit to how the
+ * server is coping.
+ * <p>
+ * While batch latency stays near the lowest seen and the limit is being used, the
+ * limit grows by about one per round of batches.  It is cut back by a little when
+ * latency climbs and by half when the server throttles (AIMD).  A fixed limiter
+ * never changes its limit.
+ * <p>
+ * Thread safe; one limiter is shared by all of an ApiClient's batches.
+ */
+public class ConcurrencyLimiter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConcurrencyLimiter.class);
+
+    static final String MAX_CONCURRENT_BATCHES_PROPERTY = "Max-Concurrent-Batches";
+
+    static final int MAX_CONCURRENT_BATCHES_DEFAULT = 8;
+    static final int INITIAL_LIMIT = 2;
+
+    // Latency up to this multiple of the baseline counts as flat
+    static final double LATENCY_TOLERANCE = 2.0;
+    static final double LATENCY_BACKOFF = 0.9;
+    static final double THROTTLE_BACKOFF = 0.5;
+    // How quickly the baseline drifts up towards latencies above it
+    private static final double BASELINE_DRIFT = 0.05;
+
+    private final int maxLimit;
+    private final boolean adaptive;
+    private final LongSupplier nanoClock;
+
+    private double limit;
+    private int inFlight;
+    private double baselineNanos = -1;
+    private long lastThrottleBackoffNanos;
+    private boolean backedOffForThrottle;
+
+    private ConcurrencyLimiter(int initialLimit, int maxLimit, boolean adaptive, LongSupplier nanoClock) {
+        this.maxLimit = Math.max(1, maxLimit);
+        this.limit = Math.max(1, Math.min(initialLimit, this.maxLimit));
+        this.adaptive = adaptive;
+        this.nanoClock = nanoClock;
+    }
+
+    static ConcurrencyLimiter adaptive(int maxLimit) {
+        return adaptive(maxLimit, System::nanoTime);
+    }
+
+    static ConcurrencyLimiter adaptive(int maxLimit, LongSupplier nanoClock) {
+        return new ConcurrencyLimiter(INITIAL_LIMIT, maxLimit, true, nanoClock);
+    }
+
+    static ConcurrencyLimiter fixed(int limit) {
+        return new ConcurrencyLimiter(limit, limit, false, System::nanoTime);
+    }
+
+    /**
+     * A fixed limit if Vocab-Fetch-Parallelism is set, otherwise adaptive.
+     */
+    static ConcurrencyLimiter from(Properties properties) {
+        int parallelism = ClientProperties.getInt(properties, ApiClient.VOCAB_FETCH_PARALLELISM_PROPERTY, 0);
+        if (parallelism > 0) {
+            return fixed(parallelism);
+        }
+        return adaptive(ClientProperties.getInt(properties, MAX_CONCURRENT_BATCHES_PROPERTY,
+                MAX_CONCURRENT_BATCHES_DEFAULT));
+    }
+
+    /**
+     * Wait until another batch may be started.
+     */
+    synchronized Permit acquire() throws InterruptedException {
+        while (inFlight >= getLimit()) {
+            wait();
+        }
+        inFlight++;
+        // Only a limit that is being used is worth raising
+        return new Permit(nanoClock.getAsLong(), inFlight * 2 > getLimit());
+    }
+
+    /**
+     * The server throttled a request.  Backs off at most once per baseline latency,
+     * so one burst of throttled requests is one signal.
+     */
+    synchronized void throttled() {
+        long now = nanoClock.getAsLong();
+        if (!adaptive || (backedOffForThrottle && now - lastThrottleBackoffNanos < baselineNanos)) {
+            return;
+        }
+        backedOffForThrottle = true;
+        lastThrottleBackoffNanos = now;
+        setLimit(limit * THROTTLE_BACKOFF, "throttled");
+    }
+
+    synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    int getMaxLimit() {
+        return maxLimit;
+    }
+
+    synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    private synchronized void onRelease(long latencyNanos, boolean saturated) {
+        inFlight--;
+        if (adaptive && latencyNanos >= 0) {
+            if (baselineNanos < 0 || latencyNanos < baselineNanos) {
+                baselineNanos = latencyNanos;
+            } else {
+                baselineNanos += BASELINE_DRIFT * (latencyNanos - baselineNanos);
+            }
+
+            if (latencyNanos > baselineNanos * LATENCY_TOLERANCE) {
+                setLimit(limit * LATENCY_BACKOFF, "latency rising");
+            } else if (saturated) {
+                setLimit(limit + 1 / limit, null);
+            }
+        }
+        notifyAll();
+    }
+
+    private void setLimit(double newLimit, String reason) {
+        int before = getLimit();
+        limit = Math.max(1, Math.min(maxLimit, newLimit));
+        if (getLimit() != before) {
+            LOGGER.debug("Concurrency limit {} -> {}{}", before, getLimit(), (reason == null) ? "" : ", " + reason);
+            notifyAll();
+        }
+    }
+
+    /**
+     * One in-flight batch.  Release exactly once.
+     */
+    class Permit {
+        private final long startNanos;
+        private final boolean saturated;
+
+        private Permit(long startNanos, boolean saturated) {
+            this.startNanos = startNanos;
+            this.saturated = saturated;
+        }
+
+        /**
+         * The batch completed; its latency feeds the limit.
+         */
+        void complete() {
+            onRelease(nanoClock.getAsLong() - startNanos, saturated);
+        }
+
+        /**
+         * The batch failed; release without learning from it.
+         */
+        void release() {
+            onRelease(-1, false);
+        }
+    }
+}
@@ -32,12 +32,15 @@ public class Constants {
     public static final String SKRITTER_STATUS_CODE_FIELD = "statusCode";
     public static final String SKRITTER_SPAWNED_BY_FIELD = "spawnedBy";
     public static final String SKRITTER_RESPONSE_FIELD = "response";
+    public static final String SKRITTER_RESPONSE_SIZE_FIELD = "responseSize";
     public static final String SKRITTER_STYLE_FIELD = "style";
     public static final String SKRITTER_WRITING_FIELD = "writing";
     public static final String SKRITTER_READING_FIELD = "reading";
     public static final String SKRITTER_DEFINITIONS_FIELD = "definitions";
     public static final String SKRITTER_CUSTOM_DEFINITION_FIELD = "customDefinition";
     public static final String SKRITTER_BANNED_PARTS_FIELD = "bannedParts";
+    public static final String SKRITTER_TOUGHNESS_FIELD = "toughness";
+    public static final String SKRITTER_STARRED_FIELD = "starred";
     public static final String SKRITTER_VOCAB_IDS_FIELD = "vocabIds";
     public static final String SKRITTER_DONE_FIELD = "done";
     public static final String SKRITTER_REQUESTS_ARRAY_NAME = "Requests";
@@ -47,6 +50,9 @@ public class Constants {
     public static final String SKRITTER_PARAMS_OBJECT_NAME = "params";
     public static final String SKRITTER_IDS_PARAMETER = "ids";
     public static final String SKRITTER_FIELDS_PARAMETER = "fields";
+    public static final String SKRITTER_SORT_PARAMETER = "sort";
+    public static final String SKRITTER_PARTS_PARAMETER = "parts";
+    public static final String SKRITTER_CURSOR_FIELD = "cursor";
     public static final String SKRITTER_VOCAB_SORT_BANNED_PARAMETER = "banned";
     public static final String SKRITTER_REQUEST_IDS_PARAMETER = "request_ids";
     public static final String SKRITTER_VOCAB_OBJECT_NAME = "Vocab";
@@ -60,10 +66,15 @@ public class Constants {
     public static final String SKRITTER_VOCABS_PATH = "api/v0/vocabs";
     public static final String SKRITTER_GET_METHOD = "GET";
     public static final String ENDPOINT_BASE = "https://skritter.com/api/v0";
-    public static final String BATCH_ENDPOINT = ENDPOINT_BASE + "/batch";
-    public static final String VOCABS_ENDPOINT = ENDPOINT_BASE + "/vocabs";
-    public static final String ITEMS_ENDPOINT = ENDPOINT_BASE + "/items";
-    public static final String SIMPLE_TRAD_MAP_ENDPOINT = ENDPOINT_BASE + "/simptradmap";
+    // Endpoint paths, under the default or a configured endpoint base
+    public static final String BATCH_ENDPOINT_PATH = "/batch";
+    public static final String VOCABS_ENDPOINT_PATH = "/vocabs";
+    public static final String ITEMS_ENDPOINT_PATH = "/items";
+    public static final String SIMPLE_TRAD_MAP_ENDPOINT_PATH = "/simptradmap";
+    public static final String BATCH_ENDPOINT = ENDPOINT_BASE + BATCH_ENDPOINT_PATH;
+    public static final String VOCABS_ENDPOINT = ENDPOINT_BASE + VOCABS_ENDPOINT_PATH;
+    public static final String ITEMS_ENDPOINT = ENDPOINT_BASE + ITEMS_ENDPOINT_PATH;
+    public static final String SIMPLE_TRAD_MAP_ENDPOINT = ENDPOINT_BASE + SIMPLE_TRAD_MAP_ENDPOINT_PATH;
 
     public static final String SKRITTER_LANGUAGE_ENGLISH = "en";
 
@@ -0,0 +1,238 @@
+// MIT License
+//
+// Copyright (c) 2023 David Stone <ds.skritter.export@asif.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.asif.skritter.export;
+
+import org.apache.hc.core5.concurrent.Cancellable;
+
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * How long an export, or one part of it, has left, and a way to cancel it from
+ * another thread.  Waits and retry naps are cut short by it.  Work registered with
+ * it, such as an HTTP exchange or a wait for a batch, is cancelled when it expires
+ * or is cancelled, so the threads and connections it holds are freed at once.
+ * A child expires with its parent and is cancelled with it, but can also be
+ * cancelled alone, e.g. to stop the rest of a fan-out once one part has failed.
+ */
+public class Deadline {
+
+    static final String EXPORT_TIMEOUT_SECONDS_PROPERTY = "Export-Timeout-Seconds";
+    // No deadline
+    static final long EXPORT_TIMEOUT_SECONDS_DEFAULT = 0;
+
+    static final String ERROR_DEADLINE_EXCEEDED = "Deadline exceeded ";
+    static final String ERROR_CANCELLED = "Cancelled ";
+    static final String ERROR_INTERRUPTED = "Interrupted ";
+
+    private static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    // Cancels registered work when its deadline passes
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "deadline-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Deadline parent;
+    private final long expiresAtNanos;
+    private final LongSupplier nanoClock;
+    // Shared by a deadline and its children, so a cancel wakes any of their sleeps
+    private final Object monitor;
+    private final Set<Cancellable> registered = ConcurrentHashMap.newKeySet();
+    private volatile boolean cancelled;
+
+    private Deadline(Deadline parent, long expiresAtNanos, LongSupplier nanoClock) {
+        this.parent = parent;
+        this.expiresAtNanos = expiresAtNanos;
+        this.nanoClock = nanoClock;
+        this.monitor = (parent != null) ? parent.monitor : new Object();
+    }
+
+    static Deadline none() {
+        return new Deadline(null, NO_DEADLINE, System::nanoTime);
+    }
+
+    static Deadline after(long millis) {
+        return after(millis, System::nanoTime);
+    }
+
+    static Deadline after(long millis, LongSupplier nanoClock) {
+        return new Deadline(null, nanoClock.getAsLong() + TimeUnit.MILLISECONDS.toNanos(millis), nanoClock);
+    }
+
+    static Deadline from(Properties properties) {
+        long seconds = ClientProperties.getLong(
+                properties, EXPORT_TIMEOUT_SECONDS_PROPERTY, EXPORT_TIMEOUT_SECONDS_DEFAULT);
+        return (seconds > 0) ? after(TimeUnit.SECONDS.toMillis(seconds)) : none();
+    }
+
+    /**
+     * A deadline expiring with this one, that can be cancelled without cancelling this one.
+     */
+    Deadline child() {
+        return new Deadline(this, expiresAtNanos, nanoClock);
+    }
+
+    boolean isBounded() {
+        return expiresAtNanos != NO_DEADLINE;
+    }
+
+    /**
+     * @return Milliseconds left, 0 once expired, or Long.MAX_VALUE without a deadline.
+     */
+    long remainingMillis() {
+        if (!isBounded()) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(expiresAtNanos - nanoClock.getAsLong()));
+    }
+
+    boolean isExpired() {
+        return isBounded() && expiresAtNanos - nanoClock.getAsLong() <= 0;
+    }
+
+    boolean isCancelled() {
+        return cancelled || (parent != null && parent.isCancelled());
+    }
+
+    /**
+     * Cancel this deadline, and its children, and the work registered with them.
+     */
+    void cancel() {
+        synchronized (monitor) {
+            cancelled = true;
+            monitor.notifyAll();
+        }
+        registered.forEach(Cancellable::cancel);
+    }
+
+    /**
+     * Stop now if the current thread has been interrupted, or this deadline has
+     * expired or been cancelled.
+     * @param what What is being done, for the error message.
+     */
+    void check(String what) {
+        SkritterException failure = failure(what, null);
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * @return Why work can no longer go on, or null if it can.
+     */
+    SkritterException failure(String what, Exception cause) {
+        String error;
+        if (Thread.currentThread().isInterrupted()) {
+            error = ERROR_INTERRUPTED;
+        } else if (isCancelled()) {
+            error = ERROR_CANCELLED;
+        } else if (isExpired()) {
+            error = ERROR_DEADLINE_EXCEEDED;
+        } else {
+            return null;
+        }
+        // Keeping this message, which the cause's would replace in the two argument constructor
+        SkritterException failure = new SkritterException(error + what);
+        if (cause != null) {
+            failure.initCause(cause);
+        }
+        return failure;
+    }
+
+    /**
+     * Sleep, e.g. before a retry, unless the deadline would pass first, in which case
+     * fail straight away rather than wait for work that could not finish in time.
+     * Interrupts and cancellation end the sleep early, with a failure.
+     */
+    void sleep(long millis, String what) {
+        check(what);
+        if (millis <= 0) {
+            return;
+        }
+        if (millis > remainingMillis()) {
+            throw new SkritterException(ERROR_DEADLINE_EXCEEDED + what);
+        }
+        long wakeNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        synchronized (monitor) {
+            try {
+                for (long nanos = TimeUnit.MILLISECONDS.toNanos(millis); nanos > 0 && !isCancelled();
+                     nanos = wakeNanos - System.nanoTime()) {
+                    TimeUnit.NANOSECONDS.timedWait(monitor, nanos);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        check(what);
+    }
+
+    /**
+     * Cancel the work if this deadline expires or is cancelled before the
+     * registration is closed.  Work registered once that has happened is
+     * cancelled straight away.
+     */
+    Registration register(Cancellable work) {
+        // Registered with every ancestor, so cancelling any of them cancels the work
+        for (Deadline deadline = this; deadline != null; deadline = deadline.parent) {
+            deadline.registered.add(work);
+        }
+        // In nanoseconds, as rounding down to milliseconds could fire just before the deadline
+        ScheduledFuture<?> expiry = isBounded()
+                ? TIMER.schedule(work::cancel, expiresAtNanos - nanoClock.getAsLong(), TimeUnit.NANOSECONDS) : null;
+        if (isCancelled()) {
+            work.cancel();
+        }
+        return () -> {
+            if (expiry != null) {
+                expiry.cancel(false);
+            }
+            for (Deadline deadline = this; deadline != null; deadline = deadline.parent) {
+                deadline.registered.remove(work);
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        if (isCancelled()) {
+            return "cancelled";
+        }
+        return isBounded() ? remainingMillis() + "ms left" : "none";
+    }
+
+    /**
+     * Work registered with a deadline, unregistered on close.
+     */
+    interface Registration extends AutoCloseable {
+        @Override
+        void close();
+    }
+}
@@ -0,0 +1,253 @@
+// MIT License
+//
+// Copyright (c) 2023 David Stone <ds.skritter.export@asif.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+package com.asif.skritter.export;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.text.MessageFormat;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Which studied words are exported.  Each condition is applied as early as it can
+ * be: the parts are sent with the items request, so the server leaves other items
+ * out; the style studied and when study began are checked on each item as it is
+ * parsed, so only the vocabs of matching items are fetched; and the toughness and
+ * star, which only vocabs carry, are checked on each vocab as it is parsed, before
+ * a Vocab is built.  The fields a condition reads are added to the projections.
+ */
+public class ExportFilter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ExportFilter.class);
+
+    static final String EXPORT_PARTS_PROPERTY = "Export-Parts";
+    static final String EXPORT_STYLES_PROPERTY = "Export-Styles";
+    static final String EXPORT_CREATED_AFTER_PROPERTY = "Export-Created-After";
+    static final String EXPORT_MIN_TOUGHNESS_PROPERTY = "Export-Min-Toughness";
+    static final String EXPORT_MAX_TOUGHNESS_PROPERTY = "Export-Max-Toughness";
+    static final String EXPORT_STARRED_ONLY_PROPERTY = "Export-Starred-Only";
+
+    static final List<String> PARTS = List.of(
+            Constants.SKRITTER_ITEM_ID_WRITING_SUFFIX,
+            Constants.SKRITTER_ITEM_ID_TONE_SUFFIX,
+            Constants.SKRITTER_ITEM_ID_DEFINITION_SUFFIX,
+            Constants.SKRITTER_ITEM_ID_READING_SUFFIX);
+    static final List<String> STYLES = List.of(
+            Constants.SKRITTER_WRITING_STYLE_SIMPLE,
+            Constants.SKRITTER_WRITING_STYLE_TRADITIONAL,
+            Constants.SKRITTER_WRITING_STYLE_BOTH);
+
+    private final List<String> parts;
+    // Empty for any style
+    private final Set<String> styles;
+    // Epoch seconds, or null for any time
+    private final Long createdAfter;
+    private final Long minToughness;
+    private final Long maxToughness;
+    private final boolean starredOnly;
+
+    private ExportFilter(List<String> parts, Set<String> styles, Long createdAfter,
+                         Long minToughness, Long maxToughness, boolean starredOnly) {
+        this.parts = parts;
+        this.styles = styles;
+        this.createdAfter = createdAfter;
+        this.minToughness = minToughness;
+        this.maxToughness = maxToughness;
+        this.starredOnly = starredOnly;
+    }
+
+    /**
+     * @return The export as it has always been: every word studied for its writing.
+     */
+    static ExportFilter none() {
+        return new ExportFilter(List.of(Constants.SKRITTER_ITEM_ID_WRITING_SUFFIX), Set.of(),
+                null, null, null, false);
+    }
+
+    static ExportFilter from(Properties properties) {
+        List<String> parts = getValues(properties, EXPORT_PARTS_PROPERTY, PARTS);
+        if (parts.isEmpty()) {
+            parts = List.of(Constants.SKRITTER_ITEM_ID_WRITING_SUFFIX);
+        }
+        Set<String> styles = new LinkedHashSet<>(getValues(properties, EXPORT_STYLES_PROPERTY, STYLES));
+
+        return new ExportFilter(parts, styles,
+                getStartOfDay(properties, EXPORT_CREATED_AFTER_PROPERTY),
+                getOptionalLong(properties, EXPORT_MIN_TOUGHNESS_PROPERTY),
+                getOptionalLong(properties, EXPORT_MAX_TOUGHNESS_PROPERTY),
+                ClientProperties.getBoolean(properties, EXPORT_STARRED_ONLY_PROPERTY, false));
+    }
+
+    /**
+     * @return The parts to export, the item id suffixes.
+     */
+    List<String> getParts() {
+        return parts;
+    }
+
+    /**
+     * @return The parts, as the items request's parts parameter.
+     */
+    String getPartsParameter() {
+        return String.join(",", parts);
+    }
+
+    /**
+     * @return Whether items must be fetched with more than their ids to be filtered.
+     */
+    boolean filtersItems() {
+        return !styles.isEmpty() || createdAfter != null;
+    }
+
+    /**
+     * @return The item fields read, the id and any that the filter checks.
+     */
+    FieldProjection getItemProjection() {
+        List<String> fields = new ArrayList<>();
+        fields.add(Constants.SKRITTER_ID_FIELD);
+        if (!styles.isEmpty()) {
+            fields.add(Constants.SKRITTER_STYLE_FIELD);
+        }
+        if (createdAfter != null) {
+            fields.add(Constants.SKRITTER_CREATED_FIELD);
+        }
+        return FieldProjection.of(fields.toArray(new String[0]));
+    }
+
+    /**
+     * @param item A parsed item, with at least the fields of {@link #getItemProjection()}.
+     */
+    boolean acceptsItem(Map<String, Object> item) {
+        if (!styles.isEmpty() && !styles.contains((String) item.get(Constants.SKRITTER_STYLE_FIELD))) {
+            return false;
+        }
+        return createdAfter == null || (item.get(Constants.SKRITTER_CREATED_FIELD) instanceof Long created
+                && created >= createdAfter);
+    }
+
+    /**
+     * @return Whether any vocab condition is set, so that vocabs need to be checked with
+     *         {@link #acceptsVocab(Map)}.
+     */
+    boolean filtersVocabs() {
+        return minToughness != null || maxToughness != null || starredOnly;
+    }
+
+    /**
+     * @return The vocab fields read, those a stage needs and any that the filter checks.
+     */
+    FieldProjection getVocabProjection(FieldProjection projection) {
+        List<String> fields = new ArrayList<>();
+        if (minToughness != null || maxToughness != null) {
+            fields.add(Constants.SKRITTER_TOUGHNESS_FIELD);
+        }
+        if (starredOnly) {
+            fields.add(Constants.SKRITTER_STARRED_FIELD);
+        }
+        return fields.isEmpty() ? projection : projection.union(FieldProjection.of(fields.toArray(new String[0])));
+    }
+
+    /**
+     * @param vocab A parsed vocab, not yet built, with at least the fields of
+     *              {@link #getVocabProjection(FieldProjection)}.  A vocab without a
+     *              numeric toughness passes the toughness bounds, as it cannot be
+     *              judged, and is logged.
+     */
+    boolean acceptsVocab(Map<String, Object> vocab) {
+        if (minToughness != null || maxToughness != null) {
+            if (vocab.get(Constants.SKRITTER_TOUGHNESS_FIELD) instanceof Number value) {
+                long toughness = value.longValue();
+                if ((minToughness != null && toughness < minToughness)
+                        || (maxToughness != null && toughness > maxToughness)) {
+                    return false;
+                }
+            } else {
+                LOGGER.info("Vocab {} has no toughness, kept", vocab.get(Constants.SKRITTER_ID_FIELD));
+            }
+        }
+        return !starredOnly || Boolean.TRUE.equals(vocab.get(Constants.SKRITTER_STARRED_FIELD));
+    }
+
+    private static List<String> getValues(Properties properties, String name, List<String> allowed) {
+        String value = properties.getProperty(name);
+        if (value == null || value.isBlank()) {
+            return List.of();
+        }
+        List<String> values = Arrays.stream(value.split(","))
+                .map(String::trim)
+                .filter(v -> !v.isEmpty())
+                .distinct()
+                .toList();
+        if (!allowed.containsAll(values)) {
+            throw new SkritterException(MessageFormat.format(
+                    ClientProperties.ERROR_INVALID_PROPERTY_VALUE, name, value));
+        }
+        return values;
+    }
+
+    private static Long getOptionalLong(Properties properties, String name) {
+        String value = properties.getProperty(name);
+        return (value == null || value.isBlank()) ? null : ClientProperties.getLong(properties, name, 0);
+    }
+
+    private static Long getStartOfDay(Properties properties, String name) {
+        String value = properties.getProperty(name);
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        try {
+            return LocalDate.parse(value.trim()).atStartOfDay(ZoneId.systemDefault()).toEpochSecond();
+        } catch (DateTimeParseException e) {
+            throw new SkritterException(MessageFormat.format(
+                    ClientProperties.ERROR_INVALID_PROPERTY_VALUE, name, value));
+        }
+    }
+
+    @Override
+    public String toString() {
+        List<String> conditions = new ArrayList<>();
+        conditions.add("parts " + getPartsParameter());
+        if (!styles.isEmpty()) {
+            conditions.add("styles " + String.join(",", styles));
+        }
+        if (createdAfter != null) {
+            conditions.add("created after " + createdAfter);
+        }
+        if (minToughness != null || maxToughness != null) {
+            conditions.add("toughness " + ((minToughness == null) ? "" : minToughness) + ".."
+                    + ((maxToughness == null) ? "" : maxToughness));
+        }
+        if (starredOnly) {
+            conditions.add("starred only");
+        }
+        return String.join(", ", conditions);
+    }
+}
@@ -0,0 +1,134 @@
+// MIT License
+//
+// Copyright (c) 2023 David Stone <ds.skritter.export@asif.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+package com.asif.skritter.export;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The fields of a Skritter object that a stage of the export reads.  It is sent as
+ * the fields parameter, so the server leaves the rest out of the response, and the
+ * parser skips any others the server sends anyway, rather than materializing them.
+ */
+public class FieldProjection {
+
+    /**
+     * Every field, i.e. no projection.
+     */
+    static final FieldProjection ALL = new FieldProjection(null);
+
+    /**
+     * Items are only read for their ids, which name the vocab and part studied.
+     */
+    static final FieldProjection ITEM_ID = of(Constants.SKRITTER_ID_FIELD);
+
+    /**
+     * Vocabs wanted only to tell which ids exist, e.g. the banned ones.
+     */
+    static final FieldProjection VOCAB_ID = of(Constants.SKRITTER_ID_FIELD);
+
+    /**
+     * Banned vocabs are only removed by id, but a Vocab cannot be built without its style.
+     */
+    static final FieldProjection BANNED_VOCAB = of(Constants.SKRITTER_ID_FIELD, Constants.SKRITTER_STYLE_FIELD);
+
+    /**
+     * The fields the Exporter writes out.
+     */
+    static final FieldProjection EXPORTED_VOCAB = of(
+            Constants.SKRITTER_ID_FIELD,
+            Constants.SKRITTER_STYLE_FIELD,
+            Constants.SKRITTER_READING_FIELD,
+            Constants.SKRITTER_WRITING_FIELD,
+            Constants.SKRITTER_DEFINITIONS_FIELD,
+            Constants.SKRITTER_CUSTOM_DEFINITION_FIELD);
+
+    // In the order given, so the same projection always makes the same parameter; null for all
+    private final Set<String> fields;
+
+    private FieldProjection(Set<String> fields) {
+        this.fields = (fields == null) ? null : Collections.unmodifiableSet(fields);
+    }
+
+    static FieldProjection of(String... fields) {
+        return new FieldProjection(new LinkedHashSet<>(List.of(fields)));
+    }
+
+    /**
+     * @return The fields needed by either projection, e.g. for a response that feeds two stages.
+     */
+    FieldProjection union(FieldProjection other) {
+        if (isAll() || other.isAll()) {
+            return ALL;
+        }
+        Set<String> union = new LinkedHashSet<>(fields);
+        union.addAll(other.fields);
+        return new FieldProjection(union);
+    }
+
+    boolean isAll() {
+        return fields == null;
+    }
+
+    boolean includes(String field) {
+        return isAll() || fields.contains(field);
+    }
+
+    /**
+     * @return The fields, or null for all of them.
+     */
+    Set<String> getFields() {
+        return fields;
+    }
+
+    /**
+     * @return The value of the fields parameter, or null to leave it out and get every field.
+     */
+    String toParameter() {
+        return isAll() ? null : String.join(",", fields);
+    }
+
+    /**
+     * @return A copy of an already parsed object, with only the projected fields.
+     */
+    Map<String, Object> project(Map<String, Object> object) {
+        if (isAll()) {
+            return object;
+        }
+        Map<String, Object> projected = new LinkedHashMap<>();
+        object.forEach((name, value) -> {
+            if (fields.contains(name)) {
+                projected.put(name, value);
+            }
+        });
+        return projected;
+    }
+
+    @Override
+    public String toString() {
+        return isAll() ? "all fields" : String.join(",", fields);
+    }
+}
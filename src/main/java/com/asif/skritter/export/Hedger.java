@@ -0,0 +1,245 @@
+// MIT License
+//
+// Copyright (c) 2023 David Stone <ds.skritter.export@asif.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.asif.skritter.export;
+
+import org.apache.hc.client5.http.classic.methods.HttpGet;
+import org.apache.hc.client5.http.classic.methods.HttpUriRequestBase;
+import org.apache.hc.core5.http.ClassicHttpRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Hedges idempotent GETs against tail latency.
+ * <p>
+ * If a GET has not been answered within the configured percentile of recent
+ * response times, an identical second request is sent.  The first to get a
+ * response wins and the other is aborted; only the winner's response is handled,
+ * so handlers with side effects, such as the streaming batch data parser, run once.
+ * Hedging is off unless Hedge-Percentile is set.
+ */
+public class Hedger {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Hedger.class);
+
+    static final String HEDGE_PERCENTILE_PROPERTY = "Hedge-Percentile";
+    static final String HEDGE_MIN_MILLISECONDS_PROPERTY = "Hedge-Min-Milliseconds";
+
+    static final int HEDGE_PERCENTILE_DEFAULT = 0;
+    static final long HEDGE_MIN_MILLISECONDS_DEFAULT = 100;
+    // Response times needed before hedging starts, and how many are remembered
+    static final int MIN_SAMPLES = 10;
+    private static final int WINDOW = 128;
+
+    private final int percentile;
+    private final long minMillis;
+
+    private final long[] latencies = new long[WINDOW];
+    private int samples;
+    private ExecutorService executor;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong hedges = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+
+    Hedger(int percentile, long minMillis) {
+        this.percentile = Math.max(0, Math.min(percentile, 100));
+        this.minMillis = minMillis;
+    }
+
+    static Hedger disabled() {
+        return new Hedger(0, HEDGE_MIN_MILLISECONDS_DEFAULT);
+    }
+
+    static Hedger from(Properties properties) {
+        return new Hedger(
+                ClientProperties.getInt(properties, HEDGE_PERCENTILE_PROPERTY, HEDGE_PERCENTILE_DEFAULT),
+                ClientProperties.getLong(properties, HEDGE_MIN_MILLISECONDS_PROPERTY, HEDGE_MIN_MILLISECONDS_DEFAULT));
+    }
+
+    boolean isEnabled() {
+        return percentile > 0;
+    }
+
+    /**
+     * One request attempt.  It must call claim.claim() once the response arrives,
+     * and handle the response only if that returns normally.
+     */
+    interface Call<T> {
+        T call(ClassicHttpRequest request, Claim claim) throws IOException;
+    }
+
+    interface Claim {
+        /**
+         * @throws InterruptedIOException If the other request already won.
+         */
+        void claim() throws InterruptedIOException;
+    }
+
+    /**
+     * Make the call, hedging it if it is slow.
+     */
+    <T> T execute(ClassicHttpRequest request, Call<T> call) throws IOException, URISyntaxException {
+
+        requests.incrementAndGet();
+        long delay = getHedgeDelayMillis();
+        long startNanos = System.nanoTime();
+
+        if (delay < 0) {
+            return call.call(request, () -> record(startNanos));
+        }
+
+        HttpUriRequestBase primary = copy(request);
+        HttpUriRequestBase hedge = copy(request);
+        AtomicReference<HttpUriRequestBase> winner = new AtomicReference<>();
+
+        CompletionService<T> completionService = new ExecutorCompletionService<>(getExecutor());
+        Future<T> primaryFuture = completionService.submit(
+                () -> call.call(primary, () -> claim(winner, primary, hedge, startNanos)));
+        Future<T> hedgeFuture = null;
+
+        try {
+            Future<T> done = completionService.poll(delay, TimeUnit.MILLISECONDS);
+            if (done == null && winner.get() == null) {
+                hedges.incrementAndGet();
+                LOGGER.debug("No response within {} ms, hedging {}", delay, request.getRequestUri());
+                hedgeFuture = completionService.submit(
+                        () -> call.call(hedge, () -> claim(winner, hedge, primary, startNanos)));
+            }
+            int outstanding = (hedgeFuture == null) ? 1 : 2;
+
+            ExecutionException failure = null;
+            for (int i = 0; i < outstanding; i++) {
+                Future<T> future = (done != null) ? done : completionService.take();
+                done = null;
+                HttpUriRequestBase self = (future == primaryFuture) ? primary : hedge;
+                try {
+                    T result = future.get();
+                    if (self == hedge) {
+                        hedgeWins.incrementAndGet();
+                    }
+                    return result;
+                } catch (ExecutionException e) {
+                    if (winner.get() == self) {
+                        // Failed handling its response; the other request is already aborted
+                        throw unwrap(e);
+                    } else if (winner.get() == null && failure == null) {
+                        // Failed before any response; the other request may yet succeed
+                        failure = e;
+                    }
+                }
+            }
+            throw unwrap(failure);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for " + request.getRequestUri());
+        } finally {
+            primary.cancel();
+            hedge.cancel();
+        }
+    }
+
+    private void claim(AtomicReference<HttpUriRequestBase> winner, HttpUriRequestBase self,
+                       HttpUriRequestBase other, long startNanos) throws InterruptedIOException {
+        if (!winner.compareAndSet(null, self)) {
+            throw new InterruptedIOException("Hedged request lost to the other request");
+        }
+        other.cancel();
+        record(startNanos);
+    }
+
+    private synchronized void record(long startNanos) {
+        latencies[samples % WINDOW] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        samples++;
+    }
+
+    /**
+     * @return How long to wait for a response before hedging, or -1 if not hedging.
+     */
+    synchronized long getHedgeDelayMillis() {
+        if (!isEnabled() || samples < MIN_SAMPLES) {
+            return -1;
+        }
+        long[] window = Arrays.copyOf(latencies, Math.min(samples, WINDOW));
+        Arrays.sort(window);
+        int index = (int) Math.ceil(percentile / 100.0 * window.length) - 1;
+        return Math.max(minMillis, window[Math.max(0, index)]);
+    }
+
+    long getRequestCount() {
+        return requests.get();
+    }
+
+    long getHedgeCount() {
+        return hedges.get();
+    }
+
+    /**
+     * @return How many hedges got their response before the request they hedged.
+     */
+    long getHedgeWinCount() {
+        return hedgeWins.get();
+    }
+
+    private synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = ThreadPools.newTaskExecutor("hedged-request");
+        }
+        return executor;
+    }
+
+    synchronized void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    private static HttpUriRequestBase copy(ClassicHttpRequest request) throws URISyntaxException {
+        HttpGet copy = new HttpGet(request.getUri());
+        copy.setHeaders(request.getHeaders());
+        return copy;
+    }
+
+    private static IOException unwrap(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException ioException) {
+            return ioException;
+        } else if (cause instanceof RuntimeException runtimeException) {
+            throw runtimeException;
+        }
+        throw new SkritterException("Hedged request failed", e);
+    }
+}
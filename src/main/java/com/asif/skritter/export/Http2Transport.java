@@ -0,0 +1,414 @@
+// MIT License
+//
+// Copyright (c) 2023 David Stone <ds.skritter.export@asif.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.asif.skritter.export;
+
+import org.apache.hc.client5.http.ClientProtocolException;
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.client5.http.async.methods.SimpleRequestProducer;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.core5.concurrent.CancellableDependency;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.ClassicHttpRequest;
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.ConnectionClosedException;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.EntityDetails;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.HttpResponse;
+import org.apache.hc.core5.http.Method;
+import org.apache.hc.core5.http.io.HttpClientResponseHandler;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.apache.hc.core5.http.io.entity.InputStreamEntity;
+import org.apache.hc.core5.http.io.support.ClassicRequestBuilder;
+import org.apache.hc.core5.http.message.BasicClassicHttpResponse;
+import org.apache.hc.core5.http.nio.AsyncResponseConsumer;
+import org.apache.hc.core5.http.nio.CapacityChannel;
+import org.apache.hc.core5.http.nio.support.classic.ContentInputStream;
+import org.apache.hc.core5.http.nio.support.classic.SharedInputBuffer;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.http2.H2ConnectionException;
+import org.apache.hc.core5.http2.impl.nio.ProtocolNegotiationException;
+import org.apache.hc.core5.io.CloseMode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.text.MessageFormat;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Sends ApiClient's requests over HTTP/2, so that concurrent status polls and data
+ * fetches share one multiplexed connection rather than a pool of HTTP/1.1
+ * connections.
+ * <p>
+ * Until a server has answered over HTTP/2, the protocol is unsettled.  Only a failure
+ * of h2 itself, i.e. ALPN or the connection preface, and only when the same server then
+ * answers over HTTP/1.1, switches this transport to the HTTP/1.1 fallback client for
+ * good.  Other failures, e.g. a refused connection or a timeout, are rethrown and leave
+ * HTTP/2 in use.  A request that is not idempotent is never sent while the protocol is
+ * unsettled: a HEAD settles it first, so such a request is never sent twice.
+ * <p>
+ * Requests and response handlers are the same as for the classic client.  HTTP/2
+ * response bodies are streamed to the handler as they arrive, with flow control
+ * holding the server back while the handler is behind.
+ */
+public class Http2Transport implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Http2Transport.class);
+
+    static final String HTTP_VERSION_PROPERTY = "Http-Version";
+    static final String HTTP_1_1 = "1.1";
+    static final String HTTP_2 = "2";
+
+    // Response body bytes buffered ahead of the handler, per exchange
+    private static final int RESPONSE_BUFFER_BYTES = 64 * 1024;
+
+    private enum Protocol { UNSETTLED, HTTP_2, HTTP_1_1 }
+
+    private final CloseableHttpAsyncClient httpClient;
+    private final CloseableHttpClient fallbackHttpClient;
+    private volatile Protocol protocol = Protocol.UNSETTLED;
+
+    private final AtomicLong http2Responses = new AtomicLong();
+    private final AtomicLong http1Responses = new AtomicLong();
+
+    /**
+     * @param fallbackHttpClient HTTP/1.1 client for servers without h2; not closed by this transport.
+     */
+    Http2Transport(CloseableHttpClient fallbackHttpClient) {
+        this.fallbackHttpClient = fallbackHttpClient;
+        httpClient = HttpClientFactory.buildHttp2();
+        httpClient.start();
+    }
+
+    /**
+     * @return A transport if Http-Version is 2, otherwise null for the classic client.
+     */
+    static Http2Transport from(Properties properties, CloseableHttpClient fallbackHttpClient) {
+        String version = properties.getProperty(HTTP_VERSION_PROPERTY, HTTP_1_1).trim();
+        return switch (version) {
+            case HTTP_1_1 -> null;
+            case HTTP_2 -> new Http2Transport(fallbackHttpClient);
+            default -> throw new SkritterException(MessageFormat.format(
+                    ClientProperties.ERROR_INVALID_PROPERTY_VALUE, HTTP_VERSION_PROPERTY, version));
+        };
+    }
+
+    /**
+     * Execute a request, blocking until its response has been handled.  Cancelling
+     * a cancellable request, e.g. an HttpGet, cancels the exchange.
+     */
+    <T> T execute(ClassicHttpRequest request, HttpClientResponseHandler<T> handler) throws IOException {
+
+        if (protocol == Protocol.UNSETTLED) {
+            if (isIdempotent(request)) {
+                // The request settles the protocol itself, as it is safe to send again
+                return settle(request, handler);
+            }
+            settle(head(request), HttpResponse::getCode);
+        }
+
+        if (protocol == Protocol.HTTP_1_1) {
+            return executeHttp1(request, handler);
+        }
+        return executeHttp2(request, handler);
+    }
+
+    /**
+     * Send an idempotent request over HTTP/2, and if h2 itself fails, again over
+     * HTTP/1.1.  Only once HTTP/1.1 has worked is the transport switched to it.
+     */
+    private <T> T settle(ClassicHttpRequest request, HttpClientResponseHandler<T> handler) throws IOException {
+        try {
+            return executeHttp2(request, handler);
+        } catch (IOException e) {
+            if (protocol != Protocol.UNSETTLED || !isNegotiationFailure(e)) {
+                throw e;
+            }
+            LOGGER.debug("HTTP/2 failed ({}), trying HTTP/1.1", e.toString());
+            T result = executeHttp1(request, handler);
+            LOGGER.warn("HTTP/2 failed ({}), falling back to HTTP/1.1", e.toString());
+            protocol = Protocol.HTTP_1_1;
+            return result;
+        }
+    }
+
+    /**
+     * @return Whether the failure is h2 not being spoken, rather than the server or network failing.
+     */
+    private static boolean isNegotiationFailure(IOException e) {
+        return e instanceof ProtocolNegotiationException
+                || e instanceof H2ConnectionException
+                || e instanceof ConnectionClosedException;
+    }
+
+    private static boolean isIdempotent(ClassicHttpRequest request) {
+        return Method.GET.isSame(request.getMethod()) || Method.HEAD.isSame(request.getMethod());
+    }
+
+    private static ClassicHttpRequest head(ClassicHttpRequest request) throws IOException {
+        try {
+            URI uri = request.getUri();
+            return ClassicRequestBuilder.head(new URI(uri.getScheme(), uri.getAuthority(), "/", null, null)).build();
+        } catch (URISyntaxException e) {
+            throw new ClientProtocolException(e.getMessage(), e);
+        }
+    }
+
+    private <T> T executeHttp1(ClassicHttpRequest request, HttpClientResponseHandler<T> handler) throws IOException {
+        T result = fallbackHttpClient.execute(request, handler);
+        http1Responses.incrementAndGet();
+        return result;
+    }
+
+    private <T> T executeHttp2(ClassicHttpRequest request, HttpClientResponseHandler<T> handler)
+            throws IOException {
+
+        StreamingResponseConsumer consumer = new StreamingResponseConsumer();
+        Future<Void> exchange = httpClient.execute(SimpleRequestProducer.create(toSimpleRequest(request)), consumer,
+                consumer.exchangeCallback());
+        if (request instanceof CancellableDependency cancellable) {
+            cancellable.setDependency(() -> exchange.cancel(true));
+        }
+
+        ClassicHttpResponse response;
+        try {
+            response = consumer.response.get();
+        } catch (InterruptedException e) {
+            exchange.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for " + request.getRequestUri());
+        } catch (CancellationException e) {
+            throw new InterruptedIOException("Cancelled " + request.getRequestUri());
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw new IOException(e.getCause());
+        }
+
+        http2Responses.incrementAndGet();
+        protocol = Protocol.HTTP_2;
+
+        boolean handled = false;
+        try {
+            T result = handler.handleResponse(response);
+            // Read what the handler left, so the stream ends cleanly
+            EntityUtils.consume(response.getEntity());
+            handled = true;
+            return result;
+        } catch (HttpException e) {
+            throw new ClientProtocolException(e.getMessage(), e);
+        } finally {
+            if (!handled) {
+                // Stops the rest of the body being sent
+                exchange.cancel(true);
+            }
+        }
+    }
+
+    long getHttp2ResponseCount() {
+        return http2Responses.get();
+    }
+
+    long getHttp1ResponseCount() {
+        return http1Responses.get();
+    }
+
+    boolean isFallenBack() {
+        return protocol == Protocol.HTTP_1_1;
+    }
+
+    @Override
+    public void close() {
+        httpClient.close(CloseMode.GRACEFUL);
+    }
+
+    private static SimpleHttpRequest toSimpleRequest(ClassicHttpRequest request) throws IOException {
+        SimpleHttpRequest simpleRequest;
+        try {
+            simpleRequest = SimpleHttpRequest.create(request.getMethod(), request.getUri());
+        } catch (URISyntaxException e) {
+            throw new ClientProtocolException(e.getMessage(), e);
+        }
+        for (Header header : request.getHeaders()) {
+            simpleRequest.addHeader(header);
+        }
+        HttpEntity entity = request.getEntity();
+        if (entity != null) {
+            simpleRequest.setBody(EntityUtils.toByteArray(entity), ContentType.parse(entity.getContentType()));
+            if (entity.getContentEncoding() != null) {
+                simpleRequest.setHeader(HttpHeaders.CONTENT_ENCODING, entity.getContentEncoding());
+            }
+        }
+        return simpleRequest;
+    }
+
+    /**
+     * Hands over the response as soon as its head arrives, with an entity that reads
+     * the body from a shared buffer as the I/O reactor fills it.  The exchange itself
+     * only completes at the end of the body, so it can be cancelled until then.
+     */
+    private static class StreamingResponseConsumer implements AsyncResponseConsumer<Void> {
+
+        final CompletableFuture<ClassicHttpResponse> response = new CompletableFuture<>();
+        private final SharedInputBuffer buffer = new SharedInputBuffer(RESPONSE_BUFFER_BYTES);
+        private final AtomicReference<Exception> failure = new AtomicReference<>();
+        private volatile FutureCallback<Void> resultCallback;
+        private volatile boolean ended;
+
+        /**
+         * Fails the response when the exchange fails before its head arrives, e.g. to connect.
+         */
+        FutureCallback<Void> exchangeCallback() {
+            return new FutureCallback<>() {
+                @Override
+                public void completed(Void result) {
+                }
+
+                @Override
+                public void failed(Exception e) {
+                    StreamingResponseConsumer.this.failed(e);
+                }
+
+                @Override
+                public void cancelled() {
+                    failure.compareAndSet(null, new InterruptedIOException("Exchange cancelled"));
+                    buffer.abort();
+                    response.cancel(false);
+                }
+            };
+        }
+
+        @Override
+        public void consumeResponse(HttpResponse head, EntityDetails entityDetails, HttpContext context,
+                                    FutureCallback<Void> resultCallback) {
+            BasicClassicHttpResponse classicResponse = new BasicClassicHttpResponse(head.getCode(),
+                    head.getReasonPhrase());
+            classicResponse.setVersion(head.getVersion());
+            classicResponse.setHeaders(head.getHeaders());
+            if (entityDetails == null) {
+                ended = true;
+                resultCallback.completed(null);
+            } else {
+                this.resultCallback = resultCallback;
+                classicResponse.setEntity(new InputStreamEntity(new BodyInputStream(),
+                        entityDetails.getContentLength(),
+                        (entityDetails.getContentType() != null) ? ContentType.parse(entityDetails.getContentType())
+                                : null,
+                        entityDetails.getContentEncoding()));
+            }
+            response.complete(classicResponse);
+        }
+
+        @Override
+        public void informationResponse(HttpResponse head, HttpContext context) {
+        }
+
+        @Override
+        public void updateCapacity(CapacityChannel capacityChannel) throws IOException {
+            buffer.updateCapacity(capacityChannel);
+        }
+
+        @Override
+        public void consume(ByteBuffer src) {
+            buffer.fill(src);
+        }
+
+        @Override
+        public void streamEnd(List<? extends Header> trailers) {
+            ended = true;
+            buffer.markEndStream();
+            FutureCallback<Void> callback = resultCallback;
+            if (callback != null) {
+                callback.completed(null);
+            }
+        }
+
+        @Override
+        public void failed(Exception cause) {
+            failure.compareAndSet(null, cause);
+            buffer.abort();
+            response.completeExceptionally(cause);
+        }
+
+        @Override
+        public void releaseResources() {
+            // A body that ended is left for the handler to finish reading
+            if (!ended) {
+                failure.compareAndSet(null, new ConnectionClosedException("Exchange ended before the response body"));
+                buffer.abort();
+            }
+        }
+
+        /**
+         * The body as it arrives.  A body cut short by a failure or cancellation is
+         * an error rather than an early end.
+         */
+        private class BodyInputStream extends FilterInputStream {
+
+            BodyInputStream() {
+                super(new ContentInputStream(buffer));
+            }
+
+            @Override
+            public int read() throws IOException {
+                return checkEnd(super.read());
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return checkEnd(super.read(b, off, len));
+            }
+
+            private int checkEnd(int read) throws IOException {
+                Exception cause = failure.get();
+                if (read == -1 && cause != null) {
+                    if (cause instanceof IOException ioException) {
+                        throw ioException;
+                    }
+                    throw new IOException(cause);
+                }
+                return read;
+            }
+        }
+    }
+}
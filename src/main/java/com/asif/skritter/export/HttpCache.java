@@ -0,0 +1,347 @@
+// MIT License
+//
+// Copyright (c) 2023 David Stone <ds.skritter.export@asif.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.asif.skritter.export;
+
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.HttpRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+/**
+ * On-disk cache of GET responses that carry an ETag or Last-Modified validator.
+ * <p>
+ * A cached response is revalidated rather than trusted: the request is sent with
+ * If-None-Match / If-Modified-Since, and on a 304 the cached body is served
+ * without the payload being transferred again.  Entries are keyed by URL and
+ * authorization, so one account's responses are never served to another.
+ * <p>
+ * The cache is bounded by total body bytes, evicting the least recently used
+ * entries first.  Use survives restarts through each entry's file modification
+ * time.  Disk errors are logged and treated as misses; the cache never fails a
+ * request.
+ */
+public class HttpCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HttpCache.class);
+
+    static final String DIRECTORY_PROPERTY = "Http-Cache-Directory";
+    static final String MAX_BYTES_PROPERTY = "Http-Cache-Max-Bytes";
+
+    static final long MAX_BYTES_DEFAULT = 64L * 1024 * 1024;
+
+    private static final String BODY_SUFFIX = ".body";
+    private static final String META_SUFFIX = ".properties";
+    private static final String URL_KEY = "url";
+    private static final String ETAG_KEY = "etag";
+    private static final String LAST_MODIFIED_KEY = "lastModified";
+
+    /**
+     * A cached response's validators.  The body stays on disk until served.
+     */
+    static class Entry {
+        final String key;
+        final String url;
+        final String etag;
+        final String lastModified;
+        final long bytes;
+
+        Entry(String key, String url, String etag, String lastModified, long bytes) {
+            this.key = key;
+            this.url = url;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.bytes = bytes;
+        }
+    }
+
+    private final Path directory;
+    private final long maxBytes;
+
+    // Least recently used first
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+    private long hits;
+    private long misses;
+
+    /**
+     * @param directory Where entries are kept, or null to cache nothing.
+     */
+    HttpCache(Path directory, long maxBytes) {
+        this.directory = (maxBytes > 0) ? directory : null;
+        this.maxBytes = maxBytes;
+        if (this.directory != null) {
+            load();
+        }
+    }
+
+    static HttpCache disabled() {
+        return new HttpCache(null, 0);
+    }
+
+    static HttpCache from(Properties properties) {
+        String directory = properties.getProperty(DIRECTORY_PROPERTY);
+        Path path = (directory == null || directory.isBlank())
+                ? Paths.get(System.getProperty("user.home"), ".skritter-exporter", "http-cache")
+                : Paths.get(directory.trim());
+        return new HttpCache(path, ClientProperties.getLong(properties, MAX_BYTES_PROPERTY, MAX_BYTES_DEFAULT));
+    }
+
+    boolean isEnabled() {
+        return directory != null;
+    }
+
+    /**
+     * Find the cached response for a GET, and make the request conditional on it.
+     * @return The entry to serve if the server answers 304, or null.
+     */
+    synchronized Entry validate(HttpRequest request) throws URISyntaxException {
+        if (directory == null) {
+            return null;
+        }
+        Entry entry = entries.get(key(request));
+        if (entry == null) {
+            return null;
+        }
+        if (entry.etag != null) {
+            request.setHeader(HttpHeaders.IF_NONE_MATCH, entry.etag);
+        }
+        if (entry.lastModified != null) {
+            request.setHeader(HttpHeaders.IF_MODIFIED_SINCE, entry.lastModified);
+        }
+        return entry;
+    }
+
+    /**
+     * The server confirmed the entry is current.
+     * @return The cached body, or null if it could not be read, in which case the
+     * entry is dropped and the request should be repeated unconditionally.
+     */
+    String hit(Entry entry) {
+        try {
+            String body = Files.readString(bodyPath(entry.key), StandardCharsets.UTF_8);
+            Files.setLastModifiedTime(metaPath(entry.key), FileTime.fromMillis(System.currentTimeMillis()));
+            synchronized (this) {
+                hits++;
+            }
+            LOGGER.info("Not modified, serving {} bytes from the cache for {}", entry.bytes, entry.url);
+            return body;
+        } catch (IOException e) {
+            LOGGER.warn("Dropping unreadable cache entry for {}", entry.url, e);
+            synchronized (this) {
+                remove(entry);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Count a response that was not served from the cache, and keep it if it has
+     * a validator to revalidate it with.
+     */
+    void store(HttpRequest request, String etag, String lastModified, String body) throws URISyntaxException {
+
+        synchronized (this) {
+            misses++;
+        }
+        if (directory == null || (etag == null && lastModified == null)) {
+            return;
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > maxBytes) {
+            LOGGER.debug("Not caching {} bytes, over the {} byte cache limit", bytes.length, maxBytes);
+            return;
+        }
+
+        String url = request.getUri().toString();
+        Entry entry = new Entry(key(request), url, etag, lastModified, bytes.length);
+
+        Properties meta = new Properties();
+        meta.setProperty(URL_KEY, url);
+        if (etag != null) {
+            meta.setProperty(ETAG_KEY, etag);
+        }
+        if (lastModified != null) {
+            meta.setProperty(LAST_MODIFIED_KEY, lastModified);
+        }
+
+        synchronized (this) {
+            try {
+                Files.createDirectories(directory);
+                // Body first, so a meta file always has its body
+                writeAtomically(bodyPath(entry.key), bytes);
+                ByteArrayOutputStream metaBytes = new ByteArrayOutputStream();
+                meta.store(metaBytes, null);
+                writeAtomically(metaPath(entry.key), metaBytes.toByteArray());
+            } catch (IOException e) {
+                LOGGER.warn("Could not cache {}", url, e);
+                return;
+            }
+            Entry replaced = entries.put(entry.key, entry);
+            totalBytes += entry.bytes - ((replaced == null) ? 0 : replaced.bytes);
+            evict();
+        }
+        LOGGER.debug("Cached {} bytes for {}, validators {} {}", bytes.length, url, etag, lastModified);
+    }
+
+    synchronized long getHitCount() {
+        return hits;
+    }
+
+    synchronized long getMissCount() {
+        return misses;
+    }
+
+    synchronized long getSize() {
+        return totalBytes;
+    }
+
+    synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return hits + " hits, " + misses + " misses, " + entries.size() + " entries of " + totalBytes + " bytes";
+    }
+
+    private void evict() {
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (totalBytes > maxBytes && eldest.hasNext()) {
+            Entry entry = eldest.next();
+            eldest.remove();
+            totalBytes -= entry.bytes;
+            delete(entry);
+            LOGGER.debug("Evicted {} from the cache", entry.url);
+        }
+    }
+
+    private void remove(Entry entry) {
+        if (entries.remove(entry.key) != null) {
+            totalBytes -= entry.bytes;
+        }
+        delete(entry);
+    }
+
+    private void delete(Entry entry) {
+        try {
+            Files.deleteIfExists(metaPath(entry.key));
+            Files.deleteIfExists(bodyPath(entry.key));
+        } catch (IOException e) {
+            LOGGER.warn("Could not delete cache entry for {}", entry.url, e);
+        }
+    }
+
+    /**
+     * Index the entries left by earlier runs, least recently used first.
+     */
+    private void load() {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        List<Path> metaPaths = new ArrayList<>();
+        try (Stream<Path> paths = Files.list(directory)) {
+            paths.filter(path -> path.getFileName().toString().endsWith(META_SUFFIX)).forEach(metaPaths::add);
+        } catch (IOException e) {
+            LOGGER.warn("Could not read the cache in {}", directory, e);
+            return;
+        }
+        metaPaths.sort(Comparator.comparing(HttpCache::lastModifiedTime));
+
+        for (Path metaPath : metaPaths) {
+            String fileName = metaPath.getFileName().toString();
+            String key = fileName.substring(0, fileName.length() - META_SUFFIX.length());
+            Properties meta = new Properties();
+            try (InputStream in = Files.newInputStream(metaPath)) {
+                meta.load(in);
+                Entry entry = new Entry(key, meta.getProperty(URL_KEY), meta.getProperty(ETAG_KEY),
+                        meta.getProperty(LAST_MODIFIED_KEY), Files.size(bodyPath(key)));
+                entries.put(key, entry);
+                totalBytes += entry.bytes;
+            } catch (IOException e) {
+                LOGGER.warn("Skipping unreadable cache entry {}", metaPath, e);
+            }
+        }
+        evict();
+        LOGGER.debug("Loaded {} cache entries of {} bytes from {}", entries.size(), totalBytes, directory);
+    }
+
+    private static FileTime lastModifiedTime(Path path) {
+        try {
+            return Files.getLastModifiedTime(path);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    private static void writeAtomically(Path path, byte[] bytes) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.write(temp, bytes);
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Path bodyPath(String key) {
+        return directory.resolve(key + BODY_SUFFIX);
+    }
+
+    private Path metaPath(String key) {
+        return directory.resolve(key + META_SUFFIX);
+    }
+
+    /**
+     * @return A file name safe digest of the request's URL and authorization.
+     */
+    private static String key(HttpRequest request) throws URISyntaxException {
+        String authorization = request.getFirstHeader(HttpHeaders.AUTHORIZATION) == null
+                ? "" : request.getFirstHeader(HttpHeaders.AUTHORIZATION).getValue();
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(authorization.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) '\n');
+            digest.update(request.getUri().toString().getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
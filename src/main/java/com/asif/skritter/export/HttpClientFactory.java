@@ -0,0 +1,164 @@
+// MIT License
+//
+// Copyright (c) 2023 David Stone <ds.skritter.export@asif.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.asif.skritter.export;
+
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.cookie.StandardCookieSpec;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.H2AsyncClientBuilder;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManager;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.core5.http2.config.H2Config;
+import org.apache.hc.core5.util.TimeValue;
+
+import java.util.Properties;
+
+/**
+ * Builds the long-lived, pooled http client shared by all of an ApiClient's calls,
+ * so that status polls and data fetches reuse kept-alive connections instead of
+ * paying a new TCP and TLS handshake each time.
+ */
+public class HttpClientFactory {
+
+    static final String MAX_CONNECTIONS_PROPERTY = "Max-Connections";
+    static final String MAX_CONNECTIONS_PER_ROUTE_PROPERTY = "Max-Connections-Per-Route";
+    static final String KEEP_ALIVE_SECONDS_PROPERTY = "Keep-Alive-Seconds";
+    static final String WARM_UP_CONNECTIONS_PROPERTY = "Warm-Up-Connections";
+
+    static final int MAX_CONNECTIONS_DEFAULT = 20;
+    static final int MAX_CONNECTIONS_PER_ROUTE_DEFAULT = 10;
+    static final long KEEP_ALIVE_SECONDS_DEFAULT = 60;
+    static final int WARM_UP_CONNECTIONS_DEFAULT = 1;
+
+    private HttpClientFactory() {
+    }
+
+    /**
+     * Connection pool sizing and keep-alive settings.
+     * @param maxConnections Total connections across all routes.
+     * @param maxConnectionsPerRoute Connections to any one host, i.e. skritter.com.
+     * @param keepAliveSeconds How long an idle connection is kept when the server does not say.
+     * @param warmUpConnections Connections to open at startup, before the first real request.
+     */
+    record PoolSettings(int maxConnections, int maxConnectionsPerRoute,
+                        long keepAliveSeconds, int warmUpConnections) {
+
+        static PoolSettings defaults() {
+            return new PoolSettings(MAX_CONNECTIONS_DEFAULT, MAX_CONNECTIONS_PER_ROUTE_DEFAULT,
+                    KEEP_ALIVE_SECONDS_DEFAULT, WARM_UP_CONNECTIONS_DEFAULT);
+        }
+
+        static PoolSettings from(Properties properties) {
+            int maxConnections = ClientProperties.getInt(
+                    properties, MAX_CONNECTIONS_PROPERTY, MAX_CONNECTIONS_DEFAULT);
+            int maxConnectionsPerRoute = ClientProperties.getInt(
+                    properties, MAX_CONNECTIONS_PER_ROUTE_PROPERTY,
+                    Math.min(maxConnections, MAX_CONNECTIONS_PER_ROUTE_DEFAULT));
+            return new PoolSettings(
+                    maxConnections,
+                    Math.min(maxConnections, maxConnectionsPerRoute),
+                    ClientProperties.getLong(properties, KEEP_ALIVE_SECONDS_PROPERTY, KEEP_ALIVE_SECONDS_DEFAULT),
+                    ClientProperties.getInt(properties, WARM_UP_CONNECTIONS_PROPERTY, WARM_UP_CONNECTIONS_DEFAULT));
+        }
+    }
+
+    static CloseableHttpClient build(PoolSettings settings) {
+
+        TimeValue keepAlive = TimeValue.ofSeconds(settings.keepAliveSeconds());
+
+        PoolingHttpClientConnectionManager connectionManager =
+                PoolingHttpClientConnectionManagerBuilder.create()
+                        .setMaxConnTotal(settings.maxConnections())
+                        .setMaxConnPerRoute(settings.maxConnectionsPerRoute())
+                        .setDefaultConnectionConfig(ConnectionConfig.custom()
+                                // Re-check connections the server may have dropped while idle
+                                .setValidateAfterInactivity(TimeValue.ofSeconds(2))
+                                .build())
+                        .build();
+
+        // https://stackoverflow.com/a/40697322
+        return HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setCookieSpec(StandardCookieSpec.IGNORE)
+                        .setConnectionKeepAlive(keepAlive)
+                        .build())
+                .evictExpiredConnections()
+                .evictIdleConnections(keepAlive)
+                // ApiClient decodes gzip/deflate itself, counting the compressed bytes
+                .disableContentCompression()
+                .build();
+    }
+
+    /**
+     * An HTTP/2 only client, multiplexing all requests to a host over one connection.
+     * Plain http URLs use HTTP/2 with prior knowledge; https negotiates h2 via ALPN.
+     * The returned client has not been started.
+     */
+    static CloseableHttpAsyncClient buildHttp2() {
+        return H2AsyncClientBuilder.create()
+                .setH2Config(H2Config.custom()
+                        .setPushEnabled(false)
+                        .build())
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setCookieSpec(StandardCookieSpec.IGNORE)
+                        .build())
+                // ApiClient retries for itself
+                .disableAutomaticRetries()
+                .build();
+    }
+
+    /**
+     * The non-blocking equivalent of {@link #build(PoolSettings)}, for {@link AsyncApiClient}.
+     * The returned client has not been started.
+     */
+    static CloseableHttpAsyncClient buildAsync(PoolSettings settings) {
+
+        TimeValue keepAlive = TimeValue.ofSeconds(settings.keepAliveSeconds());
+
+        PoolingAsyncClientConnectionManager connectionManager =
+                PoolingAsyncClientConnectionManagerBuilder.create()
+                        .setMaxConnTotal(settings.maxConnections())
+                        .setMaxConnPerRoute(settings.maxConnectionsPerRoute())
+                        .setDefaultConnectionConfig(ConnectionConfig.custom()
+                                .setValidateAfterInactivity(TimeValue.ofSeconds(2))
+                                .build())
+                        .build();
+
+        return HttpAsyncClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setCookieSpec(StandardCookieSpec.IGNORE)
+                        .setConnectionKeepAlive(keepAlive)
+                        .build())
+                .evictExpiredConnections()
+                .evictIdleConnections(keepAlive)
+                .build();
+    }
+}
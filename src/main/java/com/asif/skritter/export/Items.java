@@ -28,6 +28,8 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -42,42 +44,168 @@ public class Items {
     }
 
     Set<String> getItemIds() throws URISyntaxException, IOException {
-        return getItemIds(null);
+        return getItemIds(null, Deadline.none());
     }
 
-    Set<String> getItemIds(Long limit) throws URISyntaxException, IOException {
+    Set<String> getItemIds(Deadline deadline) throws URISyntaxException, IOException {
+        return getItemIds(null, deadline);
+    }
+
+    Set<String> getItemIds(Long limit, Deadline deadline) throws URISyntaxException, IOException {
 
         LOGGER.info("Getting Item IDs");
-        ApiClient.ItemsParams itemsParams = new ApiClient.ItemsParams();
-        itemsParams.ids_only = "true";
+        ApiClient.ItemsParams itemsParams = newItemsParams();
+        // Items the filter checks need more than their ids
+        itemsParams.ids_only = apiClient.getExportFilter().filtersItems() ? "false" : "true";
         itemsParams.limit = limit;
         Set<String> itemIds = new HashSet<>();
 
-        BatchResponse batchResponse = apiClient.postBatchRequest(
-                Constants.SKRITTER_ITEMS_PATH, itemsParams);
+        getItems(ApiClient.newRequest(Constants.SKRITTER_ITEMS_PATH, itemsParams), itemIds, null, null, deadline);
+        return itemIds;
+    }
+
+    /**
+     * One page of item ids, fetched by {@link #getItemIdsPage(String, int, Deadline)}.
+     * @param itemIds The ids of the page's items that the export filter kept.
+     * @param itemCount The items on the page, before any were filtered out.
+     * @param nextCursor Where the next page starts, or null after the last page.
+     */
+    record ItemIdsPage(Set<String> itemIds, int itemCount, String nextCursor) {
+    }
+
+    /**
+     * Fetch one page of item ids, with limit and cursor, as a batch of one request
+     * that does not spawn the following pages.  Callers fetch each page once they
+     * are ready for it.
+     * @param cursor Where the page starts, as returned with the previous page; null for the first.
+     */
+    ItemIdsPage getItemIdsPage(String cursor, int limit, Deadline deadline) throws URISyntaxException, IOException {
+
+        ApiClient.ItemsParams itemsParams = newItemsParams();
+        itemsParams.ids_only = apiClient.getExportFilter().filtersItems() ? "false" : "true";
+        itemsParams.limit = (long) limit;
+        itemsParams.cursor = cursor;
+        ApiClient.Request request = ApiClient.newRequest(Constants.SKRITTER_ITEMS_PATH, itemsParams);
+        request.spawner = false;
+        Set<String> itemIds = new HashSet<>();
+
+        Fetched fetched = getItems(request, itemIds, null, null, deadline);
+        LOGGER.debug("Got page of {} items, {} kept", fetched.itemCount(), itemIds.size());
+        // A short page is the last, whether or not a cursor came with it
+        boolean last = fetched.cursor() == null || fetched.itemCount() < limit;
+        return new ItemIdsPage(itemIds, fetched.itemCount(), last ? null : fetched.cursor());
+    }
+
+    /**
+     * Item ids, and the vocabs of those items, fetched together by
+     * {@link #getItemIdsWithVocabs(Deadline)}.
+     */
+    record ItemIdsWithVocabs(Set<String> itemIds, Map<String, Vocab> vocabs, Set<String> filteredVocabIds) {
+    }
+
+    /**
+     * Fetch the item ids with include_vocabs, so the vocabs of every item arrive
+     * in the same spawned batch and need no separate, chunked vocab fetch.
+     */
+    ItemIdsWithVocabs getItemIdsWithVocabs(Deadline deadline) throws URISyntaxException, IOException {
+
+        LOGGER.info("Getting Item IDs with their Vocabs");
+        // Projects the items only; the included vocabs are projected as they are parsed
+        ApiClient.ItemsParams itemsParams = newItemsParams();
+        itemsParams.include_vocabs = "true";
+        Set<String> itemIds = new HashSet<>();
+        Map<String, Vocab> vocabs = new HashMap<>();
+        // Left out by the export filter, so not to be fetched again as missing
+        Set<String> filteredVocabIds = new HashSet<>();
+
+        getItems(ApiClient.newRequest(Constants.SKRITTER_ITEMS_PATH, itemsParams),
+                itemIds, vocabs, filteredVocabIds, deadline);
+        LOGGER.info("Got {} item ids and {} vocabs", itemIds.size(), vocabs.size());
+        return new ItemIdsWithVocabs(itemIds, vocabs, filteredVocabIds);
+    }
+
+    /**
+     * Items params with the export filter's parts pushed down, and the item fields it reads.
+     */
+    private ApiClient.ItemsParams newItemsParams() {
+        ExportFilter exportFilter = apiClient.getExportFilter();
+        ApiClient.ItemsParams itemsParams = new ApiClient.ItemsParams();
+        itemsParams.fields = exportFilter.getItemProjection().toParameter();
+        itemsParams.parts = exportFilter.getPartsParameter();
+        return itemsParams;
+    }
+
+    /**
+     * @param itemCount The items received, before any were filtered out.
+     * @param cursor The last cursor received, or null.
+     */
+    private record Fetched(int itemCount, String cursor) {
+    }
+
+    private Fetched getItems(ApiClient.Request request, Set<String> itemIds, Map<String, Vocab> vocabs,
+                             Set<String> filteredVocabIds, Deadline deadline) throws URISyntaxException, IOException {
+
+        ExportFilter exportFilter = apiClient.getExportFilter();
+        FieldProjection itemProjection = exportFilter.getItemProjection();
+        FieldProjection vocabProjection = exportFilter.getVocabProjection(FieldProjection.EXPORTED_VOCAB);
+        AtomicInteger itemCount = new AtomicInteger();
+        AtomicReference<String> cursor = new AtomicReference<>();
 
-        apiClient.waitForBatchCompletion(batchResponse);
+        apiClient.runBatch(batchDeadline -> {
+            LOGGER.info("Posting batch request to {}", request.path);
+            BatchResponse batchResponse = apiClient.postBatchRequest(List.of(request), batchDeadline);
 
-        // get responses
+            // get responses, collecting each item id, and any vocab, as it is parsed
 
-        for (BatchRequest batchRequest : apiClient.getBatchData(batchResponse.id)) {
-            if (batchRequest.response != null) {
-                Map<String, Object> itemsResponseMap = batchRequest.response;
+            apiClient.getBatchResults(batchResponse, new Parser.BatchElementHandler() {
+                @Override
+                public FieldProjection projection(BatchRequest batchRequest, String arrayName) {
+                    return Constants.SKRITTER_VOCABS_ARRAY_NAME.equals(arrayName)
+                            ? vocabProjection : itemProjection;
+                }
 
-                Object[] itemIdsArray = (Object[]) itemsResponseMap.get(
-                        Constants.SKRITTER_ITEMS_ARRAY_NAME);
-                for (Object itemIdObj : itemIdsArray) {
-                    @SuppressWarnings("unchecked")
-                    Map<String, Object> itemIdMap = (Map<String, Object>) itemIdObj;
-                    String id = (String) itemIdMap.get(Constants.SKRITTER_ID_FIELD);
+                @Override
+                public void element(BatchRequest batchRequest, String arrayName, Map<String, Object> element) {
+                    if (Constants.SKRITTER_ITEMS_ARRAY_NAME.equals(arrayName)) {
+                        String id = (String) element.get(Constants.SKRITTER_ID_FIELD);
+                        itemCount.incrementAndGet();
+
+                        if (!exportFilter.acceptsItem(element)) {
+                            LOGGER.debug("Filtered out item {}", id);
+                        } else if (!itemIds.add(id)) {
+                            LOGGER.warn("Duplicate item id: {}", id);
+                        }
+                    } else if (vocabs != null && Constants.SKRITTER_VOCABS_ARRAY_NAME.equals(arrayName)) {
+                        if (exportFilter.filtersVocabs() && !exportFilter.acceptsVocab(element)) {
+                            filteredVocabIds.add((String) element.get(Constants.SKRITTER_ID_FIELD));
+                            return;
+                        }
+                        // Each vocab is shared by its several items, so repeats are expected
+                        Vocab vocab = Vocab.Builder.build(element);
+                        vocabs.putIfAbsent(vocab.id, vocab);
+                    }
+                }
 
-                    if (!itemIds.add(id)) {
-                        LOGGER.warn("Duplicate item id: {}", id);
+                @Override
+                public void value(BatchRequest batchRequest, String name, Object value) {
+                    if (Constants.SKRITTER_CURSOR_FIELD.equals(name)) {
+                        cursor.set((String) value);
                     }
                 }
-            }
+            }, batchDeadline);
+        }, deadline);
+        return new Fetched(itemCount.get(), cursor.get());
+    }
+
+    /**
+     * @return The ids of the vocabs studied in the parts being exported, from their item ids.
+     */
+    Set<String> getExportedVocabIds(Set<String> itemIds) {
+        Set<String> vocabIds = new HashSet<>();
+        for (String part : apiClient.getExportFilter().getParts()) {
+            vocabIds.addAll(convertItemIdsToVocabIds(filterItemIds(itemIds, List.of(part)), part));
         }
-        return itemIds;
+        return vocabIds;
     }
 
     Set<String> filterItemIds(Set<String> itemIds, List<String> wantedSuffixes) {
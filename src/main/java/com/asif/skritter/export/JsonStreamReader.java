@@ -0,0 +1,427 @@
+// MIT License
+//
+// Copyright (c) 2023 David Stone <ds.skritter.export@asif.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.asif.skritter.export;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A minimal pull parser for JSON, reading from a stream as bytes arrive.
+ * <p>
+ * Callers walk the document with begin/end/next calls, and can materialize any one
+ * value with {@link #readValue()} or pass over it with {@link #skipValue()}.  Values
+ * are materialized in the same shapes as json-io's USE_MAPS mode (objects as Maps,
+ * arrays as Object[], integers as Long), so the existing Builders accept them.
+ * Malformed content, e.g. a missing or extra comma, fails with a {@link ParseFailureException}.
+ */
+public class JsonStreamReader implements Closeable {
+
+    enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+    }
+
+    // Where in an array or object the reader is, so that commas are checked
+    private enum Scope {
+        EMPTY_OBJECT, OBJECT_NAME, OBJECT_VALUE, NONEMPTY_OBJECT, EMPTY_ARRAY, ARRAY, NONEMPTY_ARRAY
+    }
+
+    private final Reader reader;
+    private final char[] buffer = new char[8192];
+    private int position;
+    private int limit;
+    private final Deque<Scope> scopes = new ArrayDeque<>();
+    private final StringBuilder text = new StringBuilder();
+
+    JsonStreamReader(InputStream inputStream) {
+        this(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+    }
+
+    JsonStreamReader(Reader reader) {
+        this.reader = reader;
+    }
+
+    Token peek() throws IOException {
+        int c = nextSignificant();
+        Scope scope = scopes.peek();
+
+        // After a member or element, the next one has to follow a comma
+        if (scope == Scope.NONEMPTY_OBJECT || scope == Scope.NONEMPTY_ARRAY) {
+            int end = (scope == Scope.NONEMPTY_OBJECT) ? '}' : ']';
+            if (c == ',') {
+                position++;
+                scope = (scope == Scope.NONEMPTY_OBJECT) ? Scope.OBJECT_NAME : Scope.ARRAY;
+                scopes.pop();
+                scopes.push(scope);
+                c = nextSignificant();
+            } else if (c != end) {
+                throw syntaxError("Expected ',' or '" + (char) end + "' but found " + describe(c));
+            }
+        }
+        if (c == ',') {
+            throw syntaxError("Unexpected ','");
+        }
+        if ((c == '}' || c == ']') && (scope == Scope.OBJECT_NAME || scope == Scope.OBJECT_VALUE
+                || scope == Scope.ARRAY)) {
+            throw syntaxError("Expected a value but found '" + (char) c + "'");
+        }
+        if ((c == '}' && scope != Scope.EMPTY_OBJECT && scope != Scope.NONEMPTY_OBJECT)
+                || (c == ']' && scope != Scope.EMPTY_ARRAY && scope != Scope.NONEMPTY_ARRAY)) {
+            throw syntaxError("Unexpected '" + (char) c + "'");
+        }
+
+        return switch (c) {
+            case -1 -> Token.END_DOCUMENT;
+            case '{' -> Token.BEGIN_OBJECT;
+            case '}' -> Token.END_OBJECT;
+            case '[' -> Token.BEGIN_ARRAY;
+            case ']' -> Token.END_ARRAY;
+            case '"' -> (scope == Scope.EMPTY_OBJECT || scope == Scope.OBJECT_NAME) ? Token.NAME : Token.STRING;
+            case 't', 'f' -> Token.BOOLEAN;
+            case 'n' -> Token.NULL;
+            default -> {
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    yield Token.NUMBER;
+                }
+                throw syntaxError("Unexpected character '" + (char) c + "'");
+            }
+        };
+    }
+
+    boolean hasNext() throws IOException {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+    }
+
+    void beginObject() throws IOException {
+        expect(Token.BEGIN_OBJECT);
+        position++;
+        scopes.push(Scope.EMPTY_OBJECT);
+    }
+
+    void endObject() throws IOException {
+        expect(Token.END_OBJECT);
+        position++;
+        scopes.pop();
+        afterValue();
+    }
+
+    void beginArray() throws IOException {
+        expect(Token.BEGIN_ARRAY);
+        position++;
+        scopes.push(Scope.EMPTY_ARRAY);
+    }
+
+    void endArray() throws IOException {
+        expect(Token.END_ARRAY);
+        position++;
+        scopes.pop();
+        afterValue();
+    }
+
+    String nextName() throws IOException {
+        expect(Token.NAME);
+        String name = readString();
+        if (nextSignificant() != ':') {
+            throw syntaxError("Expected ':' after name \"" + name + "\"");
+        }
+        position++;
+        scopes.pop();
+        scopes.push(Scope.OBJECT_VALUE);
+        return name;
+    }
+
+    String nextString() throws IOException {
+        expect(Token.STRING);
+        String value = readString();
+        afterValue();
+        return value;
+    }
+
+    /**
+     * Materialize the next value, of any type.
+     */
+    Object readValue() throws IOException {
+        switch (peek()) {
+            case BEGIN_OBJECT -> {
+                return readObject();
+            }
+            case BEGIN_ARRAY -> {
+                List<Object> list = new ArrayList<>();
+                beginArray();
+                while (hasNext()) {
+                    list.add(readValue());
+                }
+                endArray();
+                return list.toArray();
+            }
+            case STRING -> {
+                return nextString();
+            }
+            case NUMBER -> {
+                String number = readLiteral();
+                afterValue();
+                return parseNumber(number);
+            }
+            case BOOLEAN, NULL -> {
+                String literal = readLiteral();
+                afterValue();
+                return switch (literal) {
+                    case "true" -> Boolean.TRUE;
+                    case "false" -> Boolean.FALSE;
+                    case "null" -> null;
+                    default -> throw syntaxError("Unexpected literal " + literal);
+                };
+            }
+            default -> throw syntaxError("Expected a value but found " + peek());
+        }
+    }
+
+    /**
+     * Materialize the next object, with all its members.
+     */
+    Map<String, Object> readObject() throws IOException {
+        Map<String, Object> map = new LinkedHashMap<>();
+        beginObject();
+        while (hasNext()) {
+            String name = nextName();
+            map.put(name, readValue());
+        }
+        endObject();
+        return map;
+    }
+
+    /**
+     * Materialize the next object with only the named members, passing over the rest
+     * without materializing them.
+     */
+    Map<String, Object> readObject(Set<String> names) throws IOException {
+        Map<String, Object> map = new LinkedHashMap<>();
+        beginObject();
+        while (hasNext()) {
+            String name = nextName();
+            if (names.contains(name)) {
+                map.put(name, readValue());
+            } else {
+                skipValue();
+            }
+        }
+        endObject();
+        return map;
+    }
+
+    /**
+     * Pass over the next value, however deeply nested, without materializing it.
+     */
+    void skipValue() throws IOException {
+        int depth = 0;
+        do {
+            switch (peek()) {
+                case BEGIN_OBJECT -> {
+                    beginObject();
+                    depth++;
+                }
+                case BEGIN_ARRAY -> {
+                    beginArray();
+                    depth++;
+                }
+                case END_OBJECT -> {
+                    endObject();
+                    depth--;
+                }
+                case END_ARRAY -> {
+                    endArray();
+                    depth--;
+                }
+                case NAME -> nextName();
+                case STRING -> {
+                    skipString();
+                    afterValue();
+                }
+                case NUMBER, BOOLEAN, NULL -> {
+                    readLiteral();
+                    afterValue();
+                }
+                case END_DOCUMENT -> throw syntaxError("Unexpected end of document");
+            }
+        } while (depth > 0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private void afterValue() {
+        Scope scope = scopes.peek();
+        if (scope == Scope.OBJECT_VALUE) {
+            scopes.pop();
+            scopes.push(Scope.NONEMPTY_OBJECT);
+        } else if (scope == Scope.EMPTY_ARRAY || scope == Scope.ARRAY) {
+            scopes.pop();
+            scopes.push(Scope.NONEMPTY_ARRAY);
+        }
+    }
+
+    private static String describe(int c) {
+        return (c == -1) ? "end of document" : "'" + (char) c + "'";
+    }
+
+    private void expect(Token expected) throws IOException {
+        Token token = peek();
+        if (token != expected) {
+            throw syntaxError("Expected " + expected + " but found " + token);
+        }
+    }
+
+    /**
+     * @return The next character that is not white space, without consuming it.
+     */
+    private int nextSignificant() throws IOException {
+        while (true) {
+            if (position == limit && !fill()) {
+                return -1;
+            }
+            char c = buffer[position];
+            if (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                position++;
+            } else {
+                return c;
+            }
+        }
+    }
+
+    private boolean fill() throws IOException {
+        limit = reader.read(buffer, 0, buffer.length);
+        position = 0;
+        if (limit < 0) {
+            limit = 0;
+            return false;
+        }
+        return true;
+    }
+
+    private int read() throws IOException {
+        if (position == limit && !fill()) {
+            throw syntaxError("Unexpected end of document");
+        }
+        return buffer[position++];
+    }
+
+    private String readString() throws IOException {
+        position++; // opening quote
+        text.setLength(0);
+        while (true) {
+            int c = read();
+            if (c == '"') {
+                return text.toString();
+            } else if (c == '\\') {
+                text.append(readEscape());
+            } else {
+                text.append((char) c);
+            }
+        }
+    }
+
+    private void skipString() throws IOException {
+        position++; // opening quote
+        while (true) {
+            int c = read();
+            if (c == '"') {
+                return;
+            } else if (c == '\\') {
+                readEscape();
+            }
+        }
+    }
+
+    private char readEscape() throws IOException {
+        int c = read();
+        return switch (c) {
+            case '"', '\\', '/' -> (char) c;
+            case 'b' -> '\b';
+            case 'f' -> '\f';
+            case 'n' -> '\n';
+            case 'r' -> '\r';
+            case 't' -> '\t';
+            case 'u' -> {
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(read(), 16);
+                    if (digit < 0) {
+                        throw syntaxError("Invalid unicode escape");
+                    }
+                    value = (value << 4) | digit;
+                }
+                yield (char) value;
+            }
+            default -> throw syntaxError("Invalid escape \\" + (char) c);
+        };
+    }
+
+    /**
+     * Read a number, true, false or null.
+     */
+    private String readLiteral() throws IOException {
+        text.setLength(0);
+        while (true) {
+            if (position == limit && !fill()) {
+                break;
+            }
+            char c = buffer[position];
+            if ((c >= '0' && c <= '9') || (c >= 'a' && c <= 'z') || c == '-' || c == '+' || c == '.'
+                    || c == 'E') {
+                text.append(c);
+                position++;
+            } else {
+                break;
+            }
+        }
+        return text.toString();
+    }
+
+    private Object parseNumber(String number) throws IOException {
+        try {
+            if (number.indexOf('.') < 0 && number.indexOf('e') < 0 && number.indexOf('E') < 0) {
+                return Long.parseLong(number);
+            }
+            return Double.parseDouble(number);
+        } catch (NumberFormatException e) {
+            throw syntaxError("Invalid number " + number);
+        }
+    }
+
+    private ParseFailureException syntaxError(String message) {
+        return new ParseFailureException("Malformed JSON: " + message);
+    }
+}
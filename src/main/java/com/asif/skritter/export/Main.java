@@ -37,45 +37,163 @@ import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.Future;
 
 public class Main {
     private static final Logger LOGGER = LoggerFactory.getLogger(Main.class);
-    private static final String DEFAULT_SKRITTER_PROPERTIES_FILE = "skritter.properties";
-    private static String SKRITTER_PROPERTIES_FILE = DEFAULT_SKRITTER_PROPERTIES_FILE;
-
-    private static final Exporter.ExportStyle DEFAULT_EXPORT_STYLE = Exporter.ExportStyle.ANKI;
-    private static Exporter.ExportStyle EXPORT_STYLE = DEFAULT_EXPORT_STYLE;
+    static final String DEFAULT_SKRITTER_PROPERTIES_FILE = "skritter.properties";
+    static final Exporter.ExportStyle DEFAULT_EXPORT_STYLE = Exporter.ExportStyle.ANKI;
 
     static final String ERROR_PROPERTY_FILE_NOT_FOUND = "Required properties file {0} cannot be found";
 
+    private final String skritterPropertiesFile;
+    private final Exporter.ExportStyle exportStyle;
+
+    Main(String skritterPropertiesFile, Exporter.ExportStyle exportStyle) {
+        this.skritterPropertiesFile = skritterPropertiesFile;
+        this.exportStyle = exportStyle;
+    }
+
     public static void main(String[] args) throws URISyntaxException, IOException {
+        new Main(DEFAULT_SKRITTER_PROPERTIES_FILE, DEFAULT_EXPORT_STYLE).run(ApiClient.builder());
+    }
+
+    /**
+     * Export with a client built from the properties file, on top of anything
+     * already set on the builder, e.g. a shared HTTP client.
+     */
+    void run(ApiClient.Builder clientBuilder) throws URISyntaxException, IOException {
 
         // Load  properties
         Properties skritterProperties = loadProperties();
 
-        ApiClient apiClient = new ApiClient(skritterProperties);
-        Items items = new Items(apiClient);
+        // Bounds the whole export, rather than each batch alone
+        Deadline deadline = Deadline.from(skritterProperties);
+
+        try (ApiClient apiClient = clientBuilder.properties(skritterProperties).build()) {
+            apiClient.warmUpConnections();
+            try {
+                export(apiClient, deadline);
+            } catch (SkritterException e) {
+                apiClient.getWireCapture().dump(e);
+                throw e;
+            }
+            LOGGER.info("Traffic: {}", apiClient.getTrafficStats());
+            LOGGER.info("Throttled: {} responses, {} retries, {} rate limited requests",
+                    apiClient.getRetryPolicy().getThrottleCount(), apiClient.getRetryPolicy().getRetryCount(),
+                    apiClient.getRateLimiter().getThrottledCount());
+            LOGGER.info("Concurrent batch limit: {}", apiClient.getConcurrencyLimiter().getLimit());
+            ChunkSizer chunkSizer = apiClient.getChunkSizer();
+            LOGGER.info("Vocab chunk size: {} ids, {} to {} chosen, {} adjustments over {} chunks, {} failed",
+                    chunkSizer.getChunkSize(), chunkSizer.getSmallestChosen(), chunkSizer.getLargestChosen(),
+                    chunkSizer.getAdjustmentCount(), chunkSizer.getChunkCount(), chunkSizer.getFailureCount());
+            LOGGER.info("Shared in-flight requests: simptradmap {}, vocabs {}",
+                    apiClient.getSimpleTradMapFlights(), apiClient.getVocabsFlights());
+            LOGGER.debug("Collapsed vocab requests: {}", apiClient.getVocabsFlights().getCollapsedCounts());
+            if (apiClient.getHttpCache().isEnabled()) {
+                LOGGER.info("HTTP cache: {}", apiClient.getHttpCache());
+            }
+            if (apiClient.getHedger().isEnabled()) {
+                LOGGER.info("Hedged {} of {} GETs, {} hedges won", apiClient.getHedger().getHedgeCount(),
+                        apiClient.getHedger().getRequestCount(), apiClient.getHedger().getHedgeWinCount());
+            }
+        }
+    }
 
-        // Get item ids for all studied words
-        Set<String> itemIds = items.getItemIds();
-        // Remove all but the rune versions
-        itemIds = items.filterItemIds(itemIds, List.of(Constants.SKRITTER_ITEM_ID_WRITING_SUFFIX));
-        // Convert them to vocab ids
-        Set<String> vocabIds =
-                items.convertItemIdsToVocabIds(itemIds, Constants.SKRITTER_ITEM_ID_WRITING_SUFFIX);
-        // Fetch banned words
-        Map<String, Vocab> bannedVocabs = apiClient.getBannedVocabs();
-        // Remove banned words from the list
-        apiClient.removeBannedVocabIds(bannedVocabs, vocabIds);
-        // Fetch all of the remaining vocabs
-        List<Vocab> vocabs = apiClient.getVocabs(vocabIds);
+    private void export(ApiClient apiClient, Deadline deadline) throws URISyntaxException, IOException {
+
+        Items items = new Items(apiClient);
+        ExportFilter exportFilter = apiClient.getExportFilter();
+        LOGGER.info("Exporting {}", exportFilter);
+
+        // Packed vocab batches bring the banned vocabs with them; otherwise their ids
+        // are fetched alongside the items
+        boolean packed = !apiClient.isIncludeVocabsWithItems() && apiClient.isVocabBatchPackingEnabled();
+        Deadline bannedDeadline = deadline.child();
+        Future<Set<String>> bannedVocabIdsFetch = packed ? null : apiClient.fetchBannedVocabIds(bannedDeadline);
+        List<Vocab> vocabs;
+        Map<String, String> unrecoverableVocabIds = Map.of();
+
+        try {
+            if (!packed && !apiClient.isIncludeVocabsWithItems() && apiClient.getItemsPageSize() > 0) {
+                // Fetch the vocabs a chunk at a time as pages of item ids come in
+                try (PagedItemIds pagedItemIds = new PagedItemIds(apiClient, items, apiClient.getItemsPageSize(),
+                        bannedVocabIdsFetch, deadline)) {
+                    ApiClient.FetchedVocabs fetchedVocabs = apiClient.getVocabs(pagedItemIds, deadline);
+                    vocabs = fetchedVocabs.vocabs();
+                    unrecoverableVocabIds = fetchedVocabs.unrecoverableIds();
+                }
+            } else {
+                // Get item ids for all studied words, and with include_vocabs their vocabs too
+                Set<String> itemIds;
+                Map<String, Vocab> includedVocabs = null;
+                Set<String> filteredVocabIds = Set.of();
+                if (apiClient.isIncludeVocabsWithItems()) {
+                    Items.ItemIdsWithVocabs itemIdsWithVocabs = items.getItemIdsWithVocabs(deadline);
+                    itemIds = itemIdsWithVocabs.itemIds();
+                    includedVocabs = itemIdsWithVocabs.vocabs();
+                    filteredVocabIds = itemIdsWithVocabs.filteredVocabIds();
+                } else {
+                    itemIds = items.getItemIds(deadline);
+                }
+                // Keep the parts being exported, the rune versions unless filtered otherwise,
+                // and convert them to vocab ids
+                Set<String> vocabIds = items.getExportedVocabIds(itemIds);
+
+                if (packed) {
+                    // Fetch the vocabs and banned words together, then drop the banned ones
+                    ApiClient.PackedVocabs packedVocabs = apiClient.getVocabsAndBannedVocabs(vocabIds, deadline);
+                    vocabs = packedVocabs.vocabs().stream()
+                            .filter(vocab -> !packedVocabs.bannedVocabs().containsKey(vocab.id))
+                            .toList();
+                } else {
+                    // Remove banned words from the list
+                    apiClient.removeBannedVocabIds(
+                            apiClient.await(bannedVocabIdsFetch, "banned vocab ids"), vocabIds);
+
+                    Set<String> missingVocabIds = vocabIds;
+                    vocabs = new ArrayList<>();
+                    if (includedVocabs != null) {
+                        missingVocabIds = new HashSet<>();
+                        for (String vocabId : vocabIds) {
+                            Vocab vocab = includedVocabs.get(vocabId);
+                            if (vocab != null) {
+                                vocabs.add(vocab);
+                            } else if (!filteredVocabIds.contains(vocabId)) {
+                                missingVocabIds.add(vocabId);
+                            }
+                        }
+                        // Only vocabs the items batch left out need a vocab fetch of their own
+                        if (!missingVocabIds.isEmpty()) {
+                            LOGGER.info("{} vocab(s) not included with their items, fetching them",
+                                    missingVocabIds.size());
+                        }
+                    }
+                    // Fetch all of the remaining vocabs
+                    if (!missingVocabIds.isEmpty()) {
+                        ApiClient.FetchedVocabs fetchedVocabs = apiClient.getVocabs(missingVocabIds, deadline);
+                        vocabs.addAll(fetchedVocabs.vocabs());
+                        unrecoverableVocabIds = fetchedVocabs.unrecoverableIds();
+                    }
+                }
+            }
+        } finally {
+            // Stops the banned ids fetch if the items fetch failed first
+            bannedDeadline.cancel();
+        }
 
         // Download the simple to traditional map
-        SimpleTradMap simpleTradMap = apiClient.getSimpleTraditionalMap();
-        Exporter.ExportStyle exportStyle = EXPORT_STYLE;
+        SimpleTradMap simpleTradMap = apiClient.getSimpleTraditionalMap(deadline);
         // Export the data
         String exportData = new Exporter(simpleTradMap, vocabs).export(exportStyle);
         createImportFile(exportStyle, exportData);
+
+        // Left out rather than failing the run, so only these need fetching again
+        if (!unrecoverableVocabIds.isEmpty()) {
+            LOGGER.warn("Could not fetch {} vocab(s), left out of the export: {}",
+                    unrecoverableVocabIds.size(), unrecoverableVocabIds.keySet());
+            unrecoverableVocabIds.forEach((id, reason) -> LOGGER.debug("{}: {}", id, reason));
+        }
     }
 
     static void createImportFile(Exporter.ExportStyle exportStyle, String exportData) throws IOException {
@@ -98,36 +216,20 @@ public class Main {
 
     }
 
-    static void setSkritterPropertiesFile(String fileName) {
-        SKRITTER_PROPERTIES_FILE = fileName;
-    }
-
-    static void restoreSkritterPropertiesFile() {
-        SKRITTER_PROPERTIES_FILE = DEFAULT_SKRITTER_PROPERTIES_FILE;
-    }
-
-    static void setSkritterExportStyle(Exporter.ExportStyle exportStyle) {
-        EXPORT_STYLE = exportStyle;
-    }
-
-    static void restoreExportStyle() {
-        EXPORT_STYLE = DEFAULT_EXPORT_STYLE;
-    }
-
     static String generateFileName(String fileName, String suffix) {
         String timestamp = ZonedDateTime.now(ZoneId.systemDefault()).
                 format(DateTimeFormatter.ofPattern("uuMMdd-HHmm-ss"));
         return fileName + '-' + timestamp + suffix;
     }
 
-    static Properties loadProperties() {
+    Properties loadProperties() {
 
         ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
-        URL propertiesFile = classLoader.getResource(SKRITTER_PROPERTIES_FILE);
+        URL propertiesFile = classLoader.getResource(skritterPropertiesFile);
 
         if (propertiesFile == null) {
             throw new SkritterException(MessageFormat.format(
-                    ERROR_PROPERTY_FILE_NOT_FOUND, SKRITTER_PROPERTIES_FILE));
+                    ERROR_PROPERTY_FILE_NOT_FOUND, skritterPropertiesFile));
         }
 
         Properties properties = new Properties();
@@ -0,0 +1,166 @@
+// MIT License
+//
+// Copyright (c) 2023 David Stone <ds.skritter.export@asif.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.asif.skritter.export;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+
+/**
+ * Streams the vocab ids of the studied words a page of items at a time, so the vocab
+ * fetch can start on the first chunk of ids while later pages are still being fetched.
+ * The pages are fetched one after another in the background, each once the one before
+ * it is in, and queued for the vocab fetch.  The queue is bounded, so the item pages
+ * run at most a few ahead of the vocab chunks taking their ids.
+ */
+public class PagedItemIds implements ApiClient.VocabIdSource, Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PagedItemIds.class);
+
+    static final int QUEUED_PAGES = 4;
+    // Queued after the last page, or a failure; compared by identity
+    private static final Set<String> END = Collections.unmodifiableSet(new HashSet<>());
+
+    private final ApiClient apiClient;
+    private final Items items;
+    private final int pageSize;
+    private final Future<Set<String>> bannedVocabIdsFetch;
+    private final BlockingQueue<Set<String>> pages = new ArrayBlockingQueue<>(QUEUED_PAGES);
+    private final Deadline fetchDeadline;
+    private final Future<Integer> fetch;
+
+    // Only used by the thread taking ids
+    private final Deque<String> pendingVocabIds = new ArrayDeque<>();
+    private final Set<String> seenVocabIds = new HashSet<>();
+    private Set<String> bannedVocabIds;
+    private boolean ended;
+
+    /**
+     * Starts fetching the pages.
+     * @param bannedVocabIdsFetch The banned vocab ids, waited for when the first page is in.
+     */
+    PagedItemIds(ApiClient apiClient, Items items, int pageSize, Future<Set<String>> bannedVocabIdsFetch,
+                 Deadline deadline) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize must be positive: " + pageSize);
+        }
+        this.apiClient = apiClient;
+        this.items = items;
+        this.pageSize = pageSize;
+        this.bannedVocabIdsFetch = bannedVocabIdsFetch;
+        this.fetchDeadline = deadline.child();
+        this.fetch = apiClient.runInBackground(this::fetchPages);
+    }
+
+    /**
+     * @return The item ids kept.
+     */
+    private int fetchPages() throws IOException, URISyntaxException, InterruptedException {
+        int pageCount = 0;
+        int itemCount = 0;
+        int keptCount = 0;
+        try {
+            String cursor = null;
+            do {
+                Items.ItemIdsPage page = items.getItemIdsPage(cursor, pageSize, fetchDeadline);
+                pageCount++;
+                itemCount += page.itemCount();
+                keptCount += page.itemIds().size();
+                // Waits while the vocab fetch is QUEUED_PAGES behind
+                pages.put(page.itemIds());
+                cursor = page.nextCursor();
+            } while (cursor != null);
+            LOGGER.info("Got {} items in {} page(s), kept {} item ids", itemCount, pageCount, keptCount);
+            return keptCount;
+        } finally {
+            pages.put(END);
+        }
+    }
+
+    @Override
+    public List<String> next(int max) {
+        while (pendingVocabIds.size() < max && !ended) {
+            Set<String> itemIds = take();
+            if (itemIds == END) {
+                // Rethrows the failure that ended the pages, if any
+                get(fetch, "item ids");
+                ended = true;
+            } else {
+                addVocabIds(itemIds);
+            }
+        }
+        List<String> vocabIds = new ArrayList<>(Math.min(max, pendingVocabIds.size()));
+        while (vocabIds.size() < max && !pendingVocabIds.isEmpty()) {
+            vocabIds.add(pendingVocabIds.poll());
+        }
+        return vocabIds;
+    }
+
+    private Set<String> take() {
+        try {
+            return pages.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SkritterException("Interrupted while waiting for item ids");
+        }
+    }
+
+    private void addVocabIds(Set<String> itemIds) {
+        if (bannedVocabIds == null) {
+            bannedVocabIds = get(bannedVocabIdsFetch, "banned vocab ids");
+        }
+        Set<String> vocabIds = items.getExportedVocabIds(itemIds);
+        apiClient.removeBannedVocabIds(bannedVocabIds, vocabIds);
+        for (String vocabId : vocabIds) {
+            // The same vocab may be studied in items on different pages
+            if (seenVocabIds.add(vocabId)) {
+                pendingVocabIds.add(vocabId);
+            }
+        }
+    }
+
+    private <T> T get(Future<T> future, String what) {
+        try {
+            return apiClient.await(future, what);
+        } catch (IOException | URISyntaxException e) {
+            SkritterException exception = new SkritterException("Failed getting " + what);
+            exception.initCause(e);
+            throw exception;
+        }
+    }
+
+    /**
+     * Stops fetching pages, e.g. when the vocab fetch failed.
+     */
+    @Override
+    public void close() {
+        fetchDeadline.cancel();
+        fetch.cancel(true);
+    }
+}
@@ -28,7 +28,10 @@ import org.apache.hc.core5.http.HttpStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -38,7 +41,9 @@ public class Parser {
 
     static List<Item> parseItems(String json) {
 
-        LOGGER.debug("Items -> {}", JsonWriter.formatJson(json));
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Items -> {}", JsonWriter.formatJson(json));
+        }
 
         List<Item> itemList = new ArrayList<>();
 
@@ -57,7 +62,9 @@ public class Parser {
     }
 
     static Vocab parseVocab(String json) {
-        LOGGER.debug("Vocab -> {}", JsonWriter.formatJson(json));
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Vocab -> {}", JsonWriter.formatJson(json));
+        }
         Object obj = JsonReader.jsonToJava(json, Map.of(JsonReader.USE_MAPS, true));
         @SuppressWarnings("unchecked")
         Map<String, Object> vocabMap = (Map<String, Object>) obj;
@@ -68,7 +75,9 @@ public class Parser {
     }
 
     static SimpleTradMap parseSimpleTradMap(String json) {
-        LOGGER.debug("SimpleTradMap -> {}", JsonWriter.formatJson(json));
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("SimpleTradMap -> {}", JsonWriter.formatJson(json));
+        }
         Object jsonMap = JsonReader.jsonToJava(json, Map.of(JsonReader.USE_MAPS, true));
         assert jsonMap instanceof Map;
         @SuppressWarnings("unchecked")
@@ -82,15 +91,14 @@ public class Parser {
 
     static BatchResponse parseBatchResponse(String json) {
 
-        LOGGER.debug("Batch Response -> {}", JsonWriter.formatJson(json));
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Batch Response -> {}", JsonWriter.formatJson(json));
+        }
 
         Object obj = JsonReader.jsonToJava(json, Map.of(JsonReader.USE_MAPS, true));
         @SuppressWarnings("unchecked")
         Map<String, Object> batchMap = (Map<String, Object>) obj;
-        long statusCode = (Long)batchMap.get(Constants.SKRITTER_STATUS_CODE_FIELD);
-        if (statusCode != HttpStatus.SC_OK) {
-            throw new SkritterException("Unexpected HTTP failure: " + json);
-        }
+        checkStatusCode(batchMap.get(Constants.SKRITTER_STATUS_CODE_FIELD), json);
 
         @SuppressWarnings("unchecked")
         Map<String, Object> batch = (Map<String, Object>)batchMap.get(
@@ -98,4 +106,190 @@ public class Parser {
 
         return new BatchResponse.Builder(batch).build();
     }
+
+    /**
+     * Receives each element of the batch requests' response arrays, e.g. each vocab,
+     * as batch data is parsed by {@link #parseBatchResponse(InputStream, BatchElementHandler)}.
+     */
+    interface BatchElementHandler {
+
+        /**
+         * Called before the elements of a request's response.
+         * @param batchRequest The request, with at least its id and params.
+         * @return Whether to process the response; false skips it.
+         */
+        default boolean accept(BatchRequest batchRequest) {
+            return true;
+        }
+
+        /**
+         * The fields of the request's elements in the named array that are read, so the
+         * parser can skip the rest.
+         */
+        default FieldProjection projection(BatchRequest batchRequest, String arrayName) {
+            return FieldProjection.ALL;
+        }
+
+        void element(BatchRequest batchRequest, String arrayName, Map<String, Object> element);
+
+        /**
+         * Called with each member of a request's response that is not an array of
+         * elements, e.g. the cursor of the next page.
+         */
+        default void value(BatchRequest batchRequest, String name, Object value) {
+        }
+    }
+
+    /**
+     * Parse batch data as it streams in, handing each response element to the handler
+     * as soon as it is read rather than building the whole response tree.  Memory use
+     * stays proportional to one element, e.g. one vocab record.
+     * <p>
+     * A response is streamed when its request's id and params precede it, as Skritter
+     * sends them; otherwise that one response is buffered until its request is complete.
+     * @return The batch and its requests, without their responses.
+     */
+    static BatchResponse parseBatchResponse(InputStream inputStream, BatchElementHandler handler)
+            throws IOException {
+
+        BatchResponse batchResponse = null;
+        Map<String, Object> otherFields = new LinkedHashMap<>();
+
+        try (JsonStreamReader reader = new JsonStreamReader(inputStream)) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals(Constants.SKRITTER_BATCH_OBJECT_NAME)) {
+                    batchResponse = parseStreamedBatch(reader, handler);
+                } else {
+                    otherFields.put(name, reader.readValue());
+                }
+            }
+            reader.endObject();
+        }
+
+        checkStatusCode(otherFields.get(Constants.SKRITTER_STATUS_CODE_FIELD), otherFields);
+        if (batchResponse == null) {
+            throw new ParseFailureException("No batch in response: " + otherFields);
+        }
+
+        return batchResponse;
+    }
+
+    /**
+     * @throws HttpFailureException If the response reports a failure status.
+     * @throws ParseFailureException If it reports no status.
+     */
+    private static void checkStatusCode(Object statusCode, Object response) {
+        if (!(statusCode instanceof Long code)) {
+            throw new ParseFailureException("Unexpected HTTP failure: " + response);
+        }
+        if (code != HttpStatus.SC_OK) {
+            throw new HttpFailureException("Unexpected HTTP failure: " + response, code.intValue());
+        }
+    }
+
+    private static BatchResponse parseStreamedBatch(JsonStreamReader reader, BatchElementHandler handler)
+            throws IOException {
+
+        Map<String, Object> batchMap = new LinkedHashMap<>();
+        List<BatchRequest> batchRequests = new ArrayList<>();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals(Constants.SKRITTER_REQUESTS_ARRAY_NAME)
+                    && reader.peek() == JsonStreamReader.Token.BEGIN_ARRAY) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    batchRequests.add(parseStreamedRequest(reader, handler));
+                }
+                reader.endArray();
+            } else {
+                batchMap.put(name, reader.readValue());
+            }
+        }
+        reader.endObject();
+
+        BatchResponse batchResponse = new BatchResponse.Builder(batchMap).build();
+        batchResponse.requests.addAll(batchRequests);
+        return batchResponse;
+    }
+
+    private static BatchRequest parseStreamedRequest(JsonStreamReader reader, BatchElementHandler handler)
+            throws IOException {
+
+        Map<String, Object> requestMap = new LinkedHashMap<>();
+        boolean streamed = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals(Constants.SKRITTER_RESPONSE_FIELD)
+                    && reader.peek() == JsonStreamReader.Token.BEGIN_OBJECT
+                    && requestMap.containsKey(Constants.SKRITTER_ID_FIELD)
+                    && requestMap.containsKey(Constants.SKRITTER_PARAMS_OBJECT_NAME)) {
+                BatchRequest header = new BatchRequest.Builder(requestMap).build();
+                if (handler.accept(header)) {
+                    streamResponse(reader, header, handler);
+                } else {
+                    reader.skipValue();
+                }
+                streamed = true;
+            } else {
+                requestMap.put(name, reader.readValue());
+            }
+        }
+        reader.endObject();
+
+        BatchRequest batchRequest = new BatchRequest.Builder(requestMap).build();
+
+        if (!streamed && batchRequest.response != null) {
+            if (handler.accept(batchRequest)) {
+                for (Map.Entry<String, Object> entry : batchRequest.response.entrySet()) {
+                    if (entry.getValue() instanceof Object[] elements) {
+                        for (Object element : elements) {
+                            if (element instanceof Map) {
+                                @SuppressWarnings("unchecked")
+                                Map<String, Object> elementMap = (Map<String, Object>) element;
+                                handler.element(batchRequest, entry.getKey(), handler.projection(
+                                        batchRequest, entry.getKey()).project(elementMap));
+                            }
+                        }
+                    } else {
+                        handler.value(batchRequest, entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+            batchRequest.response = null;
+        }
+
+        return batchRequest;
+    }
+
+    private static void streamResponse(JsonStreamReader reader, BatchRequest batchRequest,
+                                       BatchElementHandler handler) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String arrayName = reader.nextName();
+            if (reader.peek() != JsonStreamReader.Token.BEGIN_ARRAY) {
+                handler.value(batchRequest, arrayName, reader.readValue());
+                continue;
+            }
+            FieldProjection projection = handler.projection(batchRequest, arrayName);
+            reader.beginArray();
+            while (reader.hasNext()) {
+                if (reader.peek() == JsonStreamReader.Token.BEGIN_OBJECT) {
+                    // Fields no stage reads are passed over, not materialized
+                    Map<String, Object> element = projection.isAll()
+                            ? reader.readObject() : reader.readObject(projection.getFields());
+                    handler.element(batchRequest, arrayName, element);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endArray();
+        }
+        reader.endObject();
+    }
 }
@@ -0,0 +1,187 @@
+// MIT License
+//
+// Copyright (c) 2023 David Stone <ds.skritter.export@asif.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.asif.skritter.export;
+
+import java.util.Collection;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides when to next poll a batch for completion.
+ * <p>
+ * Polling starts with a short interval and backs off exponentially, with jitter,
+ * up to a maximum.  The scheduler also learns how long batches typically take from
+ * the created/done times of completed batch requests, and holds off the first poll
+ * until a batch is predicted to be nearly done.
+ * <p>
+ * Thread safe; one scheduler is shared by all of an ApiClient's batches.
+ */
+public class PollScheduler {
+
+    static final String POLL_INITIAL_MILLISECONDS_PROPERTY = "Poll-Initial-Milliseconds";
+    static final String POLL_MAX_MILLISECONDS_PROPERTY = "Poll-Max-Milliseconds";
+
+    static final long POLL_INITIAL_MILLISECONDS_DEFAULT = 50;
+    static final long POLL_MAX_MILLISECONDS_DEFAULT = 2000;
+    static final double BACKOFF_MULTIPLIER = 2.0;
+    static final double JITTER_DEFAULT = 0.2;
+
+    // Fraction of the learned batch duration to wait before the first poll
+    private static final double PREDICTION_FRACTION = 0.8;
+    // Weight of the newest observation in the learned duration
+    private static final double LEARNING_RATE = 0.3;
+
+    private final long initialMillis;
+    private final long maxMillis;
+    private final double jitter;
+
+    // Learned typical batch duration, as Double bits; negative until first observation
+    private final AtomicLong learnedMillisBits = new AtomicLong(Double.doubleToLongBits(-1));
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong polls = new AtomicLong();
+
+    PollScheduler(long initialMillis, long maxMillis, double jitter) {
+        this.initialMillis = initialMillis;
+        this.maxMillis = Math.max(initialMillis, maxMillis);
+        this.jitter = jitter;
+    }
+
+    PollScheduler() {
+        this(POLL_INITIAL_MILLISECONDS_DEFAULT, POLL_MAX_MILLISECONDS_DEFAULT, JITTER_DEFAULT);
+    }
+
+    static PollScheduler from(Properties properties) {
+        return new PollScheduler(
+                ClientProperties.getLong(properties, POLL_INITIAL_MILLISECONDS_PROPERTY,
+                        POLL_INITIAL_MILLISECONDS_DEFAULT),
+                ClientProperties.getLong(properties, POLL_MAX_MILLISECONDS_PROPERTY,
+                        POLL_MAX_MILLISECONDS_DEFAULT),
+                JITTER_DEFAULT);
+    }
+
+    /**
+     * Begin scheduling polls for one batch.
+     */
+    Session start() {
+        return new Session();
+    }
+
+    /**
+     * Learn from the created/done times of a completed batch's requests.  Skritter
+     * reports these in whole seconds, so a batch that finishes within its creation
+     * second counts as half a second.
+     */
+    void learn(Collection<BatchRequest> batchRequests) {
+
+        long created = Long.MAX_VALUE;
+        long done = 0;
+
+        for (BatchRequest request : batchRequests) {
+            if (request.created != null && request.done != null && request.done > 0) {
+                created = Math.min(created, request.created);
+                done = Math.max(done, request.done);
+            }
+        }
+
+        if (done == 0) {
+            return;
+        }
+
+        double observedMillis = Math.max(TimeUnit.SECONDS.toMillis(done - created), 500);
+        learnedMillisBits.updateAndGet(bits -> {
+            double learned = Double.longBitsToDouble(bits);
+            double updated = (learned < 0) ? observedMillis
+                    : learned + LEARNING_RATE * (observedMillis - learned);
+            return Double.doubleToLongBits(updated);
+        });
+    }
+
+    /**
+     * @return The learned typical batch duration, or -1 if nothing has been learned yet.
+     */
+    long getLearnedBatchMillis() {
+        return Math.round(Double.longBitsToDouble(learnedMillisBits.get()));
+    }
+
+    long getBatchCount() {
+        return batches.get();
+    }
+
+    long getPollCount() {
+        return polls.get();
+    }
+
+    /**
+     * Poll timing for a single batch.
+     */
+    class Session {
+        private final long startNanos = System.nanoTime();
+        private int polls;
+        private long interval = initialMillis;
+
+        private Session() {
+        }
+
+        /**
+         * @return Milliseconds to wait before the next poll.
+         */
+        long nextDelayMillis() {
+            long delay;
+            if (polls == 0) {
+                long learned = getLearnedBatchMillis();
+                delay = (learned > 0) ? Math.round(learned * PREDICTION_FRACTION) : initialMillis;
+            } else {
+                delay = interval;
+                interval = Math.min(maxMillis, Math.round(interval * BACKOFF_MULTIPLIER));
+            }
+            polls++;
+            return jittered(Math.min(Math.max(delay, initialMillis), maxMillis));
+        }
+
+        int getPolls() {
+            return polls;
+        }
+
+        long getElapsedMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        }
+
+        /**
+         * Record that the batch is complete, after one poll per {@link #nextDelayMillis()}.
+         */
+        void complete() {
+            batches.incrementAndGet();
+            PollScheduler.this.polls.addAndGet(polls);
+        }
+
+        private long jittered(long millis) {
+            if (jitter <= 0) {
+                return millis;
+            }
+            double factor = 1 + ThreadLocalRandom.current().nextDouble(-jitter, jitter);
+            return Math.max(1, Math.round(millis * factor));
+        }
+    }
+}
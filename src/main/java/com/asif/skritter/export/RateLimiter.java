@@ -0,0 +1,99 @@
+// MIT License
+//
+// Copyright (c) 2023 David Stone <ds.skritter.export@asif.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.asif.skritter.export;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client-side token bucket limiting the rate of requests to Skritter.
+ * <p>
+ * Tokens accrue at the configured rate up to the burst size; each request takes
+ * one.  A request that finds the bucket empty reserves the next token anyway and
+ * is told how long to wait for it, so waiting callers are served in order.
+ * A rate of zero or less disables limiting.
+ */
+public class RateLimiter {
+
+    static final String REQUESTS_PER_SECOND_PROPERTY = "Requests-Per-Second";
+    static final String REQUEST_BURST_PROPERTY = "Request-Burst";
+
+    static final double REQUESTS_PER_SECOND_DEFAULT = 0;
+    static final int REQUEST_BURST_DEFAULT = 10;
+
+    private final double permitsPerNano;
+    private final double burst;
+
+    private double tokens;
+    private long lastNanos = System.nanoTime();
+    private long throttled;
+
+    RateLimiter(double requestsPerSecond, int burst) {
+        this.permitsPerNano = requestsPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.burst = Math.max(1, burst);
+        this.tokens = this.burst;
+    }
+
+    static RateLimiter unlimited() {
+        return new RateLimiter(0, 1);
+    }
+
+    static RateLimiter from(Properties properties) {
+        return new RateLimiter(
+                ClientProperties.getDouble(properties, REQUESTS_PER_SECOND_PROPERTY, REQUESTS_PER_SECOND_DEFAULT),
+                ClientProperties.getInt(properties, REQUEST_BURST_PROPERTY, REQUEST_BURST_DEFAULT));
+    }
+
+    boolean isLimited() {
+        return permitsPerNano > 0;
+    }
+
+    /**
+     * Take a token.
+     * @return How long the caller must wait before sending its request, in milliseconds.
+     */
+    synchronized long reserve() {
+        return reserve(System.nanoTime());
+    }
+
+    synchronized long reserve(long nowNanos) {
+        if (!isLimited()) {
+            return 0;
+        }
+        tokens = Math.min(burst, tokens + (nowNanos - lastNanos) * permitsPerNano);
+        lastNanos = nowNanos;
+        tokens -= 1;
+        if (tokens >= 0) {
+            return 0;
+        }
+        throttled++;
+        return TimeUnit.NANOSECONDS.toMillis((long) Math.ceil(-tokens / permitsPerNano));
+    }
+
+    /**
+     * @return How many requests had to wait for a token.
+     */
+    synchronized long getThrottledCount() {
+        return throttled;
+    }
+}
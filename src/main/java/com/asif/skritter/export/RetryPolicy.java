@@ -0,0 +1,183 @@
+// MIT License
+//
+// Copyright (c) 2023 David Stone <ds.skritter.export@asif.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.asif.skritter.export;
+
+import org.apache.hc.client5.http.utils.DateUtils;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.HttpResponse;
+import org.apache.hc.core5.http.HttpStatus;
+import org.apache.hc.core5.http.Method;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides whether, and after how long, a failed request is retried.
+ * <p>
+ * 429 Too Many Requests and 503 Service Unavailable mean the server did not act on
+ * the request, so any request is retried after the server's Retry-After delay.
+ * 502/504 responses and I/O errors leave it unknown whether the server acted, so
+ * only idempotent GETs are retried.  Without a Retry-After, retries back off
+ * exponentially, with jitter, up to a maximum.  A Retry-After longer than that
+ * maximum is cut down to it, so one response cannot hold a request for an hour.
+ * <p>
+ * Thread safe; one policy is shared by all of an ApiClient's requests.
+ */
+public class RetryPolicy {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RetryPolicy.class);
+
+    static final String MAX_RETRIES_PROPERTY = "Max-Retries";
+    static final String RETRY_INITIAL_MILLISECONDS_PROPERTY = "Retry-Initial-Milliseconds";
+    static final String RETRY_MAX_MILLISECONDS_PROPERTY = "Retry-Max-Milliseconds";
+
+    static final int MAX_RETRIES_DEFAULT = 4;
+    static final long RETRY_INITIAL_MILLISECONDS_DEFAULT = 500;
+    static final long RETRY_MAX_MILLISECONDS_DEFAULT = 30000;
+    static final double JITTER_DEFAULT = 0.2;
+
+    static final long NO_RETRY = -1;
+
+    private final int maxRetries;
+    private final long initialMillis;
+    private final long maxMillis;
+    private final double jitter;
+
+    private final AtomicLong throttles = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+
+    RetryPolicy(int maxRetries, long initialMillis, long maxMillis, double jitter) {
+        this.maxRetries = maxRetries;
+        this.initialMillis = initialMillis;
+        this.maxMillis = Math.max(initialMillis, maxMillis);
+        this.jitter = jitter;
+    }
+
+    RetryPolicy() {
+        this(MAX_RETRIES_DEFAULT, RETRY_INITIAL_MILLISECONDS_DEFAULT, RETRY_MAX_MILLISECONDS_DEFAULT, JITTER_DEFAULT);
+    }
+
+    static RetryPolicy from(Properties properties) {
+        return new RetryPolicy(
+                ClientProperties.getInt(properties, MAX_RETRIES_PROPERTY, MAX_RETRIES_DEFAULT),
+                ClientProperties.getLong(properties, RETRY_INITIAL_MILLISECONDS_PROPERTY,
+                        RETRY_INITIAL_MILLISECONDS_DEFAULT),
+                ClientProperties.getLong(properties, RETRY_MAX_MILLISECONDS_PROPERTY,
+                        RETRY_MAX_MILLISECONDS_DEFAULT),
+                JITTER_DEFAULT);
+    }
+
+    /**
+     * @param retry How many times the request has already been retried.
+     * @return Milliseconds to wait before retrying the request, or NO_RETRY.
+     */
+    long retryDelayMillis(String method, HttpResponse response, int retry) {
+
+        int status = response.getCode();
+        boolean throttled = isThrottle(status);
+        if (throttled) {
+            throttles.incrementAndGet();
+        }
+
+        boolean retryable = throttled
+                || (isIdempotent(method)
+                    && (status == HttpStatus.SC_BAD_GATEWAY || status == HttpStatus.SC_GATEWAY_TIMEOUT));
+        if (!retryable || retry >= maxRetries) {
+            return NO_RETRY;
+        }
+
+        long delay = getRetryAfterMillis(response, System.currentTimeMillis());
+        if (delay < 0) {
+            delay = backoffMillis(retry);
+        } else if (delay > maxMillis) {
+            LOGGER.info("Retry-After of {} ms capped at {} ms", delay, maxMillis);
+            delay = maxMillis;
+        }
+        retries.incrementAndGet();
+        LOGGER.info("{} response, retrying in {} ms", status, delay);
+        return delay;
+    }
+
+    /**
+     * @return Milliseconds to wait before retrying the request, or NO_RETRY.
+     */
+    long retryDelayMillis(String method, IOException e, int retry) {
+        if (!isIdempotent(method) || retry >= maxRetries) {
+            return NO_RETRY;
+        }
+        long delay = backoffMillis(retry);
+        retries.incrementAndGet();
+        LOGGER.info("{}, retrying in {} ms", e.toString(), delay);
+        return delay;
+    }
+
+    long backoffMillis(int retry) {
+        double delay = Math.min(maxMillis, initialMillis * Math.pow(2, Math.min(retry, 30)));
+        double factor = 1 + jitter * (2 * ThreadLocalRandom.current().nextDouble() - 1);
+        return Math.round(delay * factor);
+    }
+
+    /**
+     * Retry-After is either a number of seconds or an HTTP date.
+     * @return The delay it asks for, or -1 if absent or unreadable.
+     */
+    static long getRetryAfterMillis(HttpResponse response, long nowMillis) {
+        Header header = response.getFirstHeader(HttpHeaders.RETRY_AFTER);
+        if (header == null || header.getValue() == null) {
+            return -1;
+        }
+        String value = header.getValue().trim();
+        try {
+            return TimeUnit.SECONDS.toMillis(Math.max(0, Long.parseLong(value)));
+        } catch (NumberFormatException e) {
+            Instant date = DateUtils.parseStandardDate(value);
+            return (date == null) ? -1 : Math.max(0, date.toEpochMilli() - nowMillis);
+        }
+    }
+
+    static boolean isThrottle(int status) {
+        return status == HttpStatus.SC_TOO_MANY_REQUESTS || status == HttpStatus.SC_SERVICE_UNAVAILABLE;
+    }
+
+    private static boolean isIdempotent(String method) {
+        return Method.GET.isSame(method) || Method.HEAD.isSame(method);
+    }
+
+    /**
+     * @return How many 429/503 responses have been received.
+     */
+    long getThrottleCount() {
+        return throttles.get();
+    }
+
+    long getRetryCount() {
+        return retries.get();
+    }
+}
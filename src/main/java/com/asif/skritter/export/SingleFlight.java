@@ -0,0 +1,210 @@
+// MIT License
+//
+// Copyright (c) 2023 David Stone <ds.skritter.export@asif.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.asif.skritter.export;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collapses concurrent identical calls into one.
+ * <p>
+ * The first caller for a key makes the call; callers arriving with the same key
+ * while it is in flight wait for it and share its result, or its failure.  Once
+ * the call finishes the key is forgotten, so later callers make a fresh call.
+ * Counts of collapsed calls are kept per key.
+ * <p>
+ * A call for many keys at once, e.g. a chunk of vocab ids, joins the keys already
+ * in flight and makes one call for the rest, so overlapping calls collapse however
+ * their keys are grouped.  Each waiting caller gives up at its own deadline, which
+ * leaves the call running for the others.  One instance can be shared by several
+ * clients, as long as its keys tell their calls apart.
+ */
+public class SingleFlight<K, V> {
+
+    /**
+     * The call to share.
+     */
+    interface Call<V> {
+        V call() throws IOException, URISyntaxException;
+    }
+
+    /**
+     * The call to share, for several keys at once.
+     */
+    interface MultiCall<K, V> {
+        /**
+         * @return The value for each key that has one, and any others the call returned.
+         */
+        Map<K, V> call(List<K> keys) throws IOException, URISyntaxException;
+    }
+
+    private final Map<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final Map<K, LongAdder> collapsedByKey = new ConcurrentHashMap<>();
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder collapsed = new LongAdder();
+
+    V execute(K key, Call<V> call) throws IOException, URISyntaxException {
+        return execute(key, call, Deadline.none());
+    }
+
+    /**
+     * @param deadline Bounds this caller's wait for a call already in flight.
+     */
+    V execute(K key, Call<V> call, Deadline deadline) throws IOException, URISyntaxException {
+        calls.increment();
+
+        CompletableFuture<V> flight = new CompletableFuture<>();
+        CompletableFuture<V> leader = inFlight.putIfAbsent(key, flight);
+        if (leader != null) {
+            countCollapsed(key);
+            return await(key, leader, deadline);
+        }
+
+        try {
+            V value = call.call();
+            flight.complete(value);
+            return value;
+        } catch (IOException | URISyntaxException | RuntimeException e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    /**
+     * Call for the keys not already in flight, then wait for the rest.
+     * @param deadline Bounds this caller's wait for the keys already in flight.
+     * @return The value of each key that has one, and any others the call returned.
+     */
+    Map<K, V> executeAll(Collection<K> keys, MultiCall<K, V> call, Deadline deadline)
+            throws IOException, URISyntaxException {
+
+        Map<K, CompletableFuture<V>> led = new LinkedHashMap<>();
+        Map<K, CompletableFuture<V>> joined = new LinkedHashMap<>();
+        for (K key : keys) {
+            calls.increment();
+            CompletableFuture<V> flight = new CompletableFuture<>();
+            CompletableFuture<V> leader = inFlight.putIfAbsent(key, flight);
+            if (leader == null) {
+                led.put(key, flight);
+            } else {
+                countCollapsed(key);
+                joined.put(key, leader);
+            }
+        }
+
+        // The call is made before waiting, so two callers each waiting on the other's keys cannot deadlock
+        Map<K, V> values = new LinkedHashMap<>();
+        if (!led.isEmpty()) {
+            try {
+                values.putAll(call.call(new ArrayList<>(led.keySet())));
+                led.forEach((key, flight) -> flight.complete(values.get(key)));
+            } catch (IOException | URISyntaxException | RuntimeException e) {
+                led.values().forEach(flight -> flight.completeExceptionally(e));
+                throw e;
+            } finally {
+                led.forEach(inFlight::remove);
+            }
+        }
+
+        for (Map.Entry<K, CompletableFuture<V>> entry : joined.entrySet()) {
+            V value = await(entry.getKey(), entry.getValue(), deadline);
+            if (value != null) {
+                values.put(entry.getKey(), value);
+            }
+        }
+        return values;
+    }
+
+    private void countCollapsed(K key) {
+        collapsed.increment();
+        collapsedByKey.computeIfAbsent(key, k -> new LongAdder()).increment();
+    }
+
+    private V await(K key, CompletableFuture<V> leader, Deadline deadline) throws IOException, URISyntaxException {
+        String what = "waiting for shared call " + key;
+        deadline.check(what);
+        // Cancelling this caller's own view of the call leaves it running for the others
+        CompletableFuture<V> wait = leader.copy();
+        Deadline.Registration registration = deadline.register(() -> wait.cancel(false));
+        try {
+            return wait.get();
+        } catch (CancellationException e) {
+            SkritterException failure = deadline.failure(what, e);
+            throw (failure != null) ? failure : new SkritterException(Deadline.ERROR_CANCELLED + what);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SkritterException("Interrupted waiting for shared call " + key);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException ioException) {
+                throw ioException;
+            } else if (cause instanceof URISyntaxException uriSyntaxException) {
+                throw uriSyntaxException;
+            } else if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new SkritterException("Failed waiting for shared call " + key, e);
+        } finally {
+            registration.close();
+        }
+    }
+
+    int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    long getCallCount() {
+        return calls.sum();
+    }
+
+    long getCollapsedCount() {
+        return collapsed.sum();
+    }
+
+    /**
+     * @return How many calls were collapsed into another, for each key that had any.
+     */
+    Map<K, Long> getCollapsedCounts() {
+        Map<K, Long> counts = new HashMap<>();
+        collapsedByKey.forEach((key, count) -> counts.put(key, count.sum()));
+        return counts;
+    }
+
+    @Override
+    public String toString() {
+        return getCollapsedCount() + " of " + getCallCount() + " calls collapsed";
+    }
+}
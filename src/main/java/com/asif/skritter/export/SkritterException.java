@@ -29,6 +29,8 @@ import java.util.Objects;
  */
 public class SkritterException extends RuntimeException {
 
+    private static final long serialVersionUID = 1L;
+
     public SkritterException(String message) {
         super(message);
     }
@@ -0,0 +1,133 @@
+// MIT License
+//
+// Copyright (c) 2023 David Stone <ds.skritter.export@asif.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.asif.skritter.export;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts bytes on the wire, and before compression / after decompression, for
+ * each request and in total.  Each attempt at a retried request is counted as an
+ * exchange of its own, so no exchange's bytes include another's.
+ */
+public class TrafficStats {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TrafficStats.class);
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong retriedRequests = new AtomicLong();
+    private final AtomicLong requestBytes = new AtomicLong();
+    private final AtomicLong requestBytesUncompressed = new AtomicLong();
+    private final AtomicLong responseBytes = new AtomicLong();
+    private final AtomicLong responseBytesDecoded = new AtomicLong();
+
+    /**
+     * Begin counting one request/response exchange.
+     */
+    Exchange begin(String description) {
+        return new Exchange(description);
+    }
+
+    long getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * @return How many of the requests were retries of an earlier attempt.
+     */
+    long getRetriedRequests() {
+        return retriedRequests.get();
+    }
+
+    long getRequestBytes() {
+        return requestBytes.get();
+    }
+
+    long getRequestBytesUncompressed() {
+        return requestBytesUncompressed.get();
+    }
+
+    long getResponseBytes() {
+        return responseBytes.get();
+    }
+
+    long getResponseBytesDecoded() {
+        return responseBytesDecoded.get();
+    }
+
+    @Override
+    public String toString() {
+        long retried = retriedRequests.get();
+        return requests.get() + " requests" + ((retried > 0) ? " (" + retried + " retries)" : "")
+                + ", sent " + requestBytes.get() + " bytes ("
+                + requestBytesUncompressed.get() + " uncompressed), received " + responseBytes.get()
+                + " bytes (" + responseBytesDecoded.get() + " decoded)";
+    }
+
+    /**
+     * Byte counts for a single exchange.  The response counts grow as its body is read.
+     */
+    class Exchange {
+        private final String description;
+        final AtomicLong requestBytes = new AtomicLong();
+        final AtomicLong requestBytesUncompressed = new AtomicLong();
+        final AtomicLong responseBytes = new AtomicLong();
+        final AtomicLong responseBytesDecoded = new AtomicLong();
+
+        private Exchange(String description) {
+            this.description = description;
+        }
+
+        void requestBody(long wireBytes, long uncompressedBytes) {
+            requestBytes.set(wireBytes);
+            requestBytesUncompressed.set(uncompressedBytes);
+        }
+
+        /**
+         * Begin counting another attempt at the same request, which sends the same body again.
+         */
+        Exchange retry() {
+            retriedRequests.incrementAndGet();
+            Exchange retry = new Exchange(description);
+            retry.requestBody(requestBytes.get(), requestBytesUncompressed.get());
+            return retry;
+        }
+
+        /**
+         * Add this exchange, once its response has been read or it has failed, to the totals.
+         */
+        void complete() {
+            requests.incrementAndGet();
+            TrafficStats.this.requestBytes.addAndGet(requestBytes.get());
+            TrafficStats.this.requestBytesUncompressed.addAndGet(requestBytesUncompressed.get());
+            TrafficStats.this.responseBytes.addAndGet(responseBytes.get());
+            TrafficStats.this.responseBytesDecoded.addAndGet(responseBytesDecoded.get());
+
+            LOGGER.debug("{}: sent {} bytes ({} uncompressed), received {} bytes ({} decoded)",
+                    description, requestBytes.get(), requestBytesUncompressed.get(),
+                    responseBytes.get(), responseBytesDecoded.get());
+        }
+    }
+}
@@ -52,7 +52,7 @@ public class Vocab {
             case Constants.SKRITTER_WRITING_STYLE_TRADITIONAL -> TRADITIONAL;
             case Constants.SKRITTER_WRITING_STYLE_BOTH -> BOTH;
             default ->
-                throw new SkritterException(
+                throw new ParseFailureException(
                         MessageFormat.format(ERROR_INVALID_WRITING_STYLE, writingStyle));
             };
         }
@@ -0,0 +1,282 @@
+// MIT License
+//
+// Copyright (c) 2023 David Stone <ds.skritter.export@asif.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.asif.skritter.export;
+
+import org.apache.hc.core5.http.ClassicHttpRequest;
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.io.entity.HttpEntityWrapper;
+import org.apache.hc.core5.http.message.StatusLine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Keeps the most recent request/response pairs, bodies included, so that they can
+ * be written to a file when an export fails.
+ * <p>
+ * Off by default, when recording is a single check.  When on, response bodies are
+ * copied as the response handler reads them, so streamed responses are captured
+ * too, up to a per-body share of the size cap.  The oldest pairs are dropped once
+ * there are more than the configured number of them, or they exceed the size cap.
+ * The Authorization header is never captured.
+ */
+public class WireCapture {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WireCapture.class);
+
+    static final String ENTRIES_PROPERTY = "Wire-Capture-Entries";
+    static final String MAX_BYTES_PROPERTY = "Wire-Capture-Max-Bytes";
+    static final String DIRECTORY_PROPERTY = "Wire-Capture-Directory";
+
+    static final int ENTRIES_DEFAULT = 0;
+    static final long MAX_BYTES_DEFAULT = 4L * 1024 * 1024;
+    static final String FILE_PREFIX = "skritter_wire";
+    static final String FILE_SUFFIX = ".log";
+
+    private static final String TRUNCATED = "\n[truncated]";
+
+    /**
+     * Collects one response as it is read; finish it once the handler is done.
+     */
+    interface Recording {
+        void finish();
+    }
+
+    private static final Recording NOT_RECORDING = () -> { };
+
+    private record Entry(Instant time, String request, String requestBody, String response, String responseBody) {
+        long size() {
+            return request.length() + requestBody.length() + response.length() + responseBody.length();
+        }
+    }
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final int maxBodyBytes;
+    private final Path directory;
+
+    private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+    private long size;
+
+    WireCapture(int maxEntries, long maxBytes, Path directory) {
+        this.maxEntries = Math.max(0, maxEntries);
+        this.maxBytes = maxBytes;
+        this.maxBodyBytes = (int) Math.min(Integer.MAX_VALUE, maxBytes / Math.max(1, this.maxEntries));
+        this.directory = directory;
+    }
+
+    static WireCapture disabled() {
+        return new WireCapture(0, 0, null);
+    }
+
+    static WireCapture from(Properties properties) {
+        String directory = properties.getProperty(DIRECTORY_PROPERTY);
+        return new WireCapture(
+                ClientProperties.getInt(properties, ENTRIES_PROPERTY, ENTRIES_DEFAULT),
+                ClientProperties.getLong(properties, MAX_BYTES_PROPERTY, MAX_BYTES_DEFAULT),
+                Paths.get((directory == null || directory.isBlank()) ? "." : directory.trim()));
+    }
+
+    boolean isEnabled() {
+        return maxEntries > 0 && maxBytes > 0;
+    }
+
+    /**
+     * Start recording an exchange, copying the response body as it is read.
+     */
+    Recording record(ClassicHttpRequest request, ClassicHttpResponse response) {
+        if (!isEnabled()) {
+            return NOT_RECORDING;
+        }
+
+        String requestLine = request.getMethod() + " " + request.getRequestUri();
+        String requestBody = requestBody(request);
+        String responseHead = new StatusLine(response) + headers(response.getHeaders());
+
+        HttpEntity entity = response.getEntity();
+        if (entity == null) {
+            return () -> add(new Entry(Instant.now(), requestLine, requestBody, responseHead, ""));
+        }
+        CapturingEntity capturing = new CapturingEntity(entity, maxBodyBytes);
+        response.setEntity(capturing);
+        return () -> add(new Entry(Instant.now(), requestLine, requestBody, responseHead, capturing.captured()));
+    }
+
+    private synchronized void add(Entry entry) {
+        entries.addLast(entry);
+        size += entry.size();
+        while (entries.size() > maxEntries || (size > maxBytes && entries.size() > 1)) {
+            size -= entries.removeFirst().size();
+        }
+    }
+
+    synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    /**
+     * Write the captured exchanges, oldest first, after the failure that prompted it.
+     * @return The file written, or null if there was nothing to write or it failed.
+     */
+    Path dump(Throwable failure) {
+        List<Entry> snapshot;
+        synchronized (this) {
+            if (entries.isEmpty()) {
+                return null;
+            }
+            snapshot = new ArrayList<>(entries);
+        }
+
+        StringBuilder text = new StringBuilder();
+        text.append("Failure: ").append(failure).append("\n");
+        for (Entry entry : snapshot) {
+            text.append("\n=== ").append(entry.time()).append(" ").append(entry.request()).append("\n");
+            if (!entry.requestBody().isEmpty()) {
+                text.append(entry.requestBody()).append("\n");
+            }
+            text.append("--- ").append(entry.response()).append("\n");
+            text.append(entry.responseBody()).append("\n");
+        }
+
+        Path file = directory.resolve(Main.generateFileName(FILE_PREFIX, FILE_SUFFIX));
+        try {
+            Files.createDirectories(directory);
+            Files.writeString(file, text);
+        } catch (IOException e) {
+            LOGGER.warn("Could not write the wire capture to {}", file, e);
+            return null;
+        }
+        LOGGER.warn("Wrote the last {} requests and responses to {}", snapshot.size(), file);
+        return file;
+    }
+
+    private String requestBody(ClassicHttpRequest request) {
+        HttpEntity entity = request.getEntity();
+        if (entity == null || !entity.isRepeatable()) {
+            return "";
+        }
+        try (InputStream content = Compression.decoder(entity.getContent(), entity.getContentEncoding())) {
+            byte[] bytes = content.readNBytes(maxBodyBytes + 1);
+            return toText(bytes, bytes.length > maxBodyBytes);
+        } catch (IOException e) {
+            return "[unreadable: " + e + "]";
+        }
+    }
+
+    private static String headers(Header[] headers) {
+        StringBuilder text = new StringBuilder();
+        for (Header header : headers) {
+            if (!HttpHeaders.AUTHORIZATION.equalsIgnoreCase(header.getName())) {
+                text.append("\n").append(header.getName()).append(": ").append(header.getValue());
+            }
+        }
+        return text.toString();
+    }
+
+    private String toText(byte[] bytes, boolean truncated) {
+        int length = Math.min(bytes.length, maxBodyBytes);
+        String text = new String(bytes, 0, length, StandardCharsets.UTF_8);
+        return truncated ? text + TRUNCATED : text;
+    }
+
+    /**
+     * Copies up to a limit of the content into a buffer as the content is read.
+     */
+    private class CapturingEntity extends HttpEntityWrapper {
+
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private final int limit;
+        private boolean truncated;
+        private InputStream content;
+
+        CapturingEntity(HttpEntity entity, int limit) {
+            super(entity);
+            this.limit = limit;
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            if (content == null) {
+                content = new FilterInputStream(super.getContent()) {
+                    @Override
+                    public int read() throws IOException {
+                        int b = super.read();
+                        if (b >= 0) {
+                            copy(new byte[] {(byte) b}, 0, 1);
+                        }
+                        return b;
+                    }
+
+                    @Override
+                    public int read(byte[] bytes, int offset, int length) throws IOException {
+                        int n = super.read(bytes, offset, length);
+                        if (n > 0) {
+                            copy(bytes, offset, n);
+                        }
+                        return n;
+                    }
+                };
+            }
+            return content;
+        }
+
+        @Override
+        public boolean isStreaming() {
+            return true;
+        }
+
+        @Override
+        public void writeTo(OutputStream outputStream) throws IOException {
+            getContent().transferTo(outputStream);
+        }
+
+        private synchronized void copy(byte[] bytes, int offset, int length) {
+            int room = limit - buffer.size();
+            if (length > room) {
+                truncated = true;
+            }
+            buffer.write(bytes, offset, Math.max(0, Math.min(room, length)));
+        }
+
+        synchronized String captured() {
+            return toText(buffer.toByteArray(), truncated);
+        }
+    }
+}
@@ -25,11 +25,19 @@ package com.asif.skritter.export;
 import com.github.paweladamski.httpclientmock.HttpClientMock;
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.hc.core5.http.HttpHeaders;
 import org.apache.hc.core5.http.HttpStatus;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.ThrowableAssert.catchThrowable;
@@ -44,8 +52,7 @@ class ApiClientTest {
 
     ApiClientTest() {
         clientMock = new HttpClientMock();
-        ApiClient.setHttpClient(clientMock);
-        apiClient = new ApiClient();
+        apiClient = Util.apiClientBuilder(clientMock).build();
     }
 
     @BeforeEach
@@ -88,6 +95,116 @@ class ApiClientTest {
 
         List<Vocab> vocabs = apiClient.getVocabs(vocabIds);
         assertThat(vocabs).hasSize(2);
+        // The item ids batch and the vocabs batch
+        assertThat(apiClient.getPollScheduler().getBatchCount()).isEqualTo(2);
+        assertThat(apiClient.getPollScheduler().getLearnedBatchMillis()).isPositive();
+    }
+
+    @Test
+    void getVocabsConcurrentlyTest() throws URISyntaxException, IOException {
+        // Enough ids for several chunks; every chunk answers with the same two vocabs
+        Set<String> vocabIds = new HashSet<>();
+        for (int i = 0; i < 350; i++) {
+            vocabIds.add("zh-" + i + "-0");
+        }
+
+        clientMock.onPost(Constants.BATCH_ENDPOINT)
+                .doReturnJSON(Util.getJsonResource("batch_get_vocabs.json"));
+        clientMock.onGet()
+                .doReturnJSON(Util.getJsonResource("batch_get_vocabs_data.json"));
+
+        ApiClient apiClient = Util.apiClientBuilder(clientMock).vocabFetchParallelism(3).build();
+        List<Vocab> vocabs = apiClient.getVocabs(vocabIds);
+        assertThat(vocabs).hasSize(2);
+        assertThat(vocabs).extracting(vocab -> vocab.id).containsExactlyInAnyOrder("zh-场-0", "zh-艮-0");
+    }
+
+    @Test
+    void getVocabsConcurrentlyFailureTest() {
+        Set<String> vocabIds = new HashSet<>();
+        for (int i = 0; i < 350; i++) {
+            vocabIds.add("zh-" + i + "-0");
+        }
+        String errorMessage = "yada yada and yet more yada";
+
+        clientMock.onPost(Constants.BATCH_ENDPOINT)
+                .doReturnWithStatus(HttpStatus.SC_INTERNAL_SERVER_ERROR, errorMessage);
+
+        ApiClient apiClient = Util.apiClientBuilder(clientMock).vocabFetchParallelism(3).build();
+        Throwable thrown = catchThrowable(() -> apiClient.getVocabs(vocabIds));
+        assertThat(thrown).isInstanceOf(SkritterException.class);
+        assertThat(thrown).hasMessageContaining(errorMessage);
+    }
+
+    @Test
+    void poisonVocabIdSalvagedTest() throws URISyntaxException, IOException {
+        Set<String> vocabIds = new LinkedHashSet<>(List.of("zh-1-0", "zh-2-0", "zh-3-0", "zh-poison-0"));
+
+        clientMock.onPost(Constants.BATCH_ENDPOINT)
+                .doReturnJSON(Util.getJsonResource("batch_get_vocabs.json"));
+        clientMock.onPost(Constants.BATCH_ENDPOINT)
+                .withBody(containsString("zh-poison-0"))
+                .doReturnWithStatus(HttpStatus.SC_INTERNAL_SERVER_ERROR);
+        clientMock.onGet()
+                .doReturnJSON(Util.getJsonResource("batch_get_vocabs_data.json"));
+
+        ApiClient.FetchedVocabs fetchedVocabs = apiClient.getVocabs(vocabIds, Deadline.none());
+
+        // The chunks without the bad id were kept, and only it was given up on
+        assertThat(fetchedVocabs.vocabs()).extracting(vocab -> vocab.id)
+                .containsExactlyInAnyOrder("zh-场-0", "zh-艮-0");
+        assertThat(fetchedVocabs.unrecoverableIds()).containsOnlyKeys("zh-poison-0");
+        // The whole chunk, again, then two halves and the two ids of the failed half
+        clientMock.verify().post().called(6);
+    }
+
+    @Test
+    void getVocabsAndBannedVocabsPackedTest() throws URISyntaxException, IOException {
+        // Two 100-id vocab requests and the banned request, all in one batch
+        Set<String> vocabIds = new HashSet<>();
+        for (int i = 0; i < 150; i++) {
+            vocabIds.add("zh-" + i + "-0");
+        }
+
+        clientMock.onPost(Constants.BATCH_ENDPOINT)
+                .doReturnJSON(Util.getJsonResource("batch_get_packed_vocabs.json"));
+        clientMock.onGet()
+                .withPath(containsString("6000000000000001/status"))
+                .doReturnJSON(Util.getJsonResource("batch_get_packed_vocabs_status.json"));
+        clientMock.onGet()
+                .withPath(endsWith("6000000000000001"))
+                .doReturnJSON(Util.getJsonResource("batch_get_packed_vocabs_data.json"));
+
+        ApiClient apiClient = Util.apiClientBuilder(clientMock).vocabRequestsPerBatch(20).build();
+        assertThat(apiClient.isVocabBatchPackingEnabled()).isTrue();
+        ApiClient.PackedVocabs packedVocabs = apiClient.getVocabsAndBannedVocabs(vocabIds);
+
+        assertThat(packedVocabs.vocabs()).extracting(vocab -> vocab.id)
+                .containsExactlyInAnyOrder("zh-场-0", "zh-艮-0");
+        // Including the banned vocab from the second page, spawned by the first
+        assertThat(packedVocabs.bannedVocabs()).containsOnlyKeys("zh-一只小猫-2", "zh-马老师-1", "zh-几-2");
+        assertThat(apiClient.getPollScheduler().getBatchCount()).isEqualTo(1);
+    }
+
+    @Test
+    void fetchBannedVocabIdsTest() throws URISyntaxException, IOException {
+        clientMock.reset();
+        clientMock.onPost(Constants.BATCH_ENDPOINT)
+                .withBody(containsString("\"fields\":\"" + Constants.SKRITTER_ID_FIELD + "\""))
+                .doReturnJSON(Util.getJsonResource("batch_get_banned_vocabs.json"));
+        clientMock.onGet()
+                .doReturnJSON(Util.getJsonResource("batch_get_banned_vocabs_status.json"));
+        clientMock.onGet()
+                .doReturnJSON(Util.getJsonResource("batch_get_banned_vocabs_data.json"));
+
+        Set<String> bannedVocabIds = apiClient.await(
+                apiClient.fetchBannedVocabIds(Deadline.none()), "banned vocab ids");
+        assertThat(bannedVocabIds).containsOnly(
+                "zh-一只小猫-2", "zh-马老师-1", "zh-几-2", "zh-立-0", "zh-后天-0");
+
+        Set<String> vocabIds = new HashSet<>(Set.of("zh-几-2", "zh-场-0", "zh-立-0", "zh-艮-0"));
+        apiClient.removeBannedVocabIds(bannedVocabIds, vocabIds);
+        assertThat(vocabIds).containsOnly("zh-场-0", "zh-艮-0");
     }
 
     @Test
@@ -106,6 +223,23 @@ class ApiClientTest {
                 "zh-一只小猫-2", "zh-马老师-1", "zh-几-2", "zh-立-0", "zh-后天-0");
     }
 
+    @Test
+    void bannedVocabsProjectedTest() throws URISyntaxException, IOException {
+        // Only a projected banned vocabs request gets an answer
+        clientMock.reset();
+        clientMock.onPost(Constants.BATCH_ENDPOINT)
+                .withBody(containsString("\"fields\":\"" + FieldProjection.BANNED_VOCAB.toParameter() + "\""))
+                .doReturnJSON(Util.getJsonResource("batch_get_banned_vocabs.json"));
+        clientMock.onGet()
+                .doReturnJSON(Util.getJsonResource("batch_get_banned_vocabs_status.json"));
+        clientMock.onGet()
+                .doReturnJSON(Util.getJsonResource("batch_get_banned_vocabs_data.json"));
+
+        Map<String, Vocab> vocabs = apiClient.getBannedVocabs();
+        assertThat(vocabs).hasSize(5);
+        assertThat(vocabs.get("zh-马老师-1").audio).isNull();
+    }
+
     @Test
     void getSimpleTradMapTest() throws URISyntaxException, IOException {
         clientMock.onGet()
@@ -117,6 +251,26 @@ class ApiClientTest {
         assertThat(simpleTradMap.getNumMappings("国")).isEqualTo(1);
     }
 
+    @Test
+    void getSimpleTradMapRevalidatedTest(@TempDir Path cacheDirectory) throws URISyntaxException, IOException {
+        ApiClient apiClient = Util.apiClientBuilder(clientMock)
+                .httpCache(new HttpCache(cacheDirectory, HttpCache.MAX_BYTES_DEFAULT))
+                .build();
+        clientMock.onGet()
+                .doReturnJSON(Util.getJsonResource("get_simpletradmap_response.json"))
+                .withHeader(HttpHeaders.ETAG, "\"v1\"")
+                .doReturnWithStatus(HttpStatus.SC_NOT_MODIFIED);
+
+        assertThat(apiClient.getSimpleTraditionalMap().numEntries()).isEqualTo(2623);
+        // The second run only revalidates, and is served from the cache
+        SimpleTradMap simpleTradMap = apiClient.getSimpleTraditionalMap();
+
+        assertThat(simpleTradMap.numEntries()).isEqualTo(2623);
+        clientMock.verify().get().withHeader(HttpHeaders.IF_NONE_MATCH, "\"v1\"").called(1);
+        assertThat(apiClient.getHttpCache().getHitCount()).isEqualTo(1);
+        assertThat(apiClient.getHttpCache().getMissCount()).isEqualTo(1);
+    }
+
     @Test
     void batchTimeoutTest() throws URISyntaxException, IOException {
         Set<String> itemIds = Util.getItemIds(clientMock, apiClient);
@@ -132,14 +286,42 @@ class ApiClientTest {
         clientMock.onGet()
                 .doReturnJSON(Util.getJsonResource("batch_get_vocabs_status1.json"));
 
-        try {
-            apiClient.setBatchTimeoutSeconds(1);
-            Throwable thrown = catchThrowable(() -> apiClient.getVocabs(vocabIds));
-            assertThat(thrown).isInstanceOf(SkritterException.class);
-            assertThat(thrown).hasMessageStartingWith(ApiClient.ERROR_TIMED_OUT_WAITING);
-        } finally {
-            apiClient.restoreBatchTimeoutSeconds();
-        }
+        ApiClient apiClient = Util.apiClientBuilder(clientMock).batchTimeoutSeconds(1).build();
+        Throwable thrown = catchThrowable(() -> apiClient.getVocabs(vocabIds));
+        assertThat(thrown).isInstanceOf(SkritterException.class);
+        assertThat(thrown).hasMessageStartingWith(ApiClient.ERROR_TIMED_OUT_WAITING);
+    }
+
+    @Test
+    void deadlineEndsBatchWaitTest() throws URISyntaxException, IOException {
+        // The batch never finishes, but the deadline ends the wait long before the batch timeout
+        clientMock.onPost(Constants.BATCH_ENDPOINT)
+                .doReturnJSON(Util.getJsonResource("batch_get_vocabs.json"));
+        clientMock.onGet()
+                .doReturnJSON(Util.getJsonResource("batch_get_vocabs_status1.json"));
+        long startNanos = System.nanoTime();
+        Deadline deadline = Deadline.after(200);
+
+        Throwable thrown = catchThrowable(() -> apiClient.getVocabs(Set.of("zh-场-0", "zh-艮-0"), deadline));
+
+        assertThat(thrown).isInstanceOf(SkritterException.class);
+        assertThat(thrown).hasMessageStartingWith(Deadline.ERROR_DEADLINE_EXCEEDED);
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos)).isLessThan(5000);
+    }
+
+    @Test
+    void cancelEndsBatchWaitTest() throws URISyntaxException, IOException {
+        clientMock.onPost(Constants.BATCH_ENDPOINT)
+                .doReturnJSON(Util.getJsonResource("batch_get_vocabs.json"));
+        clientMock.onGet()
+                .doReturnJSON(Util.getJsonResource("batch_get_vocabs_status1.json"));
+        Deadline deadline = Deadline.none();
+        CompletableFuture.runAsync(deadline::cancel, CompletableFuture.delayedExecutor(100, TimeUnit.MILLISECONDS));
+
+        Throwable thrown = catchThrowable(() -> apiClient.getBannedVocabs(deadline));
+
+        assertThat(thrown).isInstanceOf(SkritterException.class);
+        assertThat(thrown).hasMessageStartingWith(Deadline.ERROR_CANCELLED);
     }
 
     @Test
@@ -226,6 +408,171 @@ class ApiClientTest {
         assertThat(thrown).hasMessageContaining(errorMessage);
     }
 
+    @Test
+    void incrementalBatchResultsTest() throws URISyntaxException, IOException {
+        ApiClient apiClient = Util.apiClientBuilder(clientMock).incrementalBatchResults(true).build();
+        clientMock.onPost(Constants.BATCH_ENDPOINT)
+                .doReturnJSON(Util.getJsonResource("batch_get_vocabs.json"));
+        clientMock.onGet()
+                .withPath(containsString("5883192233295872/status"))
+                .doReturnJSON(Util.getJsonResource("batch_get_vocabs_status_requests1.json"))
+                .doReturnJSON(Util.getJsonResource("batch_get_vocabs_status_requests2.json"));
+        clientMock.onGet()
+                .withPath(endsWith("5883192233295872"))
+                .doReturnWithStatus(HttpStatus.SC_INTERNAL_SERVER_ERROR);
+
+        List<Vocab> vocabs = apiClient.getVocabs(Set.of("zh-场-0", "zh-艮-0"));
+
+        assertThat(vocabs).extracting(vocab -> vocab.id).containsExactlyInAnyOrder("zh-场-0", "zh-艮-0");
+        // The finished requests' responses came with the next status, not the batch data
+        clientMock.verify().get()
+                .withPath(containsString("5883192233295872/status"))
+                .withParameter(Constants.SKRITTER_REQUEST_IDS_PARAMETER, "5077606289768448,5241609615966208")
+                .called();
+        clientMock.verify().get().withPath(endsWith("5883192233295872")).notCalled();
+    }
+
+    @Test
+    void incrementalBatchResultsFallbackTest() throws URISyntaxException, IOException {
+        ApiClient apiClient = Util.apiClientBuilder(clientMock).incrementalBatchResults(true).build();
+        // Statuses without a Requests list leave the batch data to be downloaded
+        clientMock.onPost(Constants.BATCH_ENDPOINT)
+                .doReturnJSON(Util.getJsonResource("batch_get_vocabs.json"));
+        clientMock.onGet()
+                .withPath(containsString("5883192233295872/status"))
+                .doReturnJSON(Util.getJsonResource("batch_get_vocabs_status2.json"));
+        clientMock.onGet()
+                .withPath(endsWith("5883192233295872"))
+                .doReturnJSON(Util.getJsonResource("batch_get_vocabs_data.json"));
+
+        List<Vocab> vocabs = apiClient.getVocabs(Set.of("zh-场-0", "zh-艮-0"));
+        assertThat(vocabs).hasSize(2);
+    }
+
+    @Test
+    void throttledBatchRequestRetriedTest() throws URISyntaxException, IOException {
+        clientMock.onPost(Constants.BATCH_ENDPOINT)
+                .doReturnWithStatus(HttpStatus.SC_TOO_MANY_REQUESTS)
+                .withHeader(HttpHeaders.RETRY_AFTER, "0")
+                .doReturnJSON(Util.getJsonResource("batch_get_vocabs.json"));
+        clientMock.onGet()
+                .withPath(containsString("5883192233295872/status"))
+                .doThrowException(new IOException("Connection reset"))
+                .doReturnJSON(Util.getJsonResource("batch_get_vocabs_status2.json"));
+        clientMock.onGet()
+                .withPath(endsWith("5883192233295872"))
+                .doReturnWithStatus(HttpStatus.SC_SERVICE_UNAVAILABLE)
+                .doReturnJSON(Util.getJsonResource("batch_get_vocabs_data.json"));
+
+        List<Vocab> vocabs = apiClient.getVocabs(Set.of("zh-场-0", "zh-艮-0"));
+        assertThat(vocabs).hasSize(2);
+        assertThat(apiClient.getRetryPolicy().getThrottleCount()).isEqualTo(2);
+        assertThat(apiClient.getRetryPolicy().getRetryCount()).isEqualTo(3);
+        // Each attempt is counted on its own
+        assertThat(apiClient.getTrafficStats().getRequests()).isEqualTo(6);
+        assertThat(apiClient.getTrafficStats().getRetriedRequests()).isEqualTo(3);
+        // Throttling halves the number of batches allowed in flight
+        assertThat(apiClient.getConcurrencyLimiter().getLimit()).isEqualTo(1);
+    }
+
+    @Test
+    void throttledBatchDataGivesUpTest() throws URISyntaxException, IOException {
+        clientMock.onPost(Constants.BATCH_ENDPOINT)
+                .doReturnJSON(Util.getJsonResource("batch_get_vocabs.json"));
+        clientMock.onGet()
+                .withPath(containsString("5883192233295872/status"))
+                .doReturnJSON(Util.getJsonResource("batch_get_vocabs_status2.json"));
+        clientMock.onGet()
+                .withPath(endsWith("5883192233295872"))
+                .doReturnWithStatus(HttpStatus.SC_SERVICE_UNAVAILABLE);
+
+        Throwable thrown = catchThrowable(() -> apiClient.getVocabs(Set.of("zh-场-0", "zh-艮-0")));
+        assertThat(thrown).isInstanceOf(SkritterException.class);
+        assertThat(thrown).hasMessageContaining(String.valueOf(HttpStatus.SC_SERVICE_UNAVAILABLE));
+        assertThat(apiClient.getRetryPolicy().getRetryCount()).isEqualTo(RetryPolicy.MAX_RETRIES_DEFAULT);
+    }
+
+    @Test
+    void failedAttemptsCountedTest() {
+        clientMock.onGet(Constants.SIMPLE_TRAD_MAP_ENDPOINT)
+                .doThrowException(new IOException("Connection reset"));
+
+        Throwable thrown = catchThrowable(apiClient::getSimpleTraditionalMap);
+        assertThat(thrown).hasMessageContaining("Connection reset");
+        // The last attempt, which was not retried, is counted with the others
+        assertThat(apiClient.getTrafficStats().getRequests()).isEqualTo(RetryPolicy.MAX_RETRIES_DEFAULT + 1);
+        assertThat(apiClient.getTrafficStats().getRetriedRequests()).isEqualTo(RetryPolicy.MAX_RETRIES_DEFAULT);
+    }
+
+    @Test
+    void independentlyConfiguredClientsTest() throws URISyntaxException, IOException {
+        // Two clients on one shared HTTP client, each with its own endpoint and timeout
+        String mirrorEndpointBase = "https://mirror.skritter.test/api/v0";
+        ApiClient skritterClient = Util.apiClientBuilder(clientMock).build();
+        ApiClient mirrorClient = Util.apiClientBuilder(clientMock)
+                .endpointBase(mirrorEndpointBase)
+                .batchTimeoutSeconds(1)
+                .build();
+
+        clientMock.onGet(Constants.SIMPLE_TRAD_MAP_ENDPOINT)
+                .doReturnJSON(Util.getJsonResource("get_simpletradmap_response.json"));
+        clientMock.onGet(mirrorEndpointBase + "/simptradmap")
+                .doReturnWithStatus(HttpStatus.SC_INTERNAL_SERVER_ERROR);
+
+        Throwable thrown = catchThrowable(mirrorClient::getSimpleTraditionalMap);
+        assertThat(thrown).isInstanceOf(SkritterException.class);
+        assertThat(skritterClient.getSimpleTraditionalMap().numEntries()).isEqualTo(2623);
+        assertThat(skritterClient.getBatchTimeoutMillis())
+                .isEqualTo(TimeUnit.SECONDS.toMillis(ApiClient.BATCH_TIMEOUT_SECONDS_DEFAULT));
+        assertThat(mirrorClient.getBatchTimeoutMillis()).isEqualTo(TimeUnit.SECONDS.toMillis(1));
+
+        // Closing one client leaves the shared HTTP client to the other
+        mirrorClient.close();
+        assertThat(skritterClient.getSimpleTraditionalMap().numEntries()).isEqualTo(2623);
+    }
+
+    @Test
+    void clientsShareInFlightVocabsTest() throws Exception {
+        // The batch runs for a while, long enough for the second client to join it
+        clientMock.onPost(Constants.BATCH_ENDPOINT)
+                .doReturnJSON(Util.getJsonResource("batch_get_vocabs.json"));
+        String running = Util.getJsonResource("batch_get_vocabs_status1.json");
+        clientMock.onGet()
+                .withPath(containsString("5883192233295872/status"))
+                .doReturnJSON(running)
+                .doReturnJSON(running)
+                .doReturnJSON(running)
+                .doReturnJSON(Util.getJsonResource("batch_get_vocabs_status2.json"));
+        clientMock.onGet()
+                .withPath(endsWith("5883192233295872"))
+                .doReturnJSON(Util.getJsonResource("batch_get_vocabs_data.json"));
+
+        ApiClient.Flights flights = new ApiClient.Flights();
+        ApiClient firstClient = Util.apiClientBuilder(clientMock)
+                .pollScheduler(new PollScheduler(100, 100, 0))
+                .flights(flights)
+                .build();
+        ApiClient secondClient = Util.apiClientBuilder(clientMock).flights(flights).build();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<List<Vocab>> firstVocabs =
+                    executor.submit(() -> firstClient.getVocabs(Set.of("zh-场-0", "zh-艮-0")));
+            while (flights.vocabs.getInFlightCount() < 2) {
+                Thread.sleep(5);
+            }
+
+            List<Vocab> secondVocabs = secondClient.getVocabs(Set.of("zh-艮-0"));
+
+            assertThat(secondVocabs).extracting(vocab -> vocab.id).containsExactly("zh-艮-0");
+            assertThat(firstVocabs.get(10, TimeUnit.SECONDS)).extracting(vocab -> vocab.id)
+                    .containsExactlyInAnyOrder("zh-场-0", "zh-艮-0");
+            assertThat(flights.vocabs.getCollapsedCount()).isEqualTo(1);
+            clientMock.verify().post().called(1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
     @Test
     void nonPaginatedDataFailsTest() {
         String errorMessage = "yada yada and yet more yada";
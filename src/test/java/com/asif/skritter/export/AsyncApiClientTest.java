@@ -0,0 +1,145 @@
+// MIT License
+//
+// Copyright (c) 2023 David Stone <ds.skritter.export@asif.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.asif.skritter.export;
+
+import org.apache.hc.core5.http.HttpStatus;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+class AsyncApiClientTest {
+
+    private final LocalSkritterServer server;
+    private final AsyncApiClient apiClient;
+
+    AsyncApiClientTest() throws IOException {
+        server = new LocalSkritterServer();
+        apiClient = new AsyncApiClient("fake-token", server.getEndpointBase(),
+                HttpClientFactory.buildAsync(HttpClientFactory.PoolSettings.defaults()),
+                new PollScheduler(10, 50, 0));
+    }
+
+    @AfterEach
+    void afterEach() {
+        apiClient.close();
+        server.close();
+    }
+
+    @Test
+    void fetchBatchTest() throws URISyntaxException, IOException, ExecutionException,
+            InterruptedException, TimeoutException {
+        server.on("POST", "/api/v0/batch", Util.getJsonResource("batch_get_vocabs.json"))
+                .on("GET", "/api/v0/batch/5883192233295872/status",
+                        Util.getJsonResource("batch_get_vocabs_status1.json"),
+                        Util.getJsonResource("batch_get_vocabs_status1.json"),
+                        Util.getJsonResource("batch_get_vocabs_status2.json"))
+                .on("GET", "/api/v0/batch/5883192233295872",
+                        Util.getJsonResource("batch_get_vocabs_data.json"));
+
+        ApiClient.VocabsParams vocabsParams = new ApiClient.VocabsParams();
+        vocabsParams.ids = "zh-场-0|zh-艮-0";
+
+        List<BatchRequest> batchRequests = apiClient.fetchBatch(Constants.SKRITTER_VOCABS_PATH, vocabsParams)
+                .get(10, TimeUnit.SECONDS);
+
+        assertThat(batchRequests).hasSize(2);
+        assertThat(batchRequests.get(1).response).containsKey(Constants.SKRITTER_VOCABS_ARRAY_NAME);
+        assertThat(apiClient.getPollScheduler().getPollCount()).isEqualTo(3);
+
+        // The local server gzips its responses
+        TrafficStats trafficStats = apiClient.getTrafficStats();
+        assertThat(trafficStats.getRequests()).isEqualTo(5);
+        assertThat(trafficStats.getResponseBytes()).isPositive()
+                .isLessThan(trafficStats.getResponseBytesDecoded());
+    }
+
+    @Test
+    void manyConcurrentBatchesTest() throws URISyntaxException, IOException, ExecutionException,
+            InterruptedException, TimeoutException {
+        server.on("POST", "/api/v0/batch", Util.getJsonResource("batch_get_vocabs.json"))
+                .on("GET", "/api/v0/batch/5883192233295872/status",
+                        Util.getJsonResource("batch_get_vocabs_status2.json"))
+                .on("GET", "/api/v0/batch/5883192233295872",
+                        Util.getJsonResource("batch_get_vocabs_data.json"));
+
+        List<CompletableFuture<List<BatchRequest>>> futures = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            futures.add(apiClient.fetchBatch(Constants.SKRITTER_VOCABS_PATH, new ApiClient.VocabsParams()));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(30, TimeUnit.SECONDS);
+
+        assertThat(futures).allSatisfy(future -> assertThat(future.join()).hasSize(2));
+        assertThat(apiClient.getPollScheduler().getBatchCount()).isEqualTo(50);
+    }
+
+    @Test
+    void getSimpleTradMapTest() throws URISyntaxException, IOException, ExecutionException,
+            InterruptedException, TimeoutException {
+        server.on("GET", "/api/v0/simptradmap", Util.getJsonResource("get_simpletradmap_response.json"));
+
+        SimpleTradMap simpleTradMap = apiClient.getSimpleTraditionalMap().get(10, TimeUnit.SECONDS);
+        assertThat(simpleTradMap.numEntries()).isEqualTo(2623);
+        assertThat(simpleTradMap.getNumMappings("个")).isEqualTo(2);
+    }
+
+    @Test
+    void propertiesTest() throws URISyntaxException, IOException, ExecutionException,
+            InterruptedException, TimeoutException {
+        server.on("GET", "/api/v0/simptradmap", Util.getJsonResource("get_simpletradmap_response.json"));
+        Properties properties = new Properties();
+        properties.setProperty(ApiClient.BEARER_TOKEN_PROPERTY, "fake-token");
+        properties.setProperty(ApiClient.ENDPOINT_BASE_PROPERTY, server.getEndpointBase());
+        properties.setProperty(ApiClient.BATCH_TIMEOUT_SECONDS_PROPERTY, "7");
+
+        try (AsyncApiClient propertiesApiClient = new AsyncApiClient(properties)) {
+            assertThat(propertiesApiClient.getEndpointBase()).isEqualTo(server.getEndpointBase());
+            assertThat(propertiesApiClient.getBatchTimeoutMillis()).isEqualTo(TimeUnit.SECONDS.toMillis(7));
+            SimpleTradMap simpleTradMap = propertiesApiClient.getSimpleTraditionalMap().get(10, TimeUnit.SECONDS);
+            assertThat(simpleTradMap.numEntries()).isEqualTo(2623);
+        }
+    }
+
+    @Test
+    void batchStatusFailedTest() throws URISyntaxException, IOException {
+        server.on("POST", "/api/v0/batch", Util.getJsonResource("batch_get_vocabs.json"))
+                .onStatus("GET", "/api/v0/batch/5883192233295872/status", HttpStatus.SC_INTERNAL_SERVER_ERROR);
+
+        Throwable thrown = catchThrowable(() -> apiClient.fetchBatch(
+                Constants.SKRITTER_VOCABS_PATH, new ApiClient.VocabsParams()).get(10, TimeUnit.SECONDS));
+        assertThat(thrown).isInstanceOf(ExecutionException.class);
+        assertThat(thrown.getCause()).isInstanceOf(SkritterException.class);
+        assertThat(thrown.getCause()).hasMessageContaining(String.valueOf(HttpStatus.SC_INTERNAL_SERVER_ERROR));
+    }
+}
@@ -0,0 +1,315 @@
+// MIT License
+//
+// Copyright (c) 2023 David Stone <ds.skritter.export@asif.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.asif.skritter.export;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+class BatchPollerTest {
+
+    // Status polls received per batch id
+    private final Map<String, AtomicInteger> polls = new ConcurrentHashMap<>();
+    private final Set<Thread> pollingThreads = ConcurrentHashMap.newKeySet();
+    private final Set<Deadline> pollDeadlines = ConcurrentHashMap.newKeySet();
+    private final PollScheduler pollScheduler = new PollScheduler(5, 20, 0);
+    private long timeoutMillis = 10_000;
+    // Holds up the polls of "stuck" batches until released
+    private final CountDownLatch unstick = new CountDownLatch(1);
+
+    // Each batch is done on its third poll
+    private final BatchPoller poller = new BatchPoller((batchRequestId, requestIds, handler, deadline) -> {
+        pollingThreads.add(Thread.currentThread());
+        pollDeadlines.add(deadline);
+        int poll = polls.computeIfAbsent(batchRequestId, id -> new AtomicInteger()).incrementAndGet();
+        if (batchRequestId.startsWith("fail")) {
+            throw new IOException("Connection reset");
+        }
+        if (batchRequestId.startsWith("stuck")) {
+            try {
+                unstick.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+        }
+        return newBatchResponse(batchRequestId, batchRequestId.startsWith("slow") || poll < 3 ? 1 : 0);
+    }, pollScheduler, () -> timeoutMillis);
+
+    @AfterEach
+    void afterEach() {
+        unstick.countDown();
+        poller.close();
+    }
+
+    @Test
+    void manyBatchesTest() throws InterruptedException, ExecutionException, TimeoutException {
+        List<CompletableFuture<BatchResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            futures.add(poller.register(newBatchResponse("batch" + i, 1)));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+
+        assertThat(futures).allSatisfy(future -> assertThat(future.join().runningRequests).isZero());
+        assertThat(polls).hasSize(200).allSatisfy((id, count) -> assertThat(count.get()).isEqualTo(3));
+        assertThat(poller.getPendingCount()).isZero();
+        assertThat(pollScheduler.getBatchCount()).isEqualTo(200);
+        // Polls run on the executor, not the thread scheduling them
+        assertThat(pollingThreads).isNotEmpty().noneMatch(thread -> thread.getName().equals("batch-poller"));
+    }
+
+    @Test
+    void stuckPollDoesNotHoldUpOthersTest() throws InterruptedException, ExecutionException, TimeoutException {
+        CompletableFuture<BatchResponse> stuck = poller.register(newBatchResponse("stuck", 1));
+        List<CompletableFuture<BatchResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            futures.add(poller.register(newBatchResponse("batch" + i, 1)));
+        }
+
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+        assertThat(stuck).isNotDone();
+        // A batch is not polled again while its last poll is still running
+        assertThat(polls.get("stuck").get()).isOne();
+
+        unstick.countDown();
+        assertThat(stuck.get(10, TimeUnit.SECONDS).runningRequests).isZero();
+    }
+
+    @Test
+    void deadlinePassedToPollsTest() throws InterruptedException, ExecutionException, TimeoutException {
+        Deadline deadline = Deadline.after(60_000);
+
+        poller.register(newBatchResponse("batch", 1), null, deadline).get(10, TimeUnit.SECONDS);
+
+        assertThat(pollDeadlines).containsExactly(deadline);
+    }
+
+    @Test
+    void duplicateRegistrationTest() throws InterruptedException, ExecutionException, TimeoutException {
+        CompletableFuture<BatchResponse> first = poller.register(newBatchResponse("batch", 1));
+        CompletableFuture<BatchResponse> second = poller.register(newBatchResponse("batch", 1));
+
+        assertThat(second).isSameAs(first);
+        assertThat(first.get(10, TimeUnit.SECONDS).id).isEqualTo("batch");
+        assertThat(polls.get("batch").get()).isEqualTo(3);
+    }
+
+    @Test
+    void duplicateHandlerRegistrationRejectedTest() throws InterruptedException, ExecutionException, TimeoutException {
+        CompletableFuture<BatchResponse> first = poller.register(newBatchResponse("batch", 1));
+        CompletableFuture<BatchResponse> second = poller.register(newBatchResponse("batch", 1),
+                (request, arrayName, element) -> { });
+
+        // The second handler would never be given any responses
+        Throwable thrown = catchThrowable(second::join);
+        assertThat(thrown.getCause()).isInstanceOf(SkritterException.class)
+                .hasMessage(BatchPoller.ERROR_ALREADY_POLLING + "batch");
+        assertThat(first.get(10, TimeUnit.SECONDS).id).isEqualTo("batch");
+    }
+
+    @Test
+    void timeoutTest() {
+        timeoutMillis = 50;
+
+        CompletableFuture<BatchResponse> future = poller.register(newBatchResponse("slow", 1));
+
+        Throwable thrown = catchThrowable(() -> future.get(10, TimeUnit.SECONDS));
+        assertThat(thrown).isInstanceOf(ExecutionException.class);
+        assertThat(thrown.getCause()).isInstanceOf(SkritterException.class)
+                .hasMessageStartingWith(ApiClient.ERROR_TIMED_OUT_WAITING);
+    }
+
+    @Test
+    void failedPollTest() throws InterruptedException, ExecutionException, TimeoutException {
+        CompletableFuture<BatchResponse> failing = poller.register(newBatchResponse("fail", 1));
+        CompletableFuture<BatchResponse> other = poller.register(newBatchResponse("batch", 1));
+
+        Throwable thrown = catchThrowable(() -> failing.get(10, TimeUnit.SECONDS));
+        assertThat(thrown.getCause()).isInstanceOf(IOException.class);
+        // Other batches carry on
+        assertThat(other.get(10, TimeUnit.SECONDS).runningRequests).isZero();
+    }
+
+    @Test
+    void cancelledBatchDroppedTest() throws InterruptedException {
+        CompletableFuture<BatchResponse> future = poller.register(newBatchResponse("slow", 1));
+        future.cancel(false);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (poller.getPendingCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertThat(poller.getPendingCount()).isZero();
+    }
+
+    @Test
+    void closeFailsPendingTest() {
+        CompletableFuture<BatchResponse> future = poller.register(newBatchResponse("slow", 1));
+
+        poller.close();
+
+        Throwable thrown = catchThrowable(future::join);
+        assertThat(thrown.getCause()).isInstanceOf(SkritterException.class).hasMessage(BatchPoller.ERROR_POLLER_CLOSED);
+        assertThat(poller.register(newBatchResponse("batch", 1))).isCompletedExceptionally();
+    }
+
+    @Test
+    void interruptFailsPendingTest() throws InterruptedException {
+        // The executor is handed each poll by the scheduling thread
+        AtomicReference<Thread> schedulingThread = new AtomicReference<>();
+        BatchPoller interruptedPoller = new BatchPoller((batchRequestId, requestIds, handler, deadline) ->
+                newBatchResponse(batchRequestId, 1), pollScheduler, () -> timeoutMillis, task -> {
+            schedulingThread.set(Thread.currentThread());
+            ForkJoinPool.commonPool().execute(task);
+        });
+        try {
+            CompletableFuture<BatchResponse> future = interruptedPoller.register(newBatchResponse("batch", 1));
+            long deadline = System.currentTimeMillis() + 5000;
+            while (schedulingThread.get() == null && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+
+            schedulingThread.get().interrupt();
+
+            Throwable thrown = catchThrowable(() -> future.get(10, TimeUnit.SECONDS));
+            assertThat(thrown.getCause()).isInstanceOf(SkritterException.class)
+                    .hasMessage(BatchPoller.ERROR_POLLER_CLOSED);
+            assertThat(interruptedPoller.getPendingCount()).isZero();
+        } finally {
+            interruptedPoller.close();
+        }
+    }
+
+    @Test
+    void incrementalResultsTest() throws InterruptedException, ExecutionException, TimeoutException {
+        // One more of the batch's three requests is done on each poll; the responses
+        // of the requests asked for by id come with the status
+        AtomicInteger statusPolls = new AtomicInteger();
+        List<String> fetchedIds = new ArrayList<>();
+        List<String> handlerRequestIds = new ArrayList<>();
+        Set<Thread> fetchingThreads = ConcurrentHashMap.newKeySet();
+        BatchPoller incrementalPoller = new BatchPoller((batchRequestId, requestIds, handler, deadline) -> {
+            int done = Math.min(3, statusPolls.incrementAndGet());
+            BatchResponse status = newBatchResponse(batchRequestId, 3 - done);
+            if (handler != null) {
+                handlerRequestIds.add(requestIds);
+                fetchingThreads.add(Thread.currentThread());
+            }
+            for (int i = 1; i <= done; i++) {
+                BatchRequest request = newBatchRequest("r" + i);
+                status.requests.add(request);
+                if (handler != null && List.of(requestIds.split(",")).contains(request.id)) {
+                    fetchedIds.add(request.id);
+                    if (handler.accept(request)) {
+                        handler.element(request, Constants.SKRITTER_VOCABS_ARRAY_NAME,
+                                Map.of(Constants.SKRITTER_ID_FIELD, "vocab-" + request.id));
+                    }
+                }
+            }
+            return status;
+        }, pollScheduler, () -> timeoutMillis);
+
+        List<String> handled = new ArrayList<>();
+        List<Integer> handledAtPoll = new ArrayList<>();
+        try {
+            BatchResponse status = incrementalPoller.register(newBatchResponse("batch", 3), (request, arrayName, element) -> {
+                handled.add((String) element.get(Constants.SKRITTER_ID_FIELD));
+                handledAtPoll.add(statusPolls.get());
+            }).get(10, TimeUnit.SECONDS);
+
+            assertThat(handled).containsExactly("vocab-r1", "vocab-r2", "vocab-r3");
+            // The first response is handled before the last request is done
+            assertThat(handledAtPoll.get(0)).isLessThan(3);
+            assertThat(fetchedIds).doesNotHaveDuplicates();
+            // Only fetches of finished requests are parsed by the handler, and not on the scheduling thread
+            assertThat(handlerRequestIds).isNotEmpty().noneMatch(String::isEmpty);
+            assertThat(statusPolls.get()).isGreaterThan(handlerRequestIds.size());
+            assertThat(fetchingThreads).noneMatch(thread -> thread.getName().equals("batch-poller"));
+            assertThat(status.requests).extracting(request -> request.id).containsExactly("r1", "r2", "r3");
+        } finally {
+            incrementalPoller.close();
+        }
+    }
+
+    @Test
+    void incrementalProjectionTest() throws Exception {
+        // The vocabs in the finished requests' responses have more fields than the handler reads
+        String json = Util.getJsonResource("batch_get_vocabs_status_requests2.json");
+        BatchPoller incrementalPoller = new BatchPoller((batchRequestId, requestIds, handler, deadline) ->
+                (handler == null) ? Parser.parseBatchResponse(json) : Parser.parseBatchResponse(
+                        new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), handler),
+                pollScheduler, () -> timeoutMillis);
+
+        List<Map<String, Object>> elements = new ArrayList<>();
+        try {
+            incrementalPoller.register(newBatchResponse("batch", 2), new Parser.BatchElementHandler() {
+                @Override
+                public FieldProjection projection(BatchRequest batchRequest, String arrayName) {
+                    return FieldProjection.VOCAB_ID;
+                }
+
+                @Override
+                public void element(BatchRequest batchRequest, String arrayName, Map<String, Object> element) {
+                    elements.add(element);
+                }
+            }).get(10, TimeUnit.SECONDS);
+        } finally {
+            incrementalPoller.close();
+        }
+
+        assertThat(elements).hasSize(2)
+                .allSatisfy(element -> assertThat(element).containsOnlyKeys(Constants.SKRITTER_ID_FIELD));
+    }
+
+    private static BatchRequest newBatchRequest(String id) {
+        return new BatchRequest.Builder(Map.of(
+                Constants.SKRITTER_ID_FIELD, id,
+                Constants.SKRITTER_DONE_FIELD, 1L,
+                Constants.SKRITTER_PARAMS_OBJECT_NAME, Map.of())).build();
+    }
+
+    private static BatchResponse newBatchResponse(String id, long runningRequests) {
+        return new BatchResponse.Builder(Map.of(
+                Constants.SKRITTER_ID_FIELD, id,
+                Constants.SKRITTER_RUNNING_REQUESTS_FIELD, runningRequests)).build();
+    }
+}
@@ -0,0 +1,188 @@
+// MIT License
+//
+// Copyright (c) 2023 David Stone <ds.skritter.export@asif.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.asif.skritter.export;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+class ChunkSalvageTest {
+
+    private final List<String> ids = List.of("a", "b", "c", "d", "e", "f", "g", "h");
+    private final List<String> fetched = new CopyOnWriteArrayList<>();
+    private final List<Integer> attemptSizes = new ArrayList<>();
+
+    private ChunkSalvage.Fetch failingOn(Set<String> badIds) {
+        return chunk -> {
+            attemptSizes.add(chunk.size());
+            if (chunk.stream().anyMatch(badIds::contains)) {
+                throw new HttpFailureException("POST batch request failed. Status: 500", 500);
+            }
+            fetched.addAll(chunk);
+        };
+    }
+
+    @Test
+    void poisonIdIsolatedTest() throws Exception {
+        ChunkSalvage salvage = new ChunkSalvage(ChunkSalvage.VOCAB_CHUNK_MAX_SPLITS_DEFAULT);
+
+        salvage.fetch(ids, failingOn(Set.of("f")), Deadline.none());
+        salvage.checkSalvaged();
+
+        assertThat(fetched).containsExactlyInAnyOrder("a", "b", "c", "d", "e", "g", "h");
+        assertThat(salvage.getUnrecoverableIds()).containsOnlyKeys("f");
+        // Retried whole once, then depth first: the failed half is split before the rest of the chunk is fetched
+        assertThat(attemptSizes).containsExactly(8, 8, 4, 4, 2, 1, 1, 2);
+        assertThat(salvage.getSplitCount()).isEqualTo(3);
+    }
+
+    @Test
+    void splitsCappedTest() throws Exception {
+        ChunkSalvage salvage = new ChunkSalvage(1);
+
+        salvage.fetch(ids, failingOn(Set.of("a")), Deadline.none());
+        salvage.checkSalvaged();
+
+        // With no splits left, every id in the failed half is given up on
+        assertThat(attemptSizes).containsExactly(8, 8, 4, 4);
+        assertThat(salvage.getUnrecoverableIds()).containsOnlyKeys("a", "b", "c", "d");
+        assertThat(fetched).containsExactly("e", "f", "g", "h");
+    }
+
+    @Test
+    void transientFailureRetriedWholeTest() throws Exception {
+        ChunkSalvage salvage = new ChunkSalvage(ChunkSalvage.VOCAB_CHUNK_MAX_SPLITS_DEFAULT);
+        AtomicInteger attempts = new AtomicInteger();
+
+        salvage.fetch(ids, chunk -> {
+            attemptSizes.add(chunk.size());
+            if (attempts.incrementAndGet() == 1) {
+                throw new HttpFailureException("POST batch request failed. Status: 500", 500);
+            }
+            fetched.addAll(chunk);
+        }, Deadline.none());
+        salvage.checkSalvaged();
+
+        assertThat(attemptSizes).containsExactly(8, 8);
+        assertThat(fetched).containsExactlyElementsOf(ids);
+        assertThat(salvage.getSplitCount()).isZero();
+        assertThat(salvage.getUnrecoverableIds()).isEmpty();
+    }
+
+    @Test
+    void parseFailureSplitTest() throws Exception {
+        ChunkSalvage salvage = new ChunkSalvage(ChunkSalvage.VOCAB_CHUNK_MAX_SPLITS_DEFAULT);
+
+        salvage.fetch(ids, chunk -> {
+            attemptSizes.add(chunk.size());
+            if (chunk.contains("c")) {
+                throw new ParseFailureException("No batch in response");
+            }
+            fetched.addAll(chunk);
+        }, Deadline.none());
+
+        assertThat(salvage.getUnrecoverableIds()).containsOnlyKeys("c");
+    }
+
+    @Test
+    void otherFailureNotSplitTest() {
+        ChunkSalvage salvage = new ChunkSalvage(ChunkSalvage.VOCAB_CHUNK_MAX_SPLITS_DEFAULT);
+
+        Throwable thrown = catchThrowable(() -> salvage.fetch(ids, chunk -> {
+            attemptSizes.add(chunk.size());
+            throw new IllegalStateException("Bug");
+        }, Deadline.none()));
+
+        assertThat(thrown).isInstanceOf(IllegalStateException.class);
+        assertThat(attemptSizes).containsExactly(8);
+    }
+
+    @Test
+    void nothingFetchedRethrowsTest() throws Exception {
+        ChunkSalvage salvage = new ChunkSalvage(ChunkSalvage.VOCAB_CHUNK_MAX_SPLITS_DEFAULT);
+
+        salvage.fetch(ids.subList(0, 2), failingOn(Set.copyOf(ids)), Deadline.none());
+
+        Throwable thrown = catchThrowable(salvage::checkSalvaged);
+        assertThat(thrown).isInstanceOf(HttpFailureException.class).hasMessageContaining("500");
+    }
+
+    @Test
+    void throttleNotSplitTest() {
+        ChunkSalvage salvage = new ChunkSalvage(ChunkSalvage.VOCAB_CHUNK_MAX_SPLITS_DEFAULT);
+
+        Throwable thrown = catchThrowable(() -> salvage.fetch(ids, chunk -> {
+            attemptSizes.add(chunk.size());
+            throw new HttpFailureException("GET batch data failed. Status: 503", 503);
+        }, Deadline.none()));
+
+        assertThat(thrown).isInstanceOf(HttpFailureException.class);
+        assertThat(attemptSizes).containsExactly(8);
+    }
+
+    @Test
+    void connectionFailureNotSplitTest() {
+        ChunkSalvage salvage = new ChunkSalvage(ChunkSalvage.VOCAB_CHUNK_MAX_SPLITS_DEFAULT);
+
+        Throwable thrown = catchThrowable(() -> salvage.fetch(ids, chunk -> {
+            attemptSizes.add(chunk.size());
+            throw new IOException("Connection reset");
+        }, Deadline.none()));
+
+        assertThat(thrown).isInstanceOf(IOException.class);
+        assertThat(attemptSizes).containsExactly(8);
+    }
+
+    @Test
+    void timeoutNotSplitTest() {
+        ChunkSalvage salvage = new ChunkSalvage(ChunkSalvage.VOCAB_CHUNK_MAX_SPLITS_DEFAULT);
+
+        Throwable thrown = catchThrowable(() -> salvage.fetch(ids, chunk -> {
+            attemptSizes.add(chunk.size());
+            throw new SkritterException(ApiClient.ERROR_TIMED_OUT_WAITING + "batch 1");
+        }, Deadline.none()));
+
+        assertThat(thrown).hasMessageStartingWith(ApiClient.ERROR_TIMED_OUT_WAITING);
+        assertThat(attemptSizes).containsExactly(8);
+    }
+
+    @Test
+    void cancelledNotSplitTest() {
+        ChunkSalvage salvage = new ChunkSalvage(ChunkSalvage.VOCAB_CHUNK_MAX_SPLITS_DEFAULT);
+        Deadline deadline = Deadline.none();
+        deadline.cancel();
+
+        Throwable thrown = catchThrowable(() -> salvage.fetch(ids, failingOn(Set.of("a")), deadline));
+
+        assertThat(thrown).hasMessageStartingWith(Deadline.ERROR_CANCELLED);
+        assertThat(attemptSizes).containsExactly(8);
+    }
+}
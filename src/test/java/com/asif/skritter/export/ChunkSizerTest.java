@@ -0,0 +1,131 @@
+// MIT License
+//
+// Copyright (c) 2023 David Stone <ds.skritter.export@asif.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.asif.skritter.export;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ChunkSizerTest {
+
+    // 20..400 ids, aiming for 1 second and 100 KB per chunk
+    private final ChunkSizer chunkSizer = new ChunkSizer(20, 400, 100, 1000, 100_000);
+
+    @Test
+    void fastChunksGrowTest() {
+        // 1 ms and 100 bytes per id allows 1000 ids; growth is at most doubling
+        chunkSizer.completed(100, 100, 10_000);
+        assertThat(chunkSizer.getChunkSize()).isEqualTo(200);
+
+        chunkSizer.completed(200, 200, 20_000);
+        assertThat(chunkSizer.getChunkSize()).isEqualTo(400);
+
+        chunkSizer.completed(400, 400, 40_000);
+        assertThat(chunkSizer.getChunkSize()).isEqualTo(400);
+        assertThat(chunkSizer.getLargestChosen()).isEqualTo(400);
+        // The last chunk left the size as it was
+        assertThat(chunkSizer.getAdjustmentCount()).isEqualTo(2);
+    }
+
+    @Test
+    void slowChunksShrinkTest() {
+        // 40 ms per id allows 25 ids; shrinking is at most halving
+        chunkSizer.completed(100, 4000, 10_000);
+        assertThat(chunkSizer.getChunkSize()).isEqualTo(50);
+
+        for (int i = 0; i < 10; i++) {
+            chunkSizer.completed(chunkSizer.getChunkSize(), 40L * chunkSizer.getChunkSize(), 1000);
+        }
+        assertThat(chunkSizer.getChunkSize()).isEqualTo(25);
+        assertThat(chunkSizer.getSmallestChosen()).isEqualTo(25);
+    }
+
+    @Test
+    void largeResponsesLimitSizeTest() {
+        // Fast, but 2000 bytes per id only allows 50 ids within 100 KB
+        chunkSizer.completed(100, 10, 200_000);
+        assertThat(chunkSizer.getChunkSize()).isEqualTo(50);
+    }
+
+    @Test
+    void failureHalvesSizeTest() {
+        chunkSizer.failed(100);
+        assertThat(chunkSizer.getChunkSize()).isEqualTo(50);
+
+        chunkSizer.failed(50);
+        chunkSizer.failed(25);
+        assertThat(chunkSizer.getChunkSize()).isEqualTo(20);
+        assertThat(chunkSizer.getFailureCount()).isEqualTo(3);
+        assertThat(chunkSizer.getAdjustmentCount()).isEqualTo(3);
+    }
+
+    @Test
+    void fixedSizeTest() {
+        ChunkSizer fixed = ChunkSizer.fixed(100);
+        fixed.completed(100, 1, 1);
+        fixed.failed(100);
+        assertThat(fixed.getChunkSize()).isEqualTo(100);
+        assertThat(fixed.getAdjustmentCount()).isZero();
+    }
+
+    @Test
+    void serverTimesTest() {
+        List<BatchRequest> requests = List.of(
+                newBatchRequest(1682637856L, 1682637856L, 2L),
+                newBatchRequest(1682637856L, 1682637859L, 351L),
+                // Still running, so has no done time
+                newBatchRequest(1682637857L, null, null));
+
+        assertThat(ChunkSizer.getServerMillis(requests)).isEqualTo(3000);
+        assertThat(ChunkSizer.getResponseBytes(requests)).isEqualTo(353);
+
+        // Done within the same second, so the elapsed time is used instead
+        chunkSizer.completed(100, List.of(requests.get(0)), 50);
+        assertThat(chunkSizer.getChunkSize()).isEqualTo(200);
+        assertThat(chunkSizer.getChunkCount()).isEqualTo(1);
+    }
+
+    @Test
+    void propertiesTest() {
+        Properties properties = new Properties();
+        properties.setProperty(ChunkSizer.MIN_IDS_PROPERTY, "50");
+        properties.setProperty(ChunkSizer.MAX_IDS_PROPERTY, "50");
+
+        assertThat(ChunkSizer.from(properties).getChunkSize()).isEqualTo(50);
+        assertThat(ChunkSizer.from(new Properties()).getChunkSize()).isEqualTo(ChunkSizer.INITIAL_IDS_DEFAULT);
+    }
+
+    private static BatchRequest newBatchRequest(Long created, Long done, Long responseSize) {
+        Map<String, Object> map = new HashMap<>();
+        map.put(Constants.SKRITTER_ID_FIELD, String.valueOf(created));
+        map.put(Constants.SKRITTER_CREATED_FIELD, created);
+        map.put(Constants.SKRITTER_DONE_FIELD, done);
+        map.put(Constants.SKRITTER_RESPONSE_SIZE_FIELD, responseSize);
+        return new BatchRequest.Builder(map).build();
+    }
+}
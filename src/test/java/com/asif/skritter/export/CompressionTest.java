@@ -0,0 +1,153 @@
+// MIT License
+//
+// Copyright (c) 2023 David Stone <ds.skritter.export@asif.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.asif.skritter.export;
+
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.HttpStatus;
+import org.apache.hc.core5.http.ParseException;
+import org.apache.hc.core5.http.io.entity.ByteArrayEntity;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.apache.hc.core5.http.message.BasicClassicHttpResponse;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CompressionTest {
+
+    @Test
+    void gzipRequestEntityTest() throws IOException, URISyntaxException {
+        String json = ApiClient.toBatchRequestJson(Constants.SKRITTER_VOCABS_PATH, newVocabsParams());
+        TrafficStats trafficStats = new TrafficStats();
+        TrafficStats.Exchange exchange = trafficStats.begin("test");
+
+        HttpEntity entity = Compression.requestEntity(json, true, exchange);
+        exchange.complete();
+
+        assertThat(entity.getContentEncoding()).isEqualTo(Compression.GZIP);
+        try (InputStream inputStream = new GZIPInputStream(entity.getContent())) {
+            assertThat(new String(inputStream.readAllBytes(), StandardCharsets.UTF_8)).isEqualTo(json);
+        }
+        int jsonBytes = json.getBytes(StandardCharsets.UTF_8).length;
+        assertThat(trafficStats.getRequestBytesUncompressed()).isEqualTo(jsonBytes);
+        assertThat(trafficStats.getRequestBytes()).isEqualTo(entity.getContentLength())
+                .isLessThan(jsonBytes / 4);
+    }
+
+    @Test
+    void uncompressedRequestEntityTest() throws IOException, URISyntaxException, ParseException {
+        String json = ApiClient.toBatchRequestJson(Constants.SKRITTER_VOCABS_PATH, newVocabsParams());
+        TrafficStats.Exchange exchange = new TrafficStats().begin("test");
+
+        HttpEntity entity = Compression.requestEntity(json, false, exchange);
+
+        assertThat(entity.getContentEncoding()).isNull();
+        assertThat(EntityUtils.toString(entity)).isEqualTo(json);
+    }
+
+    @Test
+    void streamingGzipResponseTest() throws IOException, URISyntaxException {
+        String json = Util.getJsonResource("batch_get_vocabs_data.json");
+        byte[] compressed = gzip(json.getBytes(StandardCharsets.UTF_8));
+        TrafficStats trafficStats = new TrafficStats();
+        TrafficStats.Exchange exchange = trafficStats.begin("test");
+
+        ClassicHttpResponse response = new BasicClassicHttpResponse(HttpStatus.SC_OK);
+        response.setHeader(HttpHeaders.CONTENT_ENCODING, Compression.GZIP);
+        response.setEntity(new ByteArrayEntity(compressed, ContentType.APPLICATION_JSON, Compression.GZIP));
+
+        Compression.decode(response, exchange);
+
+        List<String> ids = new ArrayList<>();
+        try (InputStream content = response.getEntity().getContent()) {
+            Parser.parseBatchResponse(content, (request, arrayName, element) -> ids.add((String) element.get("id")));
+        }
+        exchange.complete();
+
+        assertThat(ids).containsExactly("zh-场-0", "zh-艮-0");
+        assertThat(trafficStats.getResponseBytes()).isEqualTo(compressed.length);
+        assertThat(trafficStats.getResponseBytesDecoded()).isEqualTo(json.getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    @Test
+    void deflateResponseTest() throws IOException {
+        byte[] json = "{\"Vocabs\":[]}".getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (DeflaterOutputStream deflaterOutputStream = new DeflaterOutputStream(outputStream)) {
+            deflaterOutputStream.write(json);
+        }
+
+        byte[] decoded = Compression.decode(outputStream.toByteArray(), Compression.DEFLATE,
+                new TrafficStats().begin("test"));
+
+        assertThat(decoded).isEqualTo(json);
+    }
+
+    @Test
+    void identityResponseTest() throws IOException, ParseException {
+        ClassicHttpResponse response = new BasicClassicHttpResponse(HttpStatus.SC_OK);
+        response.setEntity(new ByteArrayEntity("{}".getBytes(StandardCharsets.UTF_8), ContentType.APPLICATION_JSON));
+        TrafficStats trafficStats = new TrafficStats();
+        TrafficStats.Exchange exchange = trafficStats.begin("test");
+
+        Compression.decode(response, exchange);
+        assertThat(response.getEntity().getContentLength()).isEqualTo(2);
+        assertThat(EntityUtils.toString(response.getEntity())).isEqualTo("{}");
+        exchange.complete();
+
+        assertThat(trafficStats.getResponseBytes()).isEqualTo(2);
+        assertThat(trafficStats.getResponseBytesDecoded()).isEqualTo(2);
+    }
+
+    private static ApiClient.VocabsParams newVocabsParams() {
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            ids.add("zh-词语" + i + "-0");
+        }
+        ApiClient.VocabsParams vocabsParams = new ApiClient.VocabsParams();
+        vocabsParams.ids = String.join("|", ids);
+        vocabsParams.fields = "id,writing,reading,definitions";
+        return vocabsParams;
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(outputStream)) {
+            gzipOutputStream.write(bytes);
+        }
+        return outputStream.toByteArray();
+    }
+}
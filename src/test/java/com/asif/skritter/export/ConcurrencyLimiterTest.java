@@ -0,0 +1,140 @@
+// MIT License
+//
+// Copyright (c) 2023 David Stone <ds.skritter.export@asif.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.asif.skritter.export;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ConcurrencyLimiterTest {
+
+    private final AtomicLong clock = new AtomicLong();
+    private final ConcurrencyLimiter limiter = ConcurrencyLimiter.adaptive(8, clock::get);
+
+    @Test
+    void flatLatencyRaisesLimitTest() throws InterruptedException {
+        assertThat(limiter.getLimit()).isEqualTo(ConcurrencyLimiter.INITIAL_LIMIT);
+
+        for (int round = 0; round < 40; round++) {
+            runRound(100);
+        }
+
+        assertThat(limiter.getLimit()).isEqualTo(8);
+        assertThat(limiter.getInFlight()).isZero();
+    }
+
+    @Test
+    void unusedLimitNotRaisedTest() throws InterruptedException {
+        for (int round = 0; round < 20; round++) {
+            ConcurrencyLimiter.Permit permit = limiter.acquire();
+            clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(100));
+            permit.complete();
+        }
+
+        assertThat(limiter.getLimit()).isEqualTo(ConcurrencyLimiter.INITIAL_LIMIT);
+    }
+
+    @Test
+    void risingLatencyLowersLimitTest() throws InterruptedException {
+        for (int round = 0; round < 40; round++) {
+            runRound(100);
+        }
+        int limit = limiter.getLimit();
+
+        runRound(500);
+
+        assertThat(limiter.getLimit()).isLessThan(limit);
+    }
+
+    @Test
+    void throttleHalvesLimitOncePerBurstTest() throws InterruptedException {
+        for (int round = 0; round < 40; round++) {
+            runRound(100);
+        }
+
+        limiter.throttled();
+        assertThat(limiter.getLimit()).isEqualTo(4);
+        limiter.throttled();
+        assertThat(limiter.getLimit()).isEqualTo(4);
+
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(200));
+        limiter.throttled();
+        assertThat(limiter.getLimit()).isEqualTo(2);
+    }
+
+    @Test
+    void failedBatchReleasesPermitTest() throws InterruptedException {
+        ConcurrencyLimiter.Permit permit = limiter.acquire();
+        assertThat(limiter.getInFlight()).isEqualTo(1);
+
+        permit.release();
+
+        assertThat(limiter.getInFlight()).isZero();
+        assertThat(limiter.getLimit()).isEqualTo(ConcurrencyLimiter.INITIAL_LIMIT);
+    }
+
+    @Test
+    void fixedLimitTest() throws InterruptedException {
+        ConcurrencyLimiter fixed = ConcurrencyLimiter.fixed(3);
+        for (int i = 0; i < 3; i++) {
+            fixed.acquire().complete();
+        }
+        fixed.throttled();
+        assertThat(fixed.getLimit()).isEqualTo(3);
+        assertThat(fixed.getMaxLimit()).isEqualTo(3);
+    }
+
+    @Test
+    void fromPropertiesTest() {
+        Properties properties = new Properties();
+        assertThat(ConcurrencyLimiter.from(properties).getMaxLimit())
+                .isEqualTo(ConcurrencyLimiter.MAX_CONCURRENT_BATCHES_DEFAULT);
+
+        properties.setProperty(ConcurrencyLimiter.MAX_CONCURRENT_BATCHES_PROPERTY, "12");
+        assertThat(ConcurrencyLimiter.from(properties).getMaxLimit()).isEqualTo(12);
+
+        properties.setProperty(ApiClient.VOCAB_FETCH_PARALLELISM_PROPERTY, "4");
+        ConcurrencyLimiter fixed = ConcurrencyLimiter.from(properties);
+        assertThat(fixed.getLimit()).isEqualTo(4);
+        assertThat(fixed.getMaxLimit()).isEqualTo(4);
+    }
+
+    /**
+     * Start as many batches as the limit allows, each taking the given latency.
+     */
+    private void runRound(long latencyMillis) throws InterruptedException {
+        List<ConcurrencyLimiter.Permit> permits = new ArrayList<>();
+        int limit = limiter.getLimit();
+        for (int i = 0; i < limit; i++) {
+            permits.add(limiter.acquire());
+        }
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(latencyMillis));
+        permits.forEach(ConcurrencyLimiter.Permit::complete);
+    }
+}
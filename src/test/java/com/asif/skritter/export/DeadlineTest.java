@@ -0,0 +1,148 @@
+// MIT License
+//
+// Copyright (c) 2023 David Stone <ds.skritter.export@asif.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.asif.skritter.export;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+class DeadlineTest {
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+
+    @AfterEach
+    void afterEach() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void noDeadlineTest() {
+        Deadline deadline = Deadline.from(new Properties());
+        assertThat(deadline.isBounded()).isFalse();
+        assertThat(deadline.isExpired()).isFalse();
+        assertThat(deadline.remainingMillis()).isEqualTo(Long.MAX_VALUE);
+        deadline.check("exporting");
+    }
+
+    @Test
+    void expiresTest() {
+        AtomicLong nanos = new AtomicLong();
+        Deadline deadline = Deadline.after(1000, nanos::get);
+
+        nanos.set(TimeUnit.MILLISECONDS.toNanos(400));
+        assertThat(deadline.remainingMillis()).isEqualTo(600);
+        assertThat(deadline.child().remainingMillis()).isEqualTo(600);
+
+        nanos.set(TimeUnit.MILLISECONDS.toNanos(1000));
+        assertThat(deadline.isExpired()).isTrue();
+        Throwable thrown = catchThrowable(() -> deadline.check("getting vocabs"));
+        assertThat(thrown).isInstanceOf(SkritterException.class);
+        assertThat(thrown).hasMessage(Deadline.ERROR_DEADLINE_EXCEEDED + "getting vocabs");
+    }
+
+    @Test
+    void sleepPastDeadlineFailsAtOnceTest() {
+        Deadline deadline = Deadline.after(10_000);
+        long startNanos = System.nanoTime();
+
+        Throwable thrown = catchThrowable(() -> deadline.sleep(60_000, "retrying"));
+
+        assertThat(thrown).hasMessageStartingWith(Deadline.ERROR_DEADLINE_EXCEEDED);
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos)).isLessThan(1000);
+    }
+
+    @Test
+    void cancelWakesSleepTest() {
+        Deadline deadline = Deadline.none();
+        Deadline child = deadline.child();
+        executor.schedule(deadline::cancel, 50, TimeUnit.MILLISECONDS);
+        long startNanos = System.nanoTime();
+
+        Throwable thrown = catchThrowable(() -> child.sleep(10_000, "retrying"));
+
+        assertThat(thrown).hasMessage(Deadline.ERROR_CANCELLED + "retrying");
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos)).isLessThan(5000);
+    }
+
+    @Test
+    void interruptedSleepTest() {
+        Deadline deadline = Deadline.none();
+        Thread.currentThread().interrupt();
+        try {
+            Throwable thrown = catchThrowable(() -> deadline.sleep(10_000, "retrying"));
+            assertThat(thrown).hasMessage(Deadline.ERROR_INTERRUPTED + "retrying");
+            // The interrupt is kept for the caller to see
+            assertThat(Thread.currentThread().isInterrupted()).isTrue();
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    @Test
+    void registeredWorkCancelledOnExpiryTest() throws InterruptedException {
+        CountDownLatch cancelled = new CountDownLatch(1);
+        Deadline deadline = Deadline.after(50);
+
+        Deadline.Registration registration = deadline.register(() -> {
+            cancelled.countDown();
+            return true;
+        });
+        try {
+            assertThat(cancelled.await(5, TimeUnit.SECONDS)).isTrue();
+        } finally {
+            registration.close();
+        }
+    }
+
+    @Test
+    void childCancelTest() {
+        Deadline parent = Deadline.none();
+        Deadline child = parent.child();
+        Deadline sibling = parent.child();
+        AtomicLong cancels = new AtomicLong();
+
+        Deadline.Registration registration = child.register(() -> cancels.incrementAndGet() > 0);
+        sibling.register(() -> cancels.addAndGet(10) > 0).close();
+        child.cancel();
+
+        assertThat(cancels.get()).isEqualTo(1);
+        assertThat(child.isCancelled()).isTrue();
+        assertThat(parent.isCancelled()).isFalse();
+        assertThat(sibling.isCancelled()).isFalse();
+
+        // Cancelling the parent reaches work registered with its children
+        parent.cancel();
+        assertThat(cancels.get()).isEqualTo(2);
+        assertThat(sibling.isCancelled()).isTrue();
+        registration.close();
+    }
+}
@@ -0,0 +1,109 @@
+// MIT License
+//
+// Copyright (c) 2023 David Stone <ds.skritter.export@asif.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+package com.asif.skritter.export;
+
+import org.junit.jupiter.api.Test;
+
+import java.text.MessageFormat;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+class ExportFilterTest {
+
+    @Test
+    void defaultsTest() {
+        ExportFilter exportFilter = ExportFilter.from(new Properties());
+
+        assertThat(exportFilter.getParts()).containsExactly(Constants.SKRITTER_ITEM_ID_WRITING_SUFFIX);
+        assertThat(exportFilter.filtersItems()).isFalse();
+        assertThat(exportFilter.filtersVocabs()).isFalse();
+        assertThat(exportFilter.getItemProjection().toParameter()).isEqualTo(Constants.SKRITTER_ID_FIELD);
+        assertThat(exportFilter.getVocabProjection(FieldProjection.EXPORTED_VOCAB))
+                .isSameAs(FieldProjection.EXPORTED_VOCAB);
+        assertThat(exportFilter.acceptsItem(Map.of(Constants.SKRITTER_ID_FIELD, "234179586-zh-场-0-rune")))
+                .isTrue();
+        assertThat(exportFilter.acceptsVocab(Map.of(Constants.SKRITTER_ID_FIELD, "zh-场-0"))).isTrue();
+    }
+
+    @Test
+    void itemConditionsTest() {
+        Properties properties = new Properties();
+        properties.setProperty(ExportFilter.EXPORT_PARTS_PROPERTY, "rune, tone");
+        properties.setProperty(ExportFilter.EXPORT_STYLES_PROPERTY, "simp,both");
+        properties.setProperty(ExportFilter.EXPORT_CREATED_AFTER_PROPERTY, "2023-04-01");
+        ExportFilter exportFilter = ExportFilter.from(properties);
+        long createdAfter = LocalDate.of(2023, 4, 1).atStartOfDay(ZoneId.systemDefault()).toEpochSecond();
+
+        assertThat(exportFilter.getPartsParameter()).isEqualTo("rune,tone");
+        assertThat(exportFilter.filtersItems()).isTrue();
+        assertThat(exportFilter.getItemProjection().toParameter()).isEqualTo("id,style,created");
+        assertThat(exportFilter.acceptsItem(Map.of("style", "simp", "created", createdAfter))).isTrue();
+        assertThat(exportFilter.acceptsItem(Map.of("style", "trad", "created", createdAfter))).isFalse();
+        assertThat(exportFilter.acceptsItem(Map.of("style", "both", "created", createdAfter - 1))).isFalse();
+        assertThat(exportFilter.acceptsItem(Map.of("style", "both"))).isFalse();
+    }
+
+    @Test
+    void vocabConditionsTest() {
+        Properties properties = new Properties();
+        properties.setProperty(ExportFilter.EXPORT_MIN_TOUGHNESS_PROPERTY, "3");
+        properties.setProperty(ExportFilter.EXPORT_MAX_TOUGHNESS_PROPERTY, "6");
+        properties.setProperty(ExportFilter.EXPORT_STARRED_ONLY_PROPERTY, "true");
+        ExportFilter exportFilter = ExportFilter.from(properties);
+
+        assertThat(exportFilter.filtersItems()).isFalse();
+        assertThat(exportFilter.filtersVocabs()).isTrue();
+        assertThat(exportFilter.getVocabProjection(FieldProjection.BANNED_VOCAB).toParameter())
+                .isEqualTo("id,style,toughness,starred");
+        assertThat(exportFilter.acceptsVocab(Map.of("toughness", 3L, "starred", true))).isTrue();
+        assertThat(exportFilter.acceptsVocab(Map.of("toughness", 7L, "starred", true))).isFalse();
+        assertThat(exportFilter.acceptsVocab(Map.of("toughness", 2L, "starred", true))).isFalse();
+        assertThat(exportFilter.acceptsVocab(Map.of("toughness", 4L, "starred", false))).isFalse();
+        // Any number, and a missing toughness is not held against the vocab
+        assertThat(exportFilter.acceptsVocab(Map.of("toughness", 5.0, "starred", true))).isTrue();
+        assertThat(exportFilter.acceptsVocab(Map.of("toughness", 7.0, "starred", true))).isFalse();
+        assertThat(exportFilter.acceptsVocab(Map.of("id", "zh-场-0", "starred", true))).isTrue();
+        assertThat(exportFilter.toString()).isEqualTo("parts rune, toughness 3..6, starred only");
+    }
+
+    @Test
+    void invalidValuesTest() {
+        for (Map.Entry<String, String> property : List.of(
+                Map.entry(ExportFilter.EXPORT_PARTS_PROPERTY, "rune,pinyin"),
+                Map.entry(ExportFilter.EXPORT_STYLES_PROPERTY, "simplified"),
+                Map.entry(ExportFilter.EXPORT_CREATED_AFTER_PROPERTY, "yesterday"),
+                Map.entry(ExportFilter.EXPORT_MIN_TOUGHNESS_PROPERTY, "hard"))) {
+            Properties properties = new Properties();
+            properties.setProperty(property.getKey(), property.getValue());
+
+            Throwable thrown = catchThrowable(() -> ExportFilter.from(properties));
+            assertThat(thrown).isInstanceOf(SkritterException.class).hasMessage(MessageFormat.format(
+                    ClientProperties.ERROR_INVALID_PROPERTY_VALUE, property.getKey(), property.getValue()));
+        }
+    }
+}
@@ -0,0 +1,226 @@
+// MIT License
+//
+// Copyright (c) 2023 David Stone <ds.skritter.export@asif.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+package com.asif.skritter.export;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compares the two-phase export fetch, item ids and then the vocabs in 100-id
+ * chunks, with fetching the items with include_vocabs in a single batch, and with
+ * fetching the vocab chunks while pages of item ids are still coming in.  All run
+ * against a local stand-in server with the same latency, and report the requests
+ * they made, the bytes they moved and how long they took.
+ * <p>
+ * Run with: {@code java ... ExportModeBenchmark [words] [latencyMillis]}
+ */
+class ExportModeBenchmark {
+
+    private static final String[] ITEM_SUFFIXES = {
+            Constants.SKRITTER_ITEM_ID_WRITING_SUFFIX,
+            Constants.SKRITTER_ITEM_ID_TONE_SUFFIX,
+            Constants.SKRITTER_ITEM_ID_DEFINITION_SUFFIX,
+            Constants.SKRITTER_ITEM_ID_READING_SUFFIX
+    };
+    private static final int PAGE_SIZE = 4000;
+    private static final Pattern CURSOR_PARAM = Pattern.compile("\"cursor\":\"([0-9]+)\"");
+    private static final Pattern IDS_PARAM = Pattern.compile("\"ids\":\"([^\"]*)\"");
+    private static final Pattern BATCH_ID = Pattern.compile(".*/batch/([0-9]+)(/status)?");
+
+    private interface Flow {
+        int fetch(ApiClient apiClient) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int words = (args.length > 0) ? Integer.parseInt(args[0]) : 2000;
+        long latencyMillis = (args.length > 1) ? Long.parseLong(args[1]) : 50;
+
+        System.out.printf("%d words, %d items, %d ms server latency%n", words, words * ITEM_SUFFIXES.length,
+                latencyMillis);
+
+        run("two-phase", words, latencyMillis, apiClient -> {
+            Items items = new Items(apiClient);
+            Set<String> itemIds = items.filterItemIds(items.getItemIds(Deadline.none()),
+                    List.of(Constants.SKRITTER_ITEM_ID_WRITING_SUFFIX));
+            Set<String> vocabIds = items.convertItemIdsToVocabIds(itemIds, Constants.SKRITTER_ITEM_ID_WRITING_SUFFIX);
+            apiClient.removeBannedVocabIds(apiClient.getBannedVocabIds(Deadline.none()), vocabIds);
+            return apiClient.getVocabs(vocabIds, Deadline.none()).vocabs().size();
+        });
+
+        run("one-batch", words, latencyMillis, apiClient -> {
+            Items items = new Items(apiClient);
+            Items.ItemIdsWithVocabs itemIdsWithVocabs = items.getItemIdsWithVocabs(Deadline.none());
+            Set<String> itemIds = items.filterItemIds(itemIdsWithVocabs.itemIds(),
+                    List.of(Constants.SKRITTER_ITEM_ID_WRITING_SUFFIX));
+            Set<String> vocabIds = items.convertItemIdsToVocabIds(itemIds, Constants.SKRITTER_ITEM_ID_WRITING_SUFFIX);
+            apiClient.removeBannedVocabIds(apiClient.getBannedVocabIds(Deadline.none()), vocabIds);
+            vocabIds.retainAll(itemIdsWithVocabs.vocabs().keySet());
+            return vocabIds.size();
+        });
+
+        run("paged", words, latencyMillis, apiClient -> {
+            Items items = new Items(apiClient);
+            Future<Set<String>> bannedVocabIdsFetch = apiClient.fetchBannedVocabIds(Deadline.none());
+            try (PagedItemIds pagedItemIds = new PagedItemIds(apiClient, items, PAGE_SIZE, bannedVocabIdsFetch,
+                    Deadline.none())) {
+                return apiClient.getVocabs(pagedItemIds, Deadline.none()).vocabs().size();
+            }
+        });
+    }
+
+    private static void run(String name, int words, long latencyMillis, Flow flow) throws Exception {
+        try (LocalSkritterServer server = newServer(words).latency(latencyMillis);
+             ApiClient apiClient = ApiClient.builder()
+                     .bearerToken("benchmark-token")
+                     .endpointBase(server.getEndpointBase())
+                     .build()) {
+
+            long start = System.nanoTime();
+            int vocabs = flow.fetch(apiClient);
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            System.out.printf("%-10s %6d ms  %4d requests  %5d vocabs  %s%n", name, elapsedMillis,
+                    server.getRequests().size(), vocabs, apiClient.getTrafficStats());
+        }
+    }
+
+    /**
+     * A server for a user studying every part of the given number of words, none banned.
+     */
+    private static LocalSkritterServer newServer(int words) {
+        LocalSkritterServer server;
+        try {
+            server = new LocalSkritterServer();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+
+        // Batch ids: 1 the item ids, 2 the items with vocabs, 3 the banned vocabs, and
+        // from 100 on a vocab chunk, answered with the ids that chunk asked for, or a
+        // page of item ids, answered with the items from where that page starts
+        AtomicLong nextChunkId = new AtomicLong(100);
+        Map<String, String> chunkIds = new ConcurrentHashMap<>();
+        Map<String, Integer> pageStarts = new ConcurrentHashMap<>();
+
+        server.on("POST", ".*/batch", (path, body) -> {
+            String batchId;
+            if (body.contains("\"spawner\":false")) {
+                Matcher matcher = CURSOR_PARAM.matcher(body);
+                batchId = String.valueOf(nextChunkId.getAndIncrement());
+                pageStarts.put(batchId, matcher.find() ? Integer.parseInt(matcher.group(1)) : 0);
+            } else if (body.contains("\"include_vocabs\":\"true\"")) {
+                batchId = "2";
+            } else if (body.contains("\"ids_only\":\"true\"")) {
+                batchId = "1";
+            } else if (body.contains(Constants.SKRITTER_VOCAB_SORT_BANNED_PARAMETER)) {
+                batchId = "3";
+            } else {
+                Matcher matcher = IDS_PARAM.matcher(body);
+                if (!matcher.find()) {
+                    throw new IllegalStateException("Unexpected batch: " + body);
+                }
+                batchId = String.valueOf(nextChunkId.getAndIncrement());
+                chunkIds.put(batchId, matcher.group(1));
+            }
+            return "{\"Batch\":{\"totalRequests\":1,\"runningRequests\":1,\"id\":\"" + batchId
+                    + "\"},\"statusCode\":200}";
+        });
+        server.on("GET", ".*/batch/[0-9]+/status", (path, body) ->
+                "{\"Batch\":{\"totalRequests\":2,\"runningRequests\":0,\"id\":\"" + batchId(path)
+                        + "\"},\"statusCode\":200}");
+        server.on("GET", ".*/batch/[0-9]+", (path, body) -> {
+            String batchId = batchId(path);
+            List<String> vocabIds = new ArrayList<>();
+            StringBuilder items = new StringBuilder();
+            String cursor = "";
+            Integer pageStart = pageStarts.get(batchId);
+            if (pageStart != null) {
+                // Page through the words' items, in item order
+                int itemCount = words * ITEM_SUFFIXES.length;
+                int pageEnd = Math.min(pageStart + PAGE_SIZE, itemCount);
+                for (int i = pageStart; i < pageEnd; i++) {
+                    separate(items).append("{\"id\":\"234179586-").append(vocabId(i / ITEM_SUFFIXES.length))
+                            .append('-').append(ITEM_SUFFIXES[i % ITEM_SUFFIXES.length]).append("\"}");
+                }
+                if (pageEnd < itemCount) {
+                    cursor = ",\"cursor\":\"" + pageEnd + "\"";
+                }
+            } else {
+                switch (batchId) {
+                    case "1", "2" -> {
+                        for (int i = 0; i < words; i++) {
+                            vocabIds.add(vocabId(i));
+                            for (String suffix : ITEM_SUFFIXES) {
+                                separate(items).append("{\"id\":\"234179586-").append(vocabId(i))
+                                        .append('-').append(suffix).append("\"}");
+                            }
+                        }
+                        if (batchId.equals("1")) {
+                            vocabIds.clear();
+                        }
+                    }
+                    case "3" -> {
+                        // Nothing banned
+                    }
+                    default -> vocabIds.addAll(List.of(chunkIds.get(batchId).split("\\|")));
+                }
+            }
+            StringBuilder vocabs = new StringBuilder();
+            for (String vocabId : vocabIds) {
+                separate(vocabs).append("{\"id\":\"").append(vocabId)
+                        .append("\",\"definitions\":{\"en\":\"definition of ").append(vocabId)
+                        .append("\"},\"reading\":\"zi4\",\"writing\":\"字\",\"style\":\"simp\"}");
+            }
+            return "{\"Batch\":{\"totalRequests\":1,\"Requests\":[{\"responseStatusCode\":200,\"id\":\"r"
+                    + batchId + "\",\"spawnedBy\":" + batchId + ",\"done\":1,\"params\":{},"
+                    + "\"path\":\"api/v0/items\",\"response\":{\"Items\":[" + items + "],\"Vocabs\":["
+                    + vocabs + "]" + cursor + ",\"statusCode\":200},\"method\":\"GET\"}],"
+                    + "\"runningRequests\":0,\"id\":\""
+                    + batchId + "\"},\"statusCode\":200}";
+        });
+        return server;
+    }
+
+    private static String vocabId(int word) {
+        return "zh-字" + word + "-0";
+    }
+
+    private static String batchId(String path) {
+        Matcher matcher = BATCH_ID.matcher(path);
+        if (!matcher.matches()) {
+            throw new IllegalStateException("Unexpected path: " + path);
+        }
+        return matcher.group(1);
+    }
+
+    private static StringBuilder separate(StringBuilder builder) {
+        return builder.isEmpty() ? builder : builder.append(',');
+    }
+}
@@ -0,0 +1,56 @@
+// MIT License
+//
+// Copyright (c) 2023 David Stone <ds.skritter.export@asif.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+package com.asif.skritter.export;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FieldProjectionTest {
+
+    @Test
+    void parameterKeepsOrderTest() {
+        assertThat(FieldProjection.EXPORTED_VOCAB.toParameter())
+                .isEqualTo("id,style,reading,writing,definitions,customDefinition");
+        assertThat(FieldProjection.ITEM_ID.toParameter()).isEqualTo("id");
+        assertThat(FieldProjection.ALL.toParameter()).isNull();
+    }
+
+    @Test
+    void unionTest() {
+        FieldProjection union = FieldProjection.BANNED_VOCAB.union(FieldProjection.of("writing", "id"));
+        assertThat(union.toParameter()).isEqualTo("id,style,writing");
+        assertThat(union.includes("writing")).isTrue();
+        assertThat(union.includes("audio")).isFalse();
+        assertThat(FieldProjection.ITEM_ID.union(FieldProjection.ALL).isAll()).isTrue();
+    }
+
+    @Test
+    void projectTest() {
+        Map<String, Object> vocab = Map.of("id", "zh-立-0", "style", "both", "audio", "li4.mp3");
+
+        assertThat(FieldProjection.BANNED_VOCAB.project(vocab)).containsOnlyKeys("id", "style");
+        assertThat(FieldProjection.ALL.project(vocab)).isSameAs(vocab);
+    }
+}
@@ -0,0 +1,150 @@
+// MIT License
+//
+// Copyright (c) 2023 David Stone <ds.skritter.export@asif.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.asif.skritter.export;
+
+import org.apache.hc.client5.http.classic.methods.HttpUriRequestBase;
+import org.apache.hc.core5.http.ClassicHttpRequest;
+import org.apache.hc.core5.http.io.support.ClassicRequestBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+class HedgerTest {
+
+    private final Hedger hedger = new Hedger(90, 20);
+    private final ClassicHttpRequest request = ClassicRequestBuilder.get(Constants.BATCH_ENDPOINT + "/1/status")
+            .addHeader("Authorization", "Bearer fake-token")
+            .build();
+
+    @AfterEach
+    void afterEach() {
+        hedger.close();
+    }
+
+    @Test
+    void noHedgingUntilLatencyKnownTest() throws IOException, URISyntaxException {
+        assertThat(hedger.getHedgeDelayMillis()).isEqualTo(-1);
+
+        warmUp();
+
+        assertThat(hedger.getHedgeDelayMillis()).isEqualTo(20);
+        assertThat(hedger.getRequestCount()).isEqualTo(Hedger.MIN_SAMPLES);
+        assertThat(hedger.getHedgeCount()).isZero();
+    }
+
+    @Test
+    void stalledRequestHedgedTest() throws IOException, URISyntaxException {
+        warmUp();
+        List<ClassicHttpRequest> sent = Collections.synchronizedList(new ArrayList<>());
+
+        String result = hedger.execute(request, (attemptRequest, claim) -> {
+            sent.add(attemptRequest);
+            if (sent.size() == 1) {
+                // The first request stalls until the hedge aborts it
+                HttpUriRequestBase stalled = (HttpUriRequestBase) attemptRequest;
+                long deadline = System.currentTimeMillis() + 5000;
+                while (!stalled.isCancelled() && System.currentTimeMillis() < deadline) {
+                    nap();
+                }
+                claim.claim();
+                return "primary";
+            }
+            claim.claim();
+            return "hedge";
+        });
+
+        assertThat(result).isEqualTo("hedge");
+        assertThat(sent).hasSize(2);
+        assertThat(sent.get(1).getFirstHeader("Authorization").getValue()).isEqualTo("Bearer fake-token");
+        assertThat(((HttpUriRequestBase) sent.get(0)).isCancelled()).isTrue();
+        assertThat(hedger.getHedgeCount()).isEqualTo(1);
+        assertThat(hedger.getHedgeWinCount()).isEqualTo(1);
+    }
+
+    @Test
+    void winnerFailureReportedTest() throws IOException, URISyntaxException {
+        warmUp();
+
+        Throwable thrown = catchThrowable(() -> hedger.execute(request, (attemptRequest, claim) -> {
+            HttpUriRequestBase attempt = (HttpUriRequestBase) attemptRequest;
+            long deadline = System.currentTimeMillis() + 100;
+            while (!attempt.isCancelled() && System.currentTimeMillis() < deadline) {
+                nap();
+            }
+            claim.claim();
+            throw new SkritterException("GET batch status failed. Status: 500");
+        }));
+
+        assertThat(thrown).isInstanceOf(SkritterException.class).hasMessageContaining("500");
+        assertThat(hedger.getHedgeCount()).isEqualTo(1);
+    }
+
+    @Test
+    void bothFailBeforeResponseTest() throws IOException, URISyntaxException {
+        warmUp();
+
+        Throwable thrown = catchThrowable(() -> hedger.execute(request, (attemptRequest, claim) -> {
+            nap();
+            nap();
+            throw new IOException("Connection reset");
+        }));
+
+        assertThat(thrown).isInstanceOf(IOException.class).hasMessage("Connection reset");
+    }
+
+    @Test
+    void disabledTest() {
+        assertThat(Hedger.disabled().isEnabled()).isFalse();
+        assertThat(Hedger.from(new Properties()).isEnabled()).isFalse();
+
+        Properties properties = new Properties();
+        properties.setProperty(Hedger.HEDGE_PERCENTILE_PROPERTY, "95");
+        assertThat(Hedger.from(properties).isEnabled()).isTrue();
+    }
+
+    private void warmUp() throws IOException, URISyntaxException {
+        for (int i = 0; i < Hedger.MIN_SAMPLES; i++) {
+            hedger.execute(request, (attemptRequest, claim) -> {
+                claim.claim();
+                return "fast";
+            });
+        }
+    }
+
+    private static void nap() {
+        try {
+            Thread.sleep(10);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
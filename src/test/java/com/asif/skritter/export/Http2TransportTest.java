@@ -0,0 +1,179 @@
+// MIT License
+//
+// Copyright (c) 2023 David Stone <ds.skritter.export@asif.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.asif.skritter.export;
+
+import org.apache.hc.client5.http.HttpHostConnectException;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.core5.http.ClassicHttpRequest;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.HttpResponse;
+import org.apache.hc.core5.http.HttpStatus;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.apache.hc.core5.http.io.support.ClassicRequestBuilder;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+class Http2TransportTest {
+
+    @Test
+    void multiplexedRequestsShareOneConnectionTest() throws URISyntaxException, IOException,
+            ExecutionException, InterruptedException {
+        String json = Util.getJsonResource("batch_get_vocabs_status2.json");
+
+        try (LocalH2Server server = new LocalH2Server(json, 50, HttpVersionPolicy.FORCE_HTTP_2);
+             CloseableHttpClient fallbackHttpClient = HttpClientFactory.build(HttpClientFactory.PoolSettings.defaults());
+             Http2Transport transport = new Http2Transport(fallbackHttpClient)) {
+
+            ExecutorService executor = Executors.newFixedThreadPool(20);
+            try {
+                List<Future<String>> futures = new ArrayList<>();
+                for (int i = 0; i < 20; i++) {
+                    ClassicHttpRequest request = ClassicRequestBuilder.get(server.getBaseUrl() + "/batch/" + i).build();
+                    futures.add(executor.submit(() -> transport.execute(request, response -> EntityUtils.toString(response.getEntity()))));
+                }
+                for (Future<String> future : futures) {
+                    assertThat(future.get()).isEqualTo(json);
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+
+            assertThat(transport.getHttp2ResponseCount()).isEqualTo(20);
+            assertThat(transport.isFallenBack()).isFalse();
+            assertThat(server.getConnectionCount()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    void fallBackToHttp1Test() throws URISyntaxException, IOException {
+        String json = Util.getJsonResource("batch_get_vocabs_status2.json");
+
+        // The JDK's server only speaks HTTP/1.1
+        try (LocalSkritterServer server = new LocalSkritterServer();
+             CloseableHttpClient fallbackHttpClient = HttpClientFactory.build(HttpClientFactory.PoolSettings.defaults());
+             Http2Transport transport = new Http2Transport(fallbackHttpClient)) {
+            server.on("GET", "/api/v0/batch/1/status", json);
+
+            ClassicHttpRequest request = ClassicRequestBuilder.get(server.getEndpointBase() + "/batch/1/status")
+                    .addHeader("Accept-Encoding", Compression.ACCEPT_ENCODING)
+                    .build();
+            String content = transport.execute(request, response -> {
+                assertThat(response.getCode()).isEqualTo(HttpStatus.SC_OK);
+                Compression.decode(response, new TrafficStats().begin("test"));
+                return EntityUtils.toString(response.getEntity());
+            });
+
+            assertThat(content).isEqualTo(json);
+            assertThat(transport.isFallenBack()).isTrue();
+            assertThat(transport.getHttp1ResponseCount()).isEqualTo(1);
+            assertThat(transport.getHttp2ResponseCount()).isZero();
+        }
+    }
+
+    @Test
+    void transientFailureDoesNotFallBackTest() throws IOException {
+        try (CloseableHttpClient fallbackHttpClient = HttpClientFactory.build(HttpClientFactory.PoolSettings.defaults());
+             Http2Transport transport = new Http2Transport(fallbackHttpClient)) {
+            // Nothing listens on port 1
+            ClassicHttpRequest request = ClassicRequestBuilder.get("http://127.0.0.1:1/batch/1/status").build();
+
+            Throwable thrown = catchThrowable(() -> transport.execute(request, HttpResponse::getCode));
+
+            assertThat(thrown).isInstanceOf(HttpHostConnectException.class);
+            assertThat(transport.isFallenBack()).isFalse();
+            assertThat(transport.getHttp1ResponseCount()).isZero();
+        }
+    }
+
+    @Test
+    void postNeverSentTwiceTest() throws URISyntaxException, IOException {
+        // The JDK's server only speaks HTTP/1.1
+        try (LocalSkritterServer server = new LocalSkritterServer();
+             CloseableHttpClient fallbackHttpClient = HttpClientFactory.build(HttpClientFactory.PoolSettings.defaults());
+             Http2Transport transport = new Http2Transport(fallbackHttpClient)) {
+            server.on("POST", "/api/v0/batch", Util.getJsonResource("batch_get_vocabs.json"));
+
+            ClassicHttpRequest request = ClassicRequestBuilder.post(server.getEndpointBase() + "/batch")
+                    .setEntity("[]", ContentType.APPLICATION_JSON)
+                    .build();
+            int status = transport.execute(request, HttpResponse::getCode);
+
+            // A HEAD found HTTP/2 missing before the POST was sent, once, over HTTP/1.1
+            assertThat(status).isEqualTo(HttpStatus.SC_OK);
+            assertThat(transport.isFallenBack()).isTrue();
+            assertThat(server.getRequests()).containsExactly("HEAD /", "POST /api/v0/batch");
+        }
+    }
+
+    @Test
+    void largeResponseStreamedTest() throws URISyntaxException, IOException, ExecutionException,
+            InterruptedException {
+        // Several times the buffer held ahead of the handler
+        String json = "[\"" + "x".repeat(1_000_000) + "\"]";
+
+        try (LocalH2Server server = new LocalH2Server(json, 0, HttpVersionPolicy.FORCE_HTTP_2);
+             CloseableHttpClient fallbackHttpClient = HttpClientFactory.build(HttpClientFactory.PoolSettings.defaults());
+             Http2Transport transport = new Http2Transport(fallbackHttpClient)) {
+
+            ClassicHttpRequest request = ClassicRequestBuilder.get(server.getBaseUrl() + "/batch/1").build();
+            String content = transport.execute(request, response -> {
+                // The body is still arriving when the handler starts reading it
+                assertThat(response.getEntity().isStreaming()).isTrue();
+                return EntityUtils.toString(response.getEntity());
+            });
+
+            assertThat(content).isEqualTo(json);
+            assertThat(transport.getHttp2ResponseCount()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    void httpVersionPropertyTest() throws IOException {
+        try (CloseableHttpClient fallbackHttpClient = HttpClientFactory.build(HttpClientFactory.PoolSettings.defaults())) {
+            Properties properties = new Properties();
+            assertThat(Http2Transport.from(properties, fallbackHttpClient)).isNull();
+
+            properties.setProperty(Http2Transport.HTTP_VERSION_PROPERTY, "2");
+            try (Http2Transport transport = Http2Transport.from(properties, fallbackHttpClient)) {
+                assertThat(transport).isNotNull();
+            }
+
+            properties.setProperty(Http2Transport.HTTP_VERSION_PROPERTY, "3");
+            Throwable thrown = catchThrowable(() -> Http2Transport.from(properties, fallbackHttpClient));
+            assertThat(thrown).isInstanceOf(SkritterException.class);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+// MIT License
+//
+// Copyright (c) 2023 David Stone <ds.skritter.export@asif.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.asif.skritter.export;
+
+import org.apache.hc.core5.http.ClassicHttpRequest;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.io.support.ClassicRequestBuilder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HttpCacheTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void revalidateTest() throws URISyntaxException {
+        HttpCache cache = new HttpCache(directory, 1000);
+        ClassicHttpRequest first = newRequest("/simptradmap", "token");
+        assertThat(cache.validate(first)).isNull();
+        cache.store(first, "\"v1\"", "Wed, 21 Oct 2026 07:28:00 GMT", "{\"a\":1}");
+
+        ClassicHttpRequest second = newRequest("/simptradmap", "token");
+        HttpCache.Entry entry = cache.validate(second);
+
+        assertThat(second.getFirstHeader(HttpHeaders.IF_NONE_MATCH).getValue()).isEqualTo("\"v1\"");
+        assertThat(second.getFirstHeader(HttpHeaders.IF_MODIFIED_SINCE).getValue())
+                .isEqualTo("Wed, 21 Oct 2026 07:28:00 GMT");
+        assertThat(cache.hit(entry)).isEqualTo("{\"a\":1}");
+        assertThat(cache.getHitCount()).isEqualTo(1);
+        assertThat(cache.getMissCount()).isEqualTo(1);
+    }
+
+    @Test
+    void keyedByAuthorizationTest() throws URISyntaxException {
+        HttpCache cache = new HttpCache(directory, 1000);
+        cache.store(newRequest("/vocabs", "token"), "\"v1\"", null, "mine");
+
+        assertThat(cache.validate(newRequest("/vocabs", "other-token"))).isNull();
+        assertThat(cache.validate(newRequest("/vocabs?lang=zh", "token"))).isNull();
+    }
+
+    @Test
+    void withoutValidatorNotCachedTest() throws URISyntaxException {
+        HttpCache cache = new HttpCache(directory, 1000);
+        cache.store(newRequest("/simptradmap", "token"), null, null, "{}");
+
+        assertThat(cache.getEntryCount()).isZero();
+        assertThat(cache.getMissCount()).isEqualTo(1);
+    }
+
+    @Test
+    void reloadedAfterRestartTest() throws URISyntaxException {
+        new HttpCache(directory, 1000).store(newRequest("/simptradmap", "token"), "\"v1\"", null, "{}");
+
+        HttpCache restarted = new HttpCache(directory, 1000);
+        HttpCache.Entry entry = restarted.validate(newRequest("/simptradmap", "token"));
+
+        assertThat(entry).isNotNull();
+        assertThat(restarted.hit(entry)).isEqualTo("{}");
+        assertThat(restarted.getSize()).isEqualTo(2);
+    }
+
+    @Test
+    void leastRecentlyUsedEvictedTest() throws URISyntaxException {
+        HttpCache cache = new HttpCache(directory, 25);
+        cache.store(newRequest("/a", "token"), "\"a\"", null, "aaaaaaaaaa");
+        cache.store(newRequest("/b", "token"), "\"b\"", null, "bbbbbbbbbb");
+        // Using a makes b the least recently used
+        cache.validate(newRequest("/a", "token"));
+        cache.store(newRequest("/c", "token"), "\"c\"", null, "cccccccccc");
+
+        assertThat(cache.getEntryCount()).isEqualTo(2);
+        assertThat(cache.getSize()).isEqualTo(20);
+        assertThat(cache.validate(newRequest("/a", "token"))).isNotNull();
+        assertThat(cache.validate(newRequest("/b", "token"))).isNull();
+        assertThat(cache.validate(newRequest("/c", "token"))).isNotNull();
+    }
+
+    @Test
+    void unreadableBodyDroppedTest() throws URISyntaxException, IOException {
+        HttpCache cache = new HttpCache(directory, 1000);
+        cache.store(newRequest("/simptradmap", "token"), "\"v1\"", null, "{}");
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.filter(path -> path.toString().endsWith(".body")).toList()) {
+                Files.delete(file);
+            }
+        }
+
+        HttpCache.Entry entry = cache.validate(newRequest("/simptradmap", "token"));
+
+        assertThat(cache.hit(entry)).isNull();
+        assertThat(cache.getEntryCount()).isZero();
+    }
+
+    @Test
+    void disabledTest() throws URISyntaxException {
+        HttpCache cache = HttpCache.disabled();
+        ClassicHttpRequest request = newRequest("/simptradmap", "token");
+        cache.store(request, "\"v1\"", null, "{}");
+
+        assertThat(cache.isEnabled()).isFalse();
+        assertThat(cache.validate(request)).isNull();
+        assertThat(request.containsHeader(HttpHeaders.IF_NONE_MATCH)).isFalse();
+    }
+
+    private static ClassicHttpRequest newRequest(String path, String token) {
+        return ClassicRequestBuilder.get("https://legacy.skritter.com/api/v0" + path)
+                .addHeader(HttpHeaders.AUTHORIZATION, "Bearer " + token)
+                .build();
+    }
+}
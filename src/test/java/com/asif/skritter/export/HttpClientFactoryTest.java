@@ -0,0 +1,79 @@
+// MIT License
+//
+// Copyright (c) 2023 David Stone <ds.skritter.export@asif.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.asif.skritter.export;
+
+import org.junit.jupiter.api.Test;
+
+import java.text.MessageFormat;
+import java.util.Properties;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+class HttpClientFactoryTest {
+
+    @Test
+    void defaultPoolSettingsTest() {
+        HttpClientFactory.PoolSettings settings = HttpClientFactory.PoolSettings.from(new Properties());
+        assertThat(settings).isEqualTo(HttpClientFactory.PoolSettings.defaults());
+    }
+
+    @Test
+    void configuredPoolSettingsTest() {
+        Properties properties = new Properties();
+        properties.setProperty(HttpClientFactory.MAX_CONNECTIONS_PROPERTY, "4");
+        properties.setProperty(HttpClientFactory.MAX_CONNECTIONS_PER_ROUTE_PROPERTY, "8");
+        properties.setProperty(HttpClientFactory.KEEP_ALIVE_SECONDS_PROPERTY, "30");
+        properties.setProperty(HttpClientFactory.WARM_UP_CONNECTIONS_PROPERTY, "0");
+
+        HttpClientFactory.PoolSettings settings = HttpClientFactory.PoolSettings.from(properties);
+        assertThat(settings.maxConnections()).isEqualTo(4);
+        // Per route can never exceed the total
+        assertThat(settings.maxConnectionsPerRoute()).isEqualTo(4);
+        assertThat(settings.keepAliveSeconds()).isEqualTo(30);
+        assertThat(settings.warmUpConnections()).isZero();
+    }
+
+    @Test
+    void invalidPoolSettingTest() {
+        Properties properties = new Properties();
+        properties.setProperty(HttpClientFactory.MAX_CONNECTIONS_PROPERTY, "lots");
+
+        Throwable thrown = catchThrowable(() -> HttpClientFactory.PoolSettings.from(properties));
+        assertThat(thrown).isInstanceOf(SkritterException.class);
+        assertThat(thrown).hasMessage(MessageFormat.format(ClientProperties.ERROR_INVALID_PROPERTY_VALUE,
+                HttpClientFactory.MAX_CONNECTIONS_PROPERTY, "lots"));
+    }
+
+    @Test
+    void outOfRangePoolSettingTest() {
+        // Too big for an int, rather than wrapped round to a negative number
+        Properties properties = new Properties();
+        properties.setProperty(HttpClientFactory.MAX_CONNECTIONS_PROPERTY, "4294967297");
+
+        Throwable thrown = catchThrowable(() -> HttpClientFactory.PoolSettings.from(properties));
+        assertThat(thrown).isInstanceOf(SkritterException.class);
+        assertThat(thrown).hasMessage(MessageFormat.format(ClientProperties.ERROR_INVALID_PROPERTY_VALUE,
+                HttpClientFactory.MAX_CONNECTIONS_PROPERTY, "4294967297"));
+    }
+}
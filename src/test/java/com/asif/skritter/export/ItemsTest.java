@@ -30,9 +30,13 @@ import java.io.IOException;
 import java.net.URISyntaxException;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Properties;
 import java.util.Set;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.endsWith;
 
 class ItemsTest {
 
@@ -43,8 +47,7 @@ class ItemsTest {
 
     ItemsTest() {
         clientMock = new HttpClientMock();
-        ApiClient.setHttpClient(clientMock);
-        apiClient = new ApiClient();
+        apiClient = Util.apiClientBuilder(clientMock).build();
         items = new Items(apiClient);
     }
 
@@ -86,6 +89,55 @@ class ItemsTest {
         idSet.forEach(System.out::println);
     }
 
+    @Test
+    void getItemIdsWithVocabsTest() throws URISyntaxException, IOException {
+        clientMock.onPost(Constants.BATCH_ENDPOINT)
+                .withBody(containsString("\"include_vocabs\":\"true\""))
+                .doReturnJSON(Util.getJsonResource("batch_get_items_with_vocabs.json"));
+        clientMock.onGet()
+                .withPath(containsString("5210785105444865/status"))
+                .doReturnJSON(Util.getJsonResource("batch_get_items_with_vocabs_status.json"));
+        clientMock.onGet()
+                .withPath(endsWith("5210785105444865"))
+                .doReturnJSON(Util.getJsonResource("batch_get_items_with_vocabs_data.json"));
+
+        Items.ItemIdsWithVocabs itemIdsWithVocabs = items.getItemIdsWithVocabs(Deadline.none());
+
+        assertThat(itemIdsWithVocabs.itemIds()).hasSize(5).contains("234179586-zh-场-0-rune");
+        assertThat(itemIdsWithVocabs.vocabs()).containsOnlyKeys("zh-场-0", "zh-艮-0", "zh-几-2", "zh-立-0");
+        assertThat(itemIdsWithVocabs.vocabs().get("zh-艮-0").writing).isEqualTo("艮");
+        // One batch for both items and vocabs
+        clientMock.verify().post().called(1);
+    }
+
+    @Test
+    void filteredItemIdsWithVocabsTest() throws URISyntaxException, IOException {
+        Properties properties = new Properties();
+        properties.setProperty(ExportFilter.EXPORT_STYLES_PROPERTY, Constants.SKRITTER_WRITING_STYLE_SIMPLE);
+        properties.setProperty(ExportFilter.EXPORT_MIN_TOUGHNESS_PROPERTY, "3");
+        Items filteredItems = new Items(Util.apiClientBuilder(clientMock)
+                .exportFilter(ExportFilter.from(properties))
+                .build());
+        // Only answered with the parts pushed down, and the item style asked for
+        clientMock.onPost(Constants.BATCH_ENDPOINT)
+                .withBody(allOf(containsString("\"" + Constants.SKRITTER_PARTS_PARAMETER + "\":\"rune\""),
+                        containsString("\"" + Constants.SKRITTER_FIELDS_PARAMETER + "\":\"id,style\"")))
+                .doReturnJSON(Util.getJsonResource("batch_get_items_with_vocabs.json"));
+        clientMock.onGet()
+                .withPath(containsString("5210785105444865/status"))
+                .doReturnJSON(Util.getJsonResource("batch_get_items_with_vocabs_status.json"));
+        clientMock.onGet()
+                .withPath(endsWith("5210785105444865"))
+                .doReturnJSON(Util.getJsonResource("batch_get_items_with_vocabs_data.json"));
+
+        Items.ItemIdsWithVocabs itemIdsWithVocabs = filteredItems.getItemIdsWithVocabs(Deadline.none());
+
+        assertThat(itemIdsWithVocabs.itemIds()).containsOnly(
+                "234179586-zh-场-0-rune", "234179586-zh-场-0-tone", "234179586-zh-几-2-rune");
+        assertThat(itemIdsWithVocabs.vocabs()).containsOnlyKeys("zh-场-0", "zh-艮-0", "zh-立-0");
+        assertThat(itemIdsWithVocabs.filteredVocabIds()).containsOnly("zh-几-2");
+    }
+
     @Test
     public void itemToStringTest() throws URISyntaxException, IOException {
         List<Item> items = Parser.parseItems(Util.getJsonResource("items.json"));
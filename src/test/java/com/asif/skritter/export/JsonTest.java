@@ -26,13 +26,19 @@ import com.cedarsoftware.util.io.JsonReader;
 import com.cedarsoftware.util.io.JsonWriter;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.StringReader;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import static com.cedarsoftware.util.io.JsonWriter.objectToJson;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
 import static org.assertj.core.api.AssertionsForClassTypes.entry;
 
 public class JsonTest {
@@ -148,6 +154,169 @@ public class JsonTest {
         assertThat(request.method).isEqualTo(Constants.SKRITTER_GET_METHOD);
     }
 
+    @Test
+    public void streamedBatchResponseTest() throws URISyntaxException, IOException {
+        List<String> vocabIds = new ArrayList<>();
+        List<String> requestIds = new ArrayList<>();
+
+        BatchResponse batchResponse = Parser.parseBatchResponse(
+                toInputStream(Util.getJsonResource("batch_get_vocabs_data.json")),
+                (batchRequest, arrayName, element) -> {
+                    assertThat(arrayName).isEqualTo(Constants.SKRITTER_VOCABS_ARRAY_NAME);
+                    requestIds.add(batchRequest.id);
+                    vocabIds.add(Vocab.Builder.build(element).id);
+                });
+
+        assertThat(vocabIds).containsExactly("zh-场-0", "zh-艮-0");
+        assertThat(requestIds).containsOnly("5241609615966208");
+        assertThat(batchResponse.id).isEqualTo("5883192233295872");
+        assertThat(batchResponse.runningRequests).isZero();
+        assertThat(batchResponse.requests).hasSize(2);
+        assertThat(batchResponse.requests).allSatisfy(request -> assertThat(request.response).isNull());
+        assertThat(batchResponse.requests.get(1).done).isEqualTo(1682637857L);
+    }
+
+    @Test
+    public void streamedBatchResponseMatchesTreeTest() throws URISyntaxException, IOException {
+        String json = Util.getJsonResource("batch_get_banned_vocabs_data.json");
+
+        List<String> treeVocabIds = new ArrayList<>();
+        for (BatchRequest batchRequest : Parser.parseBatchResponse(json).requests) {
+            if (batchRequest.response != null) {
+                for (Object vocab : (Object[]) batchRequest.response.get(Constants.SKRITTER_VOCABS_ARRAY_NAME)) {
+                    //noinspection unchecked
+                    treeVocabIds.add(Vocab.Builder.build((Map<String, Object>) vocab).id);
+                }
+            }
+        }
+
+        List<String> streamedVocabIds = new ArrayList<>();
+        Parser.parseBatchResponse(toInputStream(json),
+                (batchRequest, arrayName, element) -> streamedVocabIds.add(Vocab.Builder.build(element).id));
+
+        assertThat(streamedVocabIds).isNotEmpty().isEqualTo(treeVocabIds);
+    }
+
+    @Test
+    public void streamedBatchResponseProjectionTest() throws URISyntaxException, IOException {
+        List<Map<String, Object>> elements = new ArrayList<>();
+
+        Parser.parseBatchResponse(toInputStream(Util.getJsonResource("batch_get_banned_vocabs_data.json")),
+                new Parser.BatchElementHandler() {
+                    @Override
+                    public FieldProjection projection(BatchRequest batchRequest, String arrayName) {
+                        return FieldProjection.BANNED_VOCAB;
+                    }
+
+                    @Override
+                    public void element(BatchRequest batchRequest, String arrayName, Map<String, Object> element) {
+                        elements.add(element);
+                    }
+                });
+
+        // Audio, sentences, dictionary links etc. are passed over
+        assertThat(elements).hasSize(5).allSatisfy(element -> assertThat(element)
+                .containsOnlyKeys(Constants.SKRITTER_ID_FIELD, Constants.SKRITTER_STYLE_FIELD));
+        assertThat(elements).extracting(element -> Vocab.Builder.build(element).id)
+                .contains("zh-一只小猫-2", "zh-立-0");
+    }
+
+    @Test
+    public void streamReaderReadObjectTest() throws IOException {
+        String json = "{\"id\":\"a\",\"audios\":[{\"mp3\":\"x\"}],"
+                + "\"nested\":{\"id\":\"b\"},\"style\":\"simp\"}";
+        try (JsonStreamReader reader = new JsonStreamReader(new StringReader(json))) {
+            assertThat(reader.readObject(Set.of("id", "style")))
+                    .containsExactly(entry("id", "a"), entry("style", "simp"));
+        }
+    }
+
+    @Test
+    public void streamedResponseBeforeRequestIdTest() throws IOException {
+        // The response precedes the request id, so has to be buffered until the request is complete
+        String json = """
+                {"Batch":{"id":"1","Requests":[
+                  {"response":{"Items":[{"id":"a"},{"id":"b"}],"statusCode":200},
+                   "id":"2","params":{"limit":100},"done":true}
+                ]},"statusCode":200}
+                """;
+        List<String> itemIds = new ArrayList<>();
+        BatchResponse batchResponse = Parser.parseBatchResponse(toInputStream(json), (batchRequest, arrayName, element) -> {
+            assertThat(batchRequest.id).isEqualTo("2");
+            itemIds.add((String) element.get(Constants.SKRITTER_ID_FIELD));
+        });
+        assertThat(itemIds).containsExactly("a", "b");
+        assertThat(batchResponse.requests.get(0).response).isNull();
+    }
+
+    @Test
+    public void streamedFailureTest() throws URISyntaxException, IOException {
+        String json = Util.getJsonResource("authorization_failure.json");
+        Throwable thrown = catchThrowable(() -> Parser.parseBatchResponse(toInputStream(json),
+                (batchRequest, arrayName, element) -> { }));
+        assertThat(thrown).isInstanceOf(SkritterException.class);
+        assertThat(thrown).hasMessageContaining("401");
+        assertThat(thrown).hasMessageContaining("User authorization required.");
+    }
+
+    @Test
+    public void jsonStreamReaderTest() throws IOException {
+        String json = "{\"a\":[1,-2.5e1,true,null,\"x\\\"\\u00e9\\n\"],\"b\":{\"c\":{}},\"d\":[]}";
+        JsonStreamReader reader = new JsonStreamReader(new StringReader(json));
+        @SuppressWarnings("unchecked")
+        Map<String, Object> map = (Map<String, Object>) reader.readValue();
+        assertThat((Object[]) map.get("a")).containsExactly(1L, -25.0, true, null, "x\"\u00e9\n");
+        assertThat(map.get("b")).isEqualTo(Map.of("c", Map.of()));
+        assertThat((Object[]) map.get("d")).isEmpty();
+        assertThat(reader.peek()).isEqualTo(JsonStreamReader.Token.END_DOCUMENT);
+
+        reader = new JsonStreamReader(new StringReader(json));
+        reader.beginObject();
+        assertThat(reader.nextName()).isEqualTo("a");
+        reader.skipValue();
+        assertThat(reader.nextName()).isEqualTo("b");
+        reader.skipValue();
+        assertThat(reader.nextName()).isEqualTo("d");
+        reader.skipValue();
+        reader.endObject();
+        assertThat(reader.hasNext()).isFalse();
+    }
+
+    @Test
+    public void jsonStreamReaderMalformedTest() {
+        for (String json : List.of("[1 2]", "{\"a\":1 \"b\":2}", "[,,1]", "[1,,2]", "[1,]", "{\"a\":1,}",
+                "{,\"a\":1}", "{\"a\":,1}", "{\"a\":1]", "[1", "{\"a\":[1,2]")) {
+            Throwable thrown = catchThrowable(() -> new JsonStreamReader(new StringReader(json)).readValue());
+            assertThat(thrown).as(json).isInstanceOf(ParseFailureException.class)
+                    .hasMessageStartingWith("Malformed JSON");
+        }
+    }
+
+    @Test
+    public void jsonStreamReaderSkipMalformedTest() {
+        // Passing over a value checks it as closely as reading it
+        String json = "{\"a\":[1 2],\"b\":3}";
+        Throwable thrown = catchThrowable(() -> {
+            JsonStreamReader reader = new JsonStreamReader(new StringReader(json));
+            reader.beginObject();
+            reader.nextName();
+            reader.skipValue();
+        });
+        assertThat(thrown).isInstanceOf(ParseFailureException.class).hasMessageContaining("Expected ','");
+    }
+
+    @Test
+    public void corruptedBatchResponseTest() {
+        String json = "{\"Batch\":{\"id\":\"1\" \"Requests\":[]},\"statusCode\":200}";
+        Throwable thrown = catchThrowable(() -> Parser.parseBatchResponse(toInputStream(json),
+                (batchRequest, arrayName, element) -> { }));
+        assertThat(thrown).isInstanceOf(ParseFailureException.class);
+    }
+
+    private static ByteArrayInputStream toInputStream(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+
     @Test
     public void generateBatchRequestTest() {
         ApiClient.Request request = new ApiClient.Request();
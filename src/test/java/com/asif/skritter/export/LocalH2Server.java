@@ -0,0 +1,146 @@
+// MIT License
+//
+// Copyright (c) 2023 David Stone <ds.skritter.export@asif.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.asif.skritter.export;
+
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.EntityDetails;
+import org.apache.hc.core5.http.HttpRequest;
+import org.apache.hc.core5.http.HttpStatus;
+import org.apache.hc.core5.http.Message;
+import org.apache.hc.core5.http.URIScheme;
+import org.apache.hc.core5.http.impl.bootstrap.HttpAsyncServer;
+import org.apache.hc.core5.http.nio.AsyncRequestConsumer;
+import org.apache.hc.core5.http.nio.AsyncServerRequestHandler;
+import org.apache.hc.core5.http.nio.entity.DiscardingEntityConsumer;
+import org.apache.hc.core5.http.nio.support.AsyncResponseBuilder;
+import org.apache.hc.core5.http.nio.support.BasicRequestConsumer;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.http2.impl.nio.bootstrap.H2ServerBootstrap;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.reactor.IOSession;
+import org.apache.hc.core5.reactor.IOSessionListener;
+import org.apache.hc.core5.reactor.ListenerEndpoint;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A local stand-in server speaking HTTP/1.1 or cleartext HTTP/2 (with prior
+ * knowledge), answering every request with the same JSON after a fixed latency.
+ * Counts the connections opened to it.
+ */
+class LocalH2Server implements AutoCloseable {
+
+    private final HttpAsyncServer server;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicInteger requests = new AtomicInteger();
+    private final int port;
+
+    /**
+     * @param versionPolicy FORCE_HTTP_2 for HTTP/2, FORCE_HTTP_1 for HTTP/1.1.
+     */
+    LocalH2Server(String json, long latencyMillis, HttpVersionPolicy versionPolicy)
+            throws ExecutionException, InterruptedException {
+        server = H2ServerBootstrap.bootstrap()
+                .setVersionPolicy(versionPolicy)
+                .setIOSessionListener(new ConnectionCounter())
+                .register("*", new AsyncServerRequestHandler<Message<HttpRequest, Void>>() {
+                    @Override
+                    public AsyncRequestConsumer<Message<HttpRequest, Void>> prepare(
+                            HttpRequest request, EntityDetails entityDetails, HttpContext context) {
+                        return new BasicRequestConsumer<>((entityDetails != null) ? new DiscardingEntityConsumer<>() : null);
+                    }
+
+                    @Override
+                    public void handle(Message<HttpRequest, Void> message, ResponseTrigger responseTrigger,
+                                       HttpContext context) {
+                        requests.incrementAndGet();
+                        scheduler.schedule(() -> {
+                            responseTrigger.submitResponse(AsyncResponseBuilder.create(HttpStatus.SC_OK)
+                                    .setEntity(json, ContentType.APPLICATION_JSON)
+                                    .build(), context);
+                            return null;
+                        }, latencyMillis, TimeUnit.MILLISECONDS);
+                    }
+                })
+                .create();
+        server.start();
+        ListenerEndpoint endpoint = server.listen(new InetSocketAddress("localhost", 0), URIScheme.HTTP).get();
+        port = ((InetSocketAddress) endpoint.getAddress()).getPort();
+    }
+
+    String getBaseUrl() {
+        return "http://localhost:" + port;
+    }
+
+    int getConnectionCount() {
+        return connections.get();
+    }
+
+    int getRequestCount() {
+        return requests.get();
+    }
+
+    @Override
+    public void close() {
+        server.close(CloseMode.IMMEDIATE);
+        scheduler.shutdownNow();
+    }
+
+    private class ConnectionCounter implements IOSessionListener {
+        @Override
+        public void connected(IOSession session) {
+            connections.incrementAndGet();
+        }
+
+        @Override
+        public void startTls(IOSession session) {
+        }
+
+        @Override
+        public void inputReady(IOSession session) {
+        }
+
+        @Override
+        public void outputReady(IOSession session) {
+        }
+
+        @Override
+        public void timeout(IOSession session) {
+        }
+
+        @Override
+        public void exception(IOSession session, Exception ex) {
+        }
+
+        @Override
+        public void disconnected(IOSession session) {
+        }
+    }
+}
@@ -0,0 +1,171 @@
+// MIT License
+//
+// Copyright (c) 2023 David Stone <ds.skritter.export@asif.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.asif.skritter.export;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A local stand-in for the Skritter API, for tests that need a real http server
+ * rather than a mocked client.  Responses are canned JSON; a rule with several
+ * responses returns them in turn and then keeps repeating the last one.  A rule with
+ * a {@link Responder} builds each response from the request instead.
+ */
+class LocalSkritterServer implements AutoCloseable {
+
+    private final HttpServer server;
+    private final List<Rule> rules = new CopyOnWriteArrayList<>();
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+    private volatile long latencyMillis;
+
+    interface Responder {
+        String respond(String path, String body);
+    }
+
+    LocalSkritterServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+    }
+
+    /**
+     * @return The stand-in for Constants.ENDPOINT_BASE.
+     */
+    String getEndpointBase() {
+        return "http://localhost:" + server.getAddress().getPort() + "/api/v0";
+    }
+
+    LocalSkritterServer on(String method, String pathRegex, String... responses) {
+        rules.add(new Rule(method, Pattern.compile(pathRegex), 200, List.of(responses)));
+        return this;
+    }
+
+    LocalSkritterServer on(String method, String pathRegex, Responder responder) {
+        rules.add(new Rule(method, Pattern.compile(pathRegex), 200, List.of(), responder, new AtomicInteger()));
+        return this;
+    }
+
+    /**
+     * Delay every response, standing in for the round trip to the real server.
+     */
+    LocalSkritterServer latency(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+        return this;
+    }
+
+    LocalSkritterServer onStatus(String method, String pathRegex, int status) {
+        rules.add(new Rule(method, Pattern.compile(pathRegex), status, List.of()));
+        return this;
+    }
+
+    /**
+     * @return Every request received, as "METHOD path?query".
+     */
+    List<String> getRequests() {
+        return new ArrayList<>(requests);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getPath();
+        String query = exchange.getRequestURI().getRawQuery();
+        String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        requests.add(method + " " + path + ((query == null) ? "" : "?" + query));
+
+        // Later rules take precedence, as with HttpClientMock
+        Rule match = null;
+        for (Rule rule : rules) {
+            if (rule.method.equals(method) && rule.path.matcher(path).matches()) {
+                match = rule;
+            }
+        }
+
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (match == null) {
+            exchange.sendResponseHeaders(404, -1);
+        } else if (match.responses.isEmpty() && match.responder == null) {
+            exchange.sendResponseHeaders(match.status, -1);
+        } else {
+            String response;
+            if (match.responder != null) {
+                response = match.responder.respond(path, body);
+            } else {
+                int index = Math.min(match.served.getAndIncrement(), match.responses.size() - 1);
+                response = match.responses.get(index);
+            }
+            byte[] responseBody = response.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                responseBody = gzip(responseBody);
+                exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+            }
+            exchange.sendResponseHeaders(match.status, responseBody.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(responseBody);
+            }
+        }
+        exchange.close();
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(outputStream)) {
+            gzipOutputStream.write(bytes);
+        }
+        return outputStream.toByteArray();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private record Rule(String method, Pattern path, int status, List<String> responses,
+                        Responder responder, AtomicInteger served) {
+        Rule(String method, Pattern path, int status, List<String> responses) {
+            this(method, path, status, responses, null, new AtomicInteger());
+        }
+    }
+}
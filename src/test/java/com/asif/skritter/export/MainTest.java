@@ -38,6 +38,7 @@ import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.List;
+import java.util.Properties;
 import java.util.Set;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -62,23 +63,18 @@ class MainTest {
 
     MainTest() {
         clientMock = new HttpClientMock();
-        ApiClient.setHttpClient(clientMock);
     }
 
     @Test
     void propertiesNotFoundTest() {
         String propertiesFile = "notGonnaBeFound.properties";
 
-        try {
-            Main.setSkritterPropertiesFile(propertiesFile);
-            
-            Throwable thrown = catchThrowable(() -> Main.main(new String[0]));
-            assertThat(thrown).isInstanceOf(SkritterException.class);
-            assertThat(thrown).hasMessage(MessageFormat.format(
-                    Main.ERROR_PROPERTY_FILE_NOT_FOUND, propertiesFile));
-        } finally {
-            Main.restoreSkritterPropertiesFile();
-        }
+        Main main = new Main(propertiesFile, Main.DEFAULT_EXPORT_STYLE);
+
+        Throwable thrown = catchThrowable(() -> main.run(Util.apiClientBuilder(clientMock)));
+        assertThat(thrown).isInstanceOf(SkritterException.class);
+        assertThat(thrown).hasMessage(MessageFormat.format(
+                Main.ERROR_PROPERTY_FILE_NOT_FOUND, propertiesFile));
     }
 
     @Test
@@ -87,15 +83,15 @@ class MainTest {
         Path path = Paths.get(TEST_CLASSES_PATH, propertiesFile);
         Set<PosixFilePermission> perms = EnumSet.of(PosixFilePermission.OWNER_WRITE);
 
+        Main main = new Main(propertiesFile, Main.DEFAULT_EXPORT_STYLE);
+
         try {
-            Main.setSkritterPropertiesFile(propertiesFile);
             Files.createFile(path, PosixFilePermissions.asFileAttribute(perms));
 
-            Throwable thrown = catchThrowable(() -> Main.main(new String[0]));
+            Throwable thrown = catchThrowable(() -> main.run(Util.apiClientBuilder(clientMock)));
             assertThat(thrown).isInstanceOf(SkritterException.class);
             assertThat(thrown).hasMessageContaining(path.toString());
         } finally {
-            Main.restoreSkritterPropertiesFile();
             Files.delete(path);
         }
     }
@@ -112,7 +108,8 @@ class MainTest {
                 + " (mw for games, performances, etc.); threshing floor\n";
 
         setupMainMock();
-        Main.main(new String[0]);
+        new Main(Main.DEFAULT_SKRITTER_PROPERTIES_FILE, Exporter.ExportStyle.ANKI)
+                .run(Util.apiClientBuilder(clientMock));
         String exportedData = readGeneratedFile();
         assertThat(exportedData).satisfiesAnyOf(
                 s -> assertThat(s).isEqualTo(Exporter.HEADER + expectedVocabLinesA),
@@ -121,26 +118,106 @@ class MainTest {
 
     @Test
     void skritterExportStyleTest() throws URISyntaxException, IOException {
-        try {
-            String expectedVocabLinesA =
-                    "场\t場\tchang3, chang2	courtyard; place; field;"
-                            + " (mw for games, performances, etc.); threshing floor\n"
-                            + "艮\t艮\tgen3, gen4	blunt; straightforward; tough; chewy;"
-                            + " one of the Eight Trigrams, symbolizing mountain (Kangxi Radical 138)\n";
-            String expectedVocabLinesB = "艮\t艮\tgen3, gen4	blunt; straightforward; tough; chewy;"
-                    + " one of the Eight Trigrams, symbolizing mountain (Kangxi Radical 138)\n"
-                    + "场\t場\tchang3, chang2	courtyard; place; field;"
-                    + " (mw for games, performances, etc.); threshing floor\n";
-            Main.setSkritterExportStyle(Exporter.ExportStyle.SKRITTER);
-            setupMainMock();
-            Main.main(new String[0]);
-            String exportedData = readGeneratedFile();
-            assertThat(exportedData).satisfiesAnyOf(
-                    s -> assertThat(s).isEqualTo(expectedVocabLinesA),
-                    s -> assertThat(s).isEqualTo(expectedVocabLinesB));
-        } finally {
-            Main.restoreExportStyle();
-        }
+        String expectedVocabLinesA =
+                "场\t場\tchang3, chang2	courtyard; place; field;"
+                        + " (mw for games, performances, etc.); threshing floor\n"
+                        + "艮\t艮\tgen3, gen4	blunt; straightforward; tough; chewy;"
+                        + " one of the Eight Trigrams, symbolizing mountain (Kangxi Radical 138)\n";
+        String expectedVocabLinesB = "艮\t艮\tgen3, gen4	blunt; straightforward; tough; chewy;"
+                + " one of the Eight Trigrams, symbolizing mountain (Kangxi Radical 138)\n"
+                + "场\t場\tchang3, chang2	courtyard; place; field;"
+                + " (mw for games, performances, etc.); threshing floor\n";
+        setupMainMock();
+        new Main(Main.DEFAULT_SKRITTER_PROPERTIES_FILE, Exporter.ExportStyle.SKRITTER)
+                .run(Util.apiClientBuilder(clientMock));
+        String exportedData = readGeneratedFile();
+        assertThat(exportedData).satisfiesAnyOf(
+                s -> assertThat(s).isEqualTo(expectedVocabLinesA),
+                s -> assertThat(s).isEqualTo(expectedVocabLinesB));
+    }
+
+    @Test
+    void includeVocabsWithItemsTest() throws URISyntaxException, IOException {
+        String expectedVocabLinesA =  "場\t场\tchǎng, cháng	courtyard; place; field;"
+                + " (mw for games, performances, etc.); threshing floor\n"
+                + "艮\t\tgěn, gèn\tblunt; straightforward; tough; chewy;"
+                + " one of the Eight Trigrams, symbolizing mountain (Kangxi Radical 138)\n";
+        String expectedVocabLinesB = "艮\t\tgěn, gèn\tblunt; straightforward; tough; chewy;"
+                + " one of the Eight Trigrams, symbolizing mountain (Kangxi Radical 138)\n"
+                + "場\t场\tchǎng, cháng	courtyard; place; field;"
+                + " (mw for games, performances, etc.); threshing floor\n";
+
+        setupMainMock();
+        // getItemIdsWithVocabs(), which makes the vocab fetch unnecessary
+        clientMock.onPost(Constants.BATCH_ENDPOINT)
+                .withBody(containsString("\"include_vocabs\":\"true\""))
+                .doReturnJSON(Util.getJsonResource("batch_get_items_with_vocabs.json"));
+        clientMock.onGet()
+                .withPath(containsString("5210785105444865/status"))
+                .doReturnJSON(Util.getJsonResource("batch_get_items_with_vocabs_status.json"));
+        clientMock.onGet()
+                .withPath(endsWith("5210785105444865"))
+                .doReturnJSON(Util.getJsonResource("batch_get_items_with_vocabs_data.json"));
+
+        new Main(Main.DEFAULT_SKRITTER_PROPERTIES_FILE, Exporter.ExportStyle.ANKI)
+                .run(Util.apiClientBuilder(clientMock).includeVocabsWithItems(true));
+
+        // 几 is banned and 立 is only studied for its definition, so neither is exported
+        String exportedData = readGeneratedFile();
+        assertThat(exportedData).satisfiesAnyOf(
+                s -> assertThat(s).isEqualTo(Exporter.HEADER + expectedVocabLinesA),
+                s -> assertThat(s).isEqualTo(Exporter.HEADER + expectedVocabLinesB));
+        // Only the items and banned vocabs batches
+        clientMock.verify().post().called(2);
+    }
+
+    @Test
+    void pagedItemsTest() throws URISyntaxException, IOException {
+        String expectedVocabLinesA =  "場\t场\tchǎng, cháng	courtyard; place; field;"
+                + " (mw for games, performances, etc.); threshing floor\n"
+                + "艮\t\tgěn, gèn\tblunt; straightforward; tough; chewy;"
+                + " one of the Eight Trigrams, symbolizing mountain (Kangxi Radical 138)\n";
+        String expectedVocabLinesB = "艮\t\tgěn, gèn\tblunt; straightforward; tough; chewy;"
+                + " one of the Eight Trigrams, symbolizing mountain (Kangxi Radical 138)\n"
+                + "場\t场\tchǎng, cháng	courtyard; place; field;"
+                + " (mw for games, performances, etc.); threshing floor\n";
+
+        setupMainMock();
+        new Main(Main.DEFAULT_SKRITTER_PROPERTIES_FILE, Exporter.ExportStyle.ANKI)
+                .run(Util.apiClientBuilder(clientMock).itemsPageSize(100));
+
+        String exportedData = readGeneratedFile();
+        assertThat(exportedData).satisfiesAnyOf(
+                s -> assertThat(s).isEqualTo(Exporter.HEADER + expectedVocabLinesA),
+                s -> assertThat(s).isEqualTo(Exporter.HEADER + expectedVocabLinesB));
+        // The items come in one short page, so no second page is fetched
+        clientMock.verify().post().called(3);
+    }
+
+    @Test
+    void filteredExportTest() throws URISyntaxException, IOException {
+        setupMainMock();
+        clientMock.onPost(Constants.BATCH_ENDPOINT)
+                .withBody(containsString("\"include_vocabs\":\"true\""))
+                .doReturnJSON(Util.getJsonResource("batch_get_items_with_vocabs.json"));
+        clientMock.onGet()
+                .withPath(containsString("5210785105444865/status"))
+                .doReturnJSON(Util.getJsonResource("batch_get_items_with_vocabs_status.json"));
+        clientMock.onGet()
+                .withPath(endsWith("5210785105444865"))
+                .doReturnJSON(Util.getJsonResource("batch_get_items_with_vocabs_data.json"));
+        Properties properties = new Properties();
+        properties.setProperty(ExportFilter.EXPORT_MAX_TOUGHNESS_PROPERTY, "5");
+
+        new Main(Main.DEFAULT_SKRITTER_PROPERTIES_FILE, Exporter.ExportStyle.SKRITTER)
+                .run(Util.apiClientBuilder(clientMock)
+                        .includeVocabsWithItems(true)
+                        .exportFilter(ExportFilter.from(properties)));
+
+        // 艮 is too tough, and being filtered out is not fetched again as missing
+        assertThat(readGeneratedFile()).isEqualTo("场\t場\tchang3, chang2	courtyard; place; field;"
+                + " (mw for games, performances, etc.); threshing floor\n");
+        clientMock.verify().post().called(2);
     }
 
     private void setupMainMock() throws URISyntaxException, IOException {
@@ -0,0 +1,155 @@
+// MIT License
+//
+// Copyright (c) 2023 David Stone <ds.skritter.export@asif.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.asif.skritter.export;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PagedItemIdsTest {
+
+    private static final Pattern CURSOR_PARAM = Pattern.compile("\"cursor\":\"([0-9]+)\"");
+    private static final Pattern BATCH_ID = Pattern.compile(".*/batch/([0-9]+)(/status)?");
+
+    private final LocalSkritterServer server;
+    private final ApiClient apiClient;
+    private final List<String> itemsRequests = new CopyOnWriteArrayList<>();
+
+    PagedItemIdsTest() throws IOException {
+        server = new LocalSkritterServer();
+        apiClient = ApiClient.builder()
+                .bearerToken("fake-token")
+                .endpointBase(server.getEndpointBase())
+                .build();
+    }
+
+    @AfterEach
+    void afterEach() {
+        apiClient.close();
+        server.close();
+    }
+
+    @Test
+    void pagedVocabIdsTest() {
+        serveItems(25, 10);
+
+        List<List<String>> chunks = new ArrayList<>();
+        try (PagedItemIds pagedItemIds = new PagedItemIds(apiClient, new Items(apiClient), 10,
+                CompletableFuture.completedFuture(Set.of(vocabId(3))), Deadline.none())) {
+            List<String> chunk;
+            while (!(chunk = pagedItemIds.next(8)).isEmpty()) {
+                chunks.add(chunk);
+            }
+            assertThat(pagedItemIds.next(8)).isEmpty();
+        }
+
+        // Full chunks until the ids run out, without the banned vocab
+        assertThat(chunks).extracting(List::size).containsExactly(8, 8, 8);
+        Set<String> vocabIds = new HashSet<>();
+        chunks.forEach(vocabIds::addAll);
+        assertThat(vocabIds).hasSize(24).doesNotContain(vocabId(3)).contains(vocabId(0), vocabId(24));
+
+        // Three pages, each a batch of its own following the cursor from the one before
+        assertThat(itemsRequests).hasSize(3);
+        assertThat(itemsRequests).allSatisfy(body -> assertThat(body)
+                .contains("\"limit\":10", "\"spawner\":false", "\"ids_only\":\"true\""));
+        assertThat(itemsRequests.get(0)).contains("\"cursor\":null");
+        assertThat(itemsRequests.get(1)).contains("\"cursor\":\"10\"");
+        assertThat(itemsRequests.get(2)).contains("\"cursor\":\"20\"");
+    }
+
+    @Test
+    void pagesQueuedAheadAreBoundedTest() throws InterruptedException {
+        serveItems(1000, 10);
+
+        try (PagedItemIds pagedItemIds = new PagedItemIds(apiClient, new Items(apiClient), 10,
+                CompletableFuture.completedFuture(Set.of()), Deadline.none())) {
+            assertThat(pagedItemIds.next(5)).hasSize(5);
+
+            // The first page is taken, the queue fills and one more page waits to join it
+            int fetchedPages = 1 + PagedItemIds.QUEUED_PAGES + 1;
+            for (int i = 0; i < 100 && itemsRequests.size() < fetchedPages; i++) {
+                Thread.sleep(50);
+            }
+            Thread.sleep(200);
+            assertThat(itemsRequests).hasSize(fetchedPages);
+        }
+    }
+
+    /**
+     * Serve the rune items of the given number of words, a page at a time.
+     */
+    private void serveItems(int words, int pageSize) {
+        server.on("POST", ".*/batch", (path, body) -> {
+            itemsRequests.add(body);
+            Matcher matcher = CURSOR_PARAM.matcher(body);
+            // The batch id is where the page starts
+            String batchId = matcher.find() ? matcher.group(1) : "0";
+            return "{\"Batch\":{\"totalRequests\":1,\"runningRequests\":1,\"id\":\"" + batchId
+                    + "\"},\"statusCode\":200}";
+        });
+        server.on("GET", ".*/batch/[0-9]+/status", (path, body) ->
+                "{\"Batch\":{\"totalRequests\":1,\"runningRequests\":0,\"id\":\"" + batchId(path)
+                        + "\"},\"statusCode\":200}");
+        server.on("GET", ".*/batch/[0-9]+", (path, body) -> {
+            String batchId = batchId(path);
+            int start = Integer.parseInt(batchId);
+            int end = Math.min(start + pageSize, words);
+            StringBuilder items = new StringBuilder();
+            for (int i = start; i < end; i++) {
+                if (!items.isEmpty()) {
+                    items.append(',');
+                }
+                items.append("{\"id\":\"234179586-").append(vocabId(i)).append("-rune\"}");
+            }
+            String cursor = (end < words) ? ",\"cursor\":\"" + end + "\"" : "";
+            return "{\"Batch\":{\"totalRequests\":1,\"Requests\":[{\"responseStatusCode\":200,\"id\":\"r"
+                    + batchId + "\",\"done\":1,\"params\":{},\"path\":\"api/v0/items\",\"response\":{\"Items\":["
+                    + items + "]" + cursor + ",\"statusCode\":200},\"method\":\"GET\"}],\"runningRequests\":0,"
+                    + "\"id\":\"" + batchId + "\"},\"statusCode\":200}";
+        });
+    }
+
+    private static String vocabId(int word) {
+        return "zh-字" + word + "-0";
+    }
+
+    private static String batchId(String path) {
+        Matcher matcher = BATCH_ID.matcher(path);
+        if (!matcher.matches()) {
+            throw new IllegalStateException("Unexpected path: " + path);
+        }
+        return matcher.group(1);
+    }
+}
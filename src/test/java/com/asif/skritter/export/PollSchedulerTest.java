@@ -0,0 +1,87 @@
+// MIT License
+//
+// Copyright (c) 2023 David Stone <ds.skritter.export@asif.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.asif.skritter.export;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PollSchedulerTest {
+
+    @Test
+    void exponentialBackoffTest() {
+        PollScheduler pollScheduler = new PollScheduler(50, 300, 0);
+        PollScheduler.Session session = pollScheduler.start();
+
+        List<Long> delays = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            delays.add(session.nextDelayMillis());
+        }
+        assertThat(delays).containsExactly(50L, 50L, 100L, 200L, 300L, 300L);
+        assertThat(session.getPolls()).isEqualTo(6);
+    }
+
+    @Test
+    void jitterTest() {
+        PollScheduler pollScheduler = new PollScheduler(1000, 1000, 0.2);
+        PollScheduler.Session session = pollScheduler.start();
+        for (int i = 0; i < 20; i++) {
+            assertThat(session.nextDelayMillis()).isBetween(800L, 1200L);
+        }
+    }
+
+    @Test
+    void learnedBatchDurationTest() throws URISyntaxException, IOException {
+        PollScheduler pollScheduler = new PollScheduler(50, 2000, 0);
+        assertThat(pollScheduler.getLearnedBatchMillis()).isEqualTo(-1);
+
+        // Requests created at 1682637856 and done by 1682637857
+        BatchResponse batchResponse =
+                Parser.parseBatchResponse(Util.getJsonResource("batch_get_vocabs_data.json"));
+        pollScheduler.learn(batchResponse.requests);
+        assertThat(pollScheduler.getLearnedBatchMillis()).isEqualTo(1000);
+
+        // First poll waits for most of the learned duration, then backs off from the start
+        PollScheduler.Session session = pollScheduler.start();
+        assertThat(session.nextDelayMillis()).isEqualTo(800);
+        assertThat(session.nextDelayMillis()).isEqualTo(50);
+        session.complete();
+
+        assertThat(pollScheduler.getBatchCount()).isEqualTo(1);
+        assertThat(pollScheduler.getPollCount()).isEqualTo(2);
+    }
+
+    @Test
+    void learnIgnoresUnfinishedRequestsTest() throws URISyntaxException, IOException {
+        PollScheduler pollScheduler = new PollScheduler();
+        BatchResponse batchResponse =
+                Parser.parseBatchResponse(Util.getJsonResource("batch_get_vocabs.json"));
+        pollScheduler.learn(batchResponse.requests);
+        assertThat(pollScheduler.getLearnedBatchMillis()).isEqualTo(-1);
+    }
+}
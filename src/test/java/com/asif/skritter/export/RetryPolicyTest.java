@@ -0,0 +1,133 @@
+// MIT License
+//
+// Copyright (c) 2023 David Stone <ds.skritter.export@asif.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.asif.skritter.export;
+
+import org.apache.hc.client5.http.utils.DateUtils;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.HttpResponse;
+import org.apache.hc.core5.http.HttpStatus;
+import org.apache.hc.core5.http.message.BasicHttpResponse;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RetryPolicyTest {
+
+    private final RetryPolicy retryPolicy = new RetryPolicy(2, 100, 1000, 0);
+
+    @Test
+    void retryAfterSecondsTest() {
+        HttpResponse response = new BasicHttpResponse(HttpStatus.SC_TOO_MANY_REQUESTS);
+        response.setHeader(HttpHeaders.RETRY_AFTER, "3");
+        RetryPolicy retryPolicy = new RetryPolicy(2, 100, 5000, 0);
+
+        assertThat(retryPolicy.retryDelayMillis("POST", response, 0)).isEqualTo(3000);
+        assertThat(retryPolicy.getThrottleCount()).isEqualTo(1);
+        assertThat(retryPolicy.getRetryCount()).isEqualTo(1);
+    }
+
+    @Test
+    void retryAfterCappedTest() {
+        HttpResponse response = new BasicHttpResponse(HttpStatus.SC_SERVICE_UNAVAILABLE);
+        response.setHeader(HttpHeaders.RETRY_AFTER, "3600");
+
+        assertThat(retryPolicy.retryDelayMillis("GET", response, 0)).isEqualTo(1000);
+    }
+
+    @Test
+    void retryAfterDateTest() {
+        long now = 1_700_000_000_000L;
+        HttpResponse response = new BasicHttpResponse(HttpStatus.SC_SERVICE_UNAVAILABLE);
+        response.setHeader(HttpHeaders.RETRY_AFTER,
+                DateUtils.formatStandardDate(Instant.ofEpochMilli(now + TimeUnit.SECONDS.toMillis(5))));
+
+        assertThat(RetryPolicy.getRetryAfterMillis(response, now)).isEqualTo(5000);
+    }
+
+    @Test
+    void unreadableRetryAfterBacksOffTest() {
+        HttpResponse response = new BasicHttpResponse(HttpStatus.SC_TOO_MANY_REQUESTS);
+        response.setHeader(HttpHeaders.RETRY_AFTER, "soon");
+
+        assertThat(retryPolicy.retryDelayMillis("GET", response, 1)).isEqualTo(200);
+    }
+
+    @Test
+    void exponentialBackoffTest() {
+        assertThat(retryPolicy.backoffMillis(0)).isEqualTo(100);
+        assertThat(retryPolicy.backoffMillis(1)).isEqualTo(200);
+        assertThat(retryPolicy.backoffMillis(3)).isEqualTo(800);
+        assertThat(retryPolicy.backoffMillis(10)).isEqualTo(1000);
+    }
+
+    @Test
+    void onlyIdempotentRequestsRetriedOnGatewayErrorsTest() {
+        HttpResponse response = new BasicHttpResponse(HttpStatus.SC_BAD_GATEWAY);
+
+        assertThat(retryPolicy.retryDelayMillis("GET", response, 0)).isEqualTo(100);
+        assertThat(retryPolicy.retryDelayMillis("POST", response, 0)).isEqualTo(RetryPolicy.NO_RETRY);
+        assertThat(retryPolicy.retryDelayMillis("GET", new IOException(), 0)).isEqualTo(100);
+        assertThat(retryPolicy.retryDelayMillis("POST", new IOException(), 0)).isEqualTo(RetryPolicy.NO_RETRY);
+        assertThat(retryPolicy.getThrottleCount()).isZero();
+    }
+
+    @Test
+    void notRetriedTest() {
+        assertThat(retryPolicy.retryDelayMillis("GET",
+                new BasicHttpResponse(HttpStatus.SC_INTERNAL_SERVER_ERROR), 0)).isEqualTo(RetryPolicy.NO_RETRY);
+        // Retries exhausted
+        assertThat(retryPolicy.retryDelayMillis("GET",
+                new BasicHttpResponse(HttpStatus.SC_TOO_MANY_REQUESTS), 2)).isEqualTo(RetryPolicy.NO_RETRY);
+        assertThat(retryPolicy.getThrottleCount()).isEqualTo(1);
+        assertThat(retryPolicy.getRetryCount()).isZero();
+    }
+
+    @Test
+    void rateLimiterTest() {
+        RateLimiter rateLimiter = new RateLimiter(10, 2);
+        long now = System.nanoTime();
+
+        // The burst is free, then one request per 100ms
+        assertThat(rateLimiter.reserve(now)).isZero();
+        assertThat(rateLimiter.reserve(now)).isZero();
+        assertThat(rateLimiter.reserve(now)).isEqualTo(100);
+        assertThat(rateLimiter.reserve(now)).isEqualTo(200);
+        assertThat(rateLimiter.reserve(now + TimeUnit.MILLISECONDS.toNanos(300))).isZero();
+        assertThat(rateLimiter.getThrottledCount()).isEqualTo(2);
+    }
+
+    @Test
+    void rateLimiterPropertiesTest() {
+        Properties properties = new Properties();
+        assertThat(RateLimiter.from(properties).isLimited()).isFalse();
+
+        properties.setProperty(RateLimiter.REQUESTS_PER_SECOND_PROPERTY, "2.5");
+        assertThat(RateLimiter.from(properties).isLimited()).isTrue();
+        assertThat(RateLimiter.unlimited().reserve()).isZero();
+    }
+}
@@ -37,10 +37,9 @@ class SimpleTradMapTest {
 
     SimpleTradMapTest() throws URISyntaxException, IOException {
         HttpClientMock clientMock = new HttpClientMock();
-        ApiClient.setHttpClient(clientMock);
         clientMock.onGet()
                 .doReturnJSON(Util.getJsonResource("get_simpletradmap_response.json"));
-        simpleTradMap = new ApiClient().getSimpleTraditionalMap();
+        simpleTradMap = Util.apiClientBuilder(clientMock).build().getSimpleTraditionalMap();
     }
 
     @Test
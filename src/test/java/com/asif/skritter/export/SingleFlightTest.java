@@ -0,0 +1,217 @@
+// MIT License
+//
+// Copyright (c) 2023 David Stone <ds.skritter.export@asif.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.asif.skritter.export;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.assertj.core.api.Assertions.entry;
+
+class SingleFlightTest {
+
+    private final SingleFlight<String, String> singleFlight = new SingleFlight<>();
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final AtomicInteger calls = new AtomicInteger();
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @AfterEach
+    void afterEach() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void concurrentCallsCollapsedTest() throws Exception {
+        List<Future<String>> futures = startCallers("simptradmap", 5, () -> {
+            calls.incrementAndGet();
+            release.await();
+            return "map";
+        });
+
+        awaitCollapsed(4);
+        release.countDown();
+
+        for (Future<String> future : futures) {
+            assertThat(future.get(10, TimeUnit.SECONDS)).isEqualTo("map");
+        }
+        assertThat(calls.get()).isEqualTo(1);
+        assertThat(singleFlight.getCallCount()).isEqualTo(5);
+        assertThat(singleFlight.getCollapsedCounts()).containsEntry("simptradmap", 4L).hasSize(1);
+    }
+
+    @Test
+    void failureSharedTest() throws Exception {
+        List<Future<String>> futures = startCallers("vocabs", 3, () -> {
+            calls.incrementAndGet();
+            release.await();
+            throw new IOException("Connection reset");
+        });
+
+        awaitCollapsed(2);
+        release.countDown();
+
+        for (Future<String> future : futures) {
+            Throwable thrown = catchThrowable(() -> future.get(10, TimeUnit.SECONDS));
+            assertThat(thrown).isInstanceOf(ExecutionException.class);
+            assertThat(thrown.getCause()).isInstanceOf(IOException.class).hasMessage("Connection reset");
+        }
+        assertThat(calls.get()).isEqualTo(1);
+    }
+
+    @Test
+    void sequentialCallsNotCollapsedTest() throws Exception {
+        assertThat(singleFlight.execute("key", () -> "first")).isEqualTo("first");
+        assertThat(singleFlight.execute("key", () -> "second")).isEqualTo("second");
+
+        assertThat(singleFlight.getCollapsedCount()).isZero();
+        assertThat(singleFlight.getCollapsedCounts()).isEmpty();
+    }
+
+    @Test
+    void differentKeysNotCollapsedTest() throws Exception {
+        List<Future<String>> futures = new ArrayList<>();
+        futures.addAll(startCallers("a", 1, () -> {
+            calls.incrementAndGet();
+            release.await();
+            return "a";
+        }));
+        futures.addAll(startCallers("b", 1, () -> {
+            calls.incrementAndGet();
+            release.await();
+            return "b";
+        }));
+
+        while (calls.get() < 2) {
+            Thread.sleep(5);
+        }
+        release.countDown();
+
+        assertThat(futures.get(0).get(10, TimeUnit.SECONDS)).isEqualTo("a");
+        assertThat(futures.get(1).get(10, TimeUnit.SECONDS)).isEqualTo("b");
+        assertThat(singleFlight.getCollapsedCount()).isZero();
+    }
+
+    @Test
+    void overlappingKeysCollapsedTest() throws Exception {
+        Future<Map<String, String>> first = executor.submit(() -> singleFlight.executeAll(List.of("a", "b"), keys -> {
+            calls.incrementAndGet();
+            awaitRelease();
+            return toValues(keys);
+        }, Deadline.none()));
+        while (singleFlight.getInFlightCount() < 2) {
+            Thread.sleep(5);
+        }
+
+        // Only the key not already in flight is called for
+        List<String> calledKeys = new ArrayList<>();
+        Future<Map<String, String>> second = executor.submit(() -> singleFlight.executeAll(List.of("b", "c"), keys -> {
+            calls.incrementAndGet();
+            calledKeys.addAll(keys);
+            return toValues(keys);
+        }, Deadline.none()));
+        awaitCollapsed(1);
+        release.countDown();
+
+        assertThat(first.get(10, TimeUnit.SECONDS)).containsOnly(entry("a", "A"), entry("b", "B"));
+        assertThat(second.get(10, TimeUnit.SECONDS)).containsOnly(entry("b", "B"), entry("c", "C"));
+        assertThat(calledKeys).containsExactly("c");
+        assertThat(calls.get()).isEqualTo(2);
+        assertThat(singleFlight.getCollapsedCounts()).containsEntry("b", 1L).hasSize(1);
+        assertThat(singleFlight.getInFlightCount()).isZero();
+    }
+
+    @Test
+    void joinerGivesUpAtOwnDeadlineTest() throws Exception {
+        List<Future<String>> futures = startCallers("simptradmap", 1, () -> {
+            calls.incrementAndGet();
+            release.await();
+            return "map";
+        });
+        while (calls.get() < 1) {
+            Thread.sleep(5);
+        }
+
+        Throwable thrown = catchThrowable(() -> singleFlight.execute("simptradmap", () -> "again", Deadline.after(50)));
+        assertThat(thrown).isInstanceOf(SkritterException.class).hasMessageContaining("simptradmap");
+
+        // The call is left running for its own caller
+        release.countDown();
+        assertThat(futures.get(0).get(10, TimeUnit.SECONDS)).isEqualTo("map");
+        assertThat(calls.get()).isEqualTo(1);
+    }
+
+    private void awaitRelease() {
+        try {
+            release.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SkritterException("Interrupted");
+        }
+    }
+
+    private static Map<String, String> toValues(List<String> keys) {
+        Map<String, String> values = new HashMap<>();
+        keys.forEach(key -> values.put(key, key.toUpperCase()));
+        return values;
+    }
+
+    private interface BlockingCall {
+        String call() throws IOException, InterruptedException;
+    }
+
+    private List<Future<String>> startCallers(String key, int count, BlockingCall call) {
+        List<Future<String>> futures = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            futures.add(executor.submit(() -> singleFlight.execute(key, () -> {
+                try {
+                    return call.call();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SkritterException("Interrupted");
+                }
+            })));
+        }
+        return futures;
+    }
+
+    private void awaitCollapsed(long collapsed) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (singleFlight.getCollapsedCount() < collapsed && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+// MIT License
+//
+// Copyright (c) 2023 David Stone <ds.skritter.export@asif.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.asif.skritter.export;
+
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.core5.http.ClassicHttpRequest;
+import org.apache.hc.core5.http.io.HttpClientResponseHandler;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.apache.hc.core5.http.io.support.ClassicRequestBuilder;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares HTTP/1.1 on the pooled classic client with HTTP/2 on Http2Transport,
+ * sending the same concurrent status polls to a local stand-in server.  Reports
+ * throughput and how many connections each needed.
+ * <p>
+ * Run with: {@code java ... TransportBenchmark [requests] [concurrency] [latencyMillis]}
+ */
+class TransportBenchmark {
+
+    private interface Transport {
+        <T> T execute(ClassicHttpRequest request, HttpClientResponseHandler<T> handler) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int requests = (args.length > 0) ? Integer.parseInt(args[0]) : 2000;
+        int concurrency = (args.length > 1) ? Integer.parseInt(args[1]) : 50;
+        long latencyMillis = (args.length > 2) ? Long.parseLong(args[2]) : 20;
+
+        String json = Util.getJsonResource("batch_get_vocabs_status2.json");
+        HttpClientFactory.PoolSettings settings = new HttpClientFactory.PoolSettings(
+                concurrency, concurrency, 60, 0);
+
+        System.out.printf("%d requests, %d concurrent, %d ms server latency%n", requests, concurrency, latencyMillis);
+
+        try (LocalH2Server server = new LocalH2Server(json, latencyMillis, HttpVersionPolicy.FORCE_HTTP_1);
+             CloseableHttpClient httpClient = HttpClientFactory.build(settings)) {
+            run("HTTP/1.1", server, requests, concurrency, httpClient::execute);
+        }
+
+        try (LocalH2Server server = new LocalH2Server(json, latencyMillis, HttpVersionPolicy.FORCE_HTTP_2);
+             CloseableHttpClient fallbackHttpClient = HttpClientFactory.build(settings);
+             Http2Transport transport = new Http2Transport(fallbackHttpClient)) {
+            run("HTTP/2", server, requests, concurrency, transport::execute);
+        }
+    }
+
+    private static void run(String name, LocalH2Server server, int requests, int concurrency,
+                            Transport transport) throws Exception {
+        // Warm up, then measure
+        send(server, Math.min(requests, concurrency * 4), concurrency, transport);
+        int warmUpConnections = server.getConnectionCount();
+
+        long start = System.nanoTime();
+        send(server, requests, concurrency, transport);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        System.out.printf("%-8s %6d ms  %8.0f requests/s  %3d connections%n", name, elapsedMillis,
+                requests * 1000.0 / Math.max(1, elapsedMillis), Math.max(warmUpConnections, server.getConnectionCount()));
+    }
+
+    private static void send(LocalH2Server server, int requests, int concurrency, Transport transport)
+            throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        try {
+            List<Future<String>> futures = new ArrayList<>();
+            for (int i = 0; i < requests; i++) {
+                ClassicHttpRequest request = ClassicRequestBuilder.get(server.getBaseUrl() + "/api/v0/batch/" + i
+                        + "/status").build();
+                futures.add(executor.submit(() -> transport.execute(request, response -> EntityUtils.toString(response.getEntity()))));
+            }
+            for (Future<String> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
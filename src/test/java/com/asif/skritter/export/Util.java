@@ -37,6 +37,25 @@ public class Util {
                 Util.class.getClassLoader().getResource(fileName)).toURI()));
     }
 
+    /**
+     * A client on the mock, with quick retries and without rate limiting,
+     * hedging or caching.
+     */
+    static ApiClient.Builder apiClientBuilder(HttpClientMock clientMock) {
+        return ApiClient.builder()
+                .bearerToken("fake-token")
+                .httpClient(clientMock)
+                .concurrencyLimiter(ConcurrencyLimiter.adaptive(ConcurrencyLimiter.MAX_CONCURRENT_BATCHES_DEFAULT))
+                .chunkSizer(ChunkSizer.defaults())
+                .pollScheduler(new PollScheduler())
+                .rateLimiter(RateLimiter.unlimited())
+                .retryPolicy(new RetryPolicy(RetryPolicy.MAX_RETRIES_DEFAULT, 10, 100, 0))
+                .hedger(Hedger.disabled())
+                .httpCache(HttpCache.disabled())
+                .wireCapture(WireCapture.disabled())
+                .flights(new ApiClient.Flights());
+    }
+
     static Set<String> getItemIds(HttpClientMock clientMock, ApiClient apiClient)
             throws URISyntaxException, IOException {
         clientMock.onPost(Constants.BATCH_ENDPOINT)
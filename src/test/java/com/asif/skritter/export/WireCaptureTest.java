@@ -0,0 +1,126 @@
+// MIT License
+//
+// Copyright (c) 2023 David Stone <ds.skritter.export@asif.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.asif.skritter.export;
+
+import org.apache.hc.core5.http.ClassicHttpRequest;
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.HttpStatus;
+import org.apache.hc.core5.http.ParseException;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.apache.hc.core5.http.io.entity.StringEntity;
+import org.apache.hc.core5.http.io.support.ClassicRequestBuilder;
+import org.apache.hc.core5.http.message.BasicClassicHttpResponse;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class WireCaptureTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void disabledLeavesResponseAloneTest() {
+        WireCapture wireCapture = WireCapture.disabled();
+        ClassicHttpResponse response = newResponse("{}");
+        StringEntity entity = (StringEntity) response.getEntity();
+
+        wireCapture.record(newRequest("/batch"), response).finish();
+
+        assertThat(wireCapture.isEnabled()).isFalse();
+        assertThat(response.getEntity()).isSameAs(entity);
+        assertThat(wireCapture.getEntryCount()).isZero();
+        assertThat(wireCapture.dump(new SkritterException("failed"))).isNull();
+    }
+
+    @Test
+    void capturedAsReadAndDumpedTest() throws IOException, ParseException {
+        WireCapture wireCapture = new WireCapture(10, 10_000, directory);
+        ClassicHttpRequest request = ClassicRequestBuilder.post("https://legacy.skritter.com/api/v0/batch")
+                .addHeader(HttpHeaders.AUTHORIZATION, "Bearer secret-token")
+                .setEntity(new StringEntity("[{\"path\":\"api/v0/vocabs\"}]", ContentType.APPLICATION_JSON))
+                .build();
+        ClassicHttpResponse response = newResponse("{\"Batch\":{\"id\":\"42\"}}");
+        response.addHeader(HttpHeaders.AUTHORIZATION, "Bearer secret-token");
+
+        WireCapture.Recording recording = wireCapture.record(request, response);
+        // The handler reads the body through the capture
+        assertThat(EntityUtils.toString(response.getEntity())).isEqualTo("{\"Batch\":{\"id\":\"42\"}}");
+        recording.finish();
+
+        Path file = wireCapture.dump(new SkritterException("GET batch data failed"));
+
+        assertThat(file).isNotNull();
+        assertThat(file.getFileName().toString()).startsWith(WireCapture.FILE_PREFIX);
+        String dump = Files.readString(file);
+        assertThat(dump).contains("GET batch data failed", "POST /api/v0/batch",
+                "[{\"path\":\"api/v0/vocabs\"}]", "200", "{\"Batch\":{\"id\":\"42\"}}");
+        assertThat(dump).doesNotContain("secret-token");
+    }
+
+    @Test
+    void oldestDroppedBeyondEntriesTest() {
+        WireCapture wireCapture = new WireCapture(3, 10_000, directory);
+        for (int i = 0; i < 5; i++) {
+            wireCapture.record(newRequest("/batch/" + i), newResponse("{}")).finish();
+        }
+
+        assertThat(wireCapture.getEntryCount()).isEqualTo(3);
+    }
+
+    @Test
+    void oldestDroppedBeyondSizeTest() throws IOException, ParseException {
+        // 100 bytes between 2 entries, so each body is capped at 50 bytes
+        WireCapture wireCapture = new WireCapture(2, 100, directory);
+        ClassicHttpResponse response = newResponse("x".repeat(500));
+
+        WireCapture.Recording recording = wireCapture.record(newRequest("/batch/1"), response);
+        EntityUtils.toString(response.getEntity());
+        recording.finish();
+        assertThat(Files.readString(wireCapture.dump(new SkritterException("failed"))))
+                .contains("x".repeat(50) + "\n[truncated]").doesNotContain("x".repeat(51));
+
+        wireCapture.record(newRequest("/batch/2"), newResponse("y".repeat(500))).finish();
+
+        assertThat(wireCapture.getEntryCount()).isEqualTo(1);
+        String dump = Files.readString(wireCapture.dump(new SkritterException("failed")));
+        assertThat(dump).contains("/batch/2").doesNotContain("/batch/1");
+    }
+
+    private static ClassicHttpRequest newRequest(String path) {
+        return ClassicRequestBuilder.get("https://legacy.skritter.com/api/v0" + path).build();
+    }
+
+    private static ClassicHttpResponse newResponse(String body) {
+        BasicClassicHttpResponse response = new BasicClassicHttpResponse(HttpStatus.SC_OK, "OK");
+        response.setEntity(new StringEntity(body, ContentType.APPLICATION_JSON));
+        return response;
+    }
+}